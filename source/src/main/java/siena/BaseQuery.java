@@ -13,6 +13,7 @@ import com.google.appengine.api.datastore.Key;
 
 import siena.core.async.QueryAsync;
 import siena.core.options.QueryOption;
+import siena.core.options.QueryOptionBatchLoad;
 import siena.core.options.QueryOptionFetchType;
 import siena.embed.JsonSerializer;
 import siena.gae.GaeMappingUtils;
@@ -122,18 +123,22 @@ public class BaseQuery<T> extends BaseQueryData<T> implements Query<T> {
 	}
 
 	public List<T> fetch() {
-	  List<T> l = pm.fetchKeys(this);
-	  if( l.size()>0)
-	    pm.createBatch(this.getQueriedClass()).get(l);
-	  return l;
+		// goes through pm.fetch so that the joins of the query are loaded with the rows
+		return batchLoad(pm.fetch(this));
 	}
 
 	public List<T> fetch(int limit) {
-		return pm.fetch(this, limit);
+		return batchLoad(pm.fetch(this, limit));
 	}
 
 	public List<T> fetch(int limit, Object offset) {
-		return pm.fetch(this, limit, offset);
+		return batchLoad(pm.fetch(this, limit, offset));
+	}
+
+	// the relations of the fetched models are loaded for the whole list with QueryOptionBatchLoad
+	protected List<T> batchLoad(List<T> models) {
+		RelationLoader.attach(pm, models, (QueryOptionBatchLoad)option(QueryOptionBatchLoad.ID));
+		return models;
 	}
 
 	public int count() {
@@ -307,24 +312,13 @@ public class BaseQuery<T> extends BaseQueryData<T> implements Query<T> {
 	@SuppressWarnings("unchecked")
 	public Query<T> restore(String dump, QueryOption... options) {
 		// TODO manage Java object serialization
-		return (Query<T>)JsonSerializer.deserialize(BaseQuery.class, Json.loads(dump));
+		return (Query<T>)JsonSerializer.deserialize(BaseQuery.class, new JsonReader(dump));
 	}
 
 	@SuppressWarnings("unchecked")
 	public Query<T> restore(InputStream is, QueryOption... options) {
 		// TODO manage Java object serialization
-		InputStreamReader st = new InputStreamReader(is);
-		StringBuilder sb = new StringBuilder();
-		char[] buffer = new char[1024];
-		try {
-			while( st.read(buffer) != -1){
-				sb.append(buffer);
-			}
-		} catch (IOException e) {
-			throw new SienaException(e);
-		}
-		
-		return (Query<T>)JsonSerializer.deserialize(BaseQuery.class, Json.loads(sb.toString()));
+		return (Query<T>)JsonSerializer.deserialize(BaseQuery.class, new JsonReader(new InputStreamReader(is)));
 	}
 
 }
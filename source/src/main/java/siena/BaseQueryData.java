@@ -2,13 +2,12 @@ package siena;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import siena.core.QueryFilterEmbedded;
 import siena.core.options.QueryOption;
-import siena.core.options.QueryOptionFetchType;
+import siena.core.options.QueryOptionMap;
 import siena.core.options.QueryOptionOffset;
 import siena.core.options.QueryOptionPage;
 import siena.core.options.QueryOptionState;
@@ -36,16 +35,12 @@ public class BaseQueryData<T> implements QueryData<T> {
 
 	protected Map<Integer, QueryOption> options = defaultOptions();
 	
+	/**
+	 * page, offset, state and fetch type (activated and set to NORMAL) copied from shared defaults 
+	 * only when they are used (see QueryOptionMap)
+	 */
 	public static Map<Integer, QueryOption> defaultOptions() {
-		return new HashMap<Integer, QueryOption>() {
-			private static final long serialVersionUID = -7438657296637379900L;
-			{
-				put(QueryOptionPage.ID, new QueryOptionPage(0));
-				put(QueryOptionOffset.ID, new QueryOptionOffset(0));
-				put(QueryOptionState.ID, new QueryOptionState());
-				//the fetch type is activated by default and set to NORMAL
-				put(QueryOptionFetchType.ID, (new QueryOptionFetchType()).activate());
-			}};	
+		return new QueryOptionMap();
 	}
 	
 	public BaseQueryData() {
@@ -93,8 +88,12 @@ public class BaseQueryData<T> implements QueryData<T> {
 		this.aggregatees = data.aggregatees;
 		this.ownees = data.ownees;
 
-		for(Integer key : data.options.keySet()){
-			this.options.put(key, data.options.get(key));
+		if(data.options instanceof QueryOptionMap){
+			this.options = new QueryOptionMap((QueryOptionMap)data.options);
+		}else {
+			for(Integer key : data.options.keySet()){
+				this.options.put(key, data.options.get(key));
+			}
 		}
 	}
 	
@@ -139,63 +138,12 @@ public class BaseQueryData<T> implements QueryData<T> {
  * PROTECTED FUNCTIONS AVAILABLE FOR BASEQUERY	
  */
 	protected void addFilter(String fieldName, Object value, String[] supportedOperators) {
-		String op = "=";
-		for (String s : supportedOperators) {
-			if(fieldName.endsWith(s)) {
-				op = s;
-				fieldName = fieldName.substring(0, fieldName.length() - op.length());;
-				break;
-			}
-		}
-		fieldName = fieldName.trim();
-		
-		// an embedded field can be a field containing "." or ":"
-		if(fieldName.contains(".")){
-			String[] parts = fieldName.split("\\.");
-			if(parts.length == 0) {
-				throw new SienaException("Filter field cannot have 0 fields to filter"); 
-			}
-			
-			List<Field> fields = new ArrayList<Field>();
-			Class<?> cl = clazz;
-			for(int i=0; i<parts.length; i++) {
-				String fName = parts[i];
-				Field f = Util.getField(cl, fName);
-				if(f==null) {
-					throw new SienaException("Filter field '"+fName+"' not found"); 
-				}
-				
-				fields.add(f);
-				cl = f.getType();
-			}
-						
-			filters.add(new QueryFilterEmbedded(fields, op, ".", value));
-		}else if(fieldName.contains(":")) {
-			String[] parts = fieldName.split("\\.");
-			if(parts.length == 0) {
-				throw new SienaException("Filter field cannot have 0 fields to filter"); 
-			}
-			
-			List<Field> fields = new ArrayList<Field>();
-			Class<?> cl = clazz;
-			for(int i=0; i<parts.length; i++) {
-				String fName = parts[i];
-				Field f = Util.getField(cl, fName);
-				if(f==null) {
-					throw new SienaException("Filter field '"+fName+"' not found"); 
-				}
-				
-				fields.add(f);
-				cl = f.getType();
-			}
-						
-			filters.add(new QueryFilterEmbedded(fields, op, ".", value));
+		// the field (or the path to the embedded field) and the operator are parsed once per filter string
+		ClassInfo.FilterPath path = ClassInfo.getClassInfo(clazz).getFilterPath(fieldName, supportedOperators);
+		if(path.embedded){
+			filters.add(new QueryFilterEmbedded(new ArrayList<Field>(path.fields), path.operator, ".", value));
 		}else {
-			Field field = Util.getField(clazz, fieldName);
-			if(field==null) {
-				throw new SienaException("Filter field '"+fieldName+"' not found"); 
-			}
-			filters.add(new QueryFilterSimple(field, op, value));
+			filters.add(new QueryFilterSimple(path.fields.get(0), path.operator, value));
 		}
 	}
 	
@@ -206,7 +154,7 @@ public class BaseQueryData<T> implements QueryData<T> {
 			fieldName = fieldName.substring(1);
 			ascending = false;
 		}
-		Field field = Util.getField(clazz, fieldName);
+		Field field = ClassInfo.getField(clazz, fieldName);
 		if(field==null) {
 			throw new SienaException("Order field '"+fieldName+"' not found"); 
 		}
@@ -226,32 +174,30 @@ public class BaseQueryData<T> implements QueryData<T> {
 	}
 	
 	protected void addJoin(String fieldName, String... sortFields) {
-		try {
-			Field field = Util.getField(clazz, fieldName);
-			joins.add(new QueryJoin(field, sortFields));
-			// add immediately orders to keep order of orders 
-			// sets joined field as parent field to manage order on the right joined table for ex
-			for(String sortFieldName: sortFields){
-				boolean ascending = true;
-				
-				if(sortFieldName.startsWith("-")) {
-					sortFieldName = sortFieldName.substring(1);
-					ascending = false;
-				}
-				try {
-					Field sortField = field.getType().getField(sortFieldName);
-					orders.add(new QueryOrder(sortField, ascending, field));
-				} catch(NoSuchFieldException ex){
-					throw new SienaException("Join not possible: join sort field "+sortFieldName+" is not a known field of "+fieldName, ex);
-				}
+		Field field = ClassInfo.getField(clazz, fieldName);
+		if(field==null) {
+			throw new SienaException("Join field '"+fieldName+"' not found"); 
+		}
+		joins.add(new QueryJoin(field, sortFields));
+		// add immediately orders to keep order of orders 
+		// sets joined field as parent field to manage order on the right joined table for ex
+		for(String sortFieldName: sortFields){
+			boolean ascending = true;
+			
+			if(sortFieldName.startsWith("-")) {
+				sortFieldName = sortFieldName.substring(1);
+				ascending = false;
+			}
+			Field sortField = ClassInfo.getField(field.getType(), sortFieldName);
+			if(sortField==null) {
+				throw new SienaException("Join not possible: join sort field "+sortFieldName+" is not a known field of "+fieldName);
 			}
-		} catch(Exception e) {
-			throw new SienaException(e);
+			orders.add(new QueryOrder(sortField, ascending, field));
 		}
 	}
 	
 	protected void addAggregated(Object aggregator, String fieldName){
-		Field field = Util.getField(aggregator.getClass(), fieldName);
+		Field field = ClassInfo.getField(aggregator.getClass(), fieldName);
 		// removes existing aggregatee (not very nice I know :) )
 		if(!aggregatees.isEmpty()) aggregatees.remove(0);
 		aggregatees.add(0, new QueryAggregated(aggregator, field));
@@ -263,7 +209,7 @@ public class BaseQueryData<T> implements QueryData<T> {
 	}
 	
 	protected void addOwned(Object owner, String fieldName){
-		Field field = Util.getField(this.getQueriedClass(), fieldName);
+		Field field = ClassInfo.getField(this.getQueriedClass(), fieldName);
 		// removes existing ownee (not very nice I know :) )
 		if(!ownees.isEmpty()) ownees.remove(0);
 		ownees.add(0, new QueryOwned(owner, field));
@@ -32,7 +32,9 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import siena.core.Aggregated;
 import siena.core.Aggregator;
+import siena.core.FieldAccessor;
 import siena.core.InheritFilter;
+import siena.core.Instantiator;
 import siena.core.Many;
 import siena.core.One;
 import siena.core.Owned;
@@ -46,6 +48,8 @@ import siena.embed.Embedded;
 public class ClassInfo {
 	
 	protected static Map<Class<?>, ClassInfo> infoClasses = new ConcurrentHashMap<Class<?>, ClassInfo>();
+	// name -> field of a class and its superclasses built once per class (see getField)
+	protected static Map<Class<?>, Map<String, Field>> fieldIndexes = new ConcurrentHashMap<Class<?>, Map<String, Field>>();
 	
 	public Class<?> clazz;
 	
@@ -69,12 +73,20 @@ public class ClassInfo {
 	public Map<Field, Map<FieldMapKeys, Object>> queryFieldMap = new HashMap<Field, Map<FieldMapKeys, Object>>();
 	public Map<Field, Map<FieldMapKeys, Object>> manyFieldMap = new HashMap<Field, Map<FieldMapKeys, Object>>();
 	public Map<Field, Map<FieldMapKeys, Object>> oneFieldMap = new HashMap<Field, Map<FieldMapKeys, Object>>();
+	// the Query, Many and One fields of the 3 maps above resolved once for Model.init()
+	public RelationField[] relationFields;
 
 	// this aggregator field is the field identified as containing the aggregator
 	// there can be only ONE aggregator in a class
 	public Field aggregator = null;
 	public boolean hasAggregator = false;
 	
+	public Instantiator<?> instantiator;
+
+	// the filters already parsed by field (or "embedded.field" path) and by operator:
+	// only the existing fields are kept so there are no more entries than fields and operators
+	protected Map<String, Map<String, FilterPath>> filterPaths = new ConcurrentHashMap<String, Map<String, FilterPath>>();
+	
 	public enum FieldMapKeys {
 		CLASS,
 		MODE,
@@ -149,6 +161,67 @@ public class ClassInfo {
 			
 			buildLifecycleMethods(c);
         }
+        
+        buildAccessors();
+	}
+
+	private void buildAccessors() {
+		instantiator = Instantiator.of(clazz);
+		
+		List<RelationField> relations = new ArrayList<RelationField>();
+		for(Map.Entry<Field, Map<FieldMapKeys, Object>> entry: queryFieldMap.entrySet()){
+			relations.add(new RelationField(Query.class, entry.getKey(), entry.getValue()));
+		}
+		for(Map.Entry<Field, Map<FieldMapKeys, Object>> entry: manyFieldMap.entrySet()){
+			relations.add(new RelationField(Many.class, entry.getKey(), entry.getValue()));
+		}
+		for(Map.Entry<Field, Map<FieldMapKeys, Object>> entry: oneFieldMap.entrySet()){
+			relations.add(new RelationField(One.class, entry.getKey(), entry.getValue()));
+		}
+		relationFields = relations.toArray(new RelationField[relations.size()]);
+	}
+	
+	/**
+	 * A Query, Many or One field of a model with everything its proxy needs so that
+	 * Model.init() only creates the proxy and sets it through the accessor.
+	 * A proxy only holds the descriptor and its model and creates the real Query/Many/One on first access.
+	 */
+	public static class RelationField {
+		// Query.class, Many.class or One.class
+		public final Class<?> kind;
+		public final Field field;
+		public final FieldAccessor accessor;
+		// the related class
+		public final Class<?> clazz;
+		public final RelationMode mode;
+		// the field of the related class targeted by the relation (the field itself in aggregation mode)
+		public final Field target;
+		public final String filter;
+
+		RelationField(Class<?> kind, Field field, Map<FieldMapKeys, Object> map) {
+			this.kind = kind;
+			this.field = field;
+			this.accessor = FieldAccessor.of(field);
+			this.clazz = (Class<?>)map.get(FieldMapKeys.CLASS);
+			this.mode = (RelationMode)map.get(FieldMapKeys.MODE);
+			this.target = mode == RelationMode.AGGREGATION ? field : (Field)map.get(FieldMapKeys.FIELD);
+			this.filter = (String)map.get(FieldMapKeys.FILTER);
+		}
+	}
+
+	/**
+	 * A filter of a query parsed once: its operator and its field or the path to its embedded field.
+	 */
+	public static class FilterPath {
+		public final String operator;
+		public final List<Field> fields;
+		public final boolean embedded;
+
+		FilterPath(String operator, List<Field> fields, boolean embedded) {
+			this.operator = operator;
+			this.fields = Collections.unmodifiableList(fields);
+			this.embedded = embedded;
+		}
 	}
 
 	private void buildId(Field field){
@@ -763,6 +836,106 @@ public class ClassInfo {
 		return infoClasses.get(clazz);
 	}
 	
+	/**
+	 * The field named fieldName in the class or its superclasses (the subclass field hides the superclass one)
+	 * or null if it doesn't exist.
+	 * The fields are indexed once per class so that a query doesn't look for them through exceptions.
+	 */
+	public static Field getField(Class<?> clazz, String fieldName) {
+		Map<String, Field> index = fieldIndexes.get(clazz);
+		if(index == null) {
+			index = new HashMap<String, Field>();
+			for(Class<?> cl = clazz; cl != null; cl = cl.getSuperclass()) {
+				for(Field field : cl.getDeclaredFields()) {
+					if(!index.containsKey(field.getName())) {
+						index.put(field.getName(), field);
+					}
+				}
+			}
+			index = Collections.unmodifiableMap(index);
+			fieldIndexes.put(clazz, index);
+		}
+		return index.get(fieldName);
+	}
+
+	/**
+	 * Parses a filter such as "name", "age >" or "contact.city IN" with the operators of a persistence manager.
+	 * The operators are tried in the order of supportedOperators and "=" is used if none ends the filter.
+	 * The result is cached by field and by operator.
+	 */
+	public FilterPath getFilterPath(String filter, String[] supportedOperators) {
+		String op = "=";
+		String fieldName = filter;
+		for (String s : supportedOperators) {
+			if(fieldName.endsWith(s)) {
+				op = s;
+				fieldName = fieldName.substring(0, fieldName.length() - op.length());
+				break;
+			}
+		}
+		fieldName = fieldName.trim();
+
+		Map<String, FilterPath> paths = filterPaths.get(fieldName);
+		FilterPath path = paths != null ? paths.get(op) : null;
+		if(path == null) {
+			// throws before caching anything if the field doesn't exist
+			path = parseFilter(fieldName, op);
+			if(paths == null) {
+				paths = new ConcurrentHashMap<String, FilterPath>();
+				filterPaths.put(fieldName, paths);
+			}
+			paths.put(op, path);
+		}
+		return path;
+	}
+
+	private FilterPath parseFilter(String fieldName, String op) {
+		List<Field> fields = new ArrayList<Field>();
+		// an embedded field is a path of fields separated by "."
+		if(fieldName.indexOf('.') != -1) {
+			// like String.split, the trailing empty parts are ignored
+			int end = fieldName.length();
+			while(end > 0 && fieldName.charAt(end - 1) == '.') end--;
+			if(end == 0) {
+				throw new SienaException("Filter field cannot have 0 fields to filter");
+			}
+			Class<?> cl = clazz;
+			int start = 0;
+			while(start <= end) {
+				int dot = fieldName.indexOf('.', start);
+				if(dot == -1 || dot > end) dot = end;
+				String fName = fieldName.substring(start, dot);
+				Field f = getField(cl, fName);
+				if(f == null) {
+					throw new SienaException("Filter field '"+fName+"' not found");
+				}
+				fields.add(f);
+				cl = f.getType();
+				start = dot + 1;
+			}
+			return new FilterPath(op, fields, true);
+		}
+
+		Field field = getField(clazz, fieldName);
+		if(field == null) {
+			throw new SienaException("Filter field '"+fieldName+"' not found");
+		}
+		fields.add(field);
+		return new FilterPath(op, fields, false);
+	}
+
+	/**
+	 * @return the accessor of the field from the cache of FieldAccessor (the field may be one of another class)
+	 */
+	public FieldAccessor getAccessor(Field field){
+		return FieldAccessor.of(field);
+	}
+	
+	@SuppressWarnings("unchecked")
+	public <T> T newInstance(){
+		return (T)instantiator.newInstance();
+	}
+	
 	public List<Method> getLifeCycleMethod(LifeCyclePhase lcp){
 		return lifecycleMethods.get(lcp);
 	}
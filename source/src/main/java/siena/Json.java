@@ -17,9 +17,6 @@ package siena;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.Reader;
-import java.io.StringReader;
-import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
@@ -280,101 +277,49 @@ public class Json implements Iterable<Json> {
 		return size() == 0;
 	}
 	
-	private void formatString(Writer writer, String s) throws IOException {
-		writer.write('\"');
-		for(int i=0; i<s.length(); i++) {
-			char c = s.charAt(i);
-			switch(c) {
-			case '\\':
-			case '\"':
-			case '/':
-				writer.write('\\');
-				writer.write(c);
-				break;
-			case '\b':
-				writer.write("\\b");
-				break;
-			case '\f':
-				writer.write("\\f");
-				break;
-			case '\n':
-				writer.write("\\n");
-				break;
-			case '\r':
-				writer.write("\\r");
-				break;
-			case '\t':
-				writer.write("\\t");
-				break;
-			default:
-				writer.write(c);
-			}
-		}
-		writer.write("\"");
-	}
-	
 	public void format(Writer writer, Object o) throws IOException {
-		if(o instanceof String)
-			formatString(writer, (String) o);
-		else
-			writer.write(o.toString());
+		JsonWriter jsonWriter = new JsonWriter(writer);
+		jsonWriter.value(o);
+		jsonWriter.flush();
 	}
 	
 	public String toString() {
-		StringWriter writer = new StringWriter();
-		try {
-			write(writer);
-		} catch (IOException e) {
-			// Should never happen
-			throw new SienaException(e);
-		}
-		return writer.toString();
+		StringBuilder builder = new StringBuilder();
+		JsonWriter writer = new JsonWriter(builder);
+		write(writer);
+		writer.flush();
+		return builder.toString();
 	}
 	
 	public void write(Writer writer) throws IOException {
+		JsonWriter jsonWriter = new JsonWriter(writer);
+		write(jsonWriter);
+		jsonWriter.flush();
+	}
+	
+	public void write(JsonWriter writer) {
 		if(object != null) {
-			format(writer, object);
+			writer.value(object);
 			return;
 		}
 		if(map != null) {
-			if(map.isEmpty()) {
-				writer.write("{}");
-				return;
-			}
-			writer.write("{");
-			boolean first = true;
+			writer.beginObject();
 			for (Map.Entry<String, Json> entry : map.entrySet()) {
-				if(!first) {
-					writer.write(", ");
-				} else {
-					first = false;
-				}
-				formatString(writer, entry.getKey());
-				writer.write(": ");
+				writer.name(entry.getKey());
 				entry.getValue().write(writer);
 			}
-			writer.write("}");
+			writer.endObject();
 			return;
 		}
 		if(list != null) {
-			if(list.isEmpty()) {
-				writer.write("[]");
-				return;
-			}
-			writer.write("[");
-			boolean first = true;
+			writer.beginArray();
 			for (Json obj : list) {
-				if(!first) {
-					writer.write(", ");
-				} else {
-					first = false;
-				}
 				obj.write(writer);
 			}
-			writer.write("]");
+			writer.endArray();
 			return;
 		}
-		writer.write("null");
+		writer.nullValue();
 	}
 	
 	@Override
@@ -508,6 +453,11 @@ public class Json implements Iterable<Json> {
 		return object != null && object instanceof Number;
 	}
 	
+	public boolean isIntegral() {
+		return object instanceof Long || object instanceof Integer
+				|| object instanceof Short || object instanceof Byte;
+	}
+	
 	public boolean isBoolean() {
 		return object != null && object instanceof Boolean;
 	}
@@ -546,189 +496,11 @@ public class Json implements Iterable<Json> {
 	}
 	
 	public static Json loads(String s) {
-		return new Parser(s).parse();
+		return new JsonReader(s).readJson();
 	}
 	
 	public static Json load(BufferedReader reader) {
-		return new Parser(reader).parse();
-	}
-	
-} class Parser {
-	
-	private int n;
-	private Reader s;
-	private char last;
-	private boolean more;
-	
-	public Parser(String s) {
-		this.s = new StringReader(s);
-	}
-	
-	public Parser(BufferedReader reader) {
-		this.s = reader;
-	}
-	
-	public Json parse() {
-		// TODO: try catch with information of position "n".
-		// TODO: reached EOF
-		try {
-			get();
-			return next();
-		} catch(IOException e) {
-			throw new SienaException(e);
-		}
-	}
-	
-	private Json next() throws IOException {
-		char c = last;
-		if(c == '\"') {
-			String s = "";
-			do {
-				c = getc();
-				if(c == '\\') {
-					c = getc();
-					switch(c) {
-					case 'b':
-						s+='\b';
-						break;
-					case 'f':
-						s+='\f';
-						break;
-					case 'n':
-						s+='\n';
-						break;
-					case 'r':
-						s+='\r';
-						break;
-					case 't':
-						s+='\t';
-						break;
-					case '\"':
-						s+='\"';
-						break;
-					case '\\':
-						s+='\\';
-						break;
-					case '/':
-						s+='/';
-						break;
-					case 'u':
-						char u = (char) (Integer.parseInt(
-								new String(new char[]{
-										getc(), getc(), getc(), getc()}), 16));
-						s+=u;
-						break;
-					default:
-						throw new SienaException("Invalid escape character: \\"+c+" at position "+n);
-					}
-				} else if(c == '\"') {
-					if(more()) get();
-					return new Json(s);
-				} else {
-					s += c;
-				}
-			} while(true);
-		} else if(c == '[') {
-			Json result = Json.list();
-			get();
-			c = ignoreWS();
-			if(c == ']') {
-				if(more()) get();
-				return result;
-			}
-			do {
-				result.add(next());
-				c = ignoreWS();
-				if(c == ']') {
-					if(more()) get();
-					return result;
-				}
-				if(c != ',') throw new SienaException("expected ',' or ']' at character "+n);
-				get();
-				c = ignoreWS();
-			} while(true);
-		} else if(c == '{') {
-			Json result = Json.map();
-			get();
-			c = ignoreWS();
-			if(c == '}') {
-				if(more()) get();
-				return result;
-			}
-			do {
-				Json k = next();
-				if(!k.isString())
-					throw new SienaException("find non-string key at character "+n);
-				String key = k.str();
-				c = ignoreWS();
-				if(c != ':') throw new SienaException("expected ':' at character "+n);
-				get();
-				c = ignoreWS();
-				Json value = next();
-				result.put(key, value);
-				c = ignoreWS();
-				if(c == '}') {
-					if(more()) get();
-					return result;
-				}
-				if(c != ',') throw new SienaException("expected: ',' or '}'' at character "+n);
-				get();
-				c = ignoreWS();
-			} while(true);
-		} else if(c == 't') {
-			if(getc() != 'r' || getc() != 'u' || getc() != 'e')
-				throw new SienaException("expected 'true' at character "+n);
-			if(more()) get();
-			return new Json(Boolean.TRUE);
-		} else if(c == 'f') {
-			if(getc() != 'a' || getc() != 'l' || getc() != 's' || getc() != 'e')
-				throw new SienaException("expected 'false' at character "+n);
-			if(more()) get();
-			return new Json(Boolean.FALSE);
-		} else if(c == 'n') {
-			if(getc() != 'u' || getc() != 'l' || getc() != 'l')
-				throw new SienaException("expected 'true' at character "+n);
-			if(more()) get();
-			return new Json(null);
-		} else if(c == '-' || (c >= '0' && c <= '9')) {
-			String s = "";
-			boolean d = false;
-			do {
-				s+=c;
-				if(!more()) break;
-				c = getc();
-				if(c == '.' || c == 'e' || c == 'E') d = true;
-			} while((c >= '0' && c <= '9') || c == 'e' ||
-					c == 'E' || c == '.' || c == '+' || c == '-');
-			if(d)
-				return new Json(Double.parseDouble(s));
-			return new Json(Long.parseLong(s));
-		} else {
-			throw new SienaException("expected: '{', '[', '\"', true, false, null, or a number at "+n);
-		}
-	}
-	
-	private char ignoreWS() throws IOException {
-		char c = last;
-		while(c == ' ' || c == '\n' || c == '\r' || c == '\t') {
-			c = getc();
-		}
-		return c;
-	}
-	
-	private void get() throws IOException {
-		int r = s.read();
-		n++;
-		more = r != -1;
-		last = (char) r;
-	}
-	
-	private boolean more() {
-		return more;
-	}
-	
-	private char getc() throws IOException {
-		get(); return last;
+		return new JsonReader(reader).readJson();
 	}
 	
 }
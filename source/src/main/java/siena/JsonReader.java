@@ -0,0 +1,512 @@
+package siena;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A pull tokenizer of JSON text.
+ *
+ * The text is scanned in a char buffer filled from the Reader (or directly in the chars of a String):
+ * strings without escapes are created in one copy from the buffer and the integers are parsed
+ * from the chars into a long, without intermediate String.
+ * Only the first value of the text is read like Json.loads always did: what follows it is ignored.
+ *
+ * <pre>
+ * JsonReader reader = new JsonReader("{\"name\": \"foo\", \"ids\": [1, 2]}");
+ * reader.beginObject();
+ * while(reader.hasNext()) {
+ *     String name = reader.nextName();
+ *     ...
+ * }
+ * reader.endObject();
+ * </pre>
+ */
+public class JsonReader {
+	public enum Token {
+		BEGIN_OBJECT,
+		END_OBJECT,
+		BEGIN_ARRAY,
+		END_ARRAY,
+		NAME,
+		STRING,
+		NUMBER,
+		BOOLEAN,
+		NULL,
+		END_DOCUMENT
+	}
+
+	private static final int BUFFER_SIZE = 1024;
+
+	// the scopes of the stack
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_ARRAY = 2;
+	private static final int NONEMPTY_ARRAY = 3;
+	private static final int EMPTY_OBJECT = 4;
+	private static final int NONEMPTY_OBJECT = 5;
+	// a name has been read, its value is expected
+	private static final int DANGLING_NAME = 6;
+
+	private Reader in;
+	private char[] buf;
+	private int pos;
+	private int limit;
+	// the number of chars before buf[0] (positions of the errors)
+	private int consumed;
+
+	private int[] stack = new int[16];
+	private int depth;
+
+	private Token peeked;
+	private String peekedString;
+	private boolean peekedBoolean;
+	private boolean peekedIntegral;
+	private long peekedLong;
+	private double peekedDouble;
+
+	public JsonReader(Reader in) {
+		this.in = in;
+		this.buf = new char[BUFFER_SIZE];
+		push(EMPTY_DOCUMENT);
+	}
+
+	public JsonReader(String s) {
+		this.buf = s.toCharArray();
+		this.limit = buf.length;
+		push(EMPTY_DOCUMENT);
+	}
+
+	public Token peek() {
+		if(peeked != null) {
+			return peeked;
+		}
+		try {
+			return peeked = doPeek();
+		} catch(IOException e) {
+			throw new SienaException(e);
+		}
+	}
+
+	public boolean hasNext() {
+		Token t = peek();
+		return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END_DOCUMENT;
+	}
+
+	public void beginObject() {
+		expect(Token.BEGIN_OBJECT);
+		peeked = null;
+	}
+
+	public void endObject() {
+		expect(Token.END_OBJECT);
+		depth--;
+		peeked = null;
+	}
+
+	public void beginArray() {
+		expect(Token.BEGIN_ARRAY);
+		peeked = null;
+	}
+
+	public void endArray() {
+		expect(Token.END_ARRAY);
+		depth--;
+		peeked = null;
+	}
+
+	public String nextName() {
+		expect(Token.NAME);
+		peeked = null;
+		return peekedString;
+	}
+
+	public String nextString() {
+		expect(Token.STRING);
+		peeked = null;
+		return peekedString;
+	}
+
+	public boolean nextBoolean() {
+		expect(Token.BOOLEAN);
+		peeked = null;
+		return peekedBoolean;
+	}
+
+	public void nextNull() {
+		expect(Token.NULL);
+		peeked = null;
+	}
+
+	/**
+	 * true if the next token is a number without '.', 'e' or 'E'
+	 */
+	public boolean isIntegral() {
+		return peek() == Token.NUMBER && peekedIntegral;
+	}
+
+	public long nextLong() {
+		expect(Token.NUMBER);
+		peeked = null;
+		return peekedIntegral ? peekedLong : (long)peekedDouble;
+	}
+
+	public double nextDouble() {
+		expect(Token.NUMBER);
+		peeked = null;
+		return peekedIntegral ? (double)peekedLong : peekedDouble;
+	}
+
+	public void skipValue() {
+		int count = 0;
+		do {
+			switch(peek()) {
+			case BEGIN_OBJECT:
+				beginObject();
+				count++;
+				break;
+			case BEGIN_ARRAY:
+				beginArray();
+				count++;
+				break;
+			case END_OBJECT:
+				endObject();
+				count--;
+				break;
+			case END_ARRAY:
+				endArray();
+				count--;
+				break;
+			case END_DOCUMENT:
+				throw syntaxError("unexpected end of the text");
+			default:
+				peeked = null;
+			}
+		} while(count != 0);
+	}
+
+	/**
+	 * reads the next value as a Json tree (Long for the integers and Double for the other numbers)
+	 */
+	public Json readJson() {
+		switch(peek()) {
+		case BEGIN_OBJECT:
+			Json map = Json.map();
+			beginObject();
+			while(hasNext()) {
+				String key = nextName();
+				map.put(key, readJson());
+			}
+			endObject();
+			return map;
+		case BEGIN_ARRAY:
+			Json list = Json.list();
+			beginArray();
+			while(hasNext()) {
+				list.add(readJson());
+			}
+			endArray();
+			return list;
+		case STRING:
+			return new Json(nextString());
+		case NUMBER:
+			if(peekedIntegral) {
+				return new Json(nextLong());
+			}
+			return new Json(nextDouble());
+		case BOOLEAN:
+			return new Json(nextBoolean() ? Boolean.TRUE : Boolean.FALSE);
+		case NULL:
+			nextNull();
+			return new Json(null);
+		default:
+			throw syntaxError("expected: '{', '[', '\"', true, false, null, or a number");
+		}
+	}
+
+	private void expect(Token token) {
+		if(peek() != token) {
+			throw syntaxError("expected "+token+" but found "+peeked);
+		}
+	}
+
+	private Token doPeek() throws IOException {
+		int scope = stack[depth - 1];
+		char c;
+		switch(scope) {
+		case EMPTY_ARRAY:
+			stack[depth - 1] = NONEMPTY_ARRAY;
+			c = nextNonWhitespace();
+			if(c == ']') {
+				pos++;
+				return Token.END_ARRAY;
+			}
+			return peekValue();
+		case NONEMPTY_ARRAY:
+			c = nextNonWhitespace();
+			if(c == ']') {
+				pos++;
+				return Token.END_ARRAY;
+			}
+			if(c != ',') throw syntaxError("expected ',' or ']'");
+			pos++;
+			return peekValue();
+		case EMPTY_OBJECT:
+		case NONEMPTY_OBJECT:
+			c = nextNonWhitespace();
+			if(c == '}') {
+				pos++;
+				return Token.END_OBJECT;
+			}
+			if(scope == NONEMPTY_OBJECT) {
+				if(c != ',') throw syntaxError("expected: ',' or '}'");
+				pos++;
+				c = nextNonWhitespace();
+			}
+			if(c != '"') throw syntaxError("find non-string key");
+			pos++;
+			peekedString = readString();
+			stack[depth - 1] = DANGLING_NAME;
+			return Token.NAME;
+		case DANGLING_NAME:
+			c = nextNonWhitespace();
+			if(c != ':') throw syntaxError("expected ':'");
+			pos++;
+			stack[depth - 1] = NONEMPTY_OBJECT;
+			return peekValue();
+		case EMPTY_DOCUMENT:
+			stack[depth - 1] = NONEMPTY_DOCUMENT;
+			return peekValue();
+		default:
+			return Token.END_DOCUMENT;
+		}
+	}
+
+	private Token peekValue() throws IOException {
+		char c = nextNonWhitespace();
+		switch(c) {
+		case '{':
+			pos++;
+			push(EMPTY_OBJECT);
+			return Token.BEGIN_OBJECT;
+		case '[':
+			pos++;
+			push(EMPTY_ARRAY);
+			return Token.BEGIN_ARRAY;
+		case '"':
+			pos++;
+			peekedString = readString();
+			return Token.STRING;
+		case 't':
+			readKeyword("true");
+			peekedBoolean = true;
+			return Token.BOOLEAN;
+		case 'f':
+			readKeyword("false");
+			peekedBoolean = false;
+			return Token.BOOLEAN;
+		case 'n':
+			readKeyword("null");
+			return Token.NULL;
+		default:
+			if(c == '-' || (c >= '0' && c <= '9')) {
+				readNumber();
+				return Token.NUMBER;
+			}
+			throw syntaxError("expected: '{', '[', '\"', true, false, null, or a number");
+		}
+	}
+
+	private void push(int scope) {
+		if(depth == stack.length) {
+			int[] newStack = new int[depth * 2];
+			System.arraycopy(stack, 0, newStack, 0, depth);
+			stack = newStack;
+		}
+		stack[depth++] = scope;
+	}
+
+	/**
+	 * makes the chars from pos to pos+n-1 available in the buffer
+	 * @return false if the end of the text is reached before
+	 */
+	private boolean fill(int n) throws IOException {
+		if(pos + n <= limit) {
+			return true;
+		}
+		if(in == null) {
+			return false;
+		}
+		// keeps the chars not read yet at the beginning of the buffer
+		consumed += pos;
+		if(limit != pos) {
+			System.arraycopy(buf, pos, buf, 0, limit - pos);
+		}
+		limit -= pos;
+		pos = 0;
+		if(n > buf.length) {
+			char[] newBuf = new char[Math.max(n, buf.length * 2)];
+			System.arraycopy(buf, 0, newBuf, 0, limit);
+			buf = newBuf;
+		}
+		while(limit < n) {
+			int read = in.read(buf, limit, buf.length - limit);
+			if(read == -1) {
+				return false;
+			}
+			limit += read;
+		}
+		return true;
+	}
+
+	private char nextNonWhitespace() throws IOException {
+		while(pos < limit || fill(1)) {
+			char c = buf[pos];
+			if(c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+				return c;
+			}
+			pos++;
+		}
+		throw syntaxError("unexpected end of the text");
+	}
+
+	private void readKeyword(String keyword) throws IOException {
+		int n = keyword.length();
+		if(!fill(n)) {
+			throw syntaxError("expected '"+keyword+"'");
+		}
+		for(int i = 0; i < n; i++) {
+			if(buf[pos + i] != keyword.charAt(i)) {
+				throw syntaxError("expected '"+keyword+"'");
+			}
+		}
+		pos += n;
+	}
+
+	// the opening quote has been read
+	private String readString() throws IOException {
+		StringBuilder builder = null;
+		do {
+			int start = pos;
+			while(pos < limit) {
+				char c = buf[pos++];
+				if(c == '"') {
+					if(builder == null) {
+						return new String(buf, start, pos - start - 1);
+					}
+					builder.append(buf, start, pos - start - 1);
+					return builder.toString();
+				}
+				if(c == '\\') {
+					if(builder == null) {
+						builder = new StringBuilder(Math.max(16, (pos - start) * 2));
+					}
+					builder.append(buf, start, pos - start - 1);
+					builder.append(readEscape());
+					start = pos;
+				}
+			}
+			if(builder == null) {
+				builder = new StringBuilder(Math.max(16, (pos - start) * 2));
+			}
+			builder.append(buf, start, pos - start);
+		} while(fill(1));
+		throw syntaxError("unterminated string");
+	}
+
+	// the backslash has been read
+	private char readEscape() throws IOException {
+		if(!fill(1)) {
+			throw syntaxError("unterminated escape sequence");
+		}
+		char c = buf[pos++];
+		switch(c) {
+		case 'b':
+			return '\b';
+		case 'f':
+			return '\f';
+		case 'n':
+			return '\n';
+		case 'r':
+			return '\r';
+		case 't':
+			return '\t';
+		case '"':
+		case '\\':
+		case '/':
+			return c;
+		case 'u':
+			if(!fill(4)) {
+				throw syntaxError("unterminated escape sequence");
+			}
+			int u = 0;
+			for(int i = 0; i < 4; i++) {
+				int digit = Character.digit(buf[pos++], 16);
+				if(digit == -1) {
+					throw syntaxError("invalid unicode escape sequence");
+				}
+				u = (u << 4) + digit;
+			}
+			return (char)u;
+		default:
+			throw new SienaException("Invalid escape character: \\"+c+" at position "+position());
+		}
+	}
+
+	// the chars of a number are the ones Json.loads has always accepted
+	private void readNumber() throws IOException {
+		int i = 0;
+		boolean integral = true;
+		while(true) {
+			if(pos + i == limit && !fill(i + 1)) {
+				break;
+			}
+			char c = buf[pos + i];
+			if(c == '.' || c == 'e' || c == 'E') {
+				integral = false;
+			} else if(!((c >= '0' && c <= '9') || c == '+' || c == '-')) {
+				break;
+			}
+			i++;
+		}
+
+		peekedIntegral = integral;
+		if(integral) {
+			peekedLong = parseLong(buf, pos, i);
+		} else {
+			peekedDouble = Double.parseDouble(new String(buf, pos, i));
+		}
+		pos += i;
+	}
+
+	private static long parseLong(char[] chars, int offset, int len) {
+		boolean negative = chars[offset] == '-';
+		int i = negative ? 1 : 0;
+		// the digits are accumulated as a negative number which can hold Long.MIN_VALUE
+		long result = 0;
+		if(i < len) {
+			for(; i < len; i++) {
+				int digit = chars[offset + i] - '0';
+				if(digit < 0 || digit > 9 || result < (Long.MIN_VALUE + digit) / 10) {
+					// not a plain integer: the error is the one of Long.parseLong
+					return Long.parseLong(new String(chars, offset, len));
+				}
+				result = result * 10 - digit;
+			}
+			if(negative) {
+				return result;
+			}
+			if(result != Long.MIN_VALUE) {
+				return -result;
+			}
+		}
+		return Long.parseLong(new String(chars, offset, len));
+	}
+
+	private int position() {
+		return consumed + pos;
+	}
+
+	private SienaException syntaxError(String message) {
+		return new SienaException(message+" at character "+position());
+	}
+}
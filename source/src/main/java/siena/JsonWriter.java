@@ -0,0 +1,254 @@
+package siena;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes JSON text in a char buffer flushed into a Writer or a StringBuilder.
+ *
+ * The separators and the escaping are the ones of Json.write: <code>{"k": v, "k2": v2}</code>
+ * and <code>[a, b]</code>. The integers are written digit by digit in the buffer without
+ * creating any String.
+ * Nothing reaches the target before flush() is called.
+ */
+public class JsonWriter {
+	private static final int BUFFER_SIZE = 1024;
+
+	// the scopes of the stack
+	private static final int EMPTY = 0;
+	private static final int NONEMPTY = 1;
+	// a name has been written in the object, its value is expected
+	private static final int DANGLING_NAME = 2;
+
+	private Writer out;
+	private StringBuilder builder;
+	private char[] buf = new char[BUFFER_SIZE];
+	private int pos;
+
+	private int[] stack = new int[16];
+	private int depth;
+
+	public JsonWriter(Writer out) {
+		this.out = out;
+		push(EMPTY);
+	}
+
+	public JsonWriter(StringBuilder builder) {
+		this.builder = builder;
+		push(EMPTY);
+	}
+
+	public JsonWriter beginObject() {
+		beforeValue();
+		write('{');
+		push(EMPTY);
+		return this;
+	}
+
+	public JsonWriter endObject() {
+		depth--;
+		write('}');
+		return this;
+	}
+
+	public JsonWriter beginArray() {
+		beforeValue();
+		write('[');
+		push(EMPTY);
+		return this;
+	}
+
+	public JsonWriter endArray() {
+		depth--;
+		write(']');
+		return this;
+	}
+
+	public JsonWriter name(String name) {
+		if(stack[depth - 1] == NONEMPTY) {
+			write(',');
+			write(' ');
+		}
+		writeString(name);
+		write(':');
+		write(' ');
+		stack[depth - 1] = DANGLING_NAME;
+		return this;
+	}
+
+	public JsonWriter value(String value) {
+		if(value == null) {
+			return nullValue();
+		}
+		beforeValue();
+		writeString(value);
+		return this;
+	}
+
+	public JsonWriter value(long value) {
+		beforeValue();
+		writeLong(value);
+		return this;
+	}
+
+	public JsonWriter value(double value) {
+		beforeValue();
+		writeRaw(Double.toString(value));
+		return this;
+	}
+
+	public JsonWriter value(boolean value) {
+		beforeValue();
+		writeRaw(value ? "true" : "false");
+		return this;
+	}
+
+	/**
+	 * writes the value like Json.write always did: a String is escaped,
+	 * any other object is written with its toString()
+	 */
+	public JsonWriter value(Object value) {
+		if(value == null) {
+			return nullValue();
+		}
+		if(value instanceof String) {
+			return value((String)value);
+		}
+		if(value instanceof Long || value instanceof Integer
+				|| value instanceof Short || value instanceof Byte) {
+			return value(((Number)value).longValue());
+		}
+		return rawValue(value.toString());
+	}
+
+	public JsonWriter nullValue() {
+		beforeValue();
+		writeRaw("null");
+		return this;
+	}
+
+	/**
+	 * writes the value without any escaping
+	 */
+	public JsonWriter rawValue(String value) {
+		beforeValue();
+		writeRaw(value);
+		return this;
+	}
+
+	public void flush() {
+		try {
+			if(builder != null) {
+				builder.append(buf, 0, pos);
+			} else {
+				out.write(buf, 0, pos);
+				out.flush();
+			}
+			pos = 0;
+		} catch(IOException e) {
+			throw new SienaException(e);
+		}
+	}
+
+	private void push(int scope) {
+		if(depth == stack.length) {
+			int[] newStack = new int[depth * 2];
+			System.arraycopy(stack, 0, newStack, 0, depth);
+			stack = newStack;
+		}
+		stack[depth++] = scope;
+	}
+
+	private void beforeValue() {
+		int scope = stack[depth - 1];
+		if(scope == NONEMPTY && depth > 1) {
+			// next element of an array
+			write(',');
+			write(' ');
+		}
+		stack[depth - 1] = NONEMPTY;
+	}
+
+	private void write(char c) {
+		if(pos == buf.length) {
+			flush();
+		}
+		buf[pos++] = c;
+	}
+
+	private void writeRaw(String s) {
+		int len = s.length();
+		if(pos + len > buf.length) {
+			flush();
+			if(len > buf.length) {
+				buf = new char[len];
+			}
+		}
+		s.getChars(0, len, buf, pos);
+		pos += len;
+	}
+
+	private void writeLong(long value) {
+		if(value == Long.MIN_VALUE) {
+			writeRaw(Long.toString(value));
+			return;
+		}
+		// at most 19 digits and the sign
+		if(pos + 20 > buf.length) {
+			flush();
+		}
+		if(value < 0) {
+			buf[pos++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for(long v = value / 10; v != 0; v /= 10) {
+			digits++;
+		}
+		int i = pos + digits;
+		pos = i;
+		do {
+			buf[--i] = (char)('0' + (value % 10));
+			value /= 10;
+		} while(value != 0);
+	}
+
+	private void writeString(String s) {
+		write('\"');
+		int len = s.length();
+		for(int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			switch(c) {
+			case '\\':
+			case '\"':
+			case '/':
+				write('\\');
+				write(c);
+				break;
+			case '\b':
+				write('\\');
+				write('b');
+				break;
+			case '\f':
+				write('\\');
+				write('f');
+				break;
+			case '\n':
+				write('\\');
+				write('n');
+				break;
+			case '\r':
+				write('\\');
+				write('r');
+				break;
+			case '\t':
+				write('\\');
+				write('t');
+				break;
+			default:
+				write(c);
+			}
+		}
+		write('\"');
+	}
+}
@@ -23,8 +23,10 @@ import java.util.Map;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
-import siena.ClassInfo.FieldMapKeys;
+import siena.ClassInfo.RelationField;
 import siena.core.Aggregator;
+import siena.core.FieldAccessor;
+import siena.core.Many;
 import siena.core.Many4PM;
 import siena.core.One;
 import siena.core.One4PM;
@@ -66,6 +68,10 @@ public abstract class Model {
   @JsonIgnore 
   @Aggregator
   transient private Relation relation;
+
+  // shared by the models fetched with QueryOptionBatchLoad to load their relations together
+  @JsonIgnore
+  transient RelationLoader relationLoader;
   
   public Model() {
     init();
@@ -147,17 +153,13 @@ public abstract class Model {
     if(this == that) { return true; }
     if(that == null || that.getClass() != this.getClass()) { return false; }
 
-    List<Field> keys = ClassInfo.getClassInfo(getClass()).keys;
-    for (Field field : keys) {
-      field.setAccessible(true);
-      try {
-        Object a = field.get(this);
-        Object b = field.get(that);
-        if(a == null ? b != null : !a.equals(b))
-          { return false; }
-      } catch (Exception e) {
-        throw new SienaException(e);
-      }
+    ClassInfo info = ClassInfo.getClassInfo(getClass());
+    for (Field field : info.keys) {
+      FieldAccessor accessor = info.getAccessor(field);
+      Object a = accessor.get(this);
+      Object b = accessor.get(that);
+      if(a == null ? b != null : !a.equals(b))
+        { return false; }
     }
     return true;
   }
@@ -166,90 +168,43 @@ public abstract class Model {
     final int prime = 31;
     int result = 1;
 
-    List<Field> keys = ClassInfo.getClassInfo(getClass()).keys;
-    for (Field field : keys) {
-      field.setAccessible(true);
-      try {
-        Object value = field.get(this);
-        result = prime * result + ((value == null) ? 0 : value.hashCode());
-      } catch (Exception e) {
-        throw new SienaException(e);
-      }
+    ClassInfo info = ClassInfo.getClassInfo(getClass());
+    for (Field field : info.keys) {
+      Object value = info.getAccessor(field).get(this);
+      result = prime * result + ((value == null) ? 0 : value.hashCode());
     }
     return result;
   }
 
   @SuppressWarnings({ "unchecked", "rawtypes" })
   private void init() {
-    // initialize Query<T> types
-    Class<?> clazz = getClass();
-    
+    // initialize Query<T>, Many<T> and One<T> types
     // Takes into account superclass fields for inheritance!!!!
-    ClassInfo info = ClassInfo.getClassInfo(clazz);
-    for(Field field:info.queryFieldMap.keySet()){
-      try {
-        Map<FieldMapKeys, Object> map = info.queryFieldMap.get(field);
-        Util.setField(this, field, 
-            new ProxyQuery((Class<?>)map.get(FieldMapKeys.CLASS), (String)map.get(FieldMapKeys.FILTER), this));
-      } catch (Exception e) {
-        throw new SienaException(e);
+    // the proxies only create their Query/Many/One when they are used
+    for(RelationField rf: ClassInfo.getClassInfo(getClass()).relationFields){
+      Object proxy;
+      if(rf.kind == Query.class){
+        proxy = new ProxyQuery(rf, this);
       }
-    }
-    
-    for(Field field:info.manyFieldMap.keySet()){
-      try {
-        Map<FieldMapKeys, Object> map = info.manyFieldMap.get(field);
-        RelationMode mode = (RelationMode)map.get(FieldMapKeys.MODE);
-        switch(mode){
-        case AGGREGATION:
-          Util.setField(this, field, 
-              new ProxyMany((Class<?>)map.get(FieldMapKeys.CLASS), this, 
-                  (RelationMode)map.get(FieldMapKeys.MODE), field));
-          break;
-        case RELATION:
-          Util.setField(this, field, 
-              new ProxyMany((Class<?>)map.get(FieldMapKeys.CLASS), this, 
-                  (RelationMode)map.get(FieldMapKeys.MODE), (Field)map.get(FieldMapKeys.FIELD)));
-          break;
-        }       
-      } catch (Exception e) {
-        throw new SienaException(e);
+      else if(rf.kind == Many.class){
+        proxy = new ProxyMany(rf, this);
       }
-    }
-    
-    for(Field field:info.oneFieldMap.keySet()){
-      try {
-        Map<FieldMapKeys, Object> map = info.oneFieldMap.get(field);
-        RelationMode mode = (RelationMode)map.get(FieldMapKeys.MODE);
-        switch(mode){
-        case AGGREGATION:
-          Util.setField(this, field, 
-              new ProxyOne((Class<?>)map.get(FieldMapKeys.CLASS), this, 
-                  (RelationMode)map.get(FieldMapKeys.MODE), field));
-          break;
-        case RELATION:
-          Util.setField(this, field, 
-              new ProxyOne((Class<?>)map.get(FieldMapKeys.CLASS), this, 
-                  (RelationMode)map.get(FieldMapKeys.MODE), (Field)map.get(FieldMapKeys.FIELD)));
-          break;
-        }       
-      } catch (Exception e) {
-        throw new SienaException(e);
+      else {
+        proxy = new ProxyOne(rf, this);
       }
+      rf.accessor.set(this, proxy);
     }
   }
 
-  class ProxyQuery<T> implements Query<T> {
+  static class ProxyQuery<T> implements Query<T> {
     private static final long serialVersionUID = -7726081283511624780L;
 
-    private String filter;
-    private Class<T> clazz;
+    private RelationField rf;
     private Model obj;
     private Query<T> query;
     
-    public ProxyQuery(Class<T> clazz, String filter, Model obj) {
-      this.filter = filter;
-      this.clazz = clazz;
+    public ProxyQuery(RelationField rf, Model obj) {
+      this.rf = rf;
       this.obj = obj;
     }
 
@@ -260,11 +215,11 @@ public abstract class Model {
       // it is not initialized in the constructor because the persistencemanager might not be
       // initialized correctly with the Model
       if(this.query == null){
-        this.query = obj.getPersistenceManager().createQuery(clazz);        
+        this.query = obj.getPersistenceManager().createQuery(getQueriedClass());        
       }
       else if(((QueryOptionState)this.query.option(QueryOptionState.ID)).isStateless())
         this.query.resetData();
-      return this.query.filter(filter, obj);
+      return this.query.filter(rf.filter, obj);
     }
 
     public int count() {
@@ -339,7 +294,7 @@ public abstract class Model {
     } 
     
     public ProxyQuery<T> copy() {
-      return new ProxyQuery<T>(clazz, filter, obj);
+      return new ProxyQuery<T>(rf, obj);
     }
 
     @Deprecated
@@ -392,8 +347,9 @@ public abstract class Model {
       createQuery().setNextOffset(nextOffset);
     }
 
+    @SuppressWarnings("unchecked")
     public Class<T> getQueriedClass() {
-      return clazz;
+      return (Class<T>)rf.clazz;
     }
 
     public Query<T> paginate(int limit) {
@@ -498,35 +454,32 @@ public abstract class Model {
     }
   }
 
-  class ProxyMany<T> implements Many4PM<T> {
+  static class ProxyMany<T> implements Many4PM<T> {
     private static final long serialVersionUID = -4540064249546783019L;
     
-    private Class<T>    clazz;
+    private RelationField rf;
     private Model       obj;
     private Many4PM<T>    many;
-    private RelationMode  mode;
-    private Field     field;  
 
-    public ProxyMany(Class<T> clazz, Model obj, RelationMode mode, Field field) {
-      this.clazz = clazz;
+    public ProxyMany(RelationField rf, Model obj) {
+      this.rf = rf;
       this.obj = obj;
-      this.mode = mode;
-      this.field = field;
     }
 
+    @SuppressWarnings("unchecked")
     private Many4PM<T> createMany() {
       if(this.many == null){
-        this.many = obj.getPersistenceManager().createMany(clazz);
+        this.many = obj.getPersistenceManager().createMany((Class<T>)rf.clazz);
       }
       //else if(((QueryOptionState)this.listQuery.asQuery().option(QueryOptionState.ID)).isStateless()){
       //  this.listQuery.asQuery().release();       
       //}
-      switch(mode){
+      switch(rf.mode){
       case AGGREGATION:
-        aggregationMode(obj, field);
+        aggregationMode(obj, rf.target);
         break;
       case RELATION:
-        relationMode(obj, field);       
+        relationMode(obj, rf.target);       
         break;
       }
       
@@ -534,7 +487,11 @@ public abstract class Model {
     }
 
     public SyncList<T> asList() {
-      return createMany().asList();
+      Many4PM<T> many = createMany();
+      if(obj.relationLoader != null && !many.isSync()){
+        obj.relationLoader.load(rf);
+      }
+      return many.asList();
     }
 
     public Query<T> asQuery() {
@@ -566,33 +523,38 @@ public abstract class Model {
       return createMany().setSync(isSync);
     }
 
+    public boolean isSync() {
+      return createMany().isSync();
+    }
+
+    public Many4PM<T> fill(List<T> elements) {
+      return createMany().fill(elements);
+    }
+
   }
   
   
-  class ProxyOne<T> implements One4PM<T> {
+  static class ProxyOne<T> implements One4PM<T> {
     
-    private Class<T>    clazz;
+    private RelationField rf;
     private Model       ancestor;
     private One4PM<T>     one;
-    private RelationMode  mode;
-    private Field     field;  
 
-    public ProxyOne(Class<T> clazz, Model ancestor, RelationMode mode, Field field) {
-      this.clazz = clazz;
+    public ProxyOne(RelationField rf, Model ancestor) {
+      this.rf = rf;
       this.ancestor = ancestor;
-      this.mode = mode;
-      this.field = field;
     }
 
+    @SuppressWarnings("unchecked")
     private One4PM<T> createOne() {
       if(this.one == null){
-        this.one = ancestor.getPersistenceManager().createOne(clazz);
-        switch(mode){
+        this.one = ancestor.getPersistenceManager().createOne((Class<T>)rf.clazz);
+        switch(rf.mode){
         case AGGREGATION:
-          aggregationMode(ancestor, field);
+          aggregationMode(ancestor, rf.target);
           break;
         case RELATION:
-          relationMode(ancestor, field);        
+          relationMode(ancestor, rf.target);        
           break;
         }
       }
@@ -610,6 +572,7 @@ public abstract class Model {
     }
 
     public T get() {
+      sync();
       return createOne().get();
     }
 
@@ -618,7 +581,11 @@ public abstract class Model {
     }
 
     public One<T> sync() {
-      return createOne().sync();
+      One4PM<T> one = createOne();
+      if(ancestor.relationLoader != null && !one.isSync()){
+        ancestor.relationLoader.load(rf);
+      }
+      return one.sync();
     }
 
     public One<T> forceSync() {
@@ -643,5 +610,13 @@ public abstract class Model {
       return createOne().setSync(isSync);
     }
 
+    public boolean isSync() {
+      return createOne().isSync();
+    }
+
+    public One4PM<T> fill(T target) {
+      return createOne().fill(target);
+    }
+
   }
 }
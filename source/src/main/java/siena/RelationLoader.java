@@ -0,0 +1,126 @@
+package siena;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import siena.ClassInfo.RelationField;
+import siena.core.Many;
+import siena.core.Many4PM;
+import siena.core.One4PM;
+import siena.core.RelationMode;
+import siena.core.options.QueryOptionBatchLoad;
+
+/**
+ * Loads a relation for all the models of a fetched list (see QueryOptionBatchLoad).
+ *
+ * The loader is shared by the models of the list: the first access to an owned One/Many
+ * of one of them retrieves this relation for all the models which are not synchronized yet
+ * with one IN query per chunk and fills them.
+ * The aggregated relations are still loaded by each model.
+ */
+class RelationLoader {
+	private PersistenceManager pm;
+	private List<Model> models;
+	private int chunkSize;
+	// the relations already loaded for the list
+	private Set<Field> loaded = new HashSet<Field>();
+
+	private RelationLoader(PersistenceManager pm, List<Model> models, int chunkSize) {
+		this.pm = pm;
+		this.models = models;
+		this.chunkSize = chunkSize;
+	}
+
+	static void attach(PersistenceManager pm, List<?> objects, QueryOptionBatchLoad opt) {
+		if(opt == null || !opt.isActive() || objects.size() < 2 || !supportsIn(pm)) {
+			return;
+		}
+		List<Model> models = new ArrayList<Model>(objects.size());
+		for(Object obj: objects){
+			if(obj instanceof Model && ClassInfo.getClassInfo(obj.getClass()).relationFields.length != 0){
+				models.add((Model)obj);
+			}
+		}
+		if(models.size() < 2) {
+			return;
+		}
+		RelationLoader loader = new RelationLoader(pm, models, Math.max(1, opt.chunkSize));
+		for(Model model: models){
+			model.relationLoader = loader;
+		}
+	}
+
+	private static boolean supportsIn(PersistenceManager pm) {
+		for(String op: pm.supportedOperators()){
+			if("IN".equals(op.trim())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@SuppressWarnings("unchecked")
+	synchronized void load(RelationField rf) {
+		if(rf.mode != RelationMode.RELATION || !loaded.add(rf.field)) {
+			return;
+		}
+		boolean isMany = rf.kind == Many.class;
+
+		List<Model> owners = new ArrayList<Model>();
+		for(Model model: models){
+			Object relation = rf.accessor.get(model);
+			if(relation == null) continue;
+			if(isMany ? !((Many4PM<?>)relation).isSync() : !((One4PM<?>)relation).isSync()){
+				owners.add(model);
+			}
+		}
+		// a single owner loads its relation itself
+		if(owners.size() < 2) {
+			return;
+		}
+
+		ClassInfo ownerInfo = ClassInfo.getClassInfo(owners.get(0).getClass());
+		Map<Object, List<Object>> related = new HashMap<Object, List<Object>>();
+		for(int i = 0; i < owners.size(); i += chunkSize){
+			List<Model> chunk = owners.subList(i, Math.min(i + chunkSize, owners.size()));
+			List<?> children = pm.createQuery(rf.clazz).filter(rf.target.getName()+" IN", chunk).fetch();
+			for(Object child: children){
+				Object owner = Util.readField(child, rf.target);
+				if(owner == null) continue;
+				Object key = key(ownerInfo, owner);
+				List<Object> l = related.get(key);
+				if(l == null){
+					l = new ArrayList<Object>();
+					related.put(key, l);
+				}
+				l.add(child);
+			}
+		}
+
+		for(Model owner: owners){
+			List<Object> l = related.get(key(ownerInfo, owner));
+			if(isMany){
+				((Many4PM<Object>)rf.accessor.get(owner)).fill(l == null ? new ArrayList<Object>() : l);
+			}else {
+				((One4PM<Object>)rf.accessor.get(owner)).fill(l == null ? null : l.get(0));
+			}
+		}
+	}
+
+	// the related models only have their keys: they are grouped by key
+	private static Object key(ClassInfo info, Object obj) {
+		if(info.keys.size() == 1) {
+			return info.getAccessor(info.keys.get(0)).get(obj);
+		}
+		List<Object> values = new ArrayList<Object>(info.keys.size());
+		for(Field field: info.keys){
+			values.add(info.getAccessor(field).get(obj));
+		}
+		return values;
+	}
+}
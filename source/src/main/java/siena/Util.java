@@ -16,7 +16,6 @@
 package siena;
 
 import java.io.IOException;
-import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
@@ -30,6 +29,8 @@ import java.util.Iterator;
 import java.util.TimeZone;
 import java.util.UUID;
 
+import siena.core.FieldAccessor;
+import siena.core.Instantiator;
 import siena.embed.Embedded;
 import siena.embed.JavaSerializer;
 import siena.embed.JsonSerializer;
@@ -246,8 +247,7 @@ public class Util {
 			switch(embed.mode()){
 			case SERIALIZE_JSON:
 				if(String.class.isAssignableFrom(value.getClass())) {
-					Json data = Json.loads((String) value);
-					return JsonSerializer.deserialize(field, data);
+					return JsonSerializer.deserialize(field, new JsonReader((String) value));
 				}
 				break;
 			case SERIALIZE_JAVA:
@@ -275,17 +275,8 @@ public class Util {
 	}
 	
 	public static void setField(Object object, Field f, Object value) {
-		try { 
-				f.set(object, value); 
-		} catch (Exception e) { 
-			try { 
-				f.setAccessible(true); 
-			  f.set(object, value);  
-		} catch (Exception e2) { 
-			 	throw new SienaException(e2); 
-			} 
-		} 
-	} 
+		FieldAccessor.of(f).set(object, value);
+	}
 	
 	public static void setFromObject(Object object, Field f, Object value) {
 		setField(object, f, fromObject(f, value));
@@ -296,38 +287,16 @@ public class Util {
 	}
 
 	public static Object readField(Object object, Field field) {
-		boolean wasAccess = true;
-		if(!field.isAccessible()){
-			field.setAccessible(true);
-			wasAccess = false;
-		}
-		try {
-			return field.get(object);
-		} catch (Exception e) {
-			throw new SienaException(e);
-		} finally {
-			if(!wasAccess){
-				field.setAccessible(false);
-			}
-		}
+		return FieldAccessor.of(field).get(object);
 	}
 	
 	public static Field getField(Class<?> clazz, String fieldName) {
-		Class<?> cl = clazz;
-		
-        while (cl!=null) {
-        	try {
-        		return cl.getDeclaredField(fieldName);
-        	}
-        	catch(NoSuchFieldException e){
-        		cl = cl.getSuperclass();
-        	}
-        	catch (Exception e) {
-    			throw new SienaException(e);
-    		}        	 
-        }
-		
-        return null;
+		try {
+			return ClassInfo.getField(clazz, fieldName);
+		}
+		catch (Exception e) {
+			throw new SienaException(e);
+		}
 	}
 	
 	public static Object translateDate(Field f, Date value) {
@@ -355,24 +324,13 @@ public class Util {
 	/**
 	 * Creates an instance of a model from its class.
 	 * It tries to find a default constructor and if not found, it uses class.newInstance()
+	 * The constructor is resolved once and cached (see {@link Instantiator})
 	 * 
 	 * @param clazz the class of the model
 	 * @return the instance of the model
 	 */
 	public static <T> T createObjectInstance(Class<T> clazz){
-		try {
-			Constructor<T> c = clazz.getDeclaredConstructor();
-			c.setAccessible(true);
-			return c.newInstance();
-		}catch(NoSuchMethodException ex){
-			try {
-				return clazz.newInstance();
-			}catch (Exception e) {
-				throw new SienaException(e);
-			}
-		}catch(Exception e){
-			throw new SienaException(e);
-		}		
+		return Instantiator.of(clazz).newInstance();
 	}
 	
 	public static void copyObject(Object objFrom, Object objTo) {
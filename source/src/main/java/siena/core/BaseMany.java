@@ -33,18 +33,16 @@ public class BaseMany<T> implements Many4PM<T>{
 	transient protected Query<T> query;
 	transient protected Batch<T> batch;
 	
+	// the list and the batch are created when they are used
 	public BaseMany(PersistenceManager pm, Class<T> clazz){
 		this.pm = pm;
 		this.clazz = clazz;
-		list = new ProxyList<T>(this);
 		this.query = pm.createQuery(clazz);
-		this.batch = pm.createBatch(clazz);
 	}
 	
 	public BaseMany(PersistenceManager pm, Class<T> clazz, RelationMode mode, Object obj, String fieldName) {
 		this.pm = pm;
 		this.clazz = clazz;
-		list = new ProxyList<T>(this);
 		switch(mode){
 		case AGGREGATION:
 			this.relation = new Relation(mode, obj, fieldName);
@@ -58,28 +56,47 @@ public class BaseMany<T> implements Many4PM<T>{
 	}
 
 	public SyncList<T> asList() {
-		return list.sync();
+		return list().sync();
 	}
 
 	public Query<T> asQuery() {
 		return query;
 	}
 
-	 public Batch<T> asBatch() {
-	  return batch;
+	public Batch<T> asBatch() {
+		if(batch == null){
+			batch = pm.createBatch(clazz);
+		}
+		return batch;
 	}
 
 	public Many4PM<T> setSync(boolean isSync) {
-		list.isSync = isSync;
+		list().isSync = isSync;
+		return this;
+	}
+	
+	public boolean isSync() {
+		return list().isSync;
+	}
+
+	public Many4PM<T> fill(List<T> elements) {
+		list().fill(elements);
 		return this;
 	}
 	
 	public List<T> asList2Remove() {
-		return list.elements2Remove;
+		return list().elements2Remove;
 	}
 	
 	public List<T> asList2Add() {
-		return list.elements2Add;
+		return list().elements2Add;
+	}
+
+	protected ProxyList<T> list() {
+		if(list == null){
+			list = new ProxyList<T>(this);
+		}
+		return list;
 	}
 
 	public Many4PM<T> aggregationMode(Object aggregator, Field field) {
@@ -277,7 +294,11 @@ public class BaseMany<T> implements Many4PM<T>{
 		}
 				
 		public SyncList<V> forceSync() {
-			elements = many.asQuery().fetch();
+			return fill(many.asQuery().fetch());
+		}
+
+		protected SyncList<V> fill(List<V> elements) {
+			this.elements = elements;
 			elements2Remove.clear();
 			elements2Add.clear();
 			isSync = true;
@@ -93,6 +93,17 @@ public class BaseOne<T> implements One4PM<T>{
 		return this;
 	}
 
+	public boolean isSync() {
+		return isSync;
+	}
+
+	public One4PM<T> fill(T target) {
+		this.target = target;
+		isSync = true;
+		isModified = false;
+		return this;
+	}
+
 	public boolean isModified() {
 		return isModified;
 	}
@@ -0,0 +1,121 @@
+package siena.core;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import siena.SienaException;
+
+/**
+ * Reads and writes one persisted field through MethodHandles resolved once.
+ *
+ * Accessors are cached per Field so the mapping code never toggles
+ * setAccessible nor goes through the reflective access checks on each row.
+ */
+public final class FieldAccessor {
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+	private static Map<Field, FieldAccessor> accessors = new ConcurrentHashMap<Field, FieldAccessor>();
+
+	public final Field field;
+	private final boolean primitive;
+	private final MethodHandle getter;
+	private final MethodHandle setter;
+
+	private FieldAccessor(Field field) {
+		this.field = field;
+		this.primitive = field.getType().isPrimitive();
+		try {
+			field.setAccessible(true);
+		} catch(SecurityException e) {
+			// keeps default access rights and lets the handle lookups fail below
+		}
+
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		boolean isStatic = Modifier.isStatic(field.getModifiers());
+		MethodHandle g = null;
+		MethodHandle s = null;
+		try {
+			g = lookup.unreflectGetter(field);
+			if(isStatic) {
+				// ignores the object like Field.get
+				g = MethodHandles.dropArguments(g, 0, Object.class);
+			}
+			g = g.asType(GETTER_TYPE);
+		} catch(IllegalAccessException e) {
+			// falls back on reflection
+		}
+		try {
+			s = lookup.unreflectSetter(field);
+			if(isStatic) {
+				s = MethodHandles.dropArguments(s, 0, Object.class);
+			}
+			// converts the value like Field.set: unboxing and widening only (an Integer into a long for ex),
+			// a value of another type throws a ClassCastException
+			s = s.asType(SETTER_TYPE);
+		} catch(IllegalAccessException e) {
+			// the field couldn't be made accessible (a static final for ex): falls back on reflection
+		}
+		this.getter = g;
+		this.setter = s;
+	}
+
+	public static FieldAccessor of(Field field) {
+		FieldAccessor accessor = accessors.get(field);
+		if(accessor == null) {
+			accessor = new FieldAccessor(field);
+			accessors.put(field, accessor);
+		}
+		return accessor;
+	}
+
+	public Object get(Object obj) {
+		if(getter == null) {
+			try {
+				return field.get(obj);
+			} catch (Exception e) {
+				throw new SienaException(e);
+			}
+		}
+		try {
+			return (Object)getter.invokeExact(obj);
+		} catch (RuntimeException e) {
+			throw new SienaException(e);
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new SienaException(e);
+		}
+	}
+
+	public void set(Object obj, Object value) {
+		if(value == null && primitive) {
+			// the cast would set 0
+			throw new SienaException("Can not set null into the primitive field "+field);
+		}
+		if(setter == null) {
+			try {
+				field.set(obj, value);
+			} catch (Exception e) {
+				throw new SienaException(e);
+			}
+			return;
+		}
+		try {
+			setter.invokeExact(obj, value);
+		} catch (ClassCastException e) {
+			throw new SienaException("Can not set "+value.getClass().getName()+" into the field "+field, e);
+		} catch (RuntimeException e) {
+			throw new SienaException(e);
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new SienaException(e);
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package siena.core;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import siena.SienaException;
+
+/**
+ * Creates instances of a class through its no-arg constructor resolved once as a MethodHandle.
+ * If the constructor can't be resolved as a MethodHandle, it falls back on reflection
+ * like Util.createObjectInstance used to do.
+ */
+public final class Instantiator<T> {
+	private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+
+	private static Map<Class<?>, Instantiator<?>> instantiators = new ConcurrentHashMap<Class<?>, Instantiator<?>>();
+
+	public final Class<T> clazz;
+	private final MethodHandle constructor;
+
+	private Instantiator(Class<T> clazz) {
+		this.clazz = clazz;
+		MethodHandle c = null;
+		try {
+			Constructor<T> cons = clazz.getDeclaredConstructor();
+			cons.setAccessible(true);
+			c = MethodHandles.lookup().unreflectConstructor(cons).asType(CONSTRUCTOR_TYPE);
+		} catch (NoSuchMethodException e) {
+			// no default constructor: the reflection fails in newInstance()
+		} catch (IllegalAccessException e) {
+			// uses reflection
+		} catch (SecurityException e) {
+			// uses reflection
+		}
+		this.constructor = c;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <T> Instantiator<T> of(Class<T> clazz) {
+		Instantiator<T> inst = (Instantiator<T>)instantiators.get(clazz);
+		if(inst == null) {
+			inst = new Instantiator<T>(clazz);
+			instantiators.put(clazz, inst);
+		}
+		return inst;
+	}
+
+	@SuppressWarnings("unchecked")
+	public T newInstance() {
+		if(constructor == null) {
+			try {
+				return clazz.getDeclaredConstructor().newInstance();
+			} catch (Exception e) {
+				throw new SienaException(e);
+			}
+		}
+		try {
+			return (T)(Object)constructor.invokeExact();
+		} catch (SienaException e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new SienaException(e);
+		}
+	}
+}
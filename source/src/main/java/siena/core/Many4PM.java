@@ -14,6 +14,9 @@ import java.util.List;
  */
 public interface Many4PM<T> extends Many<T> {
 	Many4PM<T> setSync(boolean isSync);
+	boolean isSync();
+	// sets the elements loaded by the persistencemanager and the synchronized state
+	Many4PM<T> fill(List<T> elements);
 	List<T> asList2Remove();
 	List<T> asList2Add();
 	Many4PM<T> aggregationMode(Object aggregator, Field field);
@@ -14,6 +14,9 @@ import java.lang.reflect.Field;
 public interface One4PM<T> extends One<T>  {
 	One<T> sync();
 	One4PM<T> setSync(boolean isSync);
+	boolean isSync();
+	// sets the target loaded by the persistencemanager and the synchronized state
+	One4PM<T> fill(T target);
 	One4PM<T> setModified(boolean isModified);
 	boolean isModified();
 	T getPrev();
@@ -0,0 +1,113 @@
+package siena.core.async;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import siena.SienaException;
+
+/**
+ * A SienaFuture backed by a {@code java.util.concurrent.CompletableFuture} so that results
+ * can be composed (map/flatMap/all) and waited for with a timeout.
+ *
+ * get() unwraps the exception raised by the computation: a SienaException is rethrown as is,
+ * other exceptions are wrapped into a SienaException.
+ */
+public class SienaFutureCompletable<T> implements SienaFuture<T> {
+	protected final CompletableFuture<T> future;
+
+	public SienaFutureCompletable(CompletableFuture<T> future) {
+		this.future = future;
+	}
+
+	public static <T> SienaFutureCompletable<T> supply(Supplier<T> supplier, Executor executor) {
+		return new SienaFutureCompletable<T>(CompletableFuture.supplyAsync(supplier, executor));
+	}
+
+	public static <T> SienaFutureCompletable<T> completed(T value) {
+		return new SienaFutureCompletable<T>(CompletableFuture.completedFuture(value));
+	}
+
+	/**
+	 * @return a future completed when all the given futures are completed
+	 */
+	public static SienaFutureCompletable<Void> all(SienaFutureCompletable<?>... futures) {
+		CompletableFuture<?>[] cfs = new CompletableFuture<?>[futures.length];
+		for(int i=0; i<futures.length; i++){
+			cfs[i] = futures[i].future;
+		}
+		return new SienaFutureCompletable<Void>(CompletableFuture.allOf(cfs));
+	}
+
+	public T get() {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			throw unwrap(e.getCause());
+		} catch (CancellationException e) {
+			throw new SienaException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SienaException(e);
+		}
+	}
+
+	/**
+	 * Waits at most the given time for the result.
+	 * @throws SienaException wrapping a TimeoutException if the result is not available in time
+	 */
+	public T get(long timeout, TimeUnit unit) {
+		try {
+			return future.get(timeout, unit);
+		} catch (ExecutionException e) {
+			throw unwrap(e.getCause());
+		} catch (TimeoutException e) {
+			throw new SienaException("Timeout after "+timeout+" "+unit, e);
+		} catch (CancellationException e) {
+			throw new SienaException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SienaException(e);
+		}
+	}
+
+	public <R> SienaFutureCompletable<R> map(Function<? super T, ? extends R> fn) {
+		return new SienaFutureCompletable<R>(future.thenApply(fn));
+	}
+
+	public <R> SienaFutureCompletable<R> flatMap(final Function<? super T, ? extends SienaFutureCompletable<R>> fn) {
+		return new SienaFutureCompletable<R>(future.thenCompose(new Function<T, CompletableFuture<R>>() {
+			public CompletableFuture<R> apply(T t) {
+				return fn.apply(t).future;
+			}
+		}));
+	}
+
+	public boolean isDone() {
+		return future.isDone();
+	}
+
+	public boolean cancel() {
+		return future.cancel(true);
+	}
+
+	public CompletableFuture<T> toCompletableFuture() {
+		return future;
+	}
+
+	private static SienaException unwrap(Throwable cause) {
+		while(cause instanceof CompletionException && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		if(cause instanceof SienaException) {
+			return (SienaException)cause;
+		}
+		return new SienaException(cause);
+	}
+}
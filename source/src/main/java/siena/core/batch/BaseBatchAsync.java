@@ -46,11 +46,11 @@ public class BaseBatchAsync<T> implements BatchAsync<T> {
   }
   
   public SienaFuture<Integer> deleteByKeys(Object... keys){
-    return pm.delete(clazz, keys);
+    return pm.deleteByKeys(clazz, keys);
   }
 
   public SienaFuture<Integer> deleteByKeys(Iterable<?> keys){
-    return pm.delete(clazz, keys);
+    return pm.deleteByKeys(clazz, keys);
   }
 
   public SienaFuture<Integer> update(T... models) {
@@ -0,0 +1,47 @@
+package siena.core.options;
+
+/**
+ * Loads the owned One/Many relations of the fetched models for the whole list:
+ * when a relation is first accessed on one of them, one IN query per chunkSize models
+ * retrieves it for all the models of the list.
+ *
+ * <pre>
+ * Model.all(Parent.class).customize(new QueryOptionBatchLoad()).fetch();
+ * </pre>
+ */
+public class QueryOptionBatchLoad extends QueryOption{
+	public static final int ID 	= 0x05;
+
+	// GAE doesn't accept more than 30 values in an IN filter
+	public static final int DEFAULT_CHUNK_SIZE = 30;
+
+	public int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	public QueryOptionBatchLoad() {
+		super(ID, State.ACTIVE, null);
+	}
+
+	public QueryOptionBatchLoad(int chunkSize) {
+		super(ID, State.ACTIVE, null);
+		this.chunkSize = chunkSize;
+	}
+
+	public QueryOptionBatchLoad(QueryOptionBatchLoad option) {
+		super(option);
+		this.chunkSize = option.chunkSize;
+	}
+
+	@Override
+	public QueryOption clone() {
+		return new QueryOptionBatchLoad(this);
+	}
+
+	public String toString() {
+		return "type:BATCHLOAD - state:"+this.state+" - chunkSize:"+this.chunkSize;
+	}
+
+	public boolean equals(Object obj){
+		return super.equals(obj)
+			&& this.chunkSize == ((QueryOptionBatchLoad)obj).chunkSize;
+	}
+}
@@ -0,0 +1,214 @@
+package siena.core.options;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The options of a query stored by id.
+ *
+ * The options of siena.core.options (small ids) are kept in an array and the options of the
+ * engines (QueryOptionJdbcContext, QueryOptionGaeContext...) in a map created when the first one is put.
+ * The default options (page, offset, state and fetch type) are shared templates: a query only
+ * gets its own copy of one of them when it reads or replaces it, so a query which is created and
+ * never executed allocates no option at all.
+ */
+public class QueryOptionMap extends AbstractMap<Integer, QueryOption> {
+	private static final QueryOption[] DEFAULTS = new QueryOption[QueryOptionBatchLoad.ID + 1];
+
+	static {
+		DEFAULTS[QueryOptionPage.ID] = new QueryOptionPage(0);
+		DEFAULTS[QueryOptionOffset.ID] = new QueryOptionOffset(0);
+		DEFAULTS[QueryOptionState.ID] = new QueryOptionState();
+		//the fetch type is activated by default and set to NORMAL
+		DEFAULTS[QueryOptionFetchType.ID] = (new QueryOptionFetchType()).activate();
+	}
+
+	// the options owned by the query, null until one is read or put
+	private QueryOption[] options;
+	// the bits of the default options which have been removed
+	private int removed;
+	private Map<Integer, QueryOption> others;
+
+	public QueryOptionMap() {
+	}
+
+	/**
+	 * the copy shares the option objects of the map like a copied query always did
+	 */
+	public QueryOptionMap(QueryOptionMap map) {
+		if(map.others != null) {
+			this.others = new HashMap<Integer, QueryOption>(map.others);
+		}
+		for(int id = 1; id < DEFAULTS.length; id++) {
+			if(map.contains(id)) {
+				put(id, map.get(id));
+			}
+		}
+	}
+
+	private static boolean isIndexed(int id) {
+		return id > 0 && id < DEFAULTS.length;
+	}
+
+	private boolean contains(int id) {
+		return (options != null && options[id] != null)
+			|| ((removed & (1 << id)) == 0 && DEFAULTS[id] != null);
+	}
+
+	private QueryOption get(int id) {
+		if(options != null && options[id] != null) {
+			return options[id];
+		}
+		if((removed & (1 << id)) != 0 || DEFAULTS[id] == null) {
+			return null;
+		}
+		// the caller may change the option: the query gets its own copy of the default
+		if(options == null) {
+			options = new QueryOption[DEFAULTS.length];
+		}
+		return options[id] = DEFAULTS[id].clone();
+	}
+
+	@Override
+	public QueryOption get(Object key) {
+		if(!(key instanceof Integer)) {
+			return null;
+		}
+		int id = (Integer)key;
+		if(isIndexed(id)) {
+			return get(id);
+		}
+		return others == null ? null : others.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if(!(key instanceof Integer)) {
+			return false;
+		}
+		int id = (Integer)key;
+		if(isIndexed(id)) {
+			return contains(id);
+		}
+		return others != null && others.containsKey(key);
+	}
+
+	@Override
+	public QueryOption put(Integer key, QueryOption value) {
+		int id = key;
+		if(isIndexed(id)) {
+			QueryOption prev = options != null ? options[id] : null;
+			if(options == null) {
+				options = new QueryOption[DEFAULTS.length];
+			}
+			options[id] = value;
+			removed &= ~(1 << id);
+			return prev;
+		}
+		if(others == null) {
+			others = new HashMap<Integer, QueryOption>();
+		}
+		return others.put(key, value);
+	}
+
+	@Override
+	public QueryOption remove(Object key) {
+		if(!(key instanceof Integer)) {
+			return null;
+		}
+		int id = (Integer)key;
+		if(isIndexed(id)) {
+			QueryOption prev = options != null ? options[id] : null;
+			if(options != null) {
+				options[id] = null;
+			}
+			removed |= 1 << id;
+			return prev;
+		}
+		return others == null ? null : others.remove(key);
+	}
+
+	@Override
+	public void clear() {
+		options = null;
+		removed = ~0;
+		others = null;
+	}
+
+	@Override
+	public int size() {
+		int size = others == null ? 0 : others.size();
+		for(int id = 1; id < DEFAULTS.length; id++) {
+			if(contains(id)) size++;
+		}
+		return size;
+	}
+
+	@Override
+	public Set<Map.Entry<Integer, QueryOption>> entrySet() {
+		return new AbstractSet<Map.Entry<Integer, QueryOption>>() {
+			@Override
+			public Iterator<Map.Entry<Integer, QueryOption>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return QueryOptionMap.this.size();
+			}
+		};
+	}
+
+	private class EntryIterator implements Iterator<Map.Entry<Integer, QueryOption>> {
+		private int id = 0;
+		private int last = -1;
+		private Iterator<Map.Entry<Integer, QueryOption>> othersIt;
+
+		EntryIterator() {
+			advance();
+		}
+
+		private void advance() {
+			for(id++; id < DEFAULTS.length; id++) {
+				if(contains(id)) return;
+			}
+			if(othersIt == null && others != null) {
+				othersIt = others.entrySet().iterator();
+			}
+		}
+
+		public boolean hasNext() {
+			return id < DEFAULTS.length || (othersIt != null && othersIt.hasNext());
+		}
+
+		public Map.Entry<Integer, QueryOption> next() {
+			if(id < DEFAULTS.length) {
+				last = id;
+				Map.Entry<Integer, QueryOption> entry = new SimpleEntry<Integer, QueryOption>(id, get(id));
+				advance();
+				return entry;
+			}
+			if(othersIt == null) {
+				throw new NoSuchElementException();
+			}
+			last = -1;
+			return othersIt.next();
+		}
+
+		public void remove() {
+			if(last != -1) {
+				QueryOptionMap.this.remove(last);
+				last = -1;
+			} else if(othersIt != null) {
+				othersIt.remove();
+			} else {
+				throw new IllegalStateException();
+			}
+		}
+	}
+}
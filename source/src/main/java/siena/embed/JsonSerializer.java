@@ -16,14 +16,19 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import siena.Json;
+import siena.JsonReader;
 import siena.Query;
 import siena.SienaException;
 import siena.Util;
 
 public class JsonSerializer {
 	
+	// the fields bound by the streaming deserialization per @EmbeddedMap/@EmbeddedList class
+	private static Map<Class<?>, EmbeddedFields> embeddedFields = new ConcurrentHashMap<Class<?>, EmbeddedFields>();
+	
 	public static Json serialize(Object obj) {
 		return serialize(obj, null);
 	}
@@ -303,13 +308,17 @@ public class JsonSerializer {
 	      } else {
 	        collection = new HashSet<Object>();
 	      }
+	      // the element type isn't known: the strings, numbers and booleans are kept as read
 	      for (Json value : data) {
-	        if( value.isString()){
-	          collection.add(deserializePlain(String.class, value));
+	        if(value.isString()) {
+	          collection.add(value.str());
+	        } else if(value.isBoolean()) {
+	          collection.add(value.asBoolean());
+	        } else if(value.isIntegral()) {
+	          collection.add(value.asLong());
+	        } else if(value.isNumber()) {
+	          collection.add(value.asDouble());
 	        }
-	        else
-	          // TODO other types
-	         continue;
 	      }
 	      return collection;
 	    }
@@ -464,5 +473,273 @@ public class JsonSerializer {
 		}
 		return null;
 	}
-
+	
+	/**
+	 * Deserializes the next value of the reader into the class like deserialize(Class, Json)
+	 * but binds the values to the fields while the text is read, without building the Json tree.
+	 */
+	public static Object deserialize(Class<?> clazz, JsonReader reader) {
+		try {
+			if(clazz.isAnnotationPresent(EmbeddedMap.class)) {
+				if(reader.peek() != JsonReader.Token.BEGIN_OBJECT) {
+					return deserialize(clazz, reader.readJson());
+				}
+				return deserializeMap(clazz, getEmbeddedFields(clazz), reader);
+			}
+			if(clazz.isAnnotationPresent(EmbeddedList.class)) {
+				if(reader.peek() != JsonReader.Token.BEGIN_ARRAY) {
+					return deserialize(clazz, reader.readJson());
+				}
+				return deserializeList(clazz, getEmbeddedFields(clazz), reader);
+			}
+			if(Json.class.isAssignableFrom(clazz) || clazz.isAnnotationPresent(JsonDeserializeAs.class)) {
+				return deserialize(clazz, reader.readJson());
+			}
+			if(Collection.class.isAssignableFrom(clazz)) {
+				if(reader.peek() != JsonReader.Token.BEGIN_ARRAY) {
+					reader.skipValue();
+					return null;
+				}
+				Collection<Object> collection = null;
+				if(clazz == List.class) {
+					collection = new ArrayList<Object>();
+				} else {
+					collection = new HashSet<Object>();
+				}
+				// the same values as deserialize(Class, Json): the maps, lists and nulls are skipped
+				reader.beginArray();
+				while(reader.hasNext()) {
+					switch(reader.peek()) {
+					case STRING:
+						collection.add(reader.nextString());
+						break;
+					case BOOLEAN:
+						collection.add(reader.nextBoolean());
+						break;
+					case NUMBER:
+						if(reader.isIntegral()) {
+							collection.add(reader.nextLong());
+						} else {
+							collection.add(reader.nextDouble());
+						}
+						break;
+					default:
+						reader.skipValue();
+					}
+				}
+				reader.endArray();
+				return collection;
+			}
+			return deserializePlain(clazz, reader);
+		} catch(Exception e) {
+			throw new SienaException(e);
+		}
+	}
+	
+	/**
+	 * Deserializes the next value of the reader into the type of the field
+	 * like deserialize(Field, Json) without building the Json tree.
+	 */
+	public static Object deserialize(Field f, JsonReader reader) {
+		Class<?> clazz = f.getType();
+		JsonReader.Token token = reader.peek();
+		if(token == JsonReader.Token.NULL) {
+			reader.nextNull();
+			return deserializePlain(clazz, new Json(null));
+		}
+		
+		if(Map.class.isAssignableFrom(clazz)) {
+			if(token != JsonReader.Token.BEGIN_OBJECT) {
+				return deserialize(f, reader.readJson());
+			}
+			Class<?> valueClazz = Util.getGenericClass(f, 1);
+			Map<String, Object> map = new HashMap<String, Object>();
+			reader.beginObject();
+			while(reader.hasNext()) {
+				String key = reader.nextName();
+				map.put(key, deserialize(valueClazz, reader));
+			}
+			reader.endObject();
+			return map;
+		}
+		else if(Collection.class.isAssignableFrom(clazz)) {
+			if(token != JsonReader.Token.BEGIN_ARRAY) {
+				return deserialize(f, reader.readJson());
+			}
+			Class<?> elementClazz = Util.getGenericClass(f, 0);
+			Collection<Object> collection = null;
+			if(clazz == List.class) {
+				collection = new ArrayList<Object>();
+			} else {
+				collection = new HashSet<Object>();
+			}
+			reader.beginArray();
+			while(reader.hasNext()) {
+				collection.add(deserialize(elementClazz, reader));
+			}
+			reader.endArray();
+			return collection;
+		}
+		else if(Json.class.isAssignableFrom(clazz) || Field.class.isAssignableFrom(clazz)
+				|| clazz.isArray() || clazz == Class.class
+				|| f.isAnnotationPresent(Format.class) || f.isAnnotationPresent(JsonDeserializeAs.class)) {
+			return deserialize(f, reader.readJson());
+		}
+		
+		return deserialize(clazz, reader);
+	}
+	
+	private static Object deserializeMap(Class<?> clazz, EmbeddedFields desc, JsonReader reader) {
+		Object obj = Util.createObjectInstance(clazz);
+		boolean[] bound = new boolean[desc.fields.length];
+		reader.beginObject();
+		while(reader.hasNext()) {
+			int[] indexes = desc.byKey.get(reader.nextName());
+			if(indexes == null) {
+				reader.skipValue();
+			} else {
+				bind(obj, desc, indexes, bound, reader);
+			}
+		}
+		reader.endObject();
+		// the keys absent from the text
+		for(int i = 0; i < bound.length; i++) {
+			if(!bound[i]) {
+				Util.setField(obj, desc.fields[i], deserialize(desc.fields[i], (Json)null));
+			}
+		}
+		return obj;
+	}
+	
+	private static Object deserializeList(Class<?> clazz, EmbeddedFields desc, JsonReader reader) {
+		Object obj = Util.createObjectInstance(clazz);
+		boolean[] bound = new boolean[desc.fields.length];
+		reader.beginArray();
+		for(int at = 0; reader.hasNext(); at++) {
+			int[] indexes = at < desc.byIndex.length ? desc.byIndex[at] : null;
+			if(indexes == null) {
+				reader.skipValue();
+			} else {
+				bind(obj, desc, indexes, bound, reader);
+			}
+		}
+		reader.endArray();
+		// the model may have more fields than the text
+		for(int i = 0; i < bound.length; i++) {
+			if(!bound[i]) {
+				Util.setField(obj, desc.fields[i], deserialize(desc.fields[i], new Json(null)));
+			}
+		}
+		return obj;
+	}
+	
+	private static void bind(Object obj, EmbeddedFields desc, int[] indexes, boolean[] bound, JsonReader reader) {
+		if(indexes.length == 1) {
+			Field f = desc.fields[indexes[0]];
+			Util.setField(obj, f, deserialize(f, reader));
+			bound[indexes[0]] = true;
+			return;
+		}
+		// several fields of the class hierarchy read the same value
+		Json value = reader.readJson();
+		for(int i: indexes) {
+			Util.setField(obj, desc.fields[i], deserialize(desc.fields[i], value));
+			bound[i] = true;
+		}
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object deserializePlain(Class<?> type, JsonReader reader) {
+		JsonReader.Token token = reader.peek();
+		if(token == JsonReader.Token.NUMBER) {
+			if(type == Double.class || type == Double.TYPE) {
+				return reader.nextDouble();
+			}
+			if(type == Float.class || type == Float.TYPE) {
+				return reader.isIntegral() ? (float)reader.nextLong() : (float)reader.nextDouble();
+			}
+			if(reader.isIntegral()) {
+				if(type == Long.class || type == Long.TYPE) {
+					return reader.nextLong();
+				}
+				if(type == Integer.class || type == Integer.TYPE) {
+					return (int)reader.nextLong();
+				}
+				if(type == Short.class || type == Short.TYPE) {
+					return (short)reader.nextLong();
+				}
+			}
+		}
+		else if(token == JsonReader.Token.STRING) {
+			if(type == String.class) {
+				return reader.nextString();
+			}
+			if(type.isEnum()) {
+				return Enum.valueOf((Class<Enum>) type, reader.nextString());
+			}
+		}
+		else if(token == JsonReader.Token.BOOLEAN) {
+			if(type == Boolean.class || type == Boolean.TYPE) {
+				return reader.nextBoolean();
+			}
+		}
+		// the other conversions are the ones of the Json values
+		return deserializePlain(type, reader.readJson());
+	}
+	
+	private static EmbeddedFields getEmbeddedFields(Class<?> clazz) {
+		EmbeddedFields desc = embeddedFields.get(clazz);
+		if(desc == null) {
+			desc = new EmbeddedFields(clazz);
+			embeddedFields.put(clazz, desc);
+		}
+		return desc;
+	}
+	
+	/**
+	 * The fields of the class and its super classes in the order of deserialize(Class, Json)
+	 * with their json key (@EmbeddedMap) or their index (@EmbeddedList).
+	 */
+	private static class EmbeddedFields {
+		final Field[] fields;
+		final Map<String, int[]> byKey = new HashMap<String, int[]>();
+		int[][] byIndex = new int[0][];
+		
+		EmbeddedFields(Class<?> clazz) {
+			boolean isList = clazz.isAnnotationPresent(EmbeddedList.class);
+			List<Field> l = new ArrayList<Field>();
+			for(Class<?> cl = clazz; cl != null; cl = cl.getSuperclass()) {
+				for(Field f: cl.getDeclaredFields()) {
+					if(mustIgnore(f)) continue;
+					if(isList) {
+						At at = f.getAnnotation(At.class);
+						if(at == null) throw new SienaException("Field "+clazz+"."+f.getName()+" must be annotated with @At(n)");
+						if(at.value() >= byIndex.length) {
+							int[][] newIndex = new int[at.value() + 1][];
+							System.arraycopy(byIndex, 0, newIndex, 0, byIndex.length);
+							byIndex = newIndex;
+						}
+						byIndex[at.value()] = append(byIndex[at.value()], l.size());
+					} else {
+						Key key = f.getAnnotation(Key.class);
+						String name = key != null ? key.value() : f.getName();
+						byKey.put(name, append(byKey.get(name), l.size()));
+					}
+					l.add(f);
+				}
+			}
+			this.fields = l.toArray(new Field[l.size()]);
+		}
+		
+		private static int[] append(int[] indexes, int index) {
+			if(indexes == null) {
+				return new int[] { index };
+			}
+			int[] newIndexes = new int[indexes.length + 1];
+			System.arraycopy(indexes, 0, newIndexes, 0, indexes.length);
+			newIndexes[indexes.length] = index;
+			return newIndexes;
+		}
+	}
+	
 }
@@ -2165,10 +2165,37 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 
     Map<Key, Entity> entityMap = ds.get(keys);
 
+    // the filled objects are mapped together per class like get(Object) does for one object
+    Map<Class<?>, List<Object>> filled = new HashMap<Class<?>, List<Object>>();
+    int i = 0;
     for (Object obj : objects) {
-      Entity e = entityMap.get(GaeMappingUtils.getKey(obj));
+      Entity e = entityMap.get(keys.get(i++));
       if (e != null) {
         GaeMappingUtils.fillModel(obj, e);
+        List<Object> l = filled.get(obj.getClass());
+        if (l == null) {
+          l = new ArrayList<Object>();
+          filled.put(obj.getClass(), l);
+        }
+        l.add(obj);
+      }
+    }
+
+    for (Map.Entry<Class<?>, List<Object>> entry : filled.entrySet()) {
+      ClassInfo info = ClassInfo.getClassInfo(entry.getKey());
+      // related fields (Many<T> management mainly)
+      if (!info.ownedFields.isEmpty()) {
+        mapOwned(entry.getValue());
+      }
+
+      // aggregated management
+      if (!info.aggregatedFields.isEmpty()) {
+        mapAggregated(entry.getValue());
+      }
+
+      // join management
+      if (!info.joinFields.isEmpty()) {
+        mapJoins(entry.getValue());
       }
     }
 
@@ -2189,30 +2216,36 @@ public class GaePersistenceManager extends AbstractPersistenceManager {
 
     Map<Key, Entity> entityMap = ds.get(gaeKeys);
     List<T> models = new ArrayList<T>(entityMap.size());
+    // the models found are mapped together: the joined entities are retrieved in one batch
+    List<T> found = new ArrayList<T>(entityMap.size());
+    int i = 0;
     for (Object key : keys) {
-      Entity entity = entityMap.get(GaeMappingUtils.makeKeyFromId(clazz, key));
+      Entity entity = entityMap.get(gaeKeys.get(i++));
       T obj = null;
       if (entity != null) {
         obj = GaeMappingUtils.mapEntity(entity, clazz);
         if (obj != null) {
-          // related fields (Many<T> management mainly)
-          if (!info.ownedFields.isEmpty()) {
-            mapOwned(obj);
-          }
+          found.add(obj);
+        }
+      }
+      models.add(obj);
+    }
 
-          // aggregated management
-          if (!info.aggregatedFields.isEmpty()) {
-            mapAggregated(obj);
-          }
+    if (!found.isEmpty()) {
+      // related fields (Many<T> management mainly)
+      if (!info.ownedFields.isEmpty()) {
+        mapOwned(found);
+      }
 
-          // join management
-          if (!info.joinFields.isEmpty()) {
-            mapJoins(obj);
-          }
+      // aggregated management
+      if (!info.aggregatedFields.isEmpty()) {
+        mapAggregated(found);
+      }
 
-        }
+      // join management
+      if (!info.joinFields.isEmpty()) {
+        mapJoins(found);
       }
-      models.add(obj);
     }
 
     return models;
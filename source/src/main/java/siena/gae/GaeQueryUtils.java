@@ -181,6 +181,13 @@ public class GaeQueryUtils {
           } else if (Enum.class.isAssignableFrom(f.getType())) {
             value = value.toString();
             q.addFilter(propertyName, op, value);
+          } else if (value != null && ClassInfo.isModel(f.getType()) && Collection.class.isAssignableFrom(value.getClass())) {
+            // IN on a relation field: the models are replaced by their keys
+            List<Key> keys = new ArrayList<Key>();
+            for (Object val : (Collection<?>) value) {
+              keys.add(val == null ? null : GaeMappingUtils.getKey(val));
+            }
+            q.addFilter(propertyName, op, keys);
           } else {
             q.addFilter(propertyName, op, value);
           }
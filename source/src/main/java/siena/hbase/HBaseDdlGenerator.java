@@ -54,7 +54,7 @@ public class HBaseDdlGenerator {
 	private HTableDescriptor createTable(String tableName) {
 		HTableDescriptor descriptor = new HTableDescriptor(tableName);
 		
-		HColumnDescriptor columnDescriptor = new HColumnDescriptor("string:");
+		HColumnDescriptor columnDescriptor = new HColumnDescriptor(HBaseMappingUtils.FAMILY);
 		descriptor.addFamily(columnDescriptor);
 		
 		return descriptor;
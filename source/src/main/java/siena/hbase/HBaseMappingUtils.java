@@ -0,0 +1,471 @@
+package siena.hbase;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.BinaryPrefixComparator;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.PageFilter;
+import org.apache.hadoop.hbase.filter.PrefixFilter;
+import org.apache.hadoop.hbase.filter.RegexStringComparator;
+import org.apache.hadoop.hbase.filter.RowFilter;
+import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
+import org.apache.hadoop.hbase.filter.WritableByteArrayComparable;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import siena.ClassInfo;
+import siena.Generator;
+import siena.Id;
+import siena.QueryData;
+import siena.QueryFilter;
+import siena.QueryFilterSimple;
+import siena.QueryOrder;
+import siena.SienaException;
+import siena.SienaRestrictedApiException;
+import siena.Util;
+import siena.sdb.SdbMappingUtils;
+
+/**
+ * Maps the models to HBase rows and the siena queries to HBase scans.
+ *
+ * The id of a model is the row key and its other fields are the columns of the family "string".
+ * The values are stored as the strings of SdbMappingUtils (the ints are offset and zero padded)
+ * so that their lexicographic order, the only one known by HBase, is the natural order for strings and ints.
+ *
+ * The filters are evaluated by the region servers: the filters on the id restrict the range of rows scanned,
+ * the other ones are mapped to SingleColumnValueFilters and the limit to a PageFilter.
+ */
+public class HBaseMappingUtils {
+	public static final String DB = "HBASE";
+
+	public static final byte[] FAMILY = Bytes.toBytes("string");
+
+	private static final byte[] EMPTY = new byte[0];
+
+	public static byte[] getQualifier(Field field) {
+		return Bytes.toBytes(ClassInfo.getColumnNames(field)[0]);
+	}
+
+	public static byte[] toBytes(Field field, Object val) {
+		String str = SdbMappingUtils.toString(field, val);
+		if(str == null) return null;
+		return Bytes.toBytes(str);
+	}
+
+	/**
+	 * @return the row key of the object (a UUID is generated for the @Id(UUID) fields without value)
+	 */
+	public static byte[] getRowKey(Object obj) {
+		Field idField = ClassInfo.getIdField(obj.getClass());
+		Object idVal = Util.readField(obj, idField);
+		if(idVal == null){
+			Id id = idField.getAnnotation(Id.class);
+			if(id == null || id.value() != Generator.UUID){
+				throw new SienaException("Id Field " + idField.getName() + " value null");
+			}
+			UUID uuid = UUID.randomUUID();
+			if(idField.getType() == UUID.class){
+				Util.setField(obj, idField, uuid);
+			}
+			else if(idField.getType() == String.class){
+				Util.setField(obj, idField, uuid.toString());
+			}
+			else {
+				throw new SienaRestrictedApiException(DB, "getRowKey", "@Id UUID must be of type String or UUID");
+			}
+			idVal = uuid;
+		}
+		return toBytes(idField, idVal);
+	}
+
+	public static byte[] getRowKeyFromKey(Class<?> clazz, Object key) {
+		if(key == null){
+			throw new SienaException("Key of "+clazz.getName()+" is null");
+		}
+		return toBytes(ClassInfo.getIdField(clazz), key);
+	}
+
+	public static Put createPut(Object obj) {
+		Put put = new Put(getRowKey(obj));
+		for (Field field : ClassInfo.getClassInfo(obj.getClass()).updateFields) {
+			if(ClassInfo.isEmbeddedNative(field)){
+				continue;
+			}
+			byte[] value = toBytes(field, Util.readField(obj, field));
+			if(value != null){
+				put.add(FAMILY, getQualifier(field), value);
+			}
+		}
+		return put;
+	}
+
+	/**
+	 * @return the columns of the null fields, which must be deleted when the object is updated
+	 */
+	public static Delete createNullColumnsDelete(Object obj, byte[] rowKey) {
+		Delete delete = null;
+		for (Field field : ClassInfo.getClassInfo(obj.getClass()).updateFields) {
+			if(!ClassInfo.isEmbeddedNative(field) && Util.readField(obj, field) == null){
+				if(delete == null){
+					delete = new Delete(rowKey);
+				}
+				delete.deleteColumns(FAMILY, getQualifier(field));
+			}
+		}
+		return delete;
+	}
+
+	public static Get createGet(byte[] rowKey) {
+		Get get = new Get(rowKey);
+		get.addFamily(FAMILY);
+		return get;
+	}
+
+	public static void fillModelKeysOnly(Class<?> clazz, Object obj, Result result) {
+		SdbMappingUtils.setFromString(obj, ClassInfo.getIdField(clazz), Bytes.toString(result.getRow()));
+	}
+
+	/**
+	 * Fills the fields found in the result (a row may be split into several results when the scan has a batch size)
+	 */
+	public static void fillModel(Class<?> clazz, Object obj, Result result) {
+		fillModelKeysOnly(clazz, obj, result);
+		for (Field field : ClassInfo.getClassInfo(clazz).updateFields) {
+			if(ClassInfo.isEmbeddedNative(field)){
+				continue;
+			}
+			byte[] value = result.getValue(FAMILY, getQualifier(field));
+			if(value != null){
+				SdbMappingUtils.setFromString(obj, field, Bytes.toString(value));
+			}
+		}
+	}
+
+	/**
+	 * Maps the results of a scan, the results of the same row being merged into one object.
+	 *
+	 * @param offset the number of rows to skip
+	 * @param limit the max number of objects mapped
+	 * @return the number of rows read
+	 */
+	public static <T> int mapResults(Class<T> clazz, Iterable<Result> results, List<T> resList,
+			boolean keysOnly, int offset, int limit) {
+		int rows = 0;
+		byte[] row = null;
+		T obj = null;
+		for(Result result: results){
+			if(result.isEmpty()){
+				continue;
+			}
+			if(row == null || !Bytes.equals(row, result.getRow())){
+				if(resList.size() >= limit){
+					break;
+				}
+				row = result.getRow();
+				rows++;
+				if(rows <= offset){
+					obj = null;
+					continue;
+				}
+				obj = Util.createObjectInstance(clazz);
+				resList.add(obj);
+			}
+			if(obj != null){
+				if(keysOnly){
+					fillModelKeysOnly(clazz, obj, result);
+				}else {
+					fillModel(clazz, obj, result);
+				}
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * @return the smallest row key greater than key
+	 */
+	public static byte[] nextRowKey(byte[] key) {
+		return Bytes.add(key, new byte[]{ 0 });
+	}
+
+	/**
+	 * @return the smallest row key greater than all the keys starting with prefix (an empty array if none)
+	 */
+	public static byte[] prefixStopRow(byte[] prefix) {
+		for(int i=prefix.length-1; i>=0; i--){
+			if(prefix[i] != (byte)0xff){
+				byte[] stop = Bytes.head(prefix, i+1);
+				stop[i]++;
+				return stop;
+			}
+		}
+		return EMPTY;
+	}
+
+	/**
+	 * The scan of a query with the rows range computed from the filters on the id
+	 */
+	public static class QueryScan {
+		public final Scan scan;
+		// the filters on the id contradict each other
+		public boolean empty = false;
+		// there is no filter on the columns
+		public boolean onlyRowFilters = true;
+
+		QueryScan(Scan scan) {
+			this.scan = scan;
+		}
+	}
+
+	/**
+	 * Builds the scan of the query.
+	 *
+	 * @param keysOnly only the row keys are needed
+	 * @param limit the number of rows to read (Integer.MAX_VALUE for all)
+	 * @param caching the number of rows fetched by each call to the region servers
+	 * @param batch the max number of columns in a result (0 for all the columns of the row)
+	 */
+	public static <T> QueryScan buildScan(QueryData<T> query, boolean keysOnly, int limit, int caching, int batch) {
+		Class<T> clazz = query.getQueriedClass();
+		Field idField = ClassInfo.getIdField(clazz);
+
+		if(!query.getSearches().isEmpty()){
+			throw new SienaRestrictedApiException(DB, "search", "search is not supported by HBase");
+		}
+		if(!query.getJoins().isEmpty()){
+			throw new SienaRestrictedApiException(DB, "join", "join is not supported by HBase");
+		}
+		for(QueryOrder order: query.getOrders()){
+			// the rows are always scanned by ascending row key
+			if(!order.field.equals(idField) || !order.ascending){
+				throw new SienaRestrictedApiException(DB, "order", "HBase only sorts by ascending id");
+			}
+		}
+
+		QueryScan qs = new QueryScan(new Scan());
+		byte[] start = EMPTY;
+		byte[] stop = EMPTY;
+		FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+
+		for(QueryFilter filter: query.getFilters()){
+			if(!QueryFilterSimple.class.isAssignableFrom(filter.getClass())){
+				throw new SienaRestrictedApiException(DB, "filter", filter.getClass().getName()+" is not supported by HBase");
+			}
+			QueryFilterSimple qf = (QueryFilterSimple)filter;
+			String op = qf.operator;
+
+			if(qf.field.equals(idField)){
+				if("IN".equals(op)){
+					Collection<?> keys = (Collection<?>)qf.value;
+					if(keys.isEmpty()){
+						qs.empty = true;
+						continue;
+					}
+					FilterList in = new FilterList(FilterList.Operator.MUST_PASS_ONE);
+					byte[] min = null;
+					byte[] max = null;
+					for(Object key: keys){
+						byte[] row = getRowKeyFromKey(clazz, key);
+						in.addFilter(new RowFilter(CompareOp.EQUAL, new BinaryComparator(row)));
+						if(min == null || Bytes.compareTo(row, min) < 0) min = row;
+						if(max == null || Bytes.compareTo(row, max) > 0) max = row;
+					}
+					filters.addFilter(in);
+					start = maxStart(start, min);
+					stop = minStop(stop, nextRowKey(max));
+				}
+				else if("LIKE".equals(op) || "NOT LIKE".equals(op)){
+					String pattern = (String)qf.value;
+					String prefix = likePrefix(pattern);
+					if("LIKE".equals(op) && prefix != null){
+						byte[] p = Bytes.toBytes(prefix);
+						filters.addFilter(new PrefixFilter(p));
+						start = maxStart(start, p);
+						stop = minStop(stop, prefixStopRow(p));
+					}else {
+						filters.addFilter(new RowFilter("LIKE".equals(op)?CompareOp.EQUAL:CompareOp.NOT_EQUAL,
+								new RegexStringComparator(likeToRegex(pattern))));
+					}
+				}
+				else if("!=".equals(op)){
+					filters.addFilter(new RowFilter(CompareOp.NOT_EQUAL,
+							new BinaryComparator(getRowKeyFromKey(clazz, qf.value))));
+				}
+				else {
+					byte[] row = getRowKeyFromKey(clazz, qf.value);
+					if("=".equals(op)){
+						start = maxStart(start, row);
+						stop = minStop(stop, nextRowKey(row));
+					} else {
+						// the row keys are only sorted like the ids for the strings and the ints
+						Class<?> type = idField.getType();
+						if(type != String.class && type != Integer.class && type != int.class){
+							throw new SienaRestrictedApiException(DB, "filter",
+									"HBase can't compare ids of type "+type.getName());
+						}
+						if(">".equals(op)) start = maxStart(start, nextRowKey(row));
+						else if(">=".equals(op)) start = maxStart(start, row);
+						else if("<".equals(op)) stop = minStop(stop, row);
+						else if("<=".equals(op)) stop = minStop(stop, nextRowKey(row));
+						else throw new SienaRestrictedApiException(DB, "filter", "operator "+op+" not supported");
+					}
+				}
+			}
+			else {
+				if(ClassInfo.isEmbeddedNative(qf.field)){
+					throw new SienaRestrictedApiException(DB, "filter", "HBase can't filter on native embedded fields");
+				}
+				qs.onlyRowFilters = false;
+				filters.addFilter(buildColumnFilter(qf));
+			}
+		}
+
+		if(stop.length > 0 && Bytes.compareTo(start, stop) >= 0){
+			qs.empty = true;
+		}
+		qs.scan.setStartRow(start);
+		qs.scan.setStopRow(stop);
+		qs.scan.addFamily(FAMILY);
+
+		if(keysOnly && qs.onlyRowFilters){
+			// only the first cell of each row, without its value
+			filters.addFilter(new FirstKeyOnlyFilter());
+			filters.addFilter(new KeyOnlyFilter());
+		}
+		// must be the last filter to count only the rows accepted by the other ones
+		if(limit != Integer.MAX_VALUE){
+			filters.addFilter(new PageFilter(limit));
+		}
+
+		if(!filters.getFilters().isEmpty()){
+			qs.scan.setFilter(filters.getFilters().size() == 1 ? filters.getFilters().get(0) : filters);
+		}
+		qs.scan.setCaching(limit < caching ? Math.max(limit, 1) : caching);
+		// a row split into several results can't be filtered as a whole
+		if(batch > 0 && (qs.scan.getFilter() == null || !qs.scan.getFilter().hasFilterRow())){
+			qs.scan.setBatch(batch);
+		}
+		return qs;
+	}
+
+	protected static Filter buildColumnFilter(QueryFilterSimple qf) {
+		byte[] qualifier = getQualifier(qf.field);
+		String op = qf.operator;
+
+		if(qf.value == null){
+			SingleColumnValueFilter f;
+			if("=".equals(op)){
+				// the null values are not stored: keeps only the rows without the column
+				// (no value is less than the empty array)
+				f = new SingleColumnValueFilter(FAMILY, qualifier, CompareOp.LESS, new BinaryComparator(EMPTY));
+				f.setFilterIfMissing(false);
+			}
+			else if("!=".equals(op)){
+				f = new SingleColumnValueFilter(FAMILY, qualifier, CompareOp.GREATER_OR_EQUAL, new BinaryComparator(EMPTY));
+				f.setFilterIfMissing(true);
+			}
+			else throw new SienaRestrictedApiException(DB, "filter", "operator "+op+" not supported with null");
+			return f;
+		}
+
+		if("IN".equals(op)){
+			FilterList in = new FilterList(FilterList.Operator.MUST_PASS_ONE);
+			for(Object val: (Collection<?>)qf.value){
+				in.addFilter(columnFilter(qualifier, CompareOp.EQUAL, new BinaryComparator(toBytes(qf.field, val))));
+			}
+			if(in.getFilters().isEmpty()){
+				// no value matches
+				in.addFilter(columnFilter(qualifier, CompareOp.LESS, new BinaryComparator(EMPTY)));
+			}
+			return in;
+		}
+		if("LIKE".equals(op) || "NOT LIKE".equals(op)){
+			String pattern = (String)qf.value;
+			String prefix = likePrefix(pattern);
+			CompareOp cop = "LIKE".equals(op)?CompareOp.EQUAL:CompareOp.NOT_EQUAL;
+			if(prefix != null){
+				return columnFilter(qualifier, cop, new BinaryPrefixComparator(Bytes.toBytes(prefix)));
+			}
+			return columnFilter(qualifier, cop, new RegexStringComparator(likeToRegex(pattern)));
+		}
+		return columnFilter(qualifier, compareOp(op), new BinaryComparator(toBytes(qf.field, qf.value)));
+	}
+
+	private static Filter columnFilter(byte[] qualifier, CompareOp op, WritableByteArrayComparable comparator) {
+		SingleColumnValueFilter f = new SingleColumnValueFilter(FAMILY, qualifier, op, comparator);
+		f.setFilterIfMissing(true);
+		return f;
+	}
+
+	protected static CompareOp compareOp(String op) {
+		if("=".equals(op)) return CompareOp.EQUAL;
+		if("!=".equals(op)) return CompareOp.NOT_EQUAL;
+		if("<".equals(op)) return CompareOp.LESS;
+		if("<=".equals(op)) return CompareOp.LESS_OR_EQUAL;
+		if(">".equals(op)) return CompareOp.GREATER;
+		if(">=".equals(op)) return CompareOp.GREATER_OR_EQUAL;
+		throw new SienaRestrictedApiException(DB, "filter", "operator "+op+" not supported");
+	}
+
+	/**
+	 * @return the prefix if the pattern is prefix% (without any other wildcard), null otherwise
+	 */
+	protected static String likePrefix(String pattern) {
+		if(pattern.length() > 1 && pattern.indexOf('%') == pattern.length()-1 && pattern.indexOf('_') == -1){
+			return pattern.substring(0, pattern.length()-1);
+		}
+		return null;
+	}
+
+	protected static String likeToRegex(String pattern) {
+		StringBuilder regex = new StringBuilder("^");
+		StringBuilder literal = new StringBuilder();
+		for(char c: pattern.toCharArray()){
+			if(c == '%' || c == '_'){
+				if(literal.length() > 0){
+					regex.append(Pattern.quote(literal.toString()));
+					literal.setLength(0);
+				}
+				regex.append(c == '%' ? ".*" : ".");
+			}else {
+				literal.append(c);
+			}
+		}
+		if(literal.length() > 0){
+			regex.append(Pattern.quote(literal.toString()));
+		}
+		return regex.append("$").toString();
+	}
+
+	private static byte[] maxStart(byte[] start, byte[] row) {
+		return Bytes.compareTo(start, row) >= 0 ? start : row;
+	}
+
+	private static byte[] minStop(byte[] stop, byte[] row) {
+		if(stop.length == 0) return row;
+		if(row.length == 0) return stop;
+		return Bytes.compareTo(stop, row) <= 0 ? stop : row;
+	}
+
+	public static <T> List<byte[]> getRowKeys(Class<T> clazz, Iterable<?> keys) {
+		List<byte[]> rows = new ArrayList<byte[]>();
+		for(Object key: keys){
+			rows.add(getRowKeyFromKey(clazz, key));
+		}
+		return rows;
+	}
+}
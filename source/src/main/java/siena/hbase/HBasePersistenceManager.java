@@ -1,763 +1,738 @@
 package siena.hbase;
 
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
-import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
-import org.apache.hadoop.hbase.client.Scan;
-import org.apache.hadoop.hbase.util.Bytes;
 
 import siena.AbstractPersistenceManager;
 import siena.ClassInfo;
-import siena.PersistenceManager;
 import siena.Query;
-import siena.QueryAggregated;
-import siena.QueryFilter;
-import siena.QueryFilterSearch;
-import siena.QueryJoin;
-import siena.QueryOrder;
-import siena.QueryOwned;
 import siena.SienaException;
-import siena.core.Many4PM;
-import siena.core.One4PM;
+import siena.Util;
 import siena.core.async.PersistenceManagerAsync;
-import siena.core.async.QueryAsync;
-import siena.core.options.QueryOption;
-
+import siena.core.options.QueryOptionFetchType;
+import siena.core.options.QueryOptionOffset;
+import siena.core.options.QueryOptionPage;
+import siena.core.options.QueryOptionState;
+
+/**
+ * Persists the models into HBase (see HBaseMappingUtils for the mapping).
+ *
+ * The tables are taken from a HBaseTablePool shared by all the threads, the queries are evaluated
+ * by the region servers with filters and the writes of several models are sent as lists of Puts/Deletes.
+ */
 public class HBasePersistenceManager extends AbstractPersistenceManager {
-	
+	public static final String DB = HBaseMappingUtils.DB;
+	private static final String[] supportedOperators = { "<", ">", ">=", "<=", "!=", "=", "LIKE", "NOT LIKE", "IN" };
+
+	public static final int DEFAULT_POOL_SIZE = 10;
+	public static final int DEFAULT_SCAN_CACHING = 100;
+	public static final int DEFAULT_SCAN_BATCH = 0;
+	public static final int DEFAULT_WRITE_BATCH = 1000;
+
 	private Configuration config;
-	
+	private HBaseTablePool pool;
+	private int scanCaching = DEFAULT_SCAN_CACHING;
+	private int scanBatch = DEFAULT_SCAN_BATCH;
+	private int writeBatch = DEFAULT_WRITE_BATCH;
+
+	private final AtomicLong scans = new AtomicLong();
+
 	public HBasePersistenceManager() {
 		config = HBaseConfiguration.create();
 	}
 
-	public void beginTransaction(int isolationLevel) {
-		// TODO Auto-generated method stub
-		
-	}
-	
-	public void beginTransaction() {
-		// TODO Auto-generated method stub
-		
+	public void init(Properties p) {
+		init(p, null);
+	}
+
+	/**
+	 * Initializes the manager with the tables created by the given factory (the HTables of the cluster if null).
+	 *
+	 * The properties starting with hbase. are copied into the HBase configuration and the engine is configured with:
+	 * <pre>
+	 * pool.size=10       max number of idle HTables kept by table
+	 * scan.caching=100   number of rows fetched by each call to the region servers
+	 * scan.batch=0       max number of columns of a result (0 for the whole row)
+	 * write.batch=1000   max number of Puts/Deletes sent at once
+	 * </pre>
+	 */
+	public void init(Properties p, HTableInterfaceFactory factory) {
+		for(String name: p.stringPropertyNames()){
+			if(name.startsWith("hbase.")){
+				config.set(name, p.getProperty(name));
+			}
+		}
+		int poolSize = Integer.parseInt(p.getProperty("pool.size", Integer.toString(DEFAULT_POOL_SIZE)).trim());
+		scanCaching = Integer.parseInt(p.getProperty("scan.caching", Integer.toString(DEFAULT_SCAN_CACHING)).trim());
+		scanBatch = Integer.parseInt(p.getProperty("scan.batch", Integer.toString(DEFAULT_SCAN_BATCH)).trim());
+		writeBatch = Integer.parseInt(p.getProperty("write.batch", Integer.toString(DEFAULT_WRITE_BATCH)).trim());
+		if(scanCaching <= 0 || writeBatch <= 0){
+			throw new SienaException("scan.caching and write.batch must be greater than 0");
+		}
+
+		synchronized(this) {
+			closePool();
+			pool = new HBaseTablePool(config, poolSize, factory);
+		}
 	}
 
-	public void closeConnection() {
-		// TODO Auto-generated method stub
-		
+	public synchronized HBaseTablePool getPool() {
+		if(pool == null){
+			pool = new HBaseTablePool(config, DEFAULT_POOL_SIZE, null);
+		}
+		return pool;
 	}
 
-	public void commitTransaction() {
-		// TODO Auto-generated method stub
-		
+	public HTableInterface getTable(String tableName) {
+		return getPool().getTable(tableName);
 	}
 
-	public <T> Query<T> createQuery(Class<T> clazz) {
-		return new HBaseQuery<T>(clazz);
+	/**
+	 * gives the table back to the pool
+	 */
+	public void releaseTable(HTableInterface table) {
+		getPool().putTable(table);
 	}
 
-	public void delete(Object obj) {
-		Class<?> clazz = obj.getClass();
-		ClassInfo info = ClassInfo.getClassInfo(clazz);
-		try {
-			HTable table = new HTable(config, info.tableName);
-			Field id = ClassInfo.getIdField(clazz);
-			id.setAccessible(true);
-			Delete d = new Delete(Bytes.toBytes(id.get(obj).toString()));
-			table.delete(d);
-		} catch(Exception e) {
-			throw new SienaException(e);
+	/**
+	 * closes the tables of the pool
+	 */
+	public synchronized void closePool() {
+		if(pool != null){
+			pool.close();
+			pool = null;
 		}
 	}
 
-	public void get(Object obj) {
-		Class<?> clazz = obj.getClass();
-		ClassInfo info = ClassInfo.getClassInfo(clazz);
-		try {
-			HTable table = new HTable(config, info.tableName);
-			Field id = ClassInfo.getIdField(clazz);
-			id.setAccessible(true);
-			
-			Get g = new Get(Bytes.toBytes(id.get(obj).toString()));			
-			Result rowResult = table.get(g);
-			if(rowResult.isEmpty()) throw new SienaException("No such object");
-			mapObject(clazz, obj, rowResult);
-		} catch(Exception e) {
-			throw new SienaException(e);
-		}
+	/**
+	 * @return the number of scans sent
+	 */
+	public long getScans() {
+		return scans.get();
 	}
 
-	public void init(Properties p) {
+	protected String getTableName(Class<?> clazz) {
+		return ClassInfo.getClassInfo(clazz).tableName;
 	}
 
+	/* writes */
+
 	public void insert(Object obj) {
-		Class<?> clazz = obj.getClass();
-		ClassInfo info = ClassInfo.getClassInfo(clazz);
-		
-		try {
-			HTable table = new HTable(config, info.tableName);
-			Field id = ClassInfo.getIdField(clazz);
-			id.setAccessible(true);
-			
-			Put p = new Put(Bytes.toBytes(id.get(obj).toString()));
-			
-			List<Field> fields = info.insertFields;
-			for (Field field : fields) {
-				p.add(Bytes.toBytes("string"), 
-						Bytes.toBytes(ClassInfo.getColumnNames(field)[0]), 
-						Bytes.toBytes(field.get(obj).toString()));
-			}
-			table.put(p);
-		} catch(Exception e) {
-			throw new SienaException(e);
-		}
+		insert(Arrays.asList(obj));
 	}
 
-	public void rollbackTransaction() {
-		// TODO Auto-generated method stub
-		
+	@Override
+	public int insert(Object... objects) {
+		return insert(Arrays.asList(objects));
 	}
 
-	public void update(Object obj) {
-		insert(obj);
-	}
-	
-	private <T> void mapObject(Class<T> clazz, Object obj, Result result) {
-		try {
-			String id = Bytes.toString(result.getRow());
-			ClassInfo info = ClassInfo.getClassInfo(clazz);
-			for (Field field : info.insertFields) {
-				String column = "string:"+ClassInfo.getColumnNames(field)[0];
-				String value = 
-					Bytes.toString(
-							result.getValue(
-									Bytes.toBytes("string"), 
-									Bytes.toBytes(ClassInfo.getColumnNames(field)[0])));
-				field.setAccessible(true);
-				field.set(obj, value);
-			}
-			ClassInfo.getIdField(clazz).set(obj, id);
-		} catch(Exception e) {
-			throw new SienaException(e);
-		}
-	}
-	
-	private <T> T mapObject(Class<T> clazz, Result rowResult) {
-		try {
-			T obj = clazz.newInstance();
-			mapObject(clazz, obj, rowResult);
-			return obj;
-		} catch(SienaException e) {
-			throw e;
-		} catch(Exception e) {
-			throw new SienaException(e);
+	@Override
+	public int insert(Iterable<?> objects) {
+		Map<String, List<Put>> puts = new LinkedHashMap<String, List<Put>>();
+		int nb = 0;
+		for(Object obj: objects){
+			add(puts, getTableName(obj.getClass()), HBaseMappingUtils.createPut(obj));
+			nb++;
 		}
+		put(puts);
+		return nb;
 	}
-	
-	class HBaseQuery<T> implements Query<T> {
-		
-		private Class<T> clazz;
-		private ClassInfo info;
-		
-		public HBaseQuery(Class<T> clazz) {
-			this.clazz = clazz;
-			info = ClassInfo.getClassInfo(clazz);
-		}
-
-		@Override
-		public int count() {
-			// TODO Auto-generated method stub
-			return 0;
-		}
-
-		@Override
-		public int count(int limit) {
-			// TODO Auto-generated method stub
-			return 0;
-		}
 
-		@Override
-		public int count(int limit, Object offset) {
-			// TODO Auto-generated method stub
-			return 0;
-		}
+	public void update(Object obj) {
+		update(Arrays.asList(obj));
+	}
 
-		@Override
-		public List<T> fetch() {
-			ResultScanner scanner = null;
-			try {
-				HTable table = new HTable(config, info.tableName);
-				List<Field> fields = info.insertFields;
-				List<String> names = new ArrayList<String>();
-				
-				Scan s = new Scan();
-				for (Field field : fields) {
-					s.addColumn(
-							Bytes.toBytes("string"), 
-							Bytes.toBytes(ClassInfo.getColumnNames(field)[0]));
-				}
-								
-				scanner = table.getScanner(s);
-				List<T> results = new ArrayList<T>();
-				for (Result rr = scanner.next(); rr != null; rr = scanner.next()) {
-					// print out the row we found and the columns we were looking for
-					results.add(mapObject(clazz, rr));
-				}
+	@Override
+	public <T> int update(Object... models) {
+		return update(Arrays.asList(models));
+	}
 
-				return results;
-			} catch(SienaException e) {
-				throw e;
-			} catch(Exception e) {
-				throw new SienaException(e);
-			} finally {
-				scanner.close();
+	@Override
+	public <T> int update(Iterable<T> models) {
+		Map<String, List<Put>> puts = new LinkedHashMap<String, List<Put>>();
+		Map<String, List<Delete>> deletes = new LinkedHashMap<String, List<Delete>>();
+		int nb = 0;
+		for(Object obj: models){
+			String tableName = getTableName(obj.getClass());
+			Put put = HBaseMappingUtils.createPut(obj);
+			add(puts, tableName, put);
+			// the columns of the fields set to null are removed
+			Delete delete = HBaseMappingUtils.createNullColumnsDelete(obj, put.getRow());
+			if(delete != null){
+				add(deletes, tableName, delete);
 			}
+			nb++;
 		}
+		delete(deletes);
+		put(puts);
+		return nb;
+	}
 
+	public void save(Object obj) {
+		save(Arrays.asList(obj));
+	}
 
-		@Override
-		public List<T> fetch(int limit) {
-			// TODO Auto-generated method stub
-			return null;
-		}
-
-		@Override
-		public List<T> fetch(int limit, Object offset) {
-			// TODO Auto-generated method stub		@Override
-
-			return null;
-		}
-
-		@Override
-		public Query<T> filter(String fieldName, Object value) {
-			// TODO Auto-generated method stub
-			return null;
-		}
-
-		@Override
-		public T get() {
-			List<T> list = fetch();
-			if(list.isEmpty()) return null;
-			return list.get(0);
-		}
-
-		@Override
-		public Iterable<T> iter() {
-			// TODO Auto-generated method stub
-			return null;
-		}
-
-		@Override
-		public Iterable<T> iter(int limit) {
-			// TODO Auto-generated method stub
-			return null;
-		}
-
-		@Override
-		public Iterable<T> iter(int limit, Object offset) {
-			// TODO Auto-generated method stub
-			return null;
-		}
-
-		@Override
-		public Query<T> order(String fieldName) {
-			// TODO Auto-generated method stub
-			return null;
-		}
-
-		@Override
-		public Query<T> search(String match, boolean inBooleanMode,
-				String index) {
-			// TODO Auto-generated method stub
-			return null;
-		}
-		
-		public HBaseQuery<T> clone() {
-			return null;
-		}
-		
-		@Override
-		public Object nextOffset() {
-			// TODO Auto-generated method stub
-			return null;
-		}
-
-		@Override
-		public int delete() {
-			// TODO Auto-generated method stub
-			return 0;
-		}
-
-		@Override
-		public List<T> fetchKeys() {
-			// TODO Auto-generated method stub
-			return null;
-		}
-
-		@Override
-		public List<T> fetchKeys(int limit) {
-			// TODO Auto-generated method stub
-			return null;
-		}
-
-		@Override
-		public List<T> fetchKeys(int limit, Object offset) {
-			// TODO Auto-generated method stub
-			return null;
-		}
-
-		@Override
-		public List<QueryFilter> getFilters() {
-			// TODO Auto-generated method stub
-			return null;
-		}
+	@Override
+	public int save(Object... objects) {
+		return save(Arrays.asList(objects));
+	}
 
-		@Override
-		public List<QueryOrder> getOrders() {
-			// TODO Auto-generated method stub
-			return null;
-		}
+	@Override
+	public int save(Iterable<?> objects) {
+		// a put creates or replaces the row
+		return update(objects);
+	}
 
-		@Override
-		public List<QueryFilterSearch> getSearches() {
-			// TODO Auto-generated method stub
-			return null;
-		}
+	public void delete(Object obj) {
+		delete(Arrays.asList(obj));
+	}
 
-		@Override
-		public void setNextOffset(Object nextOffset) {
-			// TODO Auto-generated method stub
-			
-		}
+	@Override
+	public int delete(Object... models) {
+		return delete(Arrays.asList(models));
+	}
 
-		@Override
-		public Class<T> getQueriedClass() {
-			// TODO Auto-generated method stub
-			return null;
+	@Override
+	public int delete(Iterable<?> models) {
+		Map<String, List<Delete>> deletes = new LinkedHashMap<String, List<Delete>>();
+		int nb = 0;
+		for(Object obj: models){
+			add(deletes, getTableName(obj.getClass()), new Delete(HBaseMappingUtils.getRowKey(obj)));
+			nb++;
 		}
+		delete(deletes);
+		return nb;
+	}
 
-		@Override
-		public List<QueryJoin> getJoins() {
-			// TODO Auto-generated method stub
-			return null;
-		}
+	@Override
+	public <T> int deleteByKeys(Class<T> clazz, Object... keys) {
+		return deleteByKeys(clazz, Arrays.asList(keys));
+	}
 
-		@Override
-		public Query<T> join(String field, String... sortFields) {
-			// TODO Auto-generated method stub
-			return null;
+	@Override
+	public <T> int deleteByKeys(Class<T> clazz, Iterable<?> keys) {
+		List<Delete> deletes = new ArrayList<Delete>();
+		for(byte[] row: HBaseMappingUtils.getRowKeys(clazz, keys)){
+			deletes.add(new Delete(row));
 		}
+		Map<String, List<Delete>> map = new HashMap<String, List<Delete>>();
+		map.put(getTableName(clazz), deletes);
+		delete(map);
+		return deletes.size();
+	}
 
-		@Override
-		public Query<T> paginate(int size) {
-			// TODO Auto-generated method stub
-			return null;
+	private static <M> void add(Map<String, List<M>> map, String tableName, M mutation) {
+		List<M> list = map.get(tableName);
+		if(list == null){
+			list = new ArrayList<M>();
+			map.put(tableName, list);
 		}
+		list.add(mutation);
+	}
 
-		@Override
-		public Query<T> customize(QueryOption... options) {
-			// TODO Auto-generated method stub
-			return null;
+	/**
+	 * sends the puts by table, write.batch at a time
+	 */
+	protected void put(Map<String, List<Put>> puts) {
+		for(Map.Entry<String, List<Put>> entry: puts.entrySet()){
+			HTableInterface table = getTable(entry.getKey());
+			try {
+				List<Put> list = entry.getValue();
+				for(int i=0; i<list.size(); i+=writeBatch){
+					table.put(new ArrayList<Put>(list.subList(i, Math.min(i+writeBatch, list.size()))));
+				}
+				table.flushCommits();
+			} catch(IOException e) {
+				throw new SienaException(e);
+			} finally {
+				releaseTable(table);
+			}
 		}
+	}
 
-
-
-		@Override
-		public Map<Integer, QueryOption> options() {
-			// TODO Auto-generated method stub
-			return null;
+	/**
+	 * sends the deletes by table, write.batch at a time
+	 */
+	protected void delete(Map<String, List<Delete>> deletes) {
+		for(Map.Entry<String, List<Delete>> entry: deletes.entrySet()){
+			HTableInterface table = getTable(entry.getKey());
+			try {
+				List<Delete> list = entry.getValue();
+				for(int i=0; i<list.size(); i+=writeBatch){
+					// the list is emptied of the deletes which succeeded
+					List<Delete> sub = new ArrayList<Delete>(list.subList(i, Math.min(i+writeBatch, list.size())));
+					table.delete(sub);
+					if(!sub.isEmpty()){
+						throw new SienaException(sub.size()+" rows couldn't be deleted from "+entry.getKey());
+					}
+				}
+			} catch(IOException e) {
+				throw new SienaException(e);
+			} finally {
+				releaseTable(table);
+			}
 		}
+	}
 
-		@Override
-		public Query<T> search(String match, String... fields) {
-			// TODO Auto-generated method stub
-			return null;
-		}
+	/* reads */
 
-		@Override
-		public Query<T> search(String match, QueryOption opt, String... fields) {
-			// TODO Auto-generated method stub
-			return null;
+	public void get(Object obj) {
+		if(get(Arrays.asList(obj)) == 0){
+			throw new SienaException("No such object");
 		}
+	}
 
+	@Override
+	public int get(Object... models) {
+		return get(Arrays.asList(models));
+	}
 
-		@Override
-		public QueryOption option(int option) {
-			// TODO Auto-generated method stub
-			return null;
+	/**
+	 * Gets the rows of the models with one multi-get by table
+	 *
+	 * @return the number of models found
+	 */
+	@Override
+	public <T> int get(Iterable<T> models) {
+		Map<String, List<Object>> objMap = new LinkedHashMap<String, List<Object>>();
+		Map<String, List<Get>> getMap = new HashMap<String, List<Get>>();
+		for(Object obj: models){
+			String tableName = getTableName(obj.getClass());
+			add(objMap, tableName, obj);
+			add(getMap, tableName, HBaseMappingUtils.createGet(HBaseMappingUtils.getRowKey(obj)));
+		}
+
+		int nb = 0;
+		for(Map.Entry<String, List<Object>> entry: objMap.entrySet()){
+			Result[] results = get(entry.getKey(), getMap.get(entry.getKey()));
+			List<Object> objects = entry.getValue();
+			for(int i=0; i<results.length; i++){
+				if(results[i] != null && !results[i].isEmpty()){
+					Object obj = objects.get(i);
+					HBaseMappingUtils.fillModel(obj.getClass(), obj, results[i]);
+					nb++;
+				}
+			}
 		}
+		return nb;
+	}
 
-		@Override
-		public Query<T> stateful() {
-			// TODO Auto-generated method stub
-			return null;
-		}
+	@Override
+	public <T> T getByKey(Class<T> clazz, Object key) {
+		List<T> res = getByKeys(clazz, Arrays.asList(key));
+		return res.get(0);
+	}
 
-		@Override
-		public Query<T> release() {
-			// TODO Auto-generated method stub
-			return null;
-		}
+	@Override
+	public <T> List<T> getByKeys(Class<T> clazz, Object... keys) {
+		return getByKeys(clazz, Arrays.asList(keys));
+	}
 
-		@Override
-		public int update(Map<String, ?> fieldValues) {
-			// TODO Auto-generated method stub
-			return 0;
+	/**
+	 * @return the models in the order of the keys (null for the keys not found)
+	 */
+	@Override
+	public <T> List<T> getByKeys(Class<T> clazz, Iterable<?> keys) {
+		List<Get> gets = new ArrayList<Get>();
+		for(byte[] row: HBaseMappingUtils.getRowKeys(clazz, keys)){
+			gets.add(HBaseMappingUtils.createGet(row));
+		}
+		Result[] results = get(getTableName(clazz), gets);
+		List<T> models = new ArrayList<T>(results.length);
+		for(Result result: results){
+			if(result == null || result.isEmpty()){
+				models.add(null);
+			}else {
+				T obj = Util.createObjectInstance(clazz);
+				HBaseMappingUtils.fillModel(clazz, obj, result);
+				models.add(obj);
+			}
 		}
+		return models;
+	}
 
-		@Override
-		public Query<T> nextPage() {
-			// TODO Auto-generated method stub
-			return null;
+	protected Result[] get(String tableName, List<Get> gets) {
+		if(gets.isEmpty()){
+			return new Result[0];
 		}
-
-		@Override
-		public Query<T> previousPage() {
-			// TODO Auto-generated method stub
-			return null;
+		HTableInterface table = getTable(tableName);
+		try {
+			return table.get(gets);
+		} catch(IOException e) {
+			throw new SienaException(e);
+		} finally {
+			releaseTable(table);
 		}
+	}
 
-		@Override
-		public Query<T> stateless() {
-			// TODO Auto-generated method stub
-			return null;
-		}
+	/* queries */
 
-		@Override
-		public Query<T> resetData() {
-			// TODO Auto-generated method stub
-			return null;
+	protected <T> QueryOptionHBaseContext getContext(Query<T> query) {
+		QueryOptionHBaseContext hbCtx = (QueryOptionHBaseContext)query.option(QueryOptionHBaseContext.ID);
+		if(hbCtx==null){
+			hbCtx = new QueryOptionHBaseContext();
+			query.customize(hbCtx);
 		}
+		return hbCtx;
+	}
 
-		
-
-		@Override
-		public String dump(QueryOption... options) {
-			// TODO Auto-generated method stub
-			return null;
-		}
+	/**
+	 * Computes the real offset and page size of the next fetch from the limit/offset and the pagination
+	 */
+	protected <T> void preFetch(Query<T> query, int limit, int offset) {
+		QueryOptionHBaseContext hbCtx = getContext(query);
+		QueryOptionPage pag = (QueryOptionPage)query.option(QueryOptionPage.ID);
+		QueryOptionOffset off = (QueryOptionOffset)query.option(QueryOptionOffset.ID);
+		QueryOptionState state = (QueryOptionState)query.option(QueryOptionState.ID);
 
-		@Override
-		public void dump(OutputStream os, QueryOption... options) {
-			// TODO Auto-generated method stub
-			
+		if(!pag.isPaginating()){
+			if(pag.isActive() && limit==Integer.MAX_VALUE){
+				hbCtx.realPageSize = pag.pageSize;
+			}
+			else {
+				hbCtx.realPageSize = limit;
+			}
+		}else {
+			hbCtx.realPageSize = pag.pageSize;
 		}
-
-		@Override
-		public Query<T> restore(String dump, QueryOption... options) {
-			// TODO Auto-generated method stub
-			return null;
+		if(hbCtx.realPageSize <= 0){
+			hbCtx.realPageSize = Integer.MAX_VALUE;
 		}
 
-		@Override
-		public Query<T> restore(InputStream dump, QueryOption... options) {
-			// TODO Auto-generated method stub
-			return null;
+		// if local offset has been set, uses it
+		if(offset!=0){
+			off.activate();
+			off.offset = offset;
 		}
 
-		@Override
-		public QueryAsync<T> async() {
-			// TODO Auto-generated method stub
-			return null;
+		if(state.isStateless() && !pag.isPaginating()){
+			// if page is active, immediately passivates it not to keep is active
+			if(pag.isActive()) {
+				pag.passivate();
+			}
+			hbCtx.realOffset = off.isActive() ? off.offset : 0;
+		} else if(off.isActive()){
+			hbCtx.realOffset += off.offset;
 		}
+		off.passivate();
+	}
 
-		@Override
-		public PersistenceManager getPersistenceManager() {
-			// TODO Auto-generated method stub
-			return null;
-		}
+	/**
+	 * Moves the real offset after the rows fetched
+	 */
+	protected <T> void postFetch(Query<T> query, int nb) {
+		QueryOptionHBaseContext hbCtx = getContext(query);
+		QueryOptionPage pag = (QueryOptionPage)query.option(QueryOptionPage.ID);
+		QueryOptionState state = (QueryOptionState)query.option(QueryOptionState.ID);
 
-		@Override
-		public Query<T> limit(int limit) {
-			// TODO Auto-generated method stub
-			return null;
+		if(pag.isPaginating()){
+			hbCtx.noMoreDataAfter = nb == 0;
 		}
-
-		@Override
-		public Query<T> offset(Object offset) {
-			// TODO Auto-generated method stub
-			return null;
+		else if(state.isStateful()){
+			hbCtx.realOffset += nb;
 		}
+	}
 
-		@Override
-		public Iterable<T> iterPerPage(int limit) {
-			// TODO Auto-generated method stub
-			return null;
+	/**
+	 * @return the scan of the current page of the query
+	 */
+	protected <T> HBaseMappingUtils.QueryScan prepareScan(Query<T> query, boolean keysOnly) {
+		QueryOptionHBaseContext hbCtx = getContext(query);
+		int limit = hbCtx.realPageSize;
+		// the region servers can't skip the offset: the scan reads offset+limit rows
+		if(limit != Integer.MAX_VALUE){
+			limit = (int)Math.min(Integer.MAX_VALUE - 1L, (long)limit + hbCtx.realOffset);
 		}
+		return HBaseMappingUtils.buildScan(query, keysOnly, limit, scanCaching, scanBatch);
+	}
 
-		@Override
-		public T getByKey(Object key) {
-			// TODO Auto-generated method stub
-			return null;
+	protected <T> List<T> doFetch(Query<T> query, int limit, int offset, boolean keysOnly) {
+		preFetch(query, limit, offset);
+		QueryOptionHBaseContext hbCtx = getContext(query);
+		List<T> models = new ArrayList<T>();
+		// if previousPage has detected there is no more data, simply returns an empty list
+		if(hbCtx.noMoreDataBefore){
+			return models;
 		}
 
-		@Override
-		public Query<T> copy() {
-			// TODO Auto-generated method stub
-			return null;
+		HBaseMappingUtils.QueryScan qs = prepareScan(query, keysOnly);
+		if(!qs.empty){
+			Class<T> clazz = query.getQueriedClass();
+			HTableInterface table = getTable(getTableName(clazz));
+			ResultScanner scanner = null;
+			try {
+				scans.incrementAndGet();
+				scanner = table.getScanner(qs.scan);
+				HBaseMappingUtils.mapResults(clazz, scanner, models, keysOnly, hbCtx.realOffset, hbCtx.realPageSize);
+			} catch(IOException e) {
+				throw new SienaException(e);
+			} finally {
+				if(scanner != null){
+					scanner.close();
+				}
+				releaseTable(table);
+			}
 		}
+		postFetch(query, models.size());
+		return models;
+	}
 
-		@Override
-		public List<QueryAggregated> getAggregatees() {
-			// TODO Auto-generated method stub
-			return null;
+	protected <T> Iterable<T> doIter(Query<T> query, int limit, int offset) {
+		preFetch(query, limit, offset);
+		QueryOptionHBaseContext hbCtx = getContext(query);
+		if(hbCtx.noMoreDataBefore){
+			return new ArrayList<T>();
 		}
-
-		@Override
-		public Query<T> aggregated(Object aggregator, String fieldName) {
-			// TODO Auto-generated method stub
-			return null;
+		HBaseMappingUtils.QueryScan qs = prepareScan(query, false);
+		if(qs.empty){
+			postFetch(query, 0);
+			return new ArrayList<T>();
 		}
+		Class<T> clazz = query.getQueriedClass();
+		scans.incrementAndGet();
+		Iterable<T> it = new HBaseSienaIterable<T>(this, clazz, getTableName(clazz), qs.scan,
+				false, hbCtx.realOffset, hbCtx.realPageSize);
+		// the rows are read while iterating so the offset is moved by the page size
+		postFetch(query, hbCtx.realPageSize == Integer.MAX_VALUE ? 0 : hbCtx.realPageSize);
+		return it;
+	}
 
-		@Override
-		public Query<T> owned(Object owner, String fieldName) {
-			// TODO Auto-generated method stub
-			return null;
+	public <T> int count(Query<T> query) {
+		HBaseMappingUtils.QueryScan qs = HBaseMappingUtils.buildScan(query, true, Integer.MAX_VALUE, scanCaching, 0);
+		if(qs.empty){
+			return 0;
 		}
-
-		@Override
-		public List<QueryOwned> getOwnees() {
-			// TODO Auto-generated method stub
-			return null;
+		HTableInterface table = getTable(getTableName(query.getQueriedClass()));
+		ResultScanner scanner = null;
+		try {
+			scans.incrementAndGet();
+			scanner = table.getScanner(qs.scan);
+			int nb = 0;
+			for(Result res = scanner.next(); res != null; res = scanner.next()){
+				nb++;
+			}
+			return nb;
+		} catch(IOException e) {
+			throw new SienaException(e);
+		} finally {
+			if(scanner != null){
+				scanner.close();
+			}
+			releaseTable(table);
 		}
-
-    @Override
-    public Query<T> keyOnly() {
-      // FIXME Auto-generated method stub
-      return null;
-    }
-	}
-
-	@Override
-	public void save(Object obj) {
-		// TODO Auto-generated method stub
-		
-	}
-
-	@Override
-	public int save(Object... objects) {
-		// TODO Auto-generated method stub
-		return 0;
-	}
-
-	@Override
-	public int save(Iterable<?> objects) {
-		// TODO Auto-generated method stub
-		return 0;
-	}
-
-	@Override
-	public int insert(Object... objects) {
-		// TODO Auto-generated method stub
-		return 0;
-	}
-
-	@Override
-	public int insert(Iterable<?> objects) {
-		// TODO Auto-generated method stub
-		return 0;
-	}
-
-	@Override
-	public int delete(Object... models) {
-		// TODO Auto-generated method stub
-		return 0;
-	}
-
-	@Override
-	public int delete(Iterable<?> models) {
-		// TODO Auto-generated method stub
-		return 0;
 	}
 
-	@Override
-	public <T> int deleteByKeys(Class<T> clazz, Object... keys) {
-		// TODO Auto-generated method stub
-		return 0;
+	public <T> List<T> fetch(Query<T> query) {
+		return doFetch(query, Integer.MAX_VALUE, 0, false);
 	}
 
-	@Override
-	public <T> int deleteByKeys(Class<T> clazz, Iterable<?> keys) {
-		// TODO Auto-generated method stub
-		return 0;
+	public <T> List<T> fetch(Query<T> query, int limit) {
+		return doFetch(query, limit, 0, false);
 	}
 
-	@Override
-	public int get(Object... models) {
-		// TODO Auto-generated method stub
-		return 0;
+	public <T> List<T> fetch(Query<T> query, int limit, Object offset) {
+		return doFetch(query, limit, (Integer)offset, false);
 	}
 
-	@Override
-	public <T> int get(Iterable<T> models) {
-		// TODO Auto-generated method stub
-		return 0;
+	public <T> List<T> fetchKeys(Query<T> query) {
+		((QueryOptionFetchType)query.option(QueryOptionFetchType.ID)).fetchType=QueryOptionFetchType.Type.KEYS_ONLY;
+		return doFetch(query, Integer.MAX_VALUE, 0, true);
 	}
 
-	@Override
-	public <T> T getByKey(Class<T> clazz, Object key) {
-		// TODO Auto-generated method stub
-		return null;
+	public <T> List<T> fetchKeys(Query<T> query, int limit) {
+		((QueryOptionFetchType)query.option(QueryOptionFetchType.ID)).fetchType=QueryOptionFetchType.Type.KEYS_ONLY;
+		return doFetch(query, limit, 0, true);
 	}
 
-	@Override
-	public <T> List<T> getByKeys(Class<T> clazz, Object... keys) {
-		// TODO Auto-generated method stub
-		return null;
+	public <T> List<T> fetchKeys(Query<T> query, int limit, Object offset) {
+		((QueryOptionFetchType)query.option(QueryOptionFetchType.ID)).fetchType=QueryOptionFetchType.Type.KEYS_ONLY;
+		return doFetch(query, limit, (Integer)offset, true);
 	}
 
-	@Override
-	public <T> List<T> getByKeys(Class<T> clazz, Iterable<?> keys) {
-		// TODO Auto-generated method stub
-		return null;
+	public <T> Iterable<T> iter(Query<T> query) {
+		((QueryOptionFetchType)query.option(QueryOptionFetchType.ID)).fetchType=QueryOptionFetchType.Type.ITER;
+		return doIter(query, Integer.MAX_VALUE, 0);
 	}
 
-	@Override
-	public <T> int update(Object... models) {
-		// TODO Auto-generated method stub
-		return 0;
+	public <T> Iterable<T> iter(Query<T> query, int limit) {
+		((QueryOptionFetchType)query.option(QueryOptionFetchType.ID)).fetchType=QueryOptionFetchType.Type.ITER;
+		return doIter(query, limit, 0);
 	}
 
-	@Override
-	public <T> int update(Iterable<T> models) {
-		// TODO Auto-generated method stub
-		return 0;
+	public <T> Iterable<T> iter(Query<T> query, int limit, Object offset) {
+		((QueryOptionFetchType)query.option(QueryOptionFetchType.ID)).fetchType=QueryOptionFetchType.Type.ITER;
+		return doIter(query, limit, (Integer)offset);
 	}
 
-	@Override
 	public <T> int delete(Query<T> query) {
-		// TODO Auto-generated method stub
-		return 0;
+		QueryOptionHBaseContext hbCtx = getContext(query);
+		HBaseMappingUtils.QueryScan qs = HBaseMappingUtils.buildScan(query, true, Integer.MAX_VALUE, scanCaching, 0);
+		if(qs.empty){
+			return 0;
+		}
+		String tableName = getTableName(query.getQueriedClass());
+		List<Delete> deletes = new ArrayList<Delete>();
+		HTableInterface table = getTable(tableName);
+		ResultScanner scanner = null;
+		try {
+			scans.incrementAndGet();
+			scanner = table.getScanner(qs.scan);
+			for(Result res = scanner.next(); res != null; res = scanner.next()){
+				deletes.add(new Delete(res.getRow()));
+			}
+		} catch(IOException e) {
+			throw new SienaException(e);
+		} finally {
+			if(scanner != null){
+				scanner.close();
+			}
+			releaseTable(table);
+		}
+		Map<String, List<Delete>> map = new HashMap<String, List<Delete>>();
+		map.put(tableName, deletes);
+		delete(map);
+		hbCtx.realOffset = 0;
+		return deletes.size();
 	}
 
-	@Override
 	public <T> int update(Query<T> query, Map<String, ?> fieldValues) {
-		// TODO Auto-generated method stub
-		return 0;
+		Class<T> clazz = query.getQueriedClass();
+		List<T> models = doFetch(query, Integer.MAX_VALUE, 0, false);
+		for(Map.Entry<String, ?> entry: fieldValues.entrySet()){
+			Field field = Util.getField(clazz, entry.getKey());
+			if(field == null || field.equals(ClassInfo.getIdField(clazz))){
+				throw new SienaException("Can't update field "+entry.getKey()+" of "+clazz.getName());
+			}
+			for(T obj: models){
+				Util.setField(obj, field, entry.getValue());
+			}
+		}
+		return update(models);
 	}
 
 	@Override
-	public <T> Many4PM<T> createMany(Class<T> clazz) {
-		// TODO Auto-generated method stub
-		return null;
-	}
+	public <T> void paginate(Query<T> query) {
+		QueryOptionHBaseContext hbCtx = getContext(query);
+		QueryOptionState state = (QueryOptionState)query.option(QueryOptionState.ID);
 
-	@Override
-	public <T> One4PM<T> createOne(Class<T> clazz) {
-		// TODO Auto-generated method stub
-		return null;
+		// resets the realoffset to 0 if stateless
+		if(state.isStateless()){
+			hbCtx.realOffset = 0;
+		}
 	}
 
 	@Override
-	public <T> int count(Query<T> query) {
-		// TODO Auto-generated method stub
-		return 0;
-	}
+	public <T> void nextPage(Query<T> query) {
+		QueryOptionHBaseContext hbCtx = getContext(query);
 
-	@Override
-	public <T> List<T> fetch(Query<T> query) {
-		// TODO Auto-generated method stub
-		return null;
-	}
+		// if no more data after, doesn't try to go after
+		if(hbCtx.noMoreDataAfter){
+			return;
+		}
+		// if no more data before, removes flag to be able and stay there
+		if(hbCtx.noMoreDataBefore){
+			hbCtx.noMoreDataBefore = false;
+			return;
+		}
 
-	@Override
-	public <T> List<T> fetch(Query<T> query, int limit) {
-		// TODO Auto-generated method stub
-		return null;
+		QueryOptionPage pag = (QueryOptionPage)query.option(QueryOptionPage.ID);
+		if(pag.isPaginating()){
+			hbCtx.realPageSize = pag.pageSize;
+			hbCtx.realOffset+=pag.pageSize;
+		}else {
+			// throws exception because it's impossible to reuse nextPage when paginating has been interrupted, the cases are too many
+			throw new SienaException("Can't use nextPage after pagination has been interrupted...");
+		}
 	}
 
 	@Override
-	public <T> List<T> fetch(Query<T> query, int limit, Object offset) {
-		// TODO Auto-generated method stub
-		return null;
-	}
+	public <T> void previousPage(Query<T> query) {
+		QueryOptionHBaseContext hbCtx = getContext(query);
 
-	@Override
-	public <T> List<T> fetchKeys(Query<T> query) {
-		// TODO Auto-generated method stub
-		return null;
-	}
+		// if no more data before, doesn't try to go before
+		if(hbCtx.noMoreDataBefore){
+			return;
+		}
+		// if no more data after, removes flag to be able to go before
+		if(hbCtx.noMoreDataAfter){
+			hbCtx.noMoreDataAfter = false;
+		}
 
-	@Override
-	public <T> List<T> fetchKeys(Query<T> query, int limit) {
-		// TODO Auto-generated method stub
-		return null;
+		QueryOptionPage pag = (QueryOptionPage)query.option(QueryOptionPage.ID);
+		if(pag.isPaginating()){
+			hbCtx.realPageSize = pag.pageSize;
+			if(hbCtx.realOffset>=pag.pageSize) {
+				hbCtx.realOffset-=pag.pageSize;
+			}
+			else {
+				hbCtx.realOffset = 0;
+				hbCtx.noMoreDataBefore = true;
+			}
+		}else {
+			// throws exception because it's impossible to reuse nextPage when paginating has been interrupted, the cases are too many
+			throw new SienaException("Can't use nextPage after pagination has been interrupted...");
+		}
 	}
 
 	@Override
-	public <T> List<T> fetchKeys(Query<T> query, int limit, Object offset) {
-		// TODO Auto-generated method stub
-		return null;
+	public <T> void release(Query<T> query) {
+		super.release(query);
+		QueryOptionHBaseContext hbCtx = (QueryOptionHBaseContext)query.option(QueryOptionHBaseContext.ID);
+		if(hbCtx != null){
+			hbCtx.realOffset = 0;
+			hbCtx.noMoreDataAfter = false;
+			hbCtx.noMoreDataBefore = false;
+		}
 	}
 
-	@Override
-	public <T> Iterable<T> iter(Query<T> query) {
-		// TODO Auto-generated method stub
-		return null;
-	}
+	/* transactions */
 
-	@Override
-	public <T> Iterable<T> iter(Query<T> query, int limit) {
-		// TODO Auto-generated method stub
-		return null;
+	public void beginTransaction(int isolationLevel) {
 	}
 
-	@Override
-	public <T> Iterable<T> iter(Query<T> query, int limit, Object offset) {
-		// TODO Auto-generated method stub
-		return null;
+	public void beginTransaction() {
 	}
 
-	@Override
-	public <T> void paginate(Query<T> query) {
-		// TODO Auto-generated method stub
-		
+	public void closeConnection() {
 	}
 
-	@Override
-	public <T> void nextPage(Query<T> query) {
-		// TODO Auto-generated method stub
-		
+	public void commitTransaction() {
 	}
 
-	@Override
-	public <T> void previousPage(Query<T> query) {
-		// TODO Auto-generated method stub
-		
+	public void rollbackTransaction() {
 	}
 
 	@Override
 	public <T> PersistenceManagerAsync async() {
-		// TODO Auto-generated method stub
-		return null;
+		throw new SienaException("async is not supported by HBase");
 	}
 
 	@Override
 	public String[] supportedOperators() {
-		// TODO Auto-generated method stub
-		return null;
+		return supportedOperators;
 	}
 
-  @Override
-  public <T> T getByAggregatorKey(Class<T> clazz, Object aggregator,
-      Field aggregatorField, Object key) {
-    // TODO Auto-generated method stub
-    return null;
-  }
-
-
-
-
+	@Override
+	public <T> T getByAggregatorKey(Class<T> clazz, Object aggregator,
+			Field aggregatorField, Object key) {
+		throw new SienaException("getByAggregatorKey is not supported by HBase");
+	}
 }
@@ -0,0 +1,134 @@
+package siena.hbase;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import siena.SienaException;
+import siena.Util;
+
+/**
+ * A Siena Iterable<Model> reading the rows of a HBase scan while iterating.
+ *
+ * Each iterator opens its own scanner which is closed (and its table given back to the pool)
+ * when the last row has been read.
+ */
+public class HBaseSienaIterable<Model> implements Iterable<Model> {
+	protected HBasePersistenceManager pm;
+	protected Class<Model> clazz;
+	protected String tableName;
+	protected Scan scan;
+	protected boolean keysOnly;
+	protected int offset;
+	protected int limit;
+
+	HBaseSienaIterable(HBasePersistenceManager pm, Class<Model> clazz, String tableName, Scan scan,
+			boolean keysOnly, int offset, int limit) {
+		this.pm = pm;
+		this.clazz = clazz;
+		this.tableName = tableName;
+		this.scan = scan;
+		this.keysOnly = keysOnly;
+		this.offset = offset;
+		this.limit = limit;
+	}
+
+	public Iterator<Model> iterator() {
+		return new HBaseSienaIterator();
+	}
+
+	public class HBaseSienaIterator implements Iterator<Model> {
+		HTableInterface table;
+		ResultScanner scanner;
+		// the first result of the next row
+		Result pending;
+		int count = 0;
+
+		HBaseSienaIterator() {
+			try {
+				table = pm.getTable(tableName);
+				scanner = table.getScanner(scan);
+				for(int i=0; i<offset && advance() != null; i++){
+					readRow(null);
+				}
+			} catch(IOException e) {
+				close();
+				throw new SienaException(e);
+			}
+		}
+
+		private Result advance() throws IOException {
+			if(pending == null && scanner != null){
+				pending = scanner.next();
+			}
+			return pending;
+		}
+
+		/**
+		 * reads the results of the row of the pending result (the scan may have a batch size)
+		 */
+		private void readRow(Model obj) throws IOException {
+			byte[] row = pending.getRow();
+			do {
+				if(obj != null){
+					if(keysOnly){
+						HBaseMappingUtils.fillModelKeysOnly(clazz, obj, pending);
+					}else {
+						HBaseMappingUtils.fillModel(clazz, obj, pending);
+					}
+				}
+				pending = scanner.next();
+			} while(pending != null && Bytes.equals(row, pending.getRow()));
+		}
+
+		public boolean hasNext() {
+			try {
+				if(count < limit && advance() != null){
+					return true;
+				}
+				close();
+				return false;
+			} catch(IOException e) {
+				close();
+				throw new SienaException(e);
+			}
+		}
+
+		public Model next() {
+			if(!hasNext()){
+				throw new NoSuchElementException();
+			}
+			try {
+				Model obj = Util.createObjectInstance(clazz);
+				readRow(obj);
+				count++;
+				return obj;
+			} catch(IOException e) {
+				close();
+				throw new SienaException(e);
+			}
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		protected void close() {
+			if(scanner != null){
+				scanner.close();
+				scanner = null;
+			}
+			pending = null;
+			if(table != null){
+				pm.releaseTable(table);
+				table = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package siena.hbase;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTableFactory;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import siena.SienaException;
+
+/**
+ * The HTables used by a HBasePersistenceManager.
+ *
+ * A HTable is not thread safe but is costly to create (it looks up the regions of the table):
+ * each thread takes a table from the pool for one operation and gives it back afterwards.
+ * At most maxSize idle tables are kept by table name, the other ones are released.
+ * (HTablePool of HBase 0.90 neither flushes the tables given back nor releases the ones it drops)
+ */
+public class HBaseTablePool {
+	protected final Configuration config;
+	protected final int maxSize;
+	protected final HTableInterfaceFactory factory;
+
+	protected final ConcurrentHashMap<String, Queue<HTableInterface>> tables =
+		new ConcurrentHashMap<String, Queue<HTableInterface>>();
+
+	private final AtomicInteger created = new AtomicInteger();
+
+	/**
+	 * @param factory creates the tables (HTableFactory if null)
+	 */
+	public HBaseTablePool(Configuration config, int maxSize, HTableInterfaceFactory factory) {
+		this.config = config;
+		this.maxSize = maxSize;
+		this.factory = factory != null ? factory : new HTableFactory();
+	}
+
+	public HTableInterface getTable(String tableName) {
+		HTableInterface table = queue(tableName).poll();
+		if(table == null){
+			table = factory.createHTableInterface(config, Bytes.toBytes(tableName));
+			created.incrementAndGet();
+		}
+		return table;
+	}
+
+	/**
+	 * gives the table back to the pool (the pending writes are flushed)
+	 */
+	public void putTable(HTableInterface table) {
+		Queue<HTableInterface> queue = queue(Bytes.toString(table.getTableName()));
+		try {
+			if(!table.isAutoFlush()){
+				table.flushCommits();
+			}
+			if(queue.size() < maxSize){
+				queue.offer(table);
+			}else {
+				factory.releaseHTableInterface(table);
+			}
+		} catch(IOException e) {
+			throw new SienaException(e);
+		}
+	}
+
+	/**
+	 * @return the number of tables created
+	 */
+	public int getCreated() {
+		return created.get();
+	}
+
+	/**
+	 * releases the idle tables
+	 */
+	public void close() {
+		for(Queue<HTableInterface> queue: tables.values()){
+			for(HTableInterface table = queue.poll(); table != null; table = queue.poll()){
+				factory.releaseHTableInterface(table);
+			}
+		}
+	}
+
+	protected Queue<HTableInterface> queue(String tableName) {
+		Queue<HTableInterface> queue = tables.get(tableName);
+		if(queue == null){
+			queue = new ConcurrentLinkedQueue<HTableInterface>();
+			Queue<HTableInterface> prev = tables.putIfAbsent(tableName, queue);
+			if(prev != null){
+				queue = prev;
+			}
+		}
+		return queue;
+	}
+}
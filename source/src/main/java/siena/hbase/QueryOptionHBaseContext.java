@@ -0,0 +1,39 @@
+package siena.hbase;
+
+import siena.core.options.QueryOption;
+import siena.embed.EmbeddedMap;
+
+@EmbeddedMap
+public class QueryOptionHBaseContext extends QueryOption{
+    public static final int ID 	= 0x4001;
+
+    public boolean noMoreDataBefore = false;
+    public boolean noMoreDataAfter = false;
+    public int realOffset = 0;
+    public int realPageSize = 0;
+
+	public QueryOptionHBaseContext() {
+		super(ID);
+	}
+
+	public QueryOptionHBaseContext(QueryOptionHBaseContext option) {
+		super(option);
+		this.noMoreDataAfter = option.noMoreDataAfter;
+		this.noMoreDataBefore = option.noMoreDataBefore;
+		this.realOffset = option.realOffset;
+		this.realPageSize = option.realPageSize;
+	}
+
+	@Override
+	public QueryOption clone() {
+		return new QueryOptionHBaseContext(this);
+	}
+
+	public String toString() {
+		return "type:HBASE_CONTEXT - state:"+this.state
+				+ " - noMoreDataAfter:"+noMoreDataAfter
+				+" - noMoreDataBefore:"+noMoreDataBefore
+				+" - realOffset:"+realOffset
+				+" - realPageSize:"+realPageSize;
+	}
+}
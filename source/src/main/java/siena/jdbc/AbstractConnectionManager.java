@@ -74,4 +74,12 @@ public abstract class AbstractConnectionManager implements ConnectionManager {
 		}
 	}
 
+	/**
+	 * @return the cache of prepared statements of the current connection
+	 * or null if this ConnectionManager doesn't cache statements
+	 */
+	public PreparedStatementCache getStatementCache() {
+		return null;
+	}
+
 }
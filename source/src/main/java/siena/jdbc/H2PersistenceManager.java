@@ -1,6 +1,7 @@
 package siena.jdbc;
 
 import java.lang.reflect.Field;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -8,22 +9,25 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 import siena.ClassInfo;
-import siena.Generator;
-import siena.Id;
 import siena.Query;
+import siena.QueryFilter;
 import siena.QueryFilterSearch;
+import siena.QueryOrder;
 import siena.SienaException;
 import siena.Util;
 import siena.jdbc.h2.FullText;
+import siena.jdbc.h2.FullTextIndexer;
+import siena.jdbc.h2.RankedIndex;
 
 public class H2PersistenceManager extends JdbcPersistenceManager {
 	private static final String DB = "H2";
@@ -31,6 +35,18 @@ public class H2PersistenceManager extends JdbcPersistenceManager {
 	private String dbMode = "h2";
 	
 	protected static Map<String, Boolean> tableIndexMap = new ConcurrentHashMap<String, Boolean>();
+	
+	// the number of search hits fetched by query (key IN (...))
+	protected static final int HITS_CHUNK_SIZE = 500;
+	
+	/**
+	 * SYNC: the full text index is updated by the triggers in the write transactions
+	 * ASYNC: the written rows are indexed in batches by a background thread (see FullTextIndexer)
+	 */
+	protected FullTextIndexer.Consistency searchConsistency = FullTextIndexer.Consistency.SYNC;
+	protected long searchMaxLag = FullTextIndexer.DEFAULT_MAX_LAG;
+	protected int searchBatchSize = FullTextIndexer.DEFAULT_BATCH_SIZE;
+	protected int searchBufferSize = FullTextIndexer.DEFAULT_CAPACITY;
 
 	public H2PersistenceManager() {
 		
@@ -59,42 +75,42 @@ public class H2PersistenceManager extends JdbcPersistenceManager {
 	 * Meanwhile, no batch insert is possible
 	 *  
 	 * (non-Javadoc)
-	 * @see siena.jdbc.JdbcPersistenceManager#insertBatchWithAutoIncrementKey(siena.jdbc.JdbcPersistenceManager.JdbcClassInfo, java.util.Map)
+	 * @see siena.jdbc.JdbcPersistenceManager#insertBatchWithAutoIncrementKey(siena.jdbc.JdbcPersistenceManager.JdbcClassInfo, java.util.List)
 	 */
 	@Override
-	protected int insertBatchWithAutoIncrementKey(JdbcClassInfo classInfo, Map<JdbcClassInfo, List<Object>> objMap) throws SQLException, IllegalAccessException {
+	protected int[] insertBatchWithAutoIncrementKey(JdbcClassInfo classInfo, List<Object> objects) throws SQLException, IllegalAccessException {
+		int[] res = new int[objects.size()];
 		PreparedStatement ps = null;
-		ps = getConnection().prepareStatement(classInfo.insertSQL,
-				Statement.RETURN_GENERATED_KEYS);
-		
-		int res = 0;
-		for(Object obj: objMap.get(classInfo)){
-			for (Field field : classInfo.keys) {
-				Id id = field.getAnnotation(Id.class);
-				if (id.value() == Generator.UUID) {
-					field.set(obj, UUID.randomUUID().toString());
-				}
-			}
-			// TODO: implement primary key generation: SEQUENCE
-			addParameters(obj, classInfo.insertFields, ps, 1);
-			ps.executeUpdate();
+		try {
+			ps = getConnection().prepareStatement(classInfo.insertSQL,
+					Statement.RETURN_GENERATED_KEYS);
 			
-			if(!classInfo.generatedKeys.isEmpty()){
+			for(int idx=0; idx<objects.size(); idx++){
+				Object obj = objects.get(idx);
+				addParameters(obj, classInfo.insertFields, ps, 1);
+				try {
+					res[idx] = ps.executeUpdate();
+				} catch(SQLException e) {
+					throw new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(), Arrays.copyOf(res, idx), e);
+				}
+				
 				ResultSet gk = ps.getGeneratedKeys();
-				int i;
-				while(gk.next()) {
-					i=1;
-					for (Field field : classInfo.generatedKeys) {
-						field.setAccessible(true);
-						JdbcMappingUtils.setFromObject(obj, field, gk.getObject(i++));
+				try {
+					if(gk.next()) {
+						int i=1;
+						for (Field field : classInfo.generatedKeys) {
+							JdbcMappingUtils.setFromObject(obj, field, gk.getObject(i++));
+						}
 					}
+				} finally {
+					JdbcDBUtils.closeResultSet(gk);
 				}
 			}
 			
-			res++;
+			return res;
+		} finally {
+			JdbcDBUtils.closeStatement(ps);
 		}
-		
-		return res;
 	}
 
 	@Override
@@ -121,7 +137,7 @@ public class H2PersistenceManager extends JdbcPersistenceManager {
 				String[] is = new String[allColumns.size()];
 				Arrays.fill(is, "?");
 				
-				ps = getConnection().prepareStatement(
+				ps = prepareStatement(
 						"MERGE INTO "+ classInfo.tableName + " (" + Util.join(allColumns, ",") + ") " 
 						+ "VALUES(" + Util.join(Arrays.asList(is), ",") + ")"  
 				);
@@ -141,208 +157,505 @@ public class H2PersistenceManager extends JdbcPersistenceManager {
 	
 
 
+	/**
+	 * Objects without generated id are inserted, the others are merged
+	 */
 	@Override
-	public int save(Object... objects) {
-		return save(Arrays.asList(objects));
-	}
-
-	@Override
-	public int save(Iterable<?> objects) {
-		Map<JdbcClassInfo, List<Object>> generatedObjMap = new HashMap<JdbcClassInfo, List<Object>>();
-		Map<JdbcClassInfo, List<Object>> objMap = new HashMap<JdbcClassInfo, List<Object>>();
-		PreparedStatement ps = null;
-		
-		for(Object obj:objects){
-			JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(obj.getClass());
-			Field idField = classInfo.info.getIdField();
-			Object idVal = Util.readField(obj, idField);
-			
-			if(idVal == null && !classInfo.generatedKeys.isEmpty()){
-				if(!generatedObjMap.containsKey(classInfo)){
-					List<Object> l = new ArrayList<Object>();
-					l.add(obj);
-					generatedObjMap.put(classInfo, l);
-				}else{
-					generatedObjMap.get(classInfo).add(obj);
-				}
+	protected int[] saveChunk(JdbcClassInfo classInfo, List<Object> objects) throws SQLException, IllegalAccessException {
+		int sz = objects.size();
+		List<Object> generated = new ArrayList<Object>();
+		List<Integer> generatedIdx = new ArrayList<Integer>();
+		List<Object> merged = new ArrayList<Object>();
+		List<Integer> mergedIdx = new ArrayList<Integer>();
+		Field idField = classInfo.info.getIdField();
+		for(int idx=0; idx<sz; idx++){
+			Object obj = objects.get(idx);
+			if(Util.readField(obj, idField) == null && !classInfo.generatedKeys.isEmpty()){
+				generated.add(obj);
+				generatedIdx.add(idx);
 			} else {
-				if(!objMap.containsKey(classInfo)){
-					List<Object> l = new ArrayList<Object>();
-					l.add(obj);
-					objMap.put(classInfo, l);
-				}else{
-					objMap.get(classInfo).add(obj);
-				}
+				merged.add(obj);
+				mergedIdx.add(idx);
 			}
 		}
 		
-		int total = 0;
-		try {
-			// these are the insertions with generated keys
-			for(JdbcClassInfo classInfo: generatedObjMap.keySet()){
-				total += insert(generatedObjMap.get(classInfo));
+		int[] res = newChunkCounts(sz);
+		if(!generated.isEmpty()){
+			try {
+				setChunkCounts(res, generatedIdx, insertBatchWithAutoIncrementKey(classInfo, generated));
+			} catch(SQLException e) {
+				throw chunkFailure(e, res, generatedIdx);
 			}
+		}
+		if(merged.isEmpty()){
+			return res;
+		}
+		
+		// in H2 "on duplicate" is not supported but MERGE is
+		// merge into employees (id, first_name, last_name) values(1, 'test2', 'test2');
+		List<String> allColumns = new ArrayList<String>();
+		JdbcClassInfo.calculateColumns(classInfo.allFields, allColumns, null, "");
+		String[] is = new String[allColumns.size()];
+		Arrays.fill(is, "?");
+		
+		PreparedStatement ps = null;
+		try {
+			ps = getConnection().prepareStatement(
+					"MERGE INTO "+ classInfo.tableName + " (" + Util.join(allColumns, ",") + ") " 
+					+ "VALUES(" + Util.join(Arrays.asList(is), ",") + ")"  
+			);
 			
-			// these are the insertions or updates without generated keys
-			// can't use batch in Postgres with generated keys... known bug
-			// http://postgresql.1045698.n5.nabble.com/PreparedStatement-batch-statement-impossible-td3406927.html
-			for(JdbcClassInfo classInfo: objMap.keySet()){
-				List<String> keyNames = new ArrayList<String>();
-				for (Field field : classInfo.keys) {
-					keyNames.add(field.getName());
-				}
-				
-				// in H2 "on duplicate" is not supported but MERGE is
-				// merge into employees (id, first_name, last_name) values(1, 'test2', 'test2');
-				List<String> allColumns = new ArrayList<String>();
-				JdbcClassInfo.calculateColumns(classInfo.allFields, allColumns, null, "");
-				String[] is = new String[allColumns.size()];
-				Arrays.fill(is, "?");
-			
-				ps = getConnection().prepareStatement(
-						"MERGE INTO "+ classInfo.tableName + " (" + Util.join(allColumns, ",") + ") " 
-						+ "VALUES(" + Util.join(Arrays.asList(is), ",") + ")"  
-				);
-				
-				for(Object obj: objMap.get(classInfo)){				
-					int i = 1;
-					i = addParameters(obj, classInfo.allFields, ps, i);
-					ps.addBatch();
-				}
-				
-				int[] res = ps.executeBatch();
-				
-				total+=res.length;
+			for(Object obj: merged){
+				generateKeys(classInfo, obj, true);
+				addParameters(obj, classInfo.allFields, ps, 1);
+				ps.addBatch();
 			}
 			
-			return total;			
-		} catch (SienaException e) {
-			throw e;
-		} catch (Exception e) {
-			throw new SienaException(e);
+			setChunkCounts(res, mergedIdx, ps.executeBatch());
+			return res;
+		} catch(SQLException e) {
+			throw chunkFailure(e, res, mergedIdx);
 		} finally {
-			JdbcDBUtils.closeStatementAndConnection(this, ps);
+			JdbcDBUtils.closeStatement(ps);
 		}
 	}
 		
 	@Override
 	public void init(Properties p) {
 		super.init(p);
+		if(p != null){
+			String sc = p.getProperty("search.consistency");
+			if(sc != null){
+				searchConsistency = FullTextIndexer.Consistency.valueOf(sc.trim().toUpperCase());
+			}
+			String ml = p.getProperty("search.maxLag");
+			if(ml != null){
+				searchMaxLag = Long.parseLong(ml.trim());
+			}
+			String bs = p.getProperty("search.batchSize");
+			if(bs != null){
+				searchBatchSize = Integer.parseInt(bs.trim());
+			}
+			String bf = p.getProperty("search.bufferSize");
+			if(bf != null){
+				searchBufferSize = Integer.parseInt(bf.trim());
+			}
+		}
 		// initializes the search mechanism in H2
 		try {
 			FullText.init(this.getConnection());
+			if(searchConsistency == FullTextIndexer.Consistency.ASYNC){
+				FullText.startIndexer(this.getConnection(), getSearchConnectionSource(), 
+						searchBatchSize, searchBufferSize, searchMaxLag);
+			}
 		} catch (SQLException e) {
 			throw new SienaException(e);
 		}
 	}
 	
-	protected <T> List<T> doSearch(Query<T> query, int limit, int offset){
-		// TODO this is a very raw impl: need some work certainly 
+	/**
+	 * The connections of the full text indexer thread and of the threads rebuilding the indexes
+	 */
+	protected FullTextIndexer.ConnectionSource getSearchConnectionSource() {
+		return new FullTextIndexer.ConnectionSource() {
+			public Connection getConnection() throws SQLException {
+				return H2PersistenceManager.this.getConnection();
+			}
+
+			public void release(Connection conn) throws SQLException {
+				// the connection belongs to the thread
+				H2PersistenceManager.super.closeConnection();
+			}
+		};
+	}
+	
+	/**
+	 * Rebuilds the full text indexes of the database scanning the indexed tables in parallel
+	 * (the tables shouldn't be written meanwhile)
+	 */
+	public void rebuildSearchIndexes(int threads) {
 		try {
-			Connection conn = this.getConnection();
-			ClassInfo ci = ClassInfo.getClassInfo(query.getQueriedClass());
-			// doesn't index a table that has already been indexed
-			if(!tableIndexMap.containsKey(ci.tableName)){
-				List<String> colList = ci.getUpdateFieldsColumnNames();
-				String cols = null;
-				if(!colList.isEmpty()){
-					cols = "";
-					// removes auto generated IDs from index
-					int sz = colList.size();
-					for (int i=0; i<sz; i++) {
-						if("h2".equals(dbMode)) cols+=colList.get(i).toUpperCase();
-						// !!! mysql mode means case INsensitive to lowercase !!!!
-						else if("mysql".equals(dbMode)) cols+=colList.get(i).toLowerCase();
-						else cols+=colList.get(i).toUpperCase();
-						
-						if(i<sz-1) cols += ",";
-					}
+			FullText.rebuild(this.getConnection(), getSearchConnectionSource(), threads, searchBatchSize);
+		} catch (SQLException e) {
+			throw new SienaException(e);
+		}
+	}
+	
+	/**
+	 * @return the full text indexer (null in SYNC mode)
+	 */
+	public FullTextIndexer getSearchIndexer() {
+		try {
+			return FullText.getIndexer(this.getConnection());
+		} catch (SQLException e) {
+			throw new SienaException(e);
+		}
+	}
+	
+	/**
+	 * Waits until the full text index is consistent with the writes (in ASYNC mode)
+	 */
+	protected void awaitSearchIndex(Connection conn) throws SQLException {
+		FullTextIndexer indexer = FullText.getIndexer(conn);
+		if(indexer != null){
+			indexer.awaitLag();
+		}
+	}
+	
+	/**
+	 * Creates the H2 full text index of the table if it hasn't been created yet
+	 */
+	protected void createSearchIndex(Connection conn, ClassInfo ci) throws SQLException {
+		// doesn't index a table that has already been indexed (in this database)
+		String indexName = conn.getMetaData().getURL() + "/" + ci.tableName;
+		if(!tableIndexMap.containsKey(indexName)){
+			List<String> colList = ci.getUpdateFieldsColumnNames();
+			String cols = null;
+			if(!colList.isEmpty()){
+				cols = "";
+				// removes auto generated IDs from index
+				int sz = colList.size();
+				for (int i=0; i<sz; i++) {
+					if("h2".equals(dbMode)) cols+=colList.get(i).toUpperCase();
+					// !!! mysql mode means case INsensitive to lowercase !!!!
+					else if("mysql".equals(dbMode)) cols+=colList.get(i).toLowerCase();
+					else cols+=colList.get(i).toUpperCase();
+					
+					if(i<sz-1) cols += ",";
 				}
-				// creates the index
+			}
+			// creates the index unless the database already has it
+			if(!FullText.hasIndex(conn, "PUBLIC", ci.tableName.toUpperCase())){
 				FullText.createIndex(conn, "PUBLIC", ci.tableName.toUpperCase(), cols);
-				tableIndexMap.put(ci.tableName, true);
+			}
+			tableIndexMap.put(indexName, true);
+		}
+	}
+	
+	protected <T> String buildSearchString(Query<T> query) {
+		String searchString = "";
+		Iterator<QueryFilterSearch> it = query.getSearches().iterator();
+		boolean first = true;
+		while(it.hasNext()){
+			if(!first){ 
+				searchString += " ";
+			}else {
+				first = false;
+			}
+			searchString += it.next().match;				
+		}
+		return searchString;
+	}
+	
+	/**
+	 * The searches customized with a QueryOptionJdbcSearch use the in-memory ranked index
+	 * (booleanMode: all the words of the search must be found, else any of them)
+	 */
+	protected <T> boolean isRankedSearch(Query<T> query) {
+		for(QueryFilterSearch qf: query.getSearches()){
+			if(qf.option != null && QueryOptionJdbcSearch.class.isAssignableFrom(qf.option.getClass())){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	protected <T> RankedIndex getRankedIndex(Query<T> query) throws SQLException {
+		Connection conn = this.getConnection();
+		ClassInfo ci = ClassInfo.getClassInfo(query.getQueriedClass());
+		createSearchIndex(conn, ci);
+		awaitSearchIndex(conn);
+		return FullText.getRankedIndex(conn, "PUBLIC", ci.tableName.toUpperCase());
+	}
+	
+	protected <T> List<RankedIndex.Clause> getRankedClauses(RankedIndex ranked, Query<T> query) {
+		List<RankedIndex.Clause> clauses = new ArrayList<RankedIndex.Clause>();
+		for(QueryFilterSearch qf: query.getSearches()){
+			boolean all = true;
+			if(qf.option != null && QueryOptionJdbcSearch.class.isAssignableFrom(qf.option.getClass())){
+				all = ((QueryOptionJdbcSearch)qf.option).booleanMode;
+			}
+			clauses.add(ranked.clause(qf.match, all));
+		}
+		return clauses;
+	}
+	
+	/**
+	 * Searches the in-memory ranked index and fetches the hits by chunks of keys.
+	 * Without filter and order, only the best hits are fetched and they are returned by decreasing score:
+	 * the hits whose rows can't be found are replaced by the next ones.
+	 * Else the filters and the orders are applied by the database to all the hits.
+	 */
+	protected <T> List<T> doRankedSearch(Query<T> query, int limit, int offset, boolean keysOnly){
+		try {
+			RankedIndex ranked = getRankedIndex(query);
+			List<RankedIndex.Clause> clauses = getRankedClauses(ranked, query);
+			Class<T> clazz = query.getQueriedClass();
+			if(hasFilters(query) || !query.getOrders().isEmpty()){
+				RankedIndex.Hits hits = ranked.search(clauses, 0, 0);
+				return fetchHits(query, toKeys(clazz, hits.keys), keysOnly, limit, offset);
 			}
 			
-			String searchString = "";
-			Iterator<QueryFilterSearch> it = query.getSearches().iterator();
-			boolean first = true;
-			while(it.hasNext()){
-				if(!first){ 
-					searchString += " ";
-				}else {
-					first = false;
+			List<T> res = new ArrayList<T>();
+			int from = offset;
+			while(true){
+				int wanted = limit > 0 ? limit - res.size() : 0;
+				RankedIndex.Hits hits = ranked.search(clauses, wanted, from);
+				res.addAll(fetchHits(query, toKeys(clazz, hits.keys), keysOnly));
+				from += hits.keys.length;
+				if(limit <= 0 || res.size() >= limit || hits.keys.length < wanted || from >= hits.total){
+					return res;
 				}
-				searchString += it.next().match;				
 			}
+		} catch (SienaException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new SienaException(e);
+		}
+	}
+	
+	protected <T> int doRankedSearchCount(Query<T> query){
+		try {
+			RankedIndex ranked = getRankedIndex(query);
+			if(!hasFilters(query)){
+				return ranked.count(getRankedClauses(ranked, query));
+			}
+			RankedIndex.Hits hits = ranked.search(getRankedClauses(ranked, query), 0, 0);
+			List<Object> keys = toKeys(query.getQueriedClass(), hits.keys);
+			int count = 0;
+			for(int i=0; i<keys.size(); i+=HITS_CHUNK_SIZE){
+				count += super.count(createHitsQuery(query, keys.subList(i, Math.min(i+HITS_CHUNK_SIZE, keys.size()))));
+			}
+			return count;
+		} catch (SienaException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new SienaException(e);
+		}
+	}
+	
+	// the searches are also in the filters
+	protected <T> boolean hasFilters(Query<T> query) {
+		return query.getFilters().size() > query.getSearches().size();
+	}
+	
+	/**
+	 * Converts the keys found in the index into the type of the id field
+	 */
+	protected List<Object> toKeys(Class<?> clazz, Object[] rawKeys) {
+		JdbcClassInfo info = JdbcClassInfo.getClassInfo(clazz);
+		// doesn't manage multiple keys case
+		if(info.keys.size()>1){
+			throw new SienaException("Can't search multiple keys objects");
+		}
+		Field idField = info.keys.get(0);
+		List<Object> keys = new ArrayList<Object>(rawKeys.length);
+		for(Object key: rawKeys){
+			keys.add(JdbcMappingUtils.fromObject(idField, key));
+		}
+		return keys;
+	}
+	
+	protected <T> List<T> createKeyObjects(Class<T> clazz, List<Object> keys) throws IllegalAccessException {
+		List<T> res = new ArrayList<T>(keys.size());
+		for(Object key: keys){
+			T obj = Util.createObjectInstance(clazz);
+			for (Field field : JdbcClassInfo.getClassInfo(clazz).keys) {
+				JdbcMappingUtils.setFromObject(obj, field, key);
+			}
+			res.add(obj);
+		}
+		return res;
+	}
+	
+	/**
+	 * The query fetching the hits of a search: key IN (...) with the filters, orders and joins of the query
+	 */
+	protected <T> Query<T> createHitsQuery(Query<T> query, List<Object> keys) {
+		Class<T> clazz = query.getQueriedClass();
+		Query<T> q = createQuery(clazz);
+		for(QueryFilter qf: query.getFilters()){
+			if(!QueryFilterSearch.class.isAssignableFrom(qf.getClass())){
+				q.getFilters().add(qf);
+			}
+		}
+		q.getOrders().addAll(query.getOrders());
+		q.getJoins().addAll(query.getJoins());
+		return q.filter(JdbcClassInfo.getClassInfo(clazz).keys.get(0).getName()+ " IN", keys);
+	}
+	
+	protected <T> List<T> fetchHits(Query<T> query, List<Object> keys, boolean keysOnly) {
+		return fetchHits(query, keys, keysOnly, 0, 0);
+	}
+	
+	/**
+	 * Fetches the hits of a search by chunks of HITS_CHUNK_SIZE keys and returns them in the order
+	 * of the hits unless the query is ordered: the ordered chunks are then merged.
+	 * 
+	 * @param limit the maximum number of rows found (0 for no limit)
+	 * @param offset the number of rows found to skip
+	 */
+	protected <T> List<T> fetchHits(Query<T> query, List<Object> keys, boolean keysOnly, int limit, int offset) {
+		List<T> res = new ArrayList<T>();
+		if(keys.isEmpty()){
+			return res;
+		}
+		Field idField = JdbcClassInfo.getClassInfo(query.getQueriedClass()).keys.get(0);
+		List<QueryOrder> orders = query.getOrders();
+		if(!orders.isEmpty()){
+			int max = limit > 0 ? offset + limit : Integer.MAX_VALUE;
+			if(keys.size() <= HITS_CHUNK_SIZE){
+				Query<T> q = createHitsQuery(query, keys);
+				res = keysOnly ? super.fetchKeys(q, max) : super.fetch(q, max);
+			}
+			else {
+				// the order values are needed to merge the chunks
+				for(int i=0; i<keys.size(); i+=HITS_CHUNK_SIZE){
+					res.addAll(super.fetch(createHitsQuery(query, keys.subList(i, Math.min(i+HITS_CHUNK_SIZE, keys.size()))), max));
+				}
+				Collections.sort(res, new HitsComparator<T>(orders));
+			}
+			int from = Math.min(offset, res.size());
+			res = new ArrayList<T>(res.subList(from, Math.min(max, res.size())));
+			if(keysOnly && keys.size() > HITS_CHUNK_SIZE){
+				List<Object> found = new ArrayList<Object>(res.size());
+				for(T obj: res){
+					found.add(Util.readField(obj, idField));
+				}
+				try {
+					return createKeyObjects(query.getQueriedClass(), found);
+				} catch (IllegalAccessException e) {
+					throw new SienaException(e);
+				}
+			}
+			return res;
+		}
+		
+		int skipped = 0;
+		for(int i=0; i<keys.size(); i+=HITS_CHUNK_SIZE){
+			List<Object> chunk = keys.subList(i, Math.min(i+HITS_CHUNK_SIZE, keys.size()));
+			Query<T> q = createHitsQuery(query, chunk);
+			List<T> results = keysOnly ? super.fetchKeys(q) : super.fetch(q);
+			Map<Object, T> byKey = new HashMap<Object, T>();
+			for(T obj: results){
+				byKey.put(Util.readField(obj, idField), obj);
+			}
+			for(Object key: chunk){
+				T obj = byKey.get(key);
+				if(obj == null){
+					continue;
+				}
+				if(skipped < offset){
+					skipped++;
+					continue;
+				}
+				res.add(obj);
+				if(limit > 0 && res.size() == limit){
+					return res;
+				}
+			}
+		}
+		return res;
+	}
+	
+	/**
+	 * Sorts the hits fetched by several queries as the database: null values first
+	 * (last in descending order), the related models by key and the enums by name
+	 */
+	protected static class HitsComparator<T> implements Comparator<T> {
+		private final List<QueryOrder> orders;
+		
+		public HitsComparator(List<QueryOrder> orders) {
+			this.orders = orders;
+		}
+		
+		public int compare(T o1, T o2) {
+			for(QueryOrder order: orders){
+				int c = compareValues(orderValue(o1, order), orderValue(o2, order));
+				if(c != 0){
+					return order.ascending ? c : -c;
+				}
+			}
+			return 0;
+		}
+		
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		private int compareValues(Object v1, Object v2) {
+			if(v1 == null){
+				return v2 == null ? 0 : -1;
+			}
+			if(v2 == null){
+				return 1;
+			}
+			return ((Comparable)v1).compareTo(v2);
+		}
+		
+		private Object orderValue(Object obj, QueryOrder order) {
+			if(order.parentField != null){
+				obj = Util.readField(obj, order.parentField);
+				if(obj == null){
+					return null;
+				}
+			}
+			Object value = Util.readField(obj, order.field);
+			if(value instanceof Enum){
+				return ((Enum<?>)value).name();
+			}
+			if(value != null && ClassInfo.isModel(value.getClass())){
+				return Util.readField(value, ClassInfo.getClassInfo(value.getClass()).getIdField());
+			}
+			return value;
+		}
+	}
+	
+	protected <T> List<T> doSearch(Query<T> query, int limit, int offset){
+		if(isRankedSearch(query)){
+			return doRankedSearch(query, limit, offset, false);
+		}
+		// TODO this is a very raw impl: need some work certainly 
+		try {
+			Connection conn = this.getConnection();
+			ClassInfo ci = ClassInfo.getClassInfo(query.getQueriedClass());
+			createSearchIndex(conn, ci);
+			awaitSearchIndex(conn);
 			
-			ResultSet rs = FullText.searchData(conn, searchString, limit, offset);
-			List<T> res = new ArrayList<T>();
+			ResultSet rs = FullText.searchData(conn, buildSearchString(query), limit, offset);
+			List<Object> keys = new ArrayList<Object>();
 			Field idField = ci.getIdField();
 			Class<?> idClass = idField.getType();
 			while(rs.next()) {
 				//String queryStr = rs.getString("QUERY");
 				//String score = rs.getString("SCORE");
 				//Array columns = rs.getArray("COLUMNS");
-				Object[] keys = (Object[])rs.getArray("KEYS").getArray();
+				Object[] rowKeys = (Object[])rs.getArray("KEYS").getArray();
 				// convert keys into real type if the key is not a string
-				Object[] realKeys = null;
-				if(idField.getType() != String.class){
-					realKeys = new Object[keys.length];
-					for(int i=0; i< keys.length; i++){
-						realKeys[i] = Util.fromString(idClass, (String)keys[i]);
+				for(int i=0; i< rowKeys.length; i++){
+					if(idClass != String.class){
+						keys.add(Util.fromString(idClass, (String)rowKeys[i]));
+					}else {
+						keys.add(rowKeys[i]);
 					}
-				}else {
-					realKeys = keys;
 				}
-				if(res == null) res = this.getByKeys(query.getQueriedClass(), realKeys);
-				else res.addAll(this.getByKeys(query.getQueriedClass(), realKeys));
 			}
-			return res;
+			// fetches all the hits at once
+			return fetchHits(query, keys, false);
 		} catch (SQLException e) {
 			throw new SienaException(e);
 		}
 	}
 	
 	protected <T> List<T> doSearchKeys(Query<T> query, int limit, int offset){
+		if(isRankedSearch(query)){
+			return doRankedSearch(query, limit, offset, true);
+		}
 		// TODO this is a very raw impl: need some work certainly 
 		try {
 			Connection conn = this.getConnection();
 			ClassInfo ci = ClassInfo.getClassInfo(query.getQueriedClass());
-			// doesn't index a table that has already been indexed
-			if(!tableIndexMap.containsKey(ci.tableName)){
-				List<String> colList = ci.getUpdateFieldsColumnNames();
-				String cols = null;
-				if(!colList.isEmpty()){
-					cols = "";
-					// removes auto generated IDs from index
-					int sz = colList.size();
-					for (int i=0; i<sz; i++) {
-						if("h2".equals(dbMode)) cols+=colList.get(i).toUpperCase();
-						// !!! mysql mode means case INsensitive to lowercase !!!!
-						else if("mysql".equals(dbMode)) cols+=colList.get(i).toLowerCase();
-						else cols+=colList.get(i).toUpperCase();
-						
-						if(i<sz-1) cols += ",";
-					}
-				}
-				// creates the index
-				FullText.createIndex(conn, "PUBLIC", ci.tableName.toUpperCase(), cols);
-				tableIndexMap.put(ci.tableName, true);
-			}
+			createSearchIndex(conn, ci);
+			awaitSearchIndex(conn);
 			
-			String searchString = "";
-			Iterator<QueryFilterSearch> it = query.getSearches().iterator();
-			boolean first = true;
-			while(it.hasNext()){
-				if(!first){ 
-					searchString += " ";
-				}else {
-					first = false;
-				}
-				searchString += it.next().match;				
-			}
-			
-			ResultSet rs = FullText.searchData(conn, searchString, limit, offset);
+			ResultSet rs = FullText.searchData(conn, buildSearchString(query), limit, offset);
 			List<T> res = new ArrayList<T>();
 			Class<T> clazz = query.getQueriedClass();
 			while(rs.next()) {
@@ -350,14 +663,7 @@ public class H2PersistenceManager extends JdbcPersistenceManager {
 				//String score = rs.getString("SCORE");
 				//Array columns = rs.getArray("COLUMNS");
 				Object[] keys = (Object[])rs.getArray("KEYS").getArray();
-				for(Object key: keys){
-					T obj = Util.createObjectInstance(clazz);
-					for (Field field : JdbcClassInfo.getClassInfo(clazz).keys) {
-						JdbcMappingUtils.setFromObject(obj, field, key);
-					}
-					
-					res.add(obj);
-				}				
+				res.addAll(createKeyObjects(clazz, Arrays.asList(keys)));
 			}
 			return res;
 		} catch (SQLException e) {
@@ -368,45 +674,17 @@ public class H2PersistenceManager extends JdbcPersistenceManager {
 	}
 	
 	protected <T> int doSearchCount(Query<T> query){
+		if(isRankedSearch(query)){
+			return doRankedSearchCount(query);
+		}
 		// TODO this is a very raw impl: need some work certainly 
 		try {
 			Connection conn = this.getConnection();
 			ClassInfo ci = ClassInfo.getClassInfo(query.getQueriedClass());
-			// doesn't index a table that has already been indexed
-			if(!tableIndexMap.containsKey(ci.tableName)){
-				List<String> colList = ci.getUpdateFieldsColumnNames();
-				String cols = null;
-				if(!colList.isEmpty()){
-					cols = "";
-					// removes auto generated IDs from index
-					int sz = colList.size();
-					for (int i=0; i<sz; i++) {
-						if("h2".equals(dbMode)) cols+=colList.get(i).toUpperCase();
-						// !!! mysql mode means case INsensitive to lowercase !!!!
-						else if("mysql".equals(dbMode)) cols+=colList.get(i).toLowerCase();
-						else cols+=colList.get(i).toUpperCase();
-						
-						if(i<sz-1) cols += ",";
-					}
-				}
-				// creates the index
-				FullText.createIndex(conn, "PUBLIC", ci.tableName.toUpperCase(), cols);
-				tableIndexMap.put(ci.tableName, true);
-			}
-			
-			String searchString = "";
-			Iterator<QueryFilterSearch> it = query.getSearches().iterator();
-			boolean first = true;
-			while(it.hasNext()){
-				if(!first){ 
-					searchString += " ";
-				}else {
-					first = false;
-				}
-				searchString += it.next().match;				
-			}
+			createSearchIndex(conn, ci);
+			awaitSearchIndex(conn);
 			
-			ResultSet rs = FullText.searchData(conn, searchString, 0, 0);
+			ResultSet rs = FullText.searchData(conn, buildSearchString(query), 0, 0);
 			int count = 0;
 			while(rs.next()) {
 				//String queryStr = rs.getString("QUERY");
@@ -0,0 +1,120 @@
+package siena.jdbc;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The per-row outcome of a JDBC batch insert/update/delete/save.
+ *
+ * Rows are numbered in the order of the Iterable given to the batch operation.
+ * The outcome of each row is the update count returned by the driver or:
+ * <ul>
+ * <li>Statement.SUCCESS_NO_INFO: executed but the driver doesn't know the number of rows affected</li>
+ * <li>Statement.EXECUTE_FAILED: the row failed</li>
+ * <li>NOT_EXECUTED: the row was not executed because a previous row or chunk failed</li>
+ * </ul>
+ * The batch stops at the first failed chunk and its SQLException is kept in getError().
+ */
+public class JdbcBatchResult {
+	public static final int NOT_EXECUTED = -4;
+
+	private int[] counts = new int[16];
+	private int size = 0;
+	private List<Object> failed = new ArrayList<Object>();
+	private SQLException error;
+
+	/**
+	 * registers a new row
+	 * @return the row number
+	 */
+	protected int add() {
+		if(size == counts.length) {
+			counts = Arrays.copyOf(counts, size * 2);
+		}
+		counts[size] = NOT_EXECUTED;
+		return size++;
+	}
+
+	protected void set(int row, int count) {
+		counts[row] = count;
+	}
+
+	protected void fail(int row, Object obj) {
+		counts[row] = Statement.EXECUTE_FAILED;
+		failed.add(obj);
+	}
+
+	protected void setError(SQLException error) {
+		this.error = error;
+	}
+
+	/**
+	 * @return the number of rows given to the batch operation
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the outcome of the row: an update count, Statement.SUCCESS_NO_INFO, Statement.EXECUTE_FAILED or NOT_EXECUTED
+	 */
+	public int getCount(int row) {
+		if(row >= size) {
+			throw new IndexOutOfBoundsException("row "+row+" >= "+size);
+		}
+		return counts[row];
+	}
+
+	public boolean isSuccess(int row) {
+		int c = getCount(row);
+		return c >= 0 || c == Statement.SUCCESS_NO_INFO;
+	}
+
+	/**
+	 * @return the number of rows executed successfully
+	 */
+	public int getTotal() {
+		int total = 0;
+		for(int i=0; i<size; i++) {
+			if(counts[i] >= 0 || counts[i] == Statement.SUCCESS_NO_INFO) {
+				total++;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * @return the sum of the update counts returned by the driver (rows without info are not counted)
+	 */
+	public int getUpdateCount() {
+		int total = 0;
+		for(int i=0; i<size; i++) {
+			if(counts[i] > 0) {
+				total += counts[i];
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * @return the objects of the failed rows
+	 */
+	public List<Object> getFailed() {
+		return failed;
+	}
+
+	public boolean hasErrors() {
+		return error != null;
+	}
+
+	public SQLException getError() {
+		return error;
+	}
+
+	public String toString() {
+		return "size="+size+", total="+getTotal()+", failed="+failed.size()+(error!=null?", error="+error.getMessage():"");
+	}
+}
@@ -17,7 +17,6 @@ import siena.ClassInfo;
 import siena.DateTime;
 import siena.Json;
 import siena.Query;
-import siena.QueryJoin;
 import siena.QueryOrder;
 import siena.SienaException;
 import siena.SienaRestrictedApiException;
@@ -57,7 +56,7 @@ public class JdbcDBUtils {
 
 	public static void closeStatementAndConnection(JdbcPersistenceManager pm, Statement st) {
 		try {
-			if(st != null){
+			if(st != null && !pm.releaseStatement(st)){
 				st.close();
 			}
 		} catch (SQLException e) {
@@ -78,49 +77,12 @@ public class JdbcDBUtils {
 	}
 	
 	public static <T> StringBuilder buildSqlSelect(Query<T> query) {
-		Class<T> clazz = query.getQueriedClass();
-		JdbcClassInfo info = JdbcClassInfo.getClassInfo(clazz);
-		List<String> cols = new ArrayList<String>();
-
-		List<Field> joinFields = JdbcMappingUtils.getJoinFields(query, info);
-		if(joinFields==null){
-			JdbcClassInfo.calculateColumnsAliases(info.allFields, cols, info.tableName, "");
-			
-			StringBuilder sql = 
-				new StringBuilder("SELECT " + Util.join(cols, ", ") + " FROM " + info.tableName);
-			
-			return sql;
-		}
-
-		// builds fields from primary class
-		JdbcClassInfo.calculateColumnsAliases(info.allFields, cols, info.tableName, "");
-		StringBuilder sql = new StringBuilder(" FROM " + info.tableName);
-		int i=0;
-		String alias;
-		for(Field field: joinFields){
-			JdbcClassInfo fieldInfo = JdbcClassInfo.getClassInfo(field.getType());
-			if (!ClassInfo.isModel(field.getType())){
-				throw new SienaException("Join not possible: Field "+field.getName()+" is not a relation field");
-			}
-			alias = fieldInfo.tableName + i++;
-			fieldInfo.joinFieldAliases.put(field.getName(), alias);
-			
-			// DO NOT remove the field itself from columns because it allows to find NULL fields
-			// cols.remove( info.tableName+"."+field.getName());
-			// adds all field columns using Alias
-			JdbcClassInfo.calculateColumnsAliases(fieldInfo.allFields, cols, alias, "");
-			String[] columns = ClassInfo.getColumnNames(field, info.tableName);		
-			if (columns.length > 1 || fieldInfo.keys.size() > 1){
-				throw new SienaException("Join not possible: join field "+field.getName()+" has multiple keys");
-			}
-			// LEFT INNER JOIN TO GET NULL FIELDS
-			sql.append(" LEFT JOIN " + fieldInfo.tableName + " AS " +  alias
-					+ " ON " + columns[0]
-					+ " = " + alias + "." + fieldInfo.keys.get(0).getName());
-		}
+		return new StringBuilder(getJoinPlan(query).selectSQL);
+	}
 
-		sql.insert(0, "SELECT " + Util.join(cols, ", "));
-		return sql;
+	public static <T> JdbcJoinPlan getJoinPlan(Query<T> query) {
+		JdbcClassInfo info = JdbcClassInfo.getClassInfo(query.getQueriedClass());
+		return JdbcJoinPlan.getPlan(info, JdbcMappingUtils.getJoinFields(query, info));
 	}
 
 
@@ -128,8 +90,7 @@ public class JdbcDBUtils {
 		Class<T> clazz = query.getQueriedClass();
 		JdbcClassInfo info = JdbcClassInfo.getClassInfo(clazz);
 		List<QueryOrder> orders = query.getOrders();
-		List<QueryJoin> joins = query.getJoins();
-		if(orders.isEmpty() && joins.isEmpty()) { return; }
+		if(orders.isEmpty()) { return; }
 
 		sql.append(" ORDER BY ");
 		boolean first = true;
@@ -146,13 +107,12 @@ public class JdbcDBUtils {
 				}
 			}else {
 				try {
-					JdbcClassInfo parentCi = JdbcClassInfo.getClassInfo(order.parentField.getType());
 					Field subField = order.parentField.getType().getField(order.field.getName());
 					// get columns using join field alias
 					//String[] columns = ClassInfo.getColumnNames(subField, parentCi.tableName);
 					String[] columns = 
 						ClassInfo.getColumnNames(
-								subField, parentCi.joinFieldAliases.get(order.parentField.getName()));
+								subField, getJoinPlan(query).getAlias(order.parentField));
 					for (String column : columns) {
 						sql.append(column+ (order.ascending? "" : " DESC"));
 					}
@@ -192,6 +152,103 @@ public class JdbcDBUtils {
 		}*/
 	}
 	
+	/**
+	 * Adds the parameters of appendSqlLimitOffset without building the SQL.
+	 */
+	public static <T> void appendSqlLimitOffsetParameters(Query<T> query, List<Object> parameters) {
+		QueryOptionJdbcContext jdbcCtx = (QueryOptionJdbcContext)query.option(QueryOptionJdbcContext.ID);
+		parameters.add(jdbcCtx.realPageSize);
+		parameters.add(jdbcCtx.realOffset);
+	}
+	
+	/**
+	 * @return the columns of the keyset of the query (order columns then the keys not already ordered)
+	 * and fills ascending with the direction of each column
+	 */
+	public static <T> List<String> keysetColumns(Query<T> query, List<Boolean> ascending) {
+		JdbcClassInfo info = JdbcClassInfo.getClassInfo(query.getQueriedClass());
+		List<String> columns = new ArrayList<String>();
+		for (QueryOrder order : query.getOrders()) {
+			if(order.parentField != null) {
+				throw new SienaException("Keyset pagination not possible: join sort field "+order.parentField.getName()+"."+order.field.getName());
+			}
+			for (String column : ClassInfo.getColumnNames(order.field, info.tableName)) {
+				if(!columns.contains(column)) {
+					columns.add(column);
+					ascending.add(order.ascending);
+				}
+			}
+		}
+		for (Field key : info.keys) {
+			for (String column : ClassInfo.getColumnNames(key, info.tableName)) {
+				if(!columns.contains(column)) {
+					columns.add(column);
+					ascending.add(true);
+				}
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * Appends the predicate selecting the rows after (or before if reverse) the bound in the keyset order:
+	 * (c1, c2) > (?, ?) if all the columns have the same direction,
+	 * (c1 > ?) OR (c1 = ? AND c2 < ?) otherwise.
+	 */
+	public static void appendSqlKeyset(StringBuilder sql, List<String> columns, List<Boolean> ascending,
+			boolean reverse, boolean inclusive) {
+		if(!ascending.contains(!ascending.get(0))) {
+			sql.append("(").append(Util.join(columns, ", ")).append(")");
+			sql.append(keysetOperator(ascending.get(0), reverse, inclusive));
+			sql.append("(");
+			for (int i=0; i<columns.size(); i++) {
+				sql.append(i==0?"?":", ?");
+			}
+			sql.append(")");
+			return;
+		}
+		sql.append("(");
+		for (int i=0; i<columns.size(); i++) {
+			sql.append(i==0?"(":" OR (");
+			for (int j=0; j<i; j++) {
+				sql.append(columns.get(j)).append("=?").append(AND);
+			}
+			sql.append(columns.get(i)).append(keysetOperator(ascending.get(i), reverse, inclusive && i==columns.size()-1)).append("?)");
+		}
+		sql.append(")");
+	}
+
+	/**
+	 * Adds the parameters of appendSqlKeyset.
+	 */
+	public static void appendSqlKeysetParameters(Object[] bound, List<Boolean> ascending, List<Object> parameters) {
+		if(!ascending.contains(!ascending.get(0))) {
+			for (Object value : bound) {
+				parameters.add(value);
+			}
+			return;
+		}
+		for (int i=0; i<bound.length; i++) {
+			for (int j=0; j<=i; j++) {
+				parameters.add(bound[j]);
+			}
+		}
+	}
+
+	private static String keysetOperator(boolean ascending, boolean reverse, boolean inclusive) {
+		return (ascending != reverse ? ">" : "<") + (inclusive ? "=" : "");
+	}
+
+	public static void appendSqlKeysetOrder(StringBuilder sql, List<String> columns, List<Boolean> ascending, boolean reverse) {
+		sql.append(" ORDER BY ");
+		for (int i=0; i<columns.size(); i++) {
+			if(i>0) {
+				sql.append(", ");
+			}
+			sql.append(columns.get(i)).append(ascending.get(i) != reverse ? "" : " DESC");
+		}
+	}
+
 	public static int toSqlType(Object obj, Field field, String DB) {
 		if(obj == null) return -1;
 		Class<?> type = field.getType();
@@ -0,0 +1,108 @@
+package siena.jdbc;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import siena.ClassInfo;
+import siena.SienaException;
+import siena.Util;
+import siena.jdbc.JdbcPersistenceManager.JdbcClassInfo;
+
+/**
+ * The SELECT ... FROM ... LEFT JOIN ... part of the queries of a class for a given list of join fields
+ * and the table alias of each joined field.
+ *
+ * Plans are immutable and cached in JdbcClassInfo by join fields so they can be shared by concurrent queries
+ * and the SQL text is built only once.
+ */
+public class JdbcJoinPlan {
+	public final Class<?> clazz;
+	public final List<Field> joinFields;
+	public final String selectSQL;
+
+	// join field name => table alias
+	private final Map<String, String> aliases;
+
+	private JdbcJoinPlan(JdbcClassInfo info, List<Field> joinFields) {
+		this.clazz = info.info.clazz;
+		List<String> cols = new ArrayList<String>();
+		JdbcClassInfo.calculateColumnsAliases(info.allFields, cols, info.tableName, "");
+
+		if(joinFields == null || joinFields.isEmpty()){
+			this.joinFields = Collections.emptyList();
+			this.aliases = Collections.emptyMap();
+			this.selectSQL = "SELECT " + Util.join(cols, ", ") + " FROM " + info.tableName;
+			return;
+		}
+
+		Map<String, String> aliases = new HashMap<String, String>();
+		StringBuilder sql = new StringBuilder(" FROM " + info.tableName);
+		int i=0;
+		for(Field field: joinFields){
+			if (!ClassInfo.isModel(field.getType())){
+				throw new SienaException("Join not possible: Field "+field.getName()+" is not a relation field");
+			}
+			JdbcClassInfo fieldInfo = JdbcClassInfo.getClassInfo(field.getType());
+			String alias = fieldInfo.tableName + i++;
+			aliases.put(field.getName(), alias);
+
+			// DO NOT remove the field itself from columns because it allows to find NULL fields
+			// adds all field columns using Alias
+			JdbcClassInfo.calculateColumnsAliases(fieldInfo.allFields, cols, alias, "");
+			String[] columns = ClassInfo.getColumnNames(field, info.tableName);
+			if (columns.length > 1 || fieldInfo.keys.size() > 1){
+				throw new SienaException("Join not possible: join field "+field.getName()+" has multiple keys");
+			}
+			// LEFT INNER JOIN TO GET NULL FIELDS
+			sql.append(" LEFT JOIN " + fieldInfo.tableName + " AS " +  alias
+					+ " ON " + columns[0]
+					+ " = " + alias + "." + fieldInfo.keys.get(0).getName());
+		}
+		sql.insert(0, "SELECT " + Util.join(cols, ", "));
+
+		this.joinFields = Collections.unmodifiableList(new ArrayList<Field>(joinFields));
+		this.aliases = Collections.unmodifiableMap(aliases);
+		this.selectSQL = sql.toString();
+	}
+
+	/**
+	 * @return the plan of the class for the given join fields (null or empty for no join)
+	 */
+	public static JdbcJoinPlan getPlan(JdbcClassInfo info, List<Field> joinFields) {
+		String key = planKey(joinFields);
+		JdbcJoinPlan plan = info.joinPlans.get(key);
+		if(plan == null) {
+			plan = new JdbcJoinPlan(info, joinFields);
+			JdbcJoinPlan prev = info.joinPlans.putIfAbsent(key, plan);
+			if(prev != null) {
+				plan = prev;
+			}
+		}
+		return plan;
+	}
+
+	private static String planKey(List<Field> joinFields) {
+		if(joinFields == null || joinFields.isEmpty()) {
+			return "";
+		}
+		if(joinFields.size() == 1) {
+			return joinFields.get(0).getName();
+		}
+		StringBuilder key = new StringBuilder();
+		for(Field f: joinFields) {
+			key.append(f.getName()).append(',');
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @return the table alias of the joined field or null if the field is not joined
+	 */
+	public String getAlias(Field field) {
+		return aliases.get(field.getName());
+	}
+}
@@ -0,0 +1,369 @@
+package siena.jdbc;
+
+import java.lang.reflect.Field;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import siena.ClassInfo;
+import siena.SienaException;
+import siena.core.DecimalPrecision;
+import siena.core.FieldAccessor;
+import siena.core.Instantiator;
+import siena.core.Polymorphic;
+import siena.embed.Embedded;
+import siena.jdbc.JdbcPersistenceManager.JdbcClassInfo;
+
+/**
+ * The way to map the rows of a ResultSet into objects of a class for a given (table alias, join fields) set.
+ *
+ * Column names, column indexes and value conversions are resolved once against the ResultSetMetaData
+ * so mapping a row only reads columns by index (with primitive getters when column and field types allow it)
+ * and writes fields through the cached accessors.
+ * Plans are cached in JdbcClassInfo and checked against the metadata of each new ResultSet.
+ */
+public class JdbcMappingPlan<T> {
+	public final Class<T> clazz;
+	public final String key;
+
+	private final Instantiator<T> instantiator;
+	private final FieldMapper[] mappers;
+	// all column labels/indexes used by this plan (and its join plans) to verify it against another ResultSet
+	private final String[] labels;
+	private final int[] indexes;
+
+	private JdbcMappingPlan(Class<T> clazz, String key, ResultSet rs, ResultSetMetaData md, String tableName, List<Field> joinFields, boolean keysOnly)
+		throws SQLException
+	{
+		this.clazz = clazz;
+		this.key = key;
+		this.instantiator = Instantiator.of(clazz);
+
+		JdbcClassInfo info = JdbcClassInfo.getClassInfo(clazz);
+		List<Field> fields = keysOnly?info.keys:info.allFields;
+		List<String> usedLabels = new ArrayList<String>();
+		List<Integer> usedIndexes = new ArrayList<Integer>();
+
+		mappers = new FieldMapper[fields.size()];
+		int m = 0;
+		for (Field field : fields) {
+			Class<?> type = field.getType();
+			FieldAccessor accessor = info.info.getAccessor(field);
+
+			if(ClassInfo.isModel(type) && !ClassInfo.isEmbedded(field)) {
+				JdbcClassInfo fieldClassInfo = JdbcClassInfo.getClassInfo(type);
+
+				if(joinFields==null || joinFields.size()==0 || !joinFields.contains(field)){
+					String[] fks = ClassInfo.getColumnNames(field, tableName);
+					JdbcMappingUtils.checkForeignKeyMapping(fieldClassInfo.keys, fks, clazz, field);
+					ValueMapper[] keyMappers = new ValueMapper[fks.length];
+					int i = 0;
+					for(Field f : fieldClassInfo.keys) {
+						String label = JdbcClassInfo.aliasFromCol(fks[i]);
+						int idx = findColumn(rs, label, usedLabels, usedIndexes);
+						keyMappers[i++] = new ValueMapper(f, fieldClassInfo.info.getAccessor(f), label, idx, GENERIC);
+					}
+					mappers[m++] = new RelationMapper(field, accessor, Instantiator.of(type), keyMappers);
+				}
+				else {
+					// this is a JOIN field: the field column tells if it is null
+					// and the related object is mapped from the columns using the join alias
+					String label = JdbcClassInfo.aliasFromCol(ClassInfo.getColumnNames(field, tableName)[0]);
+					int idx = findColumn(rs, label, usedLabels, usedIndexes);
+					JdbcMappingPlan<?> joinPlan =
+						compile(type, rs, md, JdbcJoinPlan.getPlan(info, joinFields).getAlias(field));
+					for(int j=0; j<joinPlan.labels.length; j++){
+						usedLabels.add(joinPlan.labels[j]);
+						usedIndexes.add(joinPlan.indexes[j]);
+					}
+					mappers[m++] = new JoinMapper(field, accessor, label, idx, joinPlan);
+				}
+			} else {
+				String label = JdbcClassInfo.aliasFromCol(ClassInfo.getColumnNames(field, tableName)[0]);
+				int idx = findColumn(rs, label, usedLabels, usedIndexes);
+				mappers[m++] = new ValueMapper(field, accessor, label, idx,
+						idx>0?converter(field, md.getColumnType(idx)):GENERIC);
+			}
+		}
+
+		labels = usedLabels.toArray(new String[usedLabels.size()]);
+		indexes = new int[usedIndexes.size()];
+		for(int i=0; i<indexes.length; i++){
+			indexes[i] = usedIndexes.get(i);
+		}
+	}
+
+	/**
+	 * Retrieves the plan for the given (table alias, join fields) or compiles it
+	 * if this is the first time or if the ResultSet doesn't have the same columns as the cached plan.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> JdbcMappingPlan<T> getPlan(Class<T> clazz, ResultSet rs, String tableName, List<Field> joinFields, boolean keysOnly) {
+		JdbcClassInfo info = JdbcClassInfo.getClassInfo(clazz);
+		String key = planKey(tableName, joinFields, keysOnly);
+		try {
+			ResultSetMetaData md = rs.getMetaData();
+			JdbcMappingPlan<T> plan = (JdbcMappingPlan<T>)info.mappingPlans.get(key);
+			if(plan == null || !plan.matches(md)) {
+				plan = new JdbcMappingPlan<T>(clazz, key, rs, md, tableName, joinFields, keysOnly);
+				info.mappingPlans.put(key, plan);
+			}
+			return plan;
+		} catch(SQLException e) {
+			throw new SienaException(e);
+		}
+	}
+
+	private static <V> JdbcMappingPlan<V> compile(Class<V> clazz, ResultSet rs, ResultSetMetaData md, String tableName)
+		throws SQLException
+	{
+		return new JdbcMappingPlan<V>(clazz, null, rs, md, tableName, null, false);
+	}
+
+	public T map(ResultSet rs) {
+		T obj = instantiator.newInstance();
+		mapInto(obj, rs);
+		return obj;
+	}
+
+	public void mapInto(Object obj, ResultSet rs) {
+		try {
+			for(FieldMapper mapper: mappers){
+				mapper.map(obj, rs);
+			}
+		} catch (SienaException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new SienaException(e);
+		}
+	}
+
+	public boolean matches(ResultSetMetaData md) throws SQLException {
+		int count = md.getColumnCount();
+		for(int i=0; i<indexes.length; i++){
+			int idx = indexes[i];
+			if(idx == -1) continue;
+			if(idx > count || !labels[i].equalsIgnoreCase(md.getColumnLabel(idx))){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String planKey(String tableName, List<Field> joinFields, boolean keysOnly) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(keysOnly?"K:":"A:").append(tableName);
+		if(joinFields != null){
+			for(Field f: joinFields){
+				sb.append(':').append(f.getName());
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the index of the column or -1 if the driver can't find it by label
+	 * (the value is then read by label and the driver will raise its usual error)
+	 */
+	private static int findColumn(ResultSet rs, String label, List<String> labels, List<Integer> indexes) {
+		int idx;
+		try {
+			idx = rs.findColumn(label);
+		} catch(SQLException e) {
+			idx = -1;
+		}
+		labels.add(label);
+		indexes.add(idx);
+		return idx;
+	}
+
+	static final int GENERIC = 0;
+	static final int LONG = 1;
+	static final int INT = 2;
+	static final int SHORT = 3;
+	static final int BYTE = 4;
+	static final int DOUBLE = 5;
+	static final int FLOAT = 6;
+	static final int BOOLEAN = 7;
+	static final int STRING = 8;
+
+	/**
+	 * Chooses a typed getter when the column holds exactly what the field expects.
+	 * Everything else (annotated fields, dates, enums, json, blobs...) goes through JdbcMappingUtils.fromObject.
+	 */
+	static int converter(Field field, int sqlType) {
+		if(field.isAnnotationPresent(Embedded.class) || field.isAnnotationPresent(Polymorphic.class)
+				|| field.isAnnotationPresent(DecimalPrecision.class)) {
+			return GENERIC;
+		}
+		Class<?> type = field.getType();
+		if(Long.TYPE==type || Long.class==type) {
+			switch(sqlType){
+			case Types.BIGINT: case Types.INTEGER: case Types.SMALLINT: case Types.TINYINT:
+				return LONG;
+			}
+		}
+		else if(Integer.TYPE==type || Integer.class==type) {
+			switch(sqlType){
+			case Types.INTEGER: case Types.SMALLINT: case Types.TINYINT:
+				return INT;
+			}
+		}
+		else if(Short.TYPE==type || Short.class==type) {
+			switch(sqlType){
+			case Types.SMALLINT: case Types.TINYINT:
+				return SHORT;
+			}
+		}
+		else if(Byte.TYPE==type || Byte.class==type) {
+			if(sqlType == Types.TINYINT) return BYTE;
+		}
+		else if(Double.TYPE==type || Double.class==type) {
+			switch(sqlType){
+			case Types.DOUBLE: case Types.FLOAT: case Types.REAL:
+				return DOUBLE;
+			}
+		}
+		else if(Float.TYPE==type || Float.class==type) {
+			switch(sqlType){
+			case Types.REAL: case Types.FLOAT: case Types.DOUBLE:
+				return FLOAT;
+			}
+		}
+		else if(Boolean.TYPE==type || Boolean.class==type) {
+			switch(sqlType){
+			case Types.BOOLEAN: case Types.BIT:
+				return BOOLEAN;
+			}
+		}
+		else if(String.class==type) {
+			switch(sqlType){
+			case Types.CHAR: case Types.VARCHAR: case Types.LONGVARCHAR:
+			case Types.NCHAR: case Types.NVARCHAR: case Types.LONGNVARCHAR:
+				return STRING;
+			}
+		}
+		return GENERIC;
+	}
+
+	static abstract class FieldMapper {
+		final Field field;
+		final FieldAccessor accessor;
+
+		FieldMapper(Field field, FieldAccessor accessor) {
+			this.field = field;
+			this.accessor = accessor;
+		}
+
+		abstract void map(Object obj, ResultSet rs) throws SQLException;
+	}
+
+	static class ValueMapper extends FieldMapper {
+		final String label;
+		final int index;
+		final int converter;
+		final boolean primitive;
+
+		ValueMapper(Field field, FieldAccessor accessor, String label, int index, int converter) {
+			super(field, accessor);
+			this.label = label;
+			this.index = index;
+			this.converter = converter;
+			this.primitive = field.getType().isPrimitive();
+		}
+
+		Object read(ResultSet rs) throws SQLException {
+			switch(converter){
+			case LONG: {
+				long v = rs.getLong(index);
+				return (primitive || !rs.wasNull())?Long.valueOf(v):null;
+			}
+			case INT: {
+				int v = rs.getInt(index);
+				return (primitive || !rs.wasNull())?Integer.valueOf(v):null;
+			}
+			case SHORT: {
+				short v = rs.getShort(index);
+				return (primitive || !rs.wasNull())?Short.valueOf(v):null;
+			}
+			case BYTE: {
+				byte v = rs.getByte(index);
+				return (primitive || !rs.wasNull())?Byte.valueOf(v):null;
+			}
+			case DOUBLE: {
+				double v = rs.getDouble(index);
+				return (primitive || !rs.wasNull())?Double.valueOf(v):null;
+			}
+			case FLOAT: {
+				float v = rs.getFloat(index);
+				return (primitive || !rs.wasNull())?Float.valueOf(v):null;
+			}
+			case BOOLEAN: {
+				boolean v = rs.getBoolean(index);
+				return (primitive || !rs.wasNull())?Boolean.valueOf(v):null;
+			}
+			case STRING:
+				return rs.getString(index);
+			default:
+				return JdbcMappingUtils.fromObject(field, readObject(rs));
+			}
+		}
+
+		Object readObject(ResultSet rs) throws SQLException {
+			return index>0?rs.getObject(index):rs.getObject(label);
+		}
+
+		void map(Object obj, ResultSet rs) throws SQLException {
+			accessor.set(obj, read(rs));
+		}
+	}
+
+	static class RelationMapper extends FieldMapper {
+		final Instantiator<?> instantiator;
+		final ValueMapper[] keys;
+
+		RelationMapper(Field field, FieldAccessor accessor, Instantiator<?> instantiator, ValueMapper[] keys) {
+			super(field, accessor);
+			this.instantiator = instantiator;
+			this.keys = keys;
+		}
+
+		void map(Object obj, ResultSet rs) throws SQLException {
+			Object rel = null;
+			for(ValueMapper key : keys) {
+				Object o = key.readObject(rs);
+				if(o == null) {
+					return;
+				}
+				if(rel == null) rel = instantiator.newInstance();
+				key.accessor.set(rel, JdbcMappingUtils.fromObject(key.field, o));
+			}
+			accessor.set(obj, rel);
+		}
+	}
+
+	static class JoinMapper extends FieldMapper {
+		final String label;
+		final int index;
+		final JdbcMappingPlan<?> plan;
+
+		JoinMapper(Field field, FieldAccessor accessor, String label, int index, JdbcMappingPlan<?> plan) {
+			super(field, accessor);
+			this.label = label;
+			this.index = index;
+			this.plan = plan;
+		}
+
+		void map(Object obj, ResultSet rs) throws SQLException {
+			Object val = index>0?rs.getObject(index):rs.getObject(label);
+			if(val == null){
+				accessor.set(obj, null);
+				return;
+			}
+			accessor.set(obj, plan.map(rs));
+		}
+	}
+}
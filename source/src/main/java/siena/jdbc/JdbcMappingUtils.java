@@ -13,6 +13,7 @@ import java.util.List;
 
 import siena.ClassInfo;
 import siena.Json;
+import siena.JsonReader;
 import siena.Query;
 import siena.QueryJoin;
 import siena.SienaException;
@@ -62,34 +63,27 @@ public class JdbcMappingUtils {
 	}
 	
 	public static <T> T mapObject(Class<T> clazz, ResultSet rs, String tableName, List<Field >joinFields) {
-		try {
-			T obj = Util.createObjectInstance(clazz);
-			mapObject(obj, rs, tableName, joinFields);
-			return obj;
-		} catch(SienaException e) {
-			throw e;
-		} catch(Exception e) {
-			throw new SienaException(e);
-		}
+		return JdbcMappingPlan.getPlan(clazz, rs, tableName, joinFields, false).map(rs);
 	}
 
 	public static void mapObject(Object obj, ResultSet rs, String tableName, List<Field >joinFields) {
-		Class<?> clazz = obj.getClass();
-		for (Field field : JdbcClassInfo.getClassInfo(clazz).allFields) {
-			mapField(obj, field, rs, tableName, joinFields);
-		}
+		JdbcMappingPlan.getPlan(obj.getClass(), rs, tableName, joinFields, false).mapInto(obj, rs);
 	}
 
 	public static <T> List<T> mapList(Class<T> clazz, ResultSet rs, String tableName, List<Field> joinFields, int pageSize) {
+		return mapList(JdbcMappingPlan.getPlan(clazz, rs, tableName, joinFields, false), rs, pageSize);
+	}
+	
+	public static <T> List<T> mapList(JdbcMappingPlan<T> plan, ResultSet rs, int pageSize) {
 		try {
 			List<T> objects = new ArrayList<T>();
 			if(pageSize==0){
 				while(rs.next()) {
-					objects.add(mapObject(clazz, rs, tableName, joinFields));
+					objects.add(plan.map(rs));
 				}
 			}else {
 				for(int i=0; i<pageSize && rs.next();i++){
-					objects.add(mapObject(clazz, rs, tableName, joinFields));
+					objects.add(plan.map(rs));
 				}
 			}
 			return objects;
@@ -102,42 +96,15 @@ public class JdbcMappingUtils {
 	
 	
 	public static <T> T mapObjectKeys(Class<T> clazz, ResultSet rs, String tableName, List<Field> joinFields) {
-		try {
-			T obj = Util.createObjectInstance(clazz);
-			mapObjectKeys(obj, rs, tableName, joinFields);
-			return obj;
-		} catch(SienaException e) {
-			throw e;
-		} catch(Exception e) {
-			throw new SienaException(e);
-		}
+		return JdbcMappingPlan.getPlan(clazz, rs, tableName, joinFields, true).map(rs);
 	}
 
 	public static void mapObjectKeys(Object obj, ResultSet rs, String tableName, List<Field> joinFields) {
-		Class<?> clazz = obj.getClass();
-		for (Field field : JdbcClassInfo.getClassInfo(clazz).keys) {
-			mapField(obj, field, rs, tableName, joinFields);
-		}
+		JdbcMappingPlan.getPlan(obj.getClass(), rs, tableName, joinFields, true).mapInto(obj, rs);
 	}
 	
 	public static <T> List<T> mapListKeys(Class<T> clazz, ResultSet rs, String tableName, List<Field> joinFields, int pageSize) {
-		try {
-			List<T> objects = new ArrayList<T>();
-			if(pageSize==0){
-				while(rs.next()) {
-				objects.add(mapObjectKeys(clazz, rs, tableName, joinFields));
-				}
-			}else {
-				for(int i=0; i<pageSize && rs.next();i++){
-					objects.add(mapObjectKeys(clazz, rs, tableName, joinFields));
-				}
-			}
-			return objects;
-		} catch(SienaException e) {
-			throw e;
-		} catch(Exception e) {
-			throw new SienaException(e);
-		}
+		return mapList(JdbcMappingPlan.getPlan(clazz, rs, tableName, joinFields, true), rs, pageSize);
 	}
 
 	public static void mapField(Object obj, Field field, ResultSet rs, String tableName, List<Field> joinFields) {
@@ -178,7 +145,8 @@ public class JdbcMappingUtils {
 					}
 					// uses join field alias
 					// Object rel = mapObject(type, rs, fieldClassInfo.tableName, null);
-					Object rel = mapObject(type, rs, fieldClassInfo.joinFieldAliases.get(field.getName()), null);
+					Object rel = mapObject(type, rs, 
+							JdbcJoinPlan.getPlan(JdbcClassInfo.getClassInfo(obj.getClass()), joinFields).getAlias(field), null);
 					Util.setField(obj, field, rel);
 				}
 			} else {
@@ -220,8 +188,7 @@ public class JdbcMappingUtils {
 		if(field.getAnnotation(Embedded.class) != null && value != null && java.sql.Clob.class.isAssignableFrom(value.getClass())) {
 			java.sql.Clob clob = (java.sql.Clob)value;
 			try {
-				Json data = Json.load(new BufferedReader(clob.getCharacterStream()));
-				return JsonSerializer.deserialize(field, data);
+				return JsonSerializer.deserialize(field, new JsonReader(clob.getCharacterStream()));
 			} catch (SQLException e) {
 				throw new SienaException(e);
 			}
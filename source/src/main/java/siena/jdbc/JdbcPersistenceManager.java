@@ -21,6 +21,7 @@ import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.lang.reflect.Field;
 import java.math.BigDecimal;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -33,6 +34,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -66,6 +68,19 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 	private static final String DB = "JDBC";
 	
 	private ConnectionManager connectionManager;
+	protected Properties props;
+	protected JdbcPersistenceManagerAsync asyncPm;
+
+	// max number of rows sent in one JDBC batch
+	protected int batchSize = 1000;
+	// rewrites batch inserts into multi-row INSERT ... VALUES (...),(...)
+	protected boolean multiRowInsert = false;
+	// SQL of the queries by query shape
+	protected JdbcSqlCache sqlCache = new JdbcSqlCache(512);
+	// number of rows fetched by round trip when streaming iter()
+	protected int fetchSize = 1000;
+	// max number of keys of one SELECT ... WHERE key IN (...) of get(Iterable) and getByKeys
+	protected int keyChunkSize = 1000;
 
 	public JdbcPersistenceManager() {
 	}
@@ -75,6 +90,7 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 	}
 
 	public void init(Properties p) {
+		this.props = p;
 		if(p != null) {
 			String cm = p.getProperty("transactions");
 			if(cm != null) {
@@ -93,18 +109,77 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		}
 
 		connectionManager.init(p);
+
+		if(p != null) {
+			String bs = p.getProperty("batch.size");
+			if(bs != null) {
+				setBatchSize(Integer.parseInt(bs.trim()));
+			}
+			String mr = p.getProperty("batch.multiRowInsert");
+			if(mr != null) {
+				multiRowInsert = Boolean.parseBoolean(mr.trim());
+			}
+			String fs = p.getProperty("iter.fetchSize");
+			if(fs != null) {
+				setFetchSize(Integer.parseInt(fs.trim()));
+			}
+			String kc = p.getProperty("get.chunkSize");
+			if(kc != null) {
+				setKeyChunkSize(Integer.parseInt(kc.trim()));
+			}
+			String sc = p.getProperty("sql.cacheSize");
+			if(sc != null) {
+				sqlCache = new JdbcSqlCache(Integer.parseInt(sc.trim()));
+			}
+		}
 	}
 
 	protected Connection getConnection() throws SQLException {
 		return connectionManager.getConnection();
 	}
 
+	/**
+	 * Prepares a statement through the statement cache of the current connection if the
+	 * ConnectionManager provides one. The statement must be closed with JdbcDBUtils.closeStatementAndConnection
+	 * which gives it back to the cache.
+	 */
+	protected PreparedStatement prepareStatement(String sql) throws SQLException {
+		return prepareStatement(sql, PreparedStatementCache.DEFAULT_KEYS);
+	}
+
+	protected PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+		Connection c = getConnection();
+		PreparedStatementCache cache = getStatementCache();
+		if(cache != null) {
+			return cache.prepare(sql, autoGeneratedKeys);
+		}
+		if(autoGeneratedKeys == PreparedStatementCache.DEFAULT_KEYS) {
+			return c.prepareStatement(sql);
+		}
+		return c.prepareStatement(sql, autoGeneratedKeys);
+	}
+
+	/**
+	 * @return true if the statement was given back to the statement cache, false if it must be closed
+	 */
+	protected boolean releaseStatement(Statement st) {
+		PreparedStatementCache cache = getStatementCache();
+		return cache != null && cache.release(st);
+	}
+
+	protected PreparedStatementCache getStatementCache() {
+		if(connectionManager instanceof AbstractConnectionManager) {
+			return ((AbstractConnectionManager)connectionManager).getStatementCache();
+		}
+		return null;
+	}
+
 	public void delete(Object obj) {
 		JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(obj.getClass());
 
 		PreparedStatement ps = null;
 		try {
-			ps = getConnection().prepareStatement(classInfo.deleteSQL);
+			ps = prepareStatement(classInfo.deleteSQL);
 			addParameters(obj, classInfo.keys, ps, 1);
 			int n = ps.executeUpdate();
 			if(n == 0) {
@@ -126,7 +201,7 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			ps = getConnection().prepareStatement(classInfo.selectSQL);
+			ps = prepareStatement(classInfo.selectSQL);
 			addParameters(obj, classInfo.keys, ps, 1);
 			rs = ps.executeQuery();
 			if(rs.next()) {
@@ -152,7 +227,7 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 			for (Field field : classInfo.keys) {
 				Id id = field.getAnnotation(Id.class);
 				if (id.value() == Generator.UUID) {
-					field.set(obj, UUID.randomUUID().toString());
+					Util.setField(obj, field, UUID.randomUUID().toString());
 				}
 			}
 			// TODO: implement primary key generation: SEQUENCE
@@ -160,7 +235,7 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 			if (!classInfo.generatedKeys.isEmpty()) {
 				insertWithAutoIncrementKey(classInfo, obj);
 			} else {
-				ps = getConnection().prepareStatement(classInfo.insertSQL);
+				ps = prepareStatement(classInfo.insertSQL);
 				addParameters(obj, classInfo.insertFields, ps, 1);
 				ps.executeUpdate();
 			}
@@ -178,7 +253,7 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 
 		PreparedStatement ps = null;
 		try {
-			ps = getConnection().prepareStatement(classInfo.updateSQL);
+			ps = prepareStatement(classInfo.updateSQL);
 			int i = 1;
 			i = addParameters(obj, classInfo.updateFields, ps, i);
 			addParameters(obj, classInfo.keys, ps, i);
@@ -202,18 +277,18 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 				for (Field field : classInfo.keys) {
 					Id id = field.getAnnotation(Id.class);
 					if (id.value() == Generator.UUID) {
-						field.set(obj, UUID.randomUUID().toString());
+						Util.setField(obj, field, UUID.randomUUID().toString());
 					}
 				}
 			}
 			// TODO: implement primary key generation: SEQUENCE
 			
 			if (idVal == null && !classInfo.generatedKeys.isEmpty()) {
-				ps = getConnection().prepareStatement(classInfo.insertOrUpdateSQL,
+				ps = prepareStatement(classInfo.insertOrUpdateSQL,
 						Statement.RETURN_GENERATED_KEYS);
 				//insertWithAutoIncrementKey(classInfo, obj);
 			} else {
-				ps = getConnection().prepareStatement(classInfo.insertOrUpdateSQL);
+				ps = prepareStatement(classInfo.insertOrUpdateSQL);
 			}
 			int i = 1;
 			i = addParameters(obj, classInfo.allFields, ps, i);
@@ -222,14 +297,17 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 			
 			if (idVal == null && !classInfo.generatedKeys.isEmpty()) {
 				ResultSet gk = ps.getGeneratedKeys();
-				if (!gk.next())
-					throw new SienaException("No such generated keys");
-				i = 1;
-				for (Field field : classInfo.generatedKeys) {
-					field.setAccessible(true);
-					JdbcMappingUtils.setFromObject(obj, field, gk.getObject(i));
-					// field.set(obj, gk.getObject(i));
-					i++;
+				try {
+					if (!gk.next())
+						throw new SienaException("No such generated keys");
+					i = 1;
+					for (Field field : classInfo.generatedKeys) {
+						JdbcMappingUtils.setFromObject(obj, field, gk.getObject(i));
+						// field.set(obj, gk.getObject(i));
+						i++;
+					}
+				} finally {
+					JdbcDBUtils.closeResultSet(gk);
 				}
 			}
 		} catch (SienaException e) {
@@ -261,6 +339,14 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		connectionManager.closeConnection();
 	}
 
+	/**
+	 * Closes the connection of the current thread even when closeConnection() is overridden to keep it,
+	 * used by the threads which don't outlive the operation they run.
+	 */
+	protected void releaseConnection() {
+		connectionManager.closeConnection();
+	}
+
 	private PreparedStatement createStatement(String sql,
 			List<Object> parameters) throws SQLException {
 		PreparedStatement statement = getConnection().prepareStatement(sql);
@@ -286,7 +372,7 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		ResultSet gk = null;
 		PreparedStatement ps = null;
 		try {
-			ps = getConnection().prepareStatement(classInfo.insertSQL,
+			ps = prepareStatement(classInfo.insertSQL,
 					Statement.RETURN_GENERATED_KEYS);
 			addParameters(obj, classInfo.insertFields, ps, 1);
 			ps.executeUpdate();
@@ -295,7 +381,6 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 				throw new SienaException("No such generated keys");
 			int i = 1;
 			for (Field field : classInfo.generatedKeys) {
-				field.setAccessible(true);
 				JdbcMappingUtils.setFromObject(obj, field, gk.getObject(i));
 				// field.set(obj, gk.getObject(i));
 				i++;
@@ -306,50 +391,6 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		}
 	}
 
-	/**
-	 * required to be overriden for Postgres
-	 * 
-	 * @param classInfo
-	 * @param objMap
-	 * @throws SQLException
-	 * @throws IllegalAccessException
-	 */
-	protected int insertBatchWithAutoIncrementKey(JdbcClassInfo classInfo, Map<JdbcClassInfo, List<Object>> objMap) throws SQLException, IllegalAccessException {
-		PreparedStatement ps = null;
-		ps = getConnection().prepareStatement(classInfo.insertSQL,
-				Statement.RETURN_GENERATED_KEYS);
-		
-		for(Object obj: objMap.get(classInfo)){
-			for (Field field : classInfo.keys) {
-				Id id = field.getAnnotation(Id.class);
-				if (id.value() == Generator.UUID) {
-					field.set(obj, UUID.randomUUID().toString());
-				}
-			}
-			// TODO: implement primary key generation: SEQUENCE
-			addParameters(obj, classInfo.insertFields, ps, 1);
-			ps.addBatch();
-		}
-		
-		// TODO what to do with results of executeBatch ??????
-		int[] res = ps.executeBatch();
-		
-		if(!classInfo.generatedKeys.isEmpty()){
-			ResultSet gk = ps.getGeneratedKeys();
-			int i;
-			int idx = 0;
-			while(gk.next()) {
-				i=1;
-				for (Field field : classInfo.generatedKeys) {
-					field.setAccessible(true);
-					JdbcMappingUtils.setFromObject(objMap.get(classInfo).get(idx++), field, gk.getObject(i++));
-				}
-			}
-		}	
-		
-		return res.length;
-	}
-
 	protected int addParameters(Object obj, List<Field> fields, PreparedStatement ps, int i) throws SQLException {
 		for (Field field : fields) {
 			Class<?> type = field.getType();
@@ -449,7 +490,7 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 				// by default, we use boolean mode which works without fulltext index
 				sql.append("MATCH("+Util.join(cols, ",")+") AGAINST(? IN BOOLEAN MODE)");
 			}
-			parameters.add(qf.match);
+			appendSqlSearchParameters(qf, parameters);
 		}catch(Exception e){
 			throw new SienaException(e);
 		}
@@ -482,10 +523,9 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 					if(!Collection.class.isAssignableFrom(value.getClass()))
 						throw new SienaException("Collection needed when using IN operator in filter() query");
 					StringBuilder s = new StringBuilder();
-					Collection<?> col = (Collection<?>) value;
-					for (Object object : col) {
-						// TODO: if object isModel
-						parameters.add(object);
+					// the list is padded to its bucket size to share the SQL with lists of close sizes
+					int nb = JdbcSqlCache.inBucket(((Collection<?>) value).size());
+					for (int i=0; i<nb; i++) {
 						s.append(",?");
 					}
 					sql.append(columns[0]+" IN("+s.toString().substring(1)+")");
@@ -496,19 +536,11 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 					JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(f.getType());
 					int i = 0;
 					JdbcMappingUtils.checkForeignKeyMapping(classInfo.keys, columns, query.getQueriedClass(), f);
-					for (Field key : classInfo.keys) {
+					for (int k=0; k<classInfo.keys.size(); k++) {
 						if(value == null) {
 							sql.append(columns[i++]+JdbcDBUtils.IS_NULL);
 						} else {
 							sql.append(columns[i++]+"=?");
-							key.setAccessible(true);
-							Object o;
-							try {
-								o = key.get(value);
-								parameters.add(o);
-							} catch (Exception e) {
-								throw new SienaException(e);
-							}
 						}
 					}
 				} else {
@@ -518,18 +550,9 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 						sql.append(columns[0]+JdbcDBUtils.IS_NOT_NULL);
 					} else {
 						sql.append(columns[0]+op+"?");
-						if(value == null) {
-							parameters.add(Types.NULL);
-						} else {
-							if (value instanceof Date) {
-								value = Util.translateDate(f, (Date) value);
-							} else if(value instanceof Enum) {
-								value = value.toString();
-							}
-							parameters.add(value);
-						}
 					}
 				}
+				appendSqlFilterParameters(qf, parameters);
 			}else if(QueryFilterSearch.class.isAssignableFrom(filter.getClass())){
 				// TODO MYSQL implementation manages only 1 search in a query
 				if(query.getSearches().size()>1){
@@ -541,6 +564,129 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 			}
 		}
 	}
+
+	/**
+	 * Adds the parameters of the WHERE clause built by appendSqlWhere without building the SQL
+	 * (used when the SQL of the query shape is cached).
+	 */
+	public <T> void appendSqlWhereParameters(Query<T> query, List<Object> parameters) {
+		for (QueryFilter filter : query.getFilters()) {
+			if(QueryFilterSimple.class.isAssignableFrom(filter.getClass())){
+				appendSqlFilterParameters((QueryFilterSimple)filter, parameters);
+			}else if(QueryFilterSearch.class.isAssignableFrom(filter.getClass())){
+				appendSqlSearchParameters((QueryFilterSearch)filter, parameters);
+			}
+		}
+	}
+
+	protected void appendSqlFilterParameters(QueryFilterSimple qf, List<Object> parameters) {
+		String op    = qf.operator;
+		Object value = qf.value;
+		Field f      = qf.field;
+
+		if("IN".equals(op)) {
+			Collection<?> col = (Collection<?>) value;
+			Object last = null;
+			for (Object object : col) {
+				// TODO: if object isModel
+				parameters.add(object);
+				last = object;
+			}
+			// pads the list up to its bucket size
+			for (int i=col.size(); i<JdbcSqlCache.inBucket(col.size()); i++) {
+				parameters.add(last);
+			}
+		} else if(ClassInfo.isModel(f.getType())) {
+			if(value != null) {
+				for (Field key : JdbcClassInfo.getClassInfo(f.getType()).keys) {
+					parameters.add(Util.readField(value, key));
+				}
+			}
+		} else if(value == null) {
+			if(!op.equals("=") && !op.equals("!=")) {
+				parameters.add(Types.NULL);
+			}
+		} else {
+			if (value instanceof Date) {
+				value = Util.translateDate(f, (Date) value);
+			} else if(value instanceof Enum) {
+				value = value.toString();
+			}
+			parameters.add(value);
+		}
+	}
+
+	/**
+	 * Adds the parameters of the search built by appendSqlSearch.
+	 */
+	public void appendSqlSearchParameters(QueryFilterSearch qf, List<Object> parameters) {
+		parameters.add(qf.match);
+	}
+
+	/**
+	 * Appends to the query shape everything the SQL built by appendSqlSearch depends on.
+	 */
+	public void appendSqlSearchShape(QueryFilterSearch qf, StringBuilder shape) {
+		for (String field : qf.fields) {
+			shape.append(field).append(',');
+		}
+		QueryOption opt = qf.option;
+		if(opt != null){
+			shape.append(opt.getClass().getName());
+			if(QueryOptionJdbcSearch.class.isAssignableFrom(opt.getClass())){
+				shape.append(((QueryOptionJdbcSearch)opt).booleanMode);
+			}
+		}
+	}
+
+	/**
+	 * Builds the SQL of the query or gets it from the SQL cache if a query of the same shape
+	 * has already been built and adds the parameters.
+	 */
+	protected <T> String buildSql(JdbcSqlCache.Kind kind, Query<T> query, List<Object> parameters) {
+		String shape = null;
+		if(sqlCache.isEnabled()){
+			shape = JdbcSqlCache.shapeOf(kind, query, this);
+			if(shape != null){
+				String sql = sqlCache.get(shape);
+				if(sql != null){
+					appendSqlWhereParameters(query, parameters);
+					if(kind == JdbcSqlCache.Kind.SELECT){
+						JdbcDBUtils.appendSqlLimitOffsetParameters(query, parameters);
+					}
+					return sql;
+				}
+			}
+		}
+
+		StringBuilder sql;
+		switch(kind){
+		case COUNT:
+			sql = new StringBuilder("SELECT COUNT(*) FROM ");
+			sql.append(JdbcClassInfo.getClassInfo(query.getQueriedClass()).tableName);
+			appendSqlWhere(query, sql, parameters);
+			break;
+		case DELETE:
+			sql = new StringBuilder("DELETE FROM ");
+			sql.append(JdbcClassInfo.getClassInfo(query.getQueriedClass()).tableName);
+			appendSqlWhere(query, sql, parameters);
+			break;
+		default:
+			sql = JdbcDBUtils.buildSqlSelect(query);
+			appendSqlWhere(query, sql, parameters);
+			JdbcDBUtils.appendSqlOrder(query, sql);
+			JdbcDBUtils.appendSqlLimitOffset(query, sql, parameters);
+		}
+		String res = sql.toString();
+		if(shape != null){
+			sqlCache.put(shape, res);
+		}
+		return res;
+	}
+
+	public JdbcSqlCache getSqlCache() {
+		return sqlCache;
+	}
 	
 	public void setConnectionManager(ConnectionManager connectionManager) {
 		this.connectionManager = connectionManager;
@@ -585,6 +731,11 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		if(jdbcCtx.noMoreDataBefore){
 			return new ArrayList<T>();
 		}
+
+		QueryOptionJdbcKeyset keyset = (QueryOptionJdbcKeyset)query.option(QueryOptionJdbcKeyset.ID);
+		if(keyset != null && keyset.isActive() && pag.isPaginating()){
+			return doFetchKeyset(query, jdbcCtx, keyset, false);
+		}
 				
 		if(state.isStateless() 
 				|| (state.isStateful() && !jdbcCtx.isActive())
@@ -619,15 +770,12 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 			}
 			Class<T> clazz = query.getQueriedClass();
 			List<Object> parameters = new ArrayList<Object>();
-			StringBuilder sql = JdbcDBUtils.buildSqlSelect(query);
-			appendSqlWhere(query, sql, parameters);
-			JdbcDBUtils.appendSqlOrder(query, sql);
-			JdbcDBUtils.appendSqlLimitOffset(query, sql, parameters);
+			String sql = buildSql(JdbcSqlCache.Kind.SELECT, query, parameters);
 			//sql.append(suffix);
 			PreparedStatement statement = null;
 			ResultSet rs = null;
 			try {
-				statement = createStatement(sql.toString(), parameters);
+				statement = createStatement(sql, parameters);
 				if(pag.isPaginating()) {
 					// this is just a hint to the DB so wonder if it should be used
 					statement.setFetchSize(jdbcCtx.realPageSize);
@@ -716,6 +864,124 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 	}
 
 
+	/**
+	 * Fetches the current page of a query paginated with QueryOptionJdbcKeyset:
+	 * the rows after (or before for previousPage) the bound of the page instead of LIMIT/OFFSET.
+	 * The page is read at once (it is bounded by the page size) and the statement is closed.
+	 */
+	private <T> List<T> doFetchKeyset(Query<T> query, QueryOptionJdbcContext jdbcCtx, QueryOptionJdbcKeyset keyset, boolean keysOnly) {
+		Class<T> clazz = query.getQueriedClass();
+		List<Boolean> ascending = new ArrayList<Boolean>();
+		List<String> columns = JdbcDBUtils.keysetColumns(query, ascending);
+		List<Object> parameters = new ArrayList<Object>();
+		String sql = buildKeysetSql(query, keyset, columns, ascending, parameters);
+
+		PreparedStatement statement = null;
+		ResultSet rs = null;
+		List<T> result = new ArrayList<T>();
+		Object[] first = null;
+		Object[] last = null;
+		try {
+			statement = createStatement(sql, parameters);
+			statement.setFetchSize(jdbcCtx.realPageSize);
+			rs = statement.executeQuery();
+			JdbcMappingPlan<T> plan = JdbcMappingPlan.getPlan(clazz, rs, ClassInfo.getClassInfo(clazz).tableName, 
+					JdbcMappingUtils.getJoinFields(query), keysOnly);
+			while(rs.next()) {
+				result.add(plan.map(rs));
+				if(first == null) {
+					first = keysetBound(rs, columns);
+				}
+				else {
+					if(last == null) {
+						last = new Object[columns.size()];
+					}
+					for (int i=0; i<last.length; i++) {
+						last[i] = rs.getObject(JdbcClassInfo.aliasFromCol(columns.get(i)));
+					}
+				}
+			}
+		} catch(SQLException e) {
+			throw new SienaException(e);
+		} finally {
+			JdbcDBUtils.closeResultSet(rs);
+			JdbcDBUtils.closeStatementAndConnection(this, statement);
+		}
+		if(last == null) {
+			last = first;
+		}
+
+		if(keyset.reverse) {
+			// the rows before the bound have been read backwards
+			Collections.reverse(result);
+			Object[] tmp = first;
+			first = last;
+			last = tmp;
+			if(result.size() < jdbcCtx.realPageSize) {
+				// reached the beginning: goes back to the first page
+				keyset.reset();
+				if(result.isEmpty()) {
+					jdbcCtx.noMoreDataBefore = true;
+					return result;
+				}
+				return doFetchKeyset(query, jdbcCtx, keyset, keysOnly);
+			}
+		}
+
+		jdbcCtx.noMoreDataAfter = result.isEmpty();
+		if(!result.isEmpty()) {
+			keyset.first = first;
+			keyset.last = last;
+		}
+		return result;
+	}
+
+	private Object[] keysetBound(ResultSet rs, List<String> columns) throws SQLException {
+		Object[] bound = new Object[columns.size()];
+		for (int i=0; i<bound.length; i++) {
+			bound[i] = rs.getObject(JdbcClassInfo.aliasFromCol(columns.get(i)));
+		}
+		return bound;
+	}
+
+	private <T> String buildKeysetSql(Query<T> query, QueryOptionJdbcKeyset keyset, List<String> columns, 
+			List<Boolean> ascending, List<Object> parameters) {
+		QueryOptionJdbcContext jdbcCtx = (QueryOptionJdbcContext)query.option(QueryOptionJdbcContext.ID);
+		String shape = null;
+		if(sqlCache.isEnabled()){
+			shape = JdbcSqlCache.shapeOf(JdbcSqlCache.Kind.SELECT, query, this);
+			if(shape != null){
+				shape += "|k" + (keyset.from == null ? "" : (keyset.reverse ? "<" : ">") + (keyset.inclusive ? "=" : ""));
+				String sql = sqlCache.get(shape);
+				if(sql != null){
+					appendSqlWhereParameters(query, parameters);
+					if(keyset.from != null){
+						JdbcDBUtils.appendSqlKeysetParameters(keyset.from, ascending, parameters);
+					}
+					parameters.add(jdbcCtx.realPageSize);
+					return sql;
+				}
+			}
+		}
+
+		StringBuilder sql = JdbcDBUtils.buildSqlSelect(query);
+		appendSqlWhere(query, sql, parameters);
+		if(keyset.from != null){
+			sql.append(query.getFilters().isEmpty() ? JdbcDBUtils.WHERE : JdbcDBUtils.AND);
+			JdbcDBUtils.appendSqlKeyset(sql, columns, ascending, keyset.reverse, keyset.inclusive);
+			JdbcDBUtils.appendSqlKeysetParameters(keyset.from, ascending, parameters);
+		}
+		JdbcDBUtils.appendSqlKeysetOrder(sql, columns, ascending, keyset.reverse);
+		sql.append(" LIMIT ?");
+		parameters.add(jdbcCtx.realPageSize);
+
+		String res = sql.toString();
+		if(shape != null){
+			sqlCache.put(shape, res);
+		}
+		return res;
+	}
+
 	@Override
 	public <T> List<T> fetch(Query<T> query) {
 		List<T> result = doFetch(query, Integer.MAX_VALUE, 0);
@@ -740,15 +1006,12 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 	}
 
 	public <T> int count(Query<T> query) {
-		ClassInfo info = ClassInfo.getClassInfo(query.getQueriedClass());
 		List<Object> parameters = new ArrayList<Object>();
-		StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM ");
-		sql.append(info.tableName);
-		appendSqlWhere(query, sql, parameters);
+		String sql = buildSql(JdbcSqlCache.Kind.COUNT, query, parameters);
 		PreparedStatement statement = null;
 		ResultSet rs = null;
 		try {
-			statement = createStatement(sql.toString(), parameters);
+			statement = createStatement(sql, parameters);
 			rs = statement.executeQuery();
 			rs.next();
 			return rs.getInt(1);
@@ -761,15 +1024,12 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 	}
 
 	public <T> int delete(Query<T> query) {
-		ClassInfo info = ClassInfo.getClassInfo(query.getQueriedClass());
 		List<Object> parameters = new ArrayList<Object>();
-		StringBuilder sql = new StringBuilder("DELETE FROM ");
-		sql.append(info.tableName);
-		appendSqlWhere(query, sql, parameters);
+		String sql = buildSql(JdbcSqlCache.Kind.DELETE, query, parameters);
 		PreparedStatement statement = null;
 		ResultSet rs = null;
 		try {
-			statement = createStatement(sql.toString(), parameters);
+			statement = createStatement(sql, parameters);
 			return statement.executeUpdate();
 		} catch(SQLException e) {
 			throw new SienaException(e);
@@ -817,6 +1077,11 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		if(jdbcCtx.noMoreDataBefore){
 			return new ArrayList<T>();
 		}
+
+		QueryOptionJdbcKeyset keyset = (QueryOptionJdbcKeyset)query.option(QueryOptionJdbcKeyset.ID);
+		if(keyset != null && keyset.isActive() && pag.isPaginating()){
+			return doFetchKeyset(query, jdbcCtx, keyset, true);
+		}
 				
 		if(state.isStateless() || (state.isStateful() && !jdbcCtx.isActive())) {
 			if(state.isStateless()){
@@ -850,15 +1115,12 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 			
 			Class<T> clazz = query.getQueriedClass();
 			List<Object> parameters = new ArrayList<Object>();
-			StringBuilder sql = JdbcDBUtils.buildSqlSelect(query);
-			appendSqlWhere(query, sql, parameters);
-			JdbcDBUtils.appendSqlOrder(query, sql);
-			JdbcDBUtils.appendSqlLimitOffset(query, sql, parameters);
+			String sql = buildSql(JdbcSqlCache.Kind.SELECT, query, parameters);
 			//sql.append(suffix);
 			PreparedStatement statement = null;
 			ResultSet rs = null;
 			try {
-				statement = createStatement(sql.toString(), parameters);
+				statement = createStatement(sql, parameters);
 				if(pag.isActive()) {
 					// this is just a hint to the DB so wonder if it should be used
 					statement.setFetchSize(jdbcCtx.realPageSize);
@@ -968,6 +1230,35 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 	}
 	
 	
+	/**
+	 * Sets the statement up to stream the rows of iter() instead of buffering the whole result
+	 * in the driver: by default, the driver is asked to fetch fetchSize rows at a time.
+	 * The dialects needing more (MySQL, PostgreSQL) override it.
+	 * 
+	 * @return true if the autocommit of the connection has been switched off and must be restored
+	 * with endStreaming once the rows are read
+	 */
+	protected boolean prepareStreaming(PreparedStatement statement, int fetchSize) throws SQLException {
+		statement.setFetchSize(fetchSize);
+		return false;
+	}
+
+	/**
+	 * Ends the transaction opened by prepareStreaming and restores the autocommit
+	 */
+	protected void endStreaming(Statement statement) {
+		try {
+			Connection c = statement.getConnection();
+			try {
+				c.commit();
+			} finally {
+				c.setAutoCommit(true);
+			}
+		} catch(SQLException e) {
+			throw new SienaException(e);
+		}
+	}
+
 	private <T> Iterable<T> doIter(Query<T> query, int limit, int offset) {		
 		QueryOptionJdbcContext jdbcCtx = (QueryOptionJdbcContext)query.option(QueryOptionJdbcContext.ID);
 		if(jdbcCtx==null){
@@ -1014,6 +1305,11 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		if(jdbcCtx.noMoreDataBefore){
 			return new ArrayList<T>();
 		}
+
+		QueryOptionJdbcKeyset keyset = (QueryOptionJdbcKeyset)query.option(QueryOptionJdbcKeyset.ID);
+		if(keyset != null && keyset.isActive() && pag.isPaginating()){
+			return doFetchKeyset(query, jdbcCtx, keyset, false);
+		}
 		
 		// forces the reusable option since iteration requires it!!!
 		//query.stateful();		
@@ -1049,16 +1345,18 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 			}
 			
 			List<Object> parameters = new ArrayList<Object>();
-			StringBuilder sql = JdbcDBUtils.buildSqlSelect(query);
-			appendSqlWhere(query, sql, parameters);
-			JdbcDBUtils.appendSqlOrder(query, sql);
-			JdbcDBUtils.appendSqlLimitOffset(query, sql, parameters);
+			String sql = buildSql(JdbcSqlCache.Kind.SELECT, query, parameters);
 			//sql.append(suffix);
 			PreparedStatement statement = null;
 			ResultSet rs = null;
+			QueryOptionJdbcStreaming streaming = (QueryOptionJdbcStreaming)query.option(QueryOptionJdbcStreaming.ID);
+			boolean restoreAutoCommit = false;
 			try {
-				statement = createStatement(sql.toString(), parameters);
-				if(pag.isActive()) {
+				statement = createStatement(sql, parameters);
+				if(streaming != null && streaming.isActive() && state.isStateless()) {
+					restoreAutoCommit = prepareStreaming(statement, streaming.fetchSize>0?streaming.fetchSize:fetchSize);
+				}
+				else if(pag.isActive()) {
 					// this is just a hint to the DB so wonder if it should be used
 					statement.setFetchSize(jdbcCtx.realPageSize);
 				}
@@ -1078,11 +1376,19 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 					jdbcCtx.offsetParamIdx = offsetParamIdx;
 				}
 				
-				return new JdbcSienaIterable<T>(this, statement, rs, query);
+				return new JdbcSienaIterable<T>(this, statement, rs, query, restoreAutoCommit);
 			} 
 			catch(SQLException e) {
 				JdbcDBUtils.closeResultSet(rs);
-				JdbcDBUtils.closeStatementAndConnection(this, statement);
+				try {
+					if(restoreAutoCommit) {
+						endStreaming(statement);
+					}
+				} catch(SienaException ex) {
+					// the error of the query is the one reported
+				} finally {
+					JdbcDBUtils.closeStatementAndConnection(this, statement);
+				}
 				throw new SienaException(e);
 			} 
 		}else {
@@ -1158,6 +1464,11 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		if(state.isStateless()){
 			jdbcCtx.realOffset = 0;
 		}
+		
+		QueryOptionJdbcKeyset keyset = (QueryOptionJdbcKeyset)query.option(QueryOptionJdbcKeyset.ID);
+		if(keyset != null){
+			keyset.reset();
+		}
 	}
 
 	public <T> void previousPage(Query<T> query) {
@@ -1173,13 +1484,32 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		}
 		
 		// if no more data after, removes flag to be able to go before
+		boolean noMoreDataAfter = jdbcCtx.noMoreDataAfter;
 		if(jdbcCtx.noMoreDataAfter){
 			jdbcCtx.noMoreDataAfter = false;
 		}
 		
 		QueryOptionPage pag = (QueryOptionPage)query.option(QueryOptionPage.ID);
+		QueryOptionJdbcKeyset keyset = (QueryOptionJdbcKeyset)query.option(QueryOptionJdbcKeyset.ID);
 	
-		if(pag.isPaginating()){
+		if(pag.isPaginating() && keyset != null && keyset.isActive()){
+			jdbcCtx.realPageSize = pag.pageSize;
+			if(noMoreDataAfter){
+				// the empty page after the last one: goes back to the last page
+				keyset.from = keyset.first;
+				keyset.reverse = false;
+				keyset.inclusive = true;
+			}
+			else if(keyset.isFirstPage()){
+				jdbcCtx.noMoreDataBefore = true;
+			}
+			else {
+				keyset.from = keyset.first;
+				keyset.reverse = true;
+				keyset.inclusive = false;
+			}
+		}
+		else if(pag.isPaginating()){
 			//QueryOptionOffset offset = (QueryOptionOffset)query.option(QueryOptionOffset.ID);
 			//if(offset.isActive()){
 			jdbcCtx.realPageSize = pag.pageSize;
@@ -1216,8 +1546,18 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		}
 		
 		QueryOptionPage pag = (QueryOptionPage)query.option(QueryOptionPage.ID);
+		QueryOptionJdbcKeyset keyset = (QueryOptionJdbcKeyset)query.option(QueryOptionJdbcKeyset.ID);
 				
-		if(pag.isPaginating()){
+		if(pag.isPaginating() && keyset != null && keyset.isActive()){
+			jdbcCtx.realPageSize = pag.pageSize;
+			// if the current page hasn't been fetched yet, stays on it
+			if(keyset.last != null){
+				keyset.from = keyset.last;
+				keyset.reverse = false;
+				keyset.inclusive = false;
+			}
+		}
+		else if(pag.isPaginating()){
 			//QueryOptionOffset offset = (QueryOptionOffset)query.option(QueryOptionOffset.ID);
 			//if(offset.isActive()){
 				jdbcCtx.realPageSize = pag.pageSize;
@@ -1235,75 +1575,78 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 	}
 
 	public <T> int get(Iterable<T> objects) {
-		Map<JdbcClassInfo, List<Object>> objMap = new HashMap<JdbcClassInfo, List<Object>>();
-		PreparedStatement ps = null;
-		
+		// objects waiting for their row by class and key
+		Map<JdbcClassInfo, Map<Object, List<Object>>> objMap = new LinkedHashMap<JdbcClassInfo, Map<Object, List<Object>>>();
 		for(Object obj:objects){
 			JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(obj.getClass());
-			if(!objMap.containsKey(classInfo)){
-				List<Object> l = new ArrayList<Object>();
-				l.add(obj);
-				objMap.put(classInfo, l);
-			}else{
-				objMap.get(classInfo).add(obj);
-			}
-		}
-		
-		int total = 0;
-		try {
-			for(JdbcClassInfo classInfo: objMap.keySet()){
+			Map<Object, List<Object>> keyObjs = objMap.get(classInfo);
+			if(keyObjs == null){
 				// doesn't manage multiple keys case
 				if(classInfo.keys.size()>1){
 					throw new SienaException("Can't batch select multiple keys objects");
 				}
-				
-				Field f = classInfo.keys.get(0);
-				
-				HashMap<Object, Object> keyObj = new HashMap<Object, Object>();
-				
-				for(Object obj: objMap.get(classInfo)){
-					Object key = Util.readField(obj, f);
-					keyObj.put(key, obj);
-				}
-				
-				Query<?> q = createQuery(classInfo.info.clazz);
-				List<?> results = q.filter(f.getName()+ " IN", keyObj.keySet()).fetch();
-				
-				for(Object res:results){
-					Object resKey = Util.readField(res, f);
-					Util.copyObject(res, keyObj.get(resKey));
-				}
-				
-				total+=results.size();
+				keyObjs = new LinkedHashMap<Object, List<Object>>();
+				objMap.put(classInfo, keyObjs);
 			}
-			
-			return total;
-		} catch (SienaException e) {
-			throw e;
-		} catch (Exception e) {
-			throw new SienaException(e);
-		} finally {
-			JdbcDBUtils.closeStatementAndConnection(this, ps);
+			Field f = classInfo.keys.get(0);
+			Object key = Util.readField(obj, f);
+			if(key == null){
+				continue;
+			}
+			List<Object> l = keyObjs.get(key);
+			if(l == null){
+				l = new ArrayList<Object>(1);
+				keyObjs.put(key, l);
+			}
+			l.add(obj);
+		}
+		
+		int total = 0;
+		for(Map.Entry<JdbcClassInfo, Map<Object, List<Object>>> entry: objMap.entrySet()){
+			final Map<Object, List<Object>> keyObjs = entry.getValue();
+			final int[] count = new int[1];
+			selectByKeys(entry.getKey(), keyObjs.keySet(), new KeyRowMapper() {
+				public void map(Object key, JdbcMappingPlan<?> plan, ResultSet rs) {
+					List<Object> l = keyObjs.get(key);
+					if(l != null){
+						for(Object obj: l){
+							plan.mapInto(obj, rs);
+						}
+						count[0] += l.size();
+					}
+				}
+			});
+			total += count[0];
 		}
+		return total;
 	}
 
 	public <T> T getByKey(Class<T> clazz, Object key) {
-		PreparedStatement ps = null;
 		JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(clazz);
+		// doesn't manage multiple keys case
+		if(classInfo.keys.size()>1){
+			throw new SienaException("Can't batch select multiple keys objects");
+		}
+		if(key == null){
+			return null;
+		}
 		
+		PreparedStatement ps = null;
+		ResultSet rs = null;
 		try {
-			// doesn't manage multiple keys case
-			if(classInfo.keys.size()>1){
-				throw new SienaException("Can't batch select multiple keys objects");
+			ps = prepareStatement(classInfo.getSelectByKeysSQL(1));
+			setParameter(ps, 1, key);
+			rs = ps.executeQuery();
+			if(!rs.next()){
+				return null;
 			}
-				
-			Query<T> q = createQuery(clazz);
-			return q.filter(classInfo.info.getIdField().getName()+ "=", key).get();
+			return JdbcMappingPlan.getPlan(clazz, rs, classInfo.tableName, classInfo.joinFields, false).map(rs);
 		} catch (SienaException e) {
 			throw e;
 		} catch (Exception e) {
 			throw new SienaException(e);
 		} finally {
+			JdbcDBUtils.closeResultSet(rs);
 			JdbcDBUtils.closeStatementAndConnection(this, ps);
 		}	
 	}
@@ -1313,54 +1656,119 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 	}
 
 	public <T> List<T> getByKeys(Class<T> clazz, Iterable<?> keys) {
-		PreparedStatement ps = null;
 		JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(clazz);
+		// doesn't manage multiple keys case
+		if(classInfo.keys.size()>1){
+			throw new SienaException("Can't batch select multiple keys objects");
+		}
 		
-		try {
-			// doesn't manage multiple keys case
-			if(classInfo.keys.size()>1){
-				throw new SienaException("Can't batch select multiple keys objects");
+		// the keys are converted to the type of the key field to be found in the rows
+		Field f = classInfo.keys.get(0);
+		List<Object> keyList = new ArrayList<Object>();
+		final Map<Object, T> keyObj = new HashMap<Object, T>();
+		for(Object key:keys){
+			key = key==null?null:Util.fromObject(f, key);
+			keyList.add(key);
+			if(key != null){
+				keyObj.put(key, null);
 			}
-				
-			Field f = classInfo.keys.get(0);
-			List<Object> keyList = new ArrayList<Object>();
-			for(Object key:keys){
-				keyList.add(key);
+		}
+		
+		selectByKeys(classInfo, keyObj.keySet(), new KeyRowMapper() {
+			public void map(Object key, JdbcMappingPlan<?> plan, ResultSet rs) {
+				if(keyObj.containsKey(key)){
+					@SuppressWarnings("unchecked")
+					T obj = (T) plan.map(rs);
+					keyObj.put(key, obj);
+				}
 			}
-			
-			Query<T> q = createQuery(clazz);
-			List<T> results = q.filter(f.getName()+ " IN", keyList).fetch();
-			List<T> realResults = new ArrayList<T>();
-			HashMap<Object, T> keyObj = new HashMap<Object, T>();
-			
+		});
+		
+		List<T> results = new ArrayList<T>(keyList.size());
+		for(Object key: keyList){
+			results.add(key==null?null:keyObj.get(key));
+		}
+		return results;
+	}
+
+	/**
+	 * Maps a row selected by selectByKeys.
+	 */
+	protected interface KeyRowMapper {
+		/**
+		 * @param key the key of the row converted to the type of the key field
+		 */
+		void map(Object key, JdbcMappingPlan<?> plan, ResultSet rs);
+	}
+
+	/**
+	 * Selects the rows of a class by key with SELECT ... WHERE key IN (?, ...) statements of at most
+	 * keyChunkSize keys and maxParameters() parameters.
+	 * The IN lists are padded to a power of 2 with the last key so that only a few statements are
+	 * prepared by class (and reused by the statement cache) whatever the number of keys.
+	 * The rows come in no particular order: the mapper finds the waiting objects by key.
+	 */
+	protected void selectByKeys(JdbcClassInfo classInfo, Collection<Object> keys, KeyRowMapper mapper) {
+		if(keys.isEmpty()){
+			return;
+		}
+		Field f = classInfo.keys.get(0);
+		String keyLabel = JdbcClassInfo.aliasFromCol(ClassInfo.getColumnNames(f, classInfo.tableName)[0]);
+		Object[] chunk = new Object[Math.min(keys.size(), Math.max(1, Math.min(keyChunkSize, maxParameters())))];
+		int n = 0;
+		try {
 			for(Object key: keys){
-				if(!keyObj.containsKey(key)){
-					for(int i=0; i<results.size();i++){
-						T res = results.get(i);
-						Object resKey = Util.readField(res, f);
-						if(key.equals(resKey)){
-							keyObj.put(key, res);
-							results.remove(i);
-							break;
-						}
-					}
+				chunk[n++] = key;
+				if(n == chunk.length){
+					selectChunk(classInfo, f, keyLabel, chunk, n, mapper);
+					n = 0;
 				}
-				
-				realResults.add(keyObj.get(key));
 			}
-			
-			return realResults;
+			if(n > 0){
+				selectChunk(classInfo, f, keyLabel, chunk, n, mapper);
+			}
 		} catch (SienaException e) {
 			throw e;
 		} catch (Exception e) {
 			throw new SienaException(e);
 		} finally {
-			JdbcDBUtils.closeStatementAndConnection(this, ps);
-		}	
+			JdbcDBUtils.closeStatementAndConnection(this, null);
+		}
 	}
 
-	public <T> PersistenceManagerAsync async() {
-		throw new SienaException("Not Implemented");
+	private void selectChunk(JdbcClassInfo classInfo, Field keyField, String keyLabel, Object[] keys, int n, KeyRowMapper mapper) throws SQLException {
+		int size = 1;
+		while(size < n){
+			size <<= 1;
+		}
+		size = Math.min(size, keys.length);
+		
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			ps = prepareStatement(classInfo.getSelectByKeysSQL(size));
+			for(int i=0; i<size; i++){
+				setParameter(ps, i+1, keys[i<n?i:n-1]);
+			}
+			rs = ps.executeQuery();
+			JdbcMappingPlan<?> plan = JdbcMappingPlan.getPlan(classInfo.info.clazz, rs, classInfo.tableName, classInfo.joinFields, false);
+			while(rs.next()){
+				mapper.map(Util.fromObject(keyField, rs.getObject(keyLabel)), plan, rs);
+			}
+		} finally {
+			JdbcDBUtils.closeResultSet(rs);
+			if(ps != null && !releaseStatement(ps)){
+				ps.close();
+			}
+		}
+	}
+
+	public synchronized <T> PersistenceManagerAsync async() {
+		if(asyncPm == null) {
+			asyncPm = new JdbcPersistenceManagerAsync(this);
+			asyncPm.init(props);
+		}
+		return asyncPm;
 	}
 
 	public int insert(Object... objects) {
@@ -1368,54 +1776,19 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 	}
 
 	public int insert(Iterable<?> objects) {
-		Map<JdbcClassInfo, List<Object>> objMap = new HashMap<JdbcClassInfo, List<Object>>();
-		PreparedStatement ps = null;
-		
-		for(Object obj:objects){
-			JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(obj.getClass());
-			if(!objMap.containsKey(classInfo)){
-				List<Object> l = new ArrayList<Object>();
-				l.add(obj);
-				objMap.put(classInfo, l);
-			}else{
-				objMap.get(classInfo).add(obj);
-			}
-		}
-
-		int total = 0;
-		try {
-			for(JdbcClassInfo classInfo: objMap.keySet()){
-				if(classInfo.generatedKeys.isEmpty()){
-					ps = getConnection().prepareStatement(classInfo.insertSQL);
-					
-					for(Object obj: objMap.get(classInfo)){
-						for (Field field : classInfo.keys) {
-							Id id = field.getAnnotation(Id.class);
-							if (id.value() == Generator.UUID) {
-								field.set(obj, UUID.randomUUID().toString());
-							}
-						}
-						// TODO: implement primary key generation: SEQUENCE
-						addParameters(obj, classInfo.insertFields, ps, 1);
-						ps.addBatch();
-					}
-					
-					// TODO what to do with results of executeBatch ??????
-					int[] res = ps.executeBatch();
-					total+=res.length;
-				}else {
-					total+=insertBatchWithAutoIncrementKey(classInfo, objMap);
-				}			
+		return checkBatch(insertBatch(objects));
+	}
 
-			}			
-			return total;
-		} catch (SienaException e) {
-			throw e;
-		} catch (Exception e) {
-			throw new SienaException(e);
-		} finally {
-			JdbcDBUtils.closeStatementAndConnection(this, ps);
-		}
+	/**
+	 * Inserts the objects by chunks of batchSize rows and reports the outcome of each row.
+	 * Contrary to insert(), it doesn't throw an exception when a row fails.
+	 */
+	public JdbcBatchResult insertBatch(Iterable<?> objects) {
+		return executeBatch(objects, new BatchChunkExecutor() {
+			public int[] execute(JdbcClassInfo classInfo, List<Object> objects) throws SQLException, IllegalAccessException {
+				return insertChunk(classInfo, objects);
+			}
+		});
 	}
 
 	public int delete(Object... objects) {
@@ -1423,46 +1796,18 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 	}
 
 	public int delete(Iterable<?> objects) {
-		Map<JdbcClassInfo, List<Object>> objMap = new HashMap<JdbcClassInfo, List<Object>>();
-		PreparedStatement ps = null;
-		
-		for(Object obj:objects){
-			JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(obj.getClass());
-			if(!objMap.containsKey(classInfo)){
-				List<Object> l = new ArrayList<Object>();
-				l.add(obj);
-				objMap.put(classInfo, l);
-			}else{
-				objMap.get(classInfo).add(obj);
-			}
-		}
-		
-		int total = 0;
+		return checkBatch(deleteBatch(objects));
+	}
 
-		try {
-			for(JdbcClassInfo classInfo: objMap.keySet()){
-				
-				ps = getConnection().prepareStatement(classInfo.deleteSQL);
-				
-				for(Object obj: objMap.get(classInfo)){
-					addParameters(obj, classInfo.keys, ps, 1);
-					ps.addBatch();
-				}
-				
-				// TODO what to do with results of executeBatch ??????
-				int[] res = ps.executeBatch();
-				
-				total+=res.length;
+	/**
+	 * Deletes the objects by chunks of batchSize rows and reports the outcome of each row.
+	 */
+	public JdbcBatchResult deleteBatch(Iterable<?> objects) {
+		return executeBatch(objects, new BatchChunkExecutor() {
+			public int[] execute(JdbcClassInfo classInfo, List<Object> objects) throws SQLException, IllegalAccessException {
+				return deleteChunk(classInfo, objects);
 			}
-			
-			return total;
-		} catch (SienaException e) {
-			throw e;
-		} catch (Exception e) {
-			throw new SienaException(e);
-		} finally {
-			JdbcDBUtils.closeStatementAndConnection(this, ps);
-		}
+		});
 	}
 
 	public <T> int deleteByKeys(Class<T> clazz, Object... keys) {
@@ -1475,15 +1820,21 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		try {
 			ps = getConnection().prepareStatement(classInfo.deleteSQL);
 			
+			int total = 0;
+			int n = 0;
 			for(Object key: keys){
 				setParameter(ps, 1, key);
 				ps.addBatch();
+				if(++n == batchSize){
+					total += ps.executeBatch().length;
+					n = 0;
+				}
+			}
+			if(n > 0){
+				total += ps.executeBatch().length;
 			}
-				
-			// TODO what to do with results of executeBatch ??????
-			int res[] = ps.executeBatch();
 			
-			return res.length;
+			return total;
 		} catch (SienaException e) {
 			throw e;
 		} catch (Exception e) {
@@ -1499,137 +1850,447 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 	}
 
 	public <T> int update(Iterable<T> objects) {
-		//throw new NotImplementedException("update not implemented for JDBC yet");
-		Map<JdbcClassInfo, List<Object>> objMap = new HashMap<JdbcClassInfo, List<Object>>();
-		PreparedStatement ps = null;
-		
-		for(Object obj:objects){
-			JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(obj.getClass());
-			if(!objMap.containsKey(classInfo)){
-				List<Object> l = new ArrayList<Object>();
-				l.add(obj);
-				objMap.put(classInfo, l);
-			}else{
-				objMap.get(classInfo).add(obj);
+		return checkBatch(updateBatch(objects));
+	}
+
+	/**
+	 * Updates the objects by chunks of batchSize rows and reports the outcome of each row.
+	 */
+	public JdbcBatchResult updateBatch(Iterable<?> objects) {
+		return executeBatch(objects, new BatchChunkExecutor() {
+			public int[] execute(JdbcClassInfo classInfo, List<Object> objects) throws SQLException, IllegalAccessException {
+				return updateChunk(classInfo, objects);
+			}
+		});
+	}
+
+	public <T> int update(Query<T> query, Map<String, ?> fieldValues) {
+		throw new SienaException("Not Implemented");
+	}
+
+
+	@Override
+	public int save(Object... objects) {
+		return save(Arrays.asList(objects));
+	}
+
+	@Override
+	public int save(Iterable<?> objects) {
+		return checkBatch(saveBatch(objects));
+	}
+
+	/**
+	 * Inserts or updates the objects by chunks of batchSize rows and reports the outcome of each row.
+	 */
+	public JdbcBatchResult saveBatch(Iterable<?> objects) {
+		return executeBatch(objects, new BatchChunkExecutor() {
+			public int[] execute(JdbcClassInfo classInfo, List<Object> objects) throws SQLException, IllegalAccessException {
+				return saveChunk(classInfo, objects);
+			}
+		});
+	}
+
+	/**
+	 * Executes a batch operation on a chunk of objects of the same class.
+	 */
+	protected interface BatchChunkExecutor {
+		/**
+		 * @return the outcome of each object (see Statement.executeBatch)
+		 * @throws BatchUpdateException with the outcome of the rows executed before the failure
+		 */
+		int[] execute(JdbcClassInfo classInfo, List<Object> objects) throws SQLException, IllegalAccessException;
+	}
+
+	/**
+	 * The objects of one class waiting to be sent to the database with their row numbers.
+	 */
+	private static class BatchChunk {
+		List<Object> objects = new ArrayList<Object>();
+		int[] rows = new int[16];
+
+		void add(Object obj, int row) {
+			if(objects.size() == rows.length) {
+				rows = Arrays.copyOf(rows, rows.length * 2);
 			}
+			rows[objects.size()] = row;
+			objects.add(obj);
 		}
-		
-		int total = 0;
+	}
 
+	/**
+	 * Groups the objects by class and sends them to the database by chunks of batchSize rows as soon
+	 * as a chunk is full so that only batchSize objects per class are kept while iterating.
+	 * Stops at the first failed chunk: the following rows are reported as not executed.
+	 */
+	protected JdbcBatchResult executeBatch(Iterable<?> objects, BatchChunkExecutor executor) {
+		JdbcBatchResult result = new JdbcBatchResult();
+		Map<JdbcClassInfo, BatchChunk> chunks = new LinkedHashMap<JdbcClassInfo, BatchChunk>();
 		try {
-			for(JdbcClassInfo classInfo: objMap.keySet()){
-				
-				ps = getConnection().prepareStatement(classInfo.updateSQL);
-				
-				for(Object obj: objMap.get(classInfo)){
-					int i = 1;
-					i = addParameters(obj, classInfo.updateFields, ps, i);
-					addParameters(obj, classInfo.keys, ps, i);
-					ps.addBatch();
+			for(Object obj: objects){
+				int row = result.add();
+				if(result.hasErrors()){
+					continue;
+				}
+				JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(obj.getClass());
+				BatchChunk chunk = chunks.get(classInfo);
+				if(chunk == null){
+					chunk = new BatchChunk();
+					chunks.put(classInfo, chunk);
+				}
+				chunk.add(obj, row);
+				if(chunk.objects.size() >= batchSize){
+					executeChunk(classInfo, chunk, executor, result);
 				}
-				
-				// TODO what to do with results of executeBatch ??????
-				int[] res = ps.executeBatch();
-				
-				total+=res.length;
 			}
-			
-			return total;
+			for(Map.Entry<JdbcClassInfo, BatchChunk> entry: chunks.entrySet()){
+				if(result.hasErrors()){
+					break;
+				}
+				if(!entry.getValue().objects.isEmpty()){
+					executeChunk(entry.getKey(), entry.getValue(), executor, result);
+				}
+			}
+			return result;
 		} catch (SienaException e) {
 			throw e;
 		} catch (Exception e) {
 			throw new SienaException(e);
 		} finally {
-			JdbcDBUtils.closeStatementAndConnection(this, ps);
+			JdbcDBUtils.closeStatementAndConnection(this, null);
 		}
 	}
 
-	public <T> int update(Query<T> query, Map<String, ?> fieldValues) {
-		throw new SienaException("Not Implemented");
+	private void executeChunk(JdbcClassInfo classInfo, BatchChunk chunk, BatchChunkExecutor executor, JdbcBatchResult result) throws IllegalAccessException {
+		List<Object> objects = chunk.objects;
+		int sz = objects.size();
+		try {
+			int[] counts = executor.execute(classInfo, objects);
+			for(int i=0; i<sz; i++){
+				result.set(chunk.rows[i], i<counts.length?counts[i]:Statement.SUCCESS_NO_INFO);
+			}
+		} catch(BatchUpdateException e) {
+			int[] counts = e.getUpdateCounts();
+			int n = counts!=null?Math.min(counts.length, sz):0;
+			for(int i=0; i<n; i++){
+				if(counts[i] == Statement.EXECUTE_FAILED){
+					result.fail(chunk.rows[i], objects.get(i));
+				}else if(counts[i] != JdbcBatchResult.NOT_EXECUTED){
+					result.set(chunk.rows[i], counts[i]);
+				}
+			}
+			// the driver stopped at the first failed row
+			if(n < sz){
+				result.fail(chunk.rows[n], objects.get(n));
+			}
+			result.setError(e);
+		} catch(SQLException e) {
+			for(int i=0; i<sz; i++){
+				result.fail(chunk.rows[i], objects.get(i));
+			}
+			result.setError(e);
+		}
+		objects.clear();
 	}
 
+	/**
+	 * @return the outcome of a chunk run as several batches (e.g. the rows with a generated key and the other ones):
+	 * NOT_EXECUTED until each batch sets the counts of its rows
+	 */
+	protected static int[] newChunkCounts(int size) {
+		int[] counts = new int[size];
+		Arrays.fill(counts, JdbcBatchResult.NOT_EXECUTED);
+		return counts;
+	}
 
-	@Override
-	public int save(Object... objects) {
-		return save(Arrays.asList(objects));
+	/**
+	 * copies the update counts of a batch run on a sub-list of the chunk to the positions of its rows in the chunk
+	 * @param indexes the position in the chunk of each row of the sub-list
+	 */
+	protected static void setChunkCounts(int[] counts, List<Integer> indexes, int[] subCounts) {
+		for(int i=0; i<subCounts.length && i<indexes.size(); i++){
+			counts[indexes.get(i)] = subCounts[i];
+		}
 	}
 
-	@Override
-	public int save(Iterable<?> objects) {
-		Map<JdbcClassInfo, List<Object>> objMap = new HashMap<JdbcClassInfo, List<Object>>();
+	/**
+	 * @return the failure of a batch run on a sub-list of the chunk with the update counts at the positions of the chunk
+	 * (executeChunk reads them as positions in the chunk)
+	 */
+	protected static BatchUpdateException chunkFailure(SQLException e, int[] counts, List<Integer> indexes) {
+		return chunkFailure(e, counts, indexes,
+				e instanceof BatchUpdateException ? ((BatchUpdateException)e).getUpdateCounts() : null);
+	}
+
+	/**
+	 * @param subCounts the counts of the rows of the sub-list executed before the failure:
+	 * the next row failed and the following ones were not executed (every row failed if null)
+	 */
+	protected static BatchUpdateException chunkFailure(SQLException e, int[] counts, List<Integer> indexes, int[] subCounts) {
+		if(subCounts == null){
+			for(int idx: indexes){
+				counts[idx] = Statement.EXECUTE_FAILED;
+			}
+		}else {
+			setChunkCounts(counts, indexes, subCounts);
+			if(subCounts.length < indexes.size()){
+				counts[indexes.get(subCounts.length)] = Statement.EXECUTE_FAILED;
+			}
+		}
+		return new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(), counts, e);
+	}
+
+	protected int checkBatch(JdbcBatchResult result) {
+		if(result.hasErrors()){
+			throw new SienaException(result.getError());
+		}
+		return result.getTotal();
+	}
+
+	/**
+	 * Generates the UUID keys of an object
+	 * @param onlyIfNull doesn't replace a key already set
+	 */
+	protected void generateKeys(JdbcClassInfo classInfo, Object obj, boolean onlyIfNull) {
+		for (Field field : classInfo.keys) {
+			Id id = field.getAnnotation(Id.class);
+			if (id.value() == Generator.UUID && (!onlyIfNull || Util.readField(obj, field) == null)) {
+				Util.setField(obj, field, UUID.randomUUID().toString());
+			}
+		}
+		// TODO: implement primary key generation: SEQUENCE
+	}
+
+	protected int[] insertChunk(JdbcClassInfo classInfo, List<Object> objects) throws SQLException, IllegalAccessException {
+		for(Object obj: objects){
+			generateKeys(classInfo, obj, false);
+		}
+		if(!classInfo.generatedKeys.isEmpty()){
+			return insertBatchWithAutoIncrementKey(classInfo, objects);
+		}
+		if(multiRowInsert && supportsMultiRowInsert() && objects.size() > 1){
+			return insertMultiRow(classInfo, objects);
+		}
+
 		PreparedStatement ps = null;
-		
-		for(Object obj:objects){
-			JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(obj.getClass());
-			if(!objMap.containsKey(classInfo)){
-				List<Object> l = new ArrayList<Object>();
-				l.add(obj);
-				objMap.put(classInfo, l);
-			}else{
-				objMap.get(classInfo).add(obj);
+		try {
+			ps = getConnection().prepareStatement(classInfo.insertSQL);
+			for(Object obj: objects){
+				addParameters(obj, classInfo.insertFields, ps, 1);
+				ps.addBatch();
 			}
+			return ps.executeBatch();
+		} finally {
+			JdbcDBUtils.closeStatement(ps);
 		}
-		
-		int total = 0;
+	}
+
+	/**
+	 * Inserts the objects with INSERT ... VALUES (...),(...) statements of at most maxParameters() parameters.
+	 */
+	protected int[] insertMultiRow(JdbcClassInfo classInfo, List<Object> objects) throws SQLException, IllegalAccessException {
+		int sz = objects.size();
+		int[] res = new int[sz];
+		int rowsPerStatement = Math.max(1, Math.min(sz, maxParameters() / Math.max(1, classInfo.insertColumnCount)));
+		PreparedStatement ps = null;
+		int start = 0;
 		try {
-			for(JdbcClassInfo classInfo: objMap.keySet()){
-				if (!classInfo.generatedKeys.isEmpty()) {
-					ps = getConnection().prepareStatement(classInfo.insertOrUpdateSQL,
-							Statement.RETURN_GENERATED_KEYS);
-				} else {
-					ps = getConnection().prepareStatement(classInfo.insertOrUpdateSQL);
+			while(start < sz){
+				int rows = Math.min(rowsPerStatement, sz - start);
+				if(ps == null || rows != rowsPerStatement){
+					JdbcDBUtils.closeStatement(ps);
+					ps = getConnection().prepareStatement(classInfo.getMultiRowInsertSQL(rows));
+				}
+				int idx = 1;
+				for(int i=start; i<start+rows; i++){
+					idx = addParameters(objects.get(i), classInfo.insertFields, ps, idx);
 				}
+				int count = ps.executeUpdate();
+				// the update count is global to the statement
+				Arrays.fill(res, start, start+rows, count==rows?1:Statement.SUCCESS_NO_INFO);
+				start += rows;
+			}
+			return res;
+		} catch(SQLException e) {
+			throw new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(), Arrays.copyOf(res, start), e);
+		} finally {
+			JdbcDBUtils.closeStatement(ps);
+		}
+	}
+
+	/**
+	 * Inserts the objects in a JDBC batch and sets the generated keys of every object
+	 * (to be overriden for databases not returning all the generated keys of a batch)
+	 * 
+	 * @param classInfo
+	 * @param objects
+	 * @throws SQLException
+	 * @throws IllegalAccessException
+	 */
+	protected int[] insertBatchWithAutoIncrementKey(JdbcClassInfo classInfo, List<Object> objects) throws SQLException, IllegalAccessException {
+		PreparedStatement ps = null;
+		ResultSet gk = null;
+		try {
+			ps = getConnection().prepareStatement(classInfo.insertSQL,
+					Statement.RETURN_GENERATED_KEYS);
 			
-				for(Object obj: objMap.get(classInfo)){
-					Field idField = classInfo.info.getIdField();
-					Object idVal = Util.readField(obj, idField);
-					
-					// only generates a UUID if the idVal is null
-					if(idVal == null){
-						for (Field field : classInfo.keys) {
-							Id id = field.getAnnotation(Id.class);
-							if (id.value() == Generator.UUID) {
-								field.set(obj, UUID.randomUUID().toString());
-							}
-						}
-					}
-					// TODO: implement primary key generation: SEQUENCE
-					int i = 1;
-					i = addParameters(obj, classInfo.allFields, ps, i);
-					addParameters(obj, classInfo.updateFields, ps, i);
-					ps.addBatch();
+			for(Object obj: objects){
+				addParameters(obj, classInfo.insertFields, ps, 1);
+				ps.addBatch();
+			}
+			
+			int[] res = ps.executeBatch();
+			
+			gk = ps.getGeneratedKeys();
+			int idx = 0;
+			while(idx < objects.size() && gk.next()) {
+				Object obj = objects.get(idx++);
+				int i = 1;
+				for (Field field : classInfo.generatedKeys) {
+					JdbcMappingUtils.setFromObject(obj, field, gk.getObject(i++));
 				}
+			}
+			if(idx < objects.size()){
+				throw new SienaException("Only "+idx+" generated keys returned for "+objects.size()+" rows");
+			}
 			
-				int[] res = ps.executeBatch();
-				
-				if(!classInfo.generatedKeys.isEmpty()){
-					ResultSet gk = ps.getGeneratedKeys();
-					int i;
-					int idx = 0;
-					int sz = objMap.get(classInfo).size();
-					// apparently in the update case, it returns not only the generated keys but also all the updated field values
-					// so we take only the first SZ values which are the key values.
-					while(gk.next() && idx < sz) {
-						i=1;
-						for (Field field : classInfo.generatedKeys) {
-							field.setAccessible(true);
-							JdbcMappingUtils.setFromObject(objMap.get(classInfo).get(idx++), field, gk.getObject(i++));
-						}
-					}
-				}	
-				total+=res.length;
+			return res;
+		} finally {
+			JdbcDBUtils.closeResultSet(gk);
+			JdbcDBUtils.closeStatement(ps);
+		}
+	}
+
+	protected int[] deleteChunk(JdbcClassInfo classInfo, List<Object> objects) throws SQLException, IllegalAccessException {
+		PreparedStatement ps = null;
+		try {
+			ps = getConnection().prepareStatement(classInfo.deleteSQL);
+			for(Object obj: objects){
+				addParameters(obj, classInfo.keys, ps, 1);
+				ps.addBatch();
+			}
+			return ps.executeBatch();
+		} finally {
+			JdbcDBUtils.closeStatement(ps);
+		}
+	}
+
+	protected int[] updateChunk(JdbcClassInfo classInfo, List<Object> objects) throws SQLException, IllegalAccessException {
+		PreparedStatement ps = null;
+		try {
+			ps = getConnection().prepareStatement(classInfo.updateSQL);
+			for(Object obj: objects){
+				int i = 1;
+				i = addParameters(obj, classInfo.updateFields, ps, i);
+				addParameters(obj, classInfo.keys, ps, i);
+				ps.addBatch();
+			}
+			return ps.executeBatch();
+		} finally {
+			JdbcDBUtils.closeStatement(ps);
+		}
+	}
+
+	/**
+	 * MySQL INSERT ... ON DUPLICATE KEY UPDATE
+	 */
+	protected int[] saveChunk(JdbcClassInfo classInfo, List<Object> objects) throws SQLException, IllegalAccessException {
+		PreparedStatement ps = null;
+		ResultSet gk = null;
+		try {
+			if (!classInfo.generatedKeys.isEmpty()) {
+				ps = getConnection().prepareStatement(classInfo.insertOrUpdateSQL,
+						Statement.RETURN_GENERATED_KEYS);
+			} else {
+				ps = getConnection().prepareStatement(classInfo.insertOrUpdateSQL);
 			}
+		
+			for(Object obj: objects){
+				// only generates a UUID if the idVal is null
+				generateKeys(classInfo, obj, true);
+				int i = 1;
+				i = addParameters(obj, classInfo.allFields, ps, i);
+				addParameters(obj, classInfo.updateFields, ps, i);
+				ps.addBatch();
+			}
+		
+			int[] res = ps.executeBatch();
 			
-			return total;			
-		} catch (SienaException e) {
-			throw e;
-		} catch (Exception e) {
-			throw new SienaException(e);
+			if(!classInfo.generatedKeys.isEmpty()){
+				gk = ps.getGeneratedKeys();
+				int idx = 0;
+				int sz = objects.size();
+				// apparently in the update case, it returns not only the generated keys but also all the updated field values
+				// so we take only the first SZ values which are the key values.
+				while(idx < sz && gk.next()) {
+					Object obj = objects.get(idx++);
+					int i = 1;
+					for (Field field : classInfo.generatedKeys) {
+						JdbcMappingUtils.setFromObject(obj, field, gk.getObject(i++));
+					}
+				}
+			}
+			return res;
 		} finally {
-			JdbcDBUtils.closeStatementAndConnection(this, ps);
+			JdbcDBUtils.closeResultSet(gk);
+			JdbcDBUtils.closeStatement(ps);
 		}
 	}
 
+	/**
+	 * @return true if the database supports multi-row INSERT ... VALUES (...),(...)
+	 */
+	protected boolean supportsMultiRowInsert() {
+		return true;
+	}
+
+	/**
+	 * @return the max number of parameters of one statement (used to split multi-row inserts)
+	 */
+	protected int maxParameters() {
+		return 32767;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		if(batchSize <= 0){
+			throw new SienaException("batch size must be greater than 0");
+		}
+		this.batchSize = batchSize;
+	}
+
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	public void setFetchSize(int fetchSize) {
+		if(fetchSize <= 0){
+			throw new SienaException("fetch size must be greater than 0");
+		}
+		this.fetchSize = fetchSize;
+	}
+
+	public int getKeyChunkSize() {
+		return keyChunkSize;
+	}
+
+	public void setKeyChunkSize(int keyChunkSize) {
+		if(keyChunkSize <= 0){
+			throw new SienaException("key chunk size must be greater than 0");
+		}
+		this.keyChunkSize = keyChunkSize;
+	}
+
+	public boolean isMultiRowInsert() {
+		return multiRowInsert;
+	}
+
+	public void setMultiRowInsert(boolean multiRowInsert) {
+		this.multiRowInsert = multiRowInsert;
+	}
+
 
 	private static final String[] supportedOperators = new String[]{ "<", ">", ">=", "<=", "!=", "=", "IN" };
 
@@ -1645,6 +2306,10 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		
 		public String tableName;
 		public String insertSQL;
+		// INSERT INTO table (columns) VALUES to build multi-row inserts
+		public String insertIntoSQL;
+		public String insertValuesSQL;
+		public int insertColumnCount;
 		public String updateSQL;
 		public String insertOrUpdateSQL;
 		public String deleteSQL;
@@ -1659,7 +2324,12 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 		public List<Field> generatedKeys = null;
 		public List<Field> allFields = null;
 		public List<Field> joinFields = null;
-		public Map<String, String> joinFieldAliases = new HashMap<String, String>();
+		// SELECT/JOIN plans by join fields (see JdbcJoinPlan)
+		public ConcurrentHashMap<String, JdbcJoinPlan> joinPlans = new ConcurrentHashMap<String, JdbcJoinPlan>();
+		// row mapping plans by (table alias, join fields) (see JdbcMappingPlan)
+		public Map<String, JdbcMappingPlan<?>> mappingPlans = new ConcurrentHashMap<String, JdbcMappingPlan<?>>();
+		// SELECT ... WHERE key IN (?, ...) by number of keys (see getSelectByKeysSQL)
+		public Map<Integer, String> selectByKeysSQL = new ConcurrentHashMap<Integer, String>();
 
 		public JdbcClassInfo(ClassInfo info) {
 			this.info = info;
@@ -1691,6 +2361,9 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 				"INSERT INTO " + tableName
 				+ " ("+Util.join(insertColumns, ", ") + ")" 
 				+ " VALUES(" + Util.join(Arrays.asList(is), ", ") + ")";
+			insertIntoSQL = "INSERT INTO " + tableName + " ("+Util.join(insertColumns, ", ") + ") VALUES";
+			insertValuesSQL = "(" + Util.join(Arrays.asList(is), ", ") + ")";
+			insertColumnCount = insertColumns.size();
 
 			updateSQL = 
 				"UPDATE " + tableName 
@@ -1712,6 +2385,43 @@ public class JdbcPersistenceManager extends AbstractPersistenceManager {
 			keySelectSQL = baseKeySelectSQL+JdbcDBUtils.WHERE+Util.join(keyWhereColumns, JdbcDBUtils.AND);
 		}
 
+		/**
+		 * @return INSERT INTO table (columns) VALUES (?, ...), (?, ...) for the given number of rows
+		 */
+		public String getMultiRowInsertSQL(int rows) {
+			StringBuilder sql = new StringBuilder(insertIntoSQL.length() + rows * (insertValuesSQL.length() + 1));
+			sql.append(insertIntoSQL);
+			for(int i=0; i<rows; i++){
+				if(i>0) sql.append(',');
+				sql.append(insertValuesSQL);
+			}
+			return sql.toString();
+		}
+
+		/**
+		 * @return SELECT (with the @Join fields) ... WHERE key IN (?, ...) for the given number of keys
+		 */
+		public String getSelectByKeysSQL(int n) {
+			String sql = selectByKeysSQL.get(n);
+			if(sql == null) {
+				StringBuilder sb = new StringBuilder(JdbcJoinPlan.getPlan(this, joinFields).selectSQL);
+				sb.append(JdbcDBUtils.WHERE).append(ClassInfo.getColumnNames(keys.get(0), tableName)[0]);
+				if(n == 1) {
+					sb.append("=?");
+				} else {
+					sb.append(" IN (");
+					for(int i=0; i<n; i++){
+						if(i>0) sb.append(',');
+						sb.append('?');
+					}
+					sb.append(')');
+				}
+				sql = sb.toString();
+				selectByKeysSQL.put(n, sql);
+			}
+			return sql;
+		}
+
 		public static void calculateColumns(List<Field> fields, List<String> columns, String tableName, String suffix) {
 			for (Field field : fields) {
 				String[] columnNames = ClassInfo.getColumnNames(field, tableName);
@@ -0,0 +1,748 @@
+package siena.jdbc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import siena.PersistenceManager;
+import siena.Query;
+import siena.SienaException;
+import siena.core.async.AbstractPersistenceManagerAsync;
+import siena.core.async.QueryAsync;
+import siena.core.async.SienaFuture;
+import siena.core.async.SienaFutureCompletable;
+
+/**
+ * The asynchronous PersistenceManager for JDBC databases.
+ *
+ * JDBC has no asynchronous API so each operation is run by the synchronous JdbcPersistenceManager
+ * on a bounded executor: virtual threads when the JVM provides them (JDK21+), a fixed thread pool otherwise.
+ * Each operation uses the connection of its worker thread from the ConnectionManager and releases it when done.
+ *
+ * As JDBC transactions are bound to a connection, beginTransaction() switches the calling thread
+ * to a dedicated thread which runs all the following operations of the calling thread in order,
+ * on the same connection, until commitTransaction() or rollbackTransaction().
+ * The operations of the other threads are not part of this transaction: each thread may run its own one.
+ *
+ * paginate(), nextPage() and previousPage() return nothing: when they fail, the next operation on the same query
+ * fails with their error.
+ *
+ * Configured in siena.properties with:
+ * <pre>
+ * async.threads=10          max number of operations run concurrently
+ * async.queueSize=1000      max number of pending operations (fixed thread pool only), then the operations fail
+ * async.virtualThreads=true uses virtual threads if available
+ * </pre>
+ */
+public class JdbcPersistenceManagerAsync extends AbstractPersistenceManagerAsync {
+	public static final String DB = "JDBC_ASYNC";
+
+	private static final AtomicInteger executorCounter = new AtomicInteger();
+
+	protected JdbcPersistenceManager syncPm;
+	protected Properties props;
+
+	protected ExecutorService executor;
+	// bounds the concurrency when the executor isn't bounded itself (virtual threads)
+	protected Semaphore permits;
+	// the single thread running the operations of the transaction begun by the calling thread
+	protected final ThreadLocal<ExecutorService> txExecutor = new ThreadLocal<ExecutorService>();
+	protected final Set<ExecutorService> txExecutors =
+		Collections.newSetFromMap(new ConcurrentHashMap<ExecutorService, Boolean>());
+	// the last pending operation of each query
+	protected final Map<QueryAsync<?>, CompletableFuture<?>> queryTails = new IdentityHashMap<QueryAsync<?>, CompletableFuture<?>>();
+
+	public JdbcPersistenceManagerAsync() {
+	}
+
+	public JdbcPersistenceManagerAsync(JdbcPersistenceManager syncPm) {
+		this.syncPm = syncPm;
+	}
+
+	public void init(Properties p) {
+		this.props = p;
+		int threads = 10;
+		int queueSize = 1000;
+		boolean virtual = true;
+		if(p != null) {
+			threads = Integer.parseInt(p.getProperty("async.threads", Integer.toString(threads)).trim());
+			queueSize = Integer.parseInt(p.getProperty("async.queueSize", Integer.toString(queueSize)).trim());
+			virtual = Boolean.parseBoolean(p.getProperty("async.virtualThreads", "true").trim());
+		}
+		if(threads <= 0) {
+			throw new SienaException("async.threads must be greater than 0");
+		}
+
+		executor = virtual?newVirtualThreadExecutor():null;
+		if(executor != null) {
+			permits = new Semaphore(threads);
+		} else {
+			ThreadPoolExecutor tpe = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(queueSize),
+					newThreadFactory("siena-jdbc-async-" + executorCounter.incrementAndGet()),
+					new ThreadPoolExecutor.AbortPolicy());
+			tpe.allowCoreThreadTimeOut(true);
+			executor = tpe;
+		}
+	}
+
+	/**
+	 * @return Executors.newVirtualThreadPerTaskExecutor() if available in this JVM or null
+	 */
+	protected static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	protected static ThreadFactory newThreadFactory(final String name) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * stops the executor (pending operations are still run)
+	 */
+	public void shutdown() {
+		for(ExecutorService tx: txExecutors) {
+			tx.shutdown();
+		}
+		executor.shutdown();
+	}
+
+	public PersistenceManager sync() {
+		if(syncPm==null){
+			syncPm = new JdbcPersistenceManager();
+			syncPm.init(props);
+		}
+		return syncPm;
+	}
+
+	protected <V> SienaFutureCompletable<V> submit(final Callable<V> task) {
+		return submitTo(txExecutor.get(), task);
+	}
+
+	/**
+	 * @param tx the executor of the transaction of the caller or null
+	 */
+	protected <V> SienaFutureCompletable<V> submitTo(final ExecutorService tx, final Callable<V> task) {
+		final CompletableFuture<V> future = new CompletableFuture<V>();
+		Runnable r = new Runnable() {
+			public void run() {
+				try {
+					if(permits != null) {
+						permits.acquire();
+					}
+					try {
+						future.complete(task.call());
+					} finally {
+						try {
+							// the transaction thread keeps its connection until the transaction ends
+							if(tx == null) {
+								releaseConnection();
+							}
+						} finally {
+							if(permits != null) {
+								permits.release();
+							}
+						}
+					}
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				}
+			}
+		};
+		// the task is never run by the caller as it releases the connection of its thread
+		try {
+			if(tx != null) {
+				tx.execute(r);
+			} else {
+				executor.execute(r);
+			}
+		} catch(RejectedExecutionException e) {
+			future.completeExceptionally(new SienaException("The operation was rejected: too many pending operations or shut down", e));
+		}
+		return new SienaFutureCompletable<V>(future);
+	}
+
+	protected void releaseConnection() {
+		sync();
+		syncPm.releaseConnection();
+	}
+
+	/**
+	 * The synchronous query sharing the data of the async query.
+	 * Query options are copied in the sync query so the JDBC context must be set in the async query first
+	 * to keep the pagination/stateful state between operations.
+	 */
+	protected <T> Query<T> syncQuery(QueryAsync<T> query) {
+		if(query.option(QueryOptionJdbcContext.ID) == null) {
+			query.customize(new QueryOptionJdbcContext());
+		}
+		return query.sync();
+	}
+
+	/**
+	 * Runs the operation once the previous operations on the same query are done:
+	 * the state of a query (pagination, stateful offset) is updated by each operation so they must not overlap.
+	 */
+	protected <V> SienaFutureCompletable<V> submit(final QueryAsync<?> query, final Callable<V> task) {
+		final ExecutorService tx = txExecutor.get();
+		synchronized(queryTails) {
+			final CompletableFuture<?> tail = queryTails.get(query);
+			final CompletableFuture<V> future;
+			if(tail == null) {
+				future = submitTo(tx, task).toCompletableFuture();
+			} else if(tx != null) {
+				// the transaction thread runs the operations in order: it only waits for a tail run out of the transaction
+				future = submitTo(tx, new Callable<V>() {
+					public V call() throws Exception {
+						SienaException e = pageFailure(tail.handle(ERROR).join());
+						if(e != null) {
+							throw e;
+						}
+						return task.call();
+					}
+				}).toCompletableFuture();
+			} else {
+				future = tail.handle(ERROR).thenCompose(new Function<Throwable, CompletableFuture<V>>() {
+					public CompletableFuture<V> apply(Throwable error) {
+						SienaException e = pageFailure(error);
+						if(e != null) {
+							CompletableFuture<V> failed = new CompletableFuture<V>();
+							failed.completeExceptionally(e);
+							return failed;
+						}
+						return submitTo(null, task).toCompletableFuture();
+					}
+				});
+			}
+			queryTails.put(query, future);
+			future.whenComplete(new BiConsumer<V, Throwable>() {
+				public void accept(V res, Throwable e) {
+					synchronized(queryTails) {
+						if(queryTails.get(query) == future) {
+							queryTails.remove(query);
+						}
+					}
+				}
+			});
+			return new SienaFutureCompletable<V>(future);
+		}
+	}
+
+	public SienaFuture<Void> get(final Object obj) {
+		return submit(new Callable<Void>() {
+			public Void call() {
+				sync().get(obj);
+				return null;
+			}
+		});
+	}
+
+	public SienaFuture<Void> insert(final Object obj) {
+		return submit(new Callable<Void>() {
+			public Void call() {
+				sync().insert(obj);
+				return null;
+			}
+		});
+	}
+
+	public SienaFuture<Integer> insert(final Object... objects) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return sync().insert(objects);
+			}
+		});
+	}
+
+	public SienaFuture<Integer> insert(final Iterable<?> objects) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return sync().insert(objects);
+			}
+		});
+	}
+
+	public SienaFuture<Void> delete(final Object obj) {
+		return submit(new Callable<Void>() {
+			public Void call() {
+				sync().delete(obj);
+				return null;
+			}
+		});
+	}
+
+	public SienaFuture<Integer> delete(final Object... models) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return sync().delete(models);
+			}
+		});
+	}
+
+	public SienaFuture<Integer> delete(final Iterable<?> models) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return sync().delete(models);
+			}
+		});
+	}
+
+	public <T> SienaFuture<Integer> deleteByKeys(final Class<T> clazz, final Object... keys) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return sync().deleteByKeys(clazz, keys);
+			}
+		});
+	}
+
+	public <T> SienaFuture<Integer> deleteByKeys(final Class<T> clazz, final Iterable<?> keys) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return sync().deleteByKeys(clazz, keys);
+			}
+		});
+	}
+
+	public SienaFuture<Void> update(final Object obj) {
+		return submit(new Callable<Void>() {
+			public Void call() {
+				sync().update(obj);
+				return null;
+			}
+		});
+	}
+
+	public SienaFuture<Integer> update(final Object... objects) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return sync().update(objects);
+			}
+		});
+	}
+
+	public <T> SienaFuture<Integer> update(final Iterable<T> objects) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return sync().update(objects);
+			}
+		});
+	}
+
+	public SienaFuture<Void> save(final Object obj) {
+		return submit(new Callable<Void>() {
+			public Void call() {
+				sync().save(obj);
+				return null;
+			}
+		});
+	}
+
+	public SienaFuture<Integer> save(final Object... objects) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return sync().save(objects);
+			}
+		});
+	}
+
+	public SienaFuture<Integer> save(final Iterable<?> objects) {
+		return submit(new Callable<Integer>() {
+			public Integer call() {
+				return sync().save(objects);
+			}
+		});
+	}
+
+	public <T> SienaFuture<List<T>> get(final T... models) {
+		return submit(new Callable<List<T>>() {
+			public List<T> call() {
+				sync().get(models);
+				return Arrays.asList(models);
+			}
+		});
+	}
+
+	public <T> SienaFuture<List<T>> get(final Iterable<T> models) {
+		return submit(new Callable<List<T>>() {
+			public List<T> call() {
+				sync().get(models);
+				List<T> list = new ArrayList<T>();
+				for(T model: models){
+					list.add(model);
+				}
+				return list;
+			}
+		});
+	}
+
+	public <T> SienaFuture<T> getByKey(final Class<T> clazz, final Object key) {
+		return submit(new Callable<T>() {
+			public T call() {
+				return sync().getByKey(clazz, key);
+			}
+		});
+	}
+
+	public <T> SienaFuture<List<T>> getByKeys(final Class<T> clazz, final Object... keys) {
+		return submit(new Callable<List<T>>() {
+			public List<T> call() {
+				return sync().getByKeys(clazz, keys);
+			}
+		});
+	}
+
+	public <T> SienaFuture<List<T>> getByKeys(final Class<T> clazz, final Iterable<?> keys) {
+		return submit(new Callable<List<T>>() {
+			public List<T> call() {
+				return sync().getByKeys(clazz, keys);
+			}
+		});
+	}
+
+	public SienaFuture<Void> beginTransaction(final int isolationLevel) {
+		openTransactionThread();
+		return submit(new Callable<Void>() {
+			public Void call() {
+				sync().beginTransaction(isolationLevel);
+				return null;
+			}
+		});
+	}
+
+	public SienaFuture<Void> beginTransaction() {
+		openTransactionThread();
+		return submit(new Callable<Void>() {
+			public Void call() {
+				sync().beginTransaction();
+				return null;
+			}
+		});
+	}
+
+	public SienaFuture<Void> commitTransaction() {
+		return endTransaction(new Callable<Void>() {
+			public Void call() {
+				try {
+					sync().commitTransaction();
+				} finally {
+					releaseConnection();
+				}
+				return null;
+			}
+		});
+	}
+
+	public SienaFuture<Void> rollbackTransaction() {
+		return endTransaction(new Callable<Void>() {
+			public Void call() {
+				try {
+					sync().rollbackTransaction();
+				} finally {
+					releaseConnection();
+				}
+				return null;
+			}
+		});
+	}
+
+	public SienaFuture<Void> closeConnection() {
+		ExecutorService tx = txExecutor.get();
+		if(tx == null) {
+			// out of transactions, connections are released by each operation
+			return SienaFutureCompletable.completed(null);
+		}
+		return submitTo(tx, new Callable<Void>() {
+			public Void call() {
+				releaseConnection();
+				return null;
+			}
+		});
+	}
+
+	protected void openTransactionThread() {
+		if(txExecutor.get() != null) {
+			throw new SienaException("A transaction is already running in this thread");
+		}
+		ExecutorService tx = Executors.newSingleThreadExecutor(
+				newThreadFactory("siena-jdbc-async-tx-" + executorCounter.incrementAndGet()));
+		txExecutor.set(tx);
+		txExecutors.add(tx);
+	}
+
+	protected SienaFuture<Void> endTransaction(Callable<Void> end) {
+		ExecutorService tx = txExecutor.get();
+		if(tx == null) {
+			throw new SienaException("No transaction running in this thread");
+		}
+		SienaFuture<Void> future = submitTo(tx, end);
+		// next operations of the thread go back to the shared executor, the transaction thread ends once its queue is done
+		txExecutor.remove();
+		txExecutors.remove(tx);
+		tx.shutdown();
+		return future;
+	}
+
+	public <T> SienaFuture<List<T>> fetch(final QueryAsync<T> query) {
+		return submit(query, new Callable<List<T>>() {
+			public List<T> call() {
+				return sync().fetch(syncQuery(query));
+			}
+		});
+	}
+
+	public <T> SienaFuture<List<T>> fetch(final QueryAsync<T> query, final int limit) {
+		return submit(query, new Callable<List<T>>() {
+			public List<T> call() {
+				return sync().fetch(syncQuery(query), limit);
+			}
+		});
+	}
+
+	public <T> SienaFuture<List<T>> fetch(final QueryAsync<T> query, final int limit, final Object offset) {
+		return submit(query, new Callable<List<T>>() {
+			public List<T> call() {
+				return sync().fetch(syncQuery(query), limit, offset);
+			}
+		});
+	}
+
+	public <T> SienaFuture<Integer> count(final QueryAsync<T> query) {
+		return submit(query, new Callable<Integer>() {
+			public Integer call() {
+				return sync().count(syncQuery(query));
+			}
+		});
+	}
+
+	public <T> SienaFuture<Integer> delete(final QueryAsync<T> query) {
+		return submit(query, new Callable<Integer>() {
+			public Integer call() {
+				return sync().delete(syncQuery(query));
+			}
+		});
+	}
+
+	public <T> SienaFuture<List<T>> fetchKeys(final QueryAsync<T> query) {
+		return submit(query, new Callable<List<T>>() {
+			public List<T> call() {
+				return sync().fetchKeys(syncQuery(query));
+			}
+		});
+	}
+
+	public <T> SienaFuture<List<T>> fetchKeys(final QueryAsync<T> query, final int limit) {
+		return submit(query, new Callable<List<T>>() {
+			public List<T> call() {
+				return sync().fetchKeys(syncQuery(query), limit);
+			}
+		});
+	}
+
+	public <T> SienaFuture<List<T>> fetchKeys(final QueryAsync<T> query, final int limit, final Object offset) {
+		return submit(query, new Callable<List<T>>() {
+			public List<T> call() {
+				return sync().fetchKeys(syncQuery(query), limit, offset);
+			}
+		});
+	}
+
+	/**
+	 * A JDBC iterable reads its ResultSet lazily on the connection of the worker thread
+	 * so the results are fetched in the worker thread instead.
+	 */
+	public <T> SienaFuture<Iterable<T>> iter(final QueryAsync<T> query) {
+		return submit(query, new Callable<Iterable<T>>() {
+			public Iterable<T> call() {
+				return sync().fetch(syncQuery(query));
+			}
+		});
+	}
+
+	public <T> SienaFuture<Iterable<T>> iter(final QueryAsync<T> query, final int limit) {
+		return submit(query, new Callable<Iterable<T>>() {
+			public Iterable<T> call() {
+				return sync().fetch(syncQuery(query), limit);
+			}
+		});
+	}
+
+	public <T> SienaFuture<Iterable<T>> iter(final QueryAsync<T> query, final int limit, final Object offset) {
+		return submit(query, new Callable<Iterable<T>>() {
+			public Iterable<T> call() {
+				return sync().fetch(syncQuery(query), limit, offset);
+			}
+		});
+	}
+
+	/**
+	 * The pages are fetched one by one in the worker threads as the JDBC iterables are bound to their connection.
+	 */
+	public <T> SienaFuture<Iterable<T>> iterPerPage(final QueryAsync<T> query, final int pageSize) {
+		return submit(query, new Callable<Iterable<T>>() {
+			public Iterable<T> call() {
+				return new PageIterable<T>(query, pageSize, sync().fetch(syncQuery(query), pageSize, 0));
+			}
+		});
+	}
+
+	public <T> SienaFuture<Integer> update(final QueryAsync<T> query, final Map<String, ?> fieldValues) {
+		return submit(query, new Callable<Integer>() {
+			public Integer call() {
+				return sync().update(syncQuery(query), fieldValues);
+			}
+		});
+	}
+
+	public <T> void paginate(final QueryAsync<T> query) {
+		submitPage(query, new Callable<Void>() {
+			public Void call() {
+				sync().paginate(syncQuery(query));
+				return null;
+			}
+		});
+	}
+
+	public <T> void nextPage(final QueryAsync<T> query) {
+		submitPage(query, new Callable<Void>() {
+			public Void call() {
+				sync().nextPage(syncQuery(query));
+				return null;
+			}
+		});
+	}
+
+	public <T> void previousPage(final QueryAsync<T> query) {
+		submitPage(query, new Callable<Void>() {
+			public Void call() {
+				sync().previousPage(syncQuery(query));
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Runs a page operation whose failure is reported by the next operation on the query.
+	 */
+	protected void submitPage(QueryAsync<?> query, final Callable<Void> task) {
+		submit(query, new Callable<Void>() {
+			public Void call() throws Exception {
+				try {
+					return task.call();
+				} catch (Exception e) {
+					throw new PageFailure(e);
+				}
+			}
+		});
+	}
+
+	public String[] supportedOperators() {
+		return sync().supportedOperators();
+	}
+
+	private static final BiFunction<Object, Throwable, Throwable> ERROR = new BiFunction<Object, Throwable, Throwable>() {
+		public Throwable apply(Object res, Throwable e) {
+			return e;
+		}
+	};
+
+	/**
+	 * The failure of a page operation has no future to be reported to, it goes to the next operation on the query.
+	 * @return the error to fail the next operation with or null
+	 */
+	protected static SienaException pageFailure(Throwable e) {
+		if(e instanceof CompletionException) {
+			e = e.getCause();
+		}
+		return e instanceof PageFailure ? new SienaException(e.getCause()) : null;
+	}
+
+	protected static class PageFailure extends SienaException {
+		private static final long serialVersionUID = -3307658402361524711L;
+
+		public PageFailure(Throwable cause) {
+			super(cause);
+		}
+	}
+
+	/**
+	 * Iterates over the pages of a query, each page being fetched in a list by a worker thread.
+	 */
+	protected class PageIterable<T> implements Iterable<T> {
+		protected final QueryAsync<T> query;
+		protected final int pageSize;
+		protected final List<T> first;
+
+		public PageIterable(QueryAsync<T> query, int pageSize, List<T> first) {
+			this.query = query;
+			this.pageSize = pageSize;
+			this.first = first;
+		}
+
+		public Iterator<T> iterator() {
+			return new Iterator<T>() {
+				private List<T> page = first;
+				private int index = 0;
+				private int offset = 0;
+
+				public boolean hasNext() {
+					if(index < page.size()) {
+						return true;
+					}
+					if(page.size() < pageSize) {
+						return false;
+					}
+					offset += page.size();
+					page = fetch(query, pageSize, offset).get();
+					index = 0;
+					return !page.isEmpty();
+				}
+
+				public T next() {
+					if(!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					return page.get(index++);
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+}
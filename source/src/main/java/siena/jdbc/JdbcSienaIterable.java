@@ -7,7 +7,6 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 import siena.ClassInfo;
-import siena.PersistenceManager;
 import siena.Query;
 import siena.SienaException;
 import siena.core.options.QueryOptionPage;
@@ -15,42 +14,88 @@ import siena.core.options.QueryOptionState;
 
 /**
  * @author mandubian
- * 
+ *
  *         A Siena Iterable<Model> encapsulating a Jdbc ResultSet
  *         its Iterator<Model>...
+ *
+ *         The ResultSet, the statement and the connection are released as soon as the iteration
+ *         is over or when close() is called (to stop iterating before the end).
+ *         The statement of a stateful query is kept in the query context to be reused.
  */
-public class JdbcSienaIterable<T> implements Iterable<T> {
+public class JdbcSienaIterable<T> implements Iterable<T>, AutoCloseable {
 	/**
      * The wrapped <code>Statement</code>.
      */
     private final JdbcPersistenceManager pm;
-    
+
     /**
      * The wrapped <code>Statement</code>.
      */
     private final Statement st;
-	
+
 	/**
      * The wrapped <code>ResultSet</code>.
      */
     private final ResultSet rs;
-    
+
     /**
      * The wrapped <code>Query</code>.
      */
     private Query<T> query;
-        
+
+    /**
+     * The autocommit has been switched off to stream the rows and must be restored
+     */
+    private final boolean restoreAutoCommit;
+
+    private boolean closed = false;
+
 	JdbcSienaIterable(JdbcPersistenceManager pm, Statement st, ResultSet rs, Query<T> query) {
+		this(pm, st, rs, query, false);
+	}
+
+	JdbcSienaIterable(JdbcPersistenceManager pm, Statement st, ResultSet rs, Query<T> query, boolean restoreAutoCommit) {
 		this.pm = pm;
 		this.st = st;
 		this.rs = rs;
 		this.query = query;
+		this.restoreAutoCommit = restoreAutoCommit;
 	}
 
 	public Iterator<T> iterator() {
 		return new SienaJdbcIterator<T>(query);
 	}
 
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Closes the ResultSet and releases the statement and the connection (can be called several times).
+	 */
+	public void close() {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		try {
+			JdbcDBUtils.closeResultSet(rs);
+		} finally {
+			QueryOptionJdbcContext jdbcCtx = (QueryOptionJdbcContext)query.option(QueryOptionJdbcContext.ID);
+			QueryOptionState state = (QueryOptionState)query.option(QueryOptionState.ID);
+			// a stateful query keeps its statement until it is released
+			if(!(state.isStateful() && jdbcCtx != null && jdbcCtx.statement == st)) {
+				try {
+					if(restoreAutoCommit) {
+						pm.endStreaming(st);
+					}
+				} finally {
+					JdbcDBUtils.closeStatementAndConnection(pm, st);
+				}
+			}
+		}
+	}
+
 	// only constructs the iterator with Class<V> in order to transmit the generic type T
 	public class SienaJdbcIterator<V> implements Iterator<V> {
 		private Query<V> query;
@@ -58,69 +103,72 @@ public class JdbcSienaIterable<T> implements Iterable<T> {
 		private QueryOptionPage pag;
 		private QueryOptionJdbcContext jdbcCtx;
 		private QueryOptionState state;
-		private boolean hasNext = true;
+		// the ResultSet is on a row not returned yet
+		private boolean hasNext = false;
+		private boolean done = false;
+		private JdbcMappingPlan<V> plan;
 		SienaJdbcIterator(Query<V> query) {
 			this.query = query;
 			this.pag = (QueryOptionPage)query.option(QueryOptionPage.ID);
 			this.jdbcCtx = (QueryOptionJdbcContext)query.option(QueryOptionJdbcContext.ID);
 			this.state = (QueryOptionState)query.option(QueryOptionState.ID);
-			// if paginating and 0 results then no more data else resets noMoreDataAfter
-			try {
-				if(pag.isPaginating()){
-					if(rs.isLast()){
-						jdbcCtx.noMoreDataAfter = true;
-					}else {
-						jdbcCtx.noMoreDataAfter = false;
-					}
-				}
-			} catch (SQLException ex) {
-	            throw new SienaException(ex);
-	        }
+			// if paginating, resets noMoreDataAfter until the page is found empty
+			if(pag.isPaginating()){
+				jdbcCtx.noMoreDataAfter = false;
+			}
 		}
 
 		@Override
 		public boolean hasNext() {
+			if(hasNext) {
+				return true;
+			}
+			if(done) {
+				return false;
+			}
+			if(closed || (pag.isPaginating() && idx>=pag.pageSize)) {
+				finish();
+				return false;
+			}
 			try {
-				hasNext = false;
 	            if(rs.next()){
-	            	if(pag.isPaginating()) {
-	            		if(idx<pag.pageSize){
-	            			hasNext = true;
-	            		}
-	            	}
-	            	else {
-	            		hasNext = true;
-	            	}
+	            	hasNext = true;
+	            }
+	            else {
+	            	finish();
 	            }
 	            return hasNext;
 	        } catch (SQLException ex) {
+	        	close();
 	            throw new SienaException(ex);
 	        }
 		}
 
 		@Override
 		public V next() {
-			try {
-				if(hasNext || rs.next()){
-					Class<V> clazz = query.getQueriedClass();
-					
-					if(pag.isPaginating() && idx<(Integer)pag.pageSize){
-						idx++;
-						return JdbcMappingUtils.mapObject(clazz, rs, ClassInfo.getClassInfo(clazz).tableName, JdbcMappingUtils.getJoinFields(query));
-					}else {
-						if(state.isStateful()){
-							jdbcCtx.realOffset++;
-						}
-						
-						return JdbcMappingUtils.mapObject(clazz, rs, ClassInfo.getClassInfo(clazz).tableName, JdbcMappingUtils.getJoinFields(query));
-					}
-				}
-				else {
-					throw new NoSuchElementException();
-				}
-			} catch (SQLException e) {
-				throw new SienaException(e);
-	        }
+			if(!hasNext()){
+				throw new NoSuchElementException();
+			}
+			hasNext = false;
+
+			Class<V> clazz = query.getQueriedClass();
+			if(plan == null){
+				plan = JdbcMappingPlan.getPlan(clazz, rs, ClassInfo.getClassInfo(clazz).tableName, JdbcMappingUtils.getJoinFields(query), false);
+			}
+
+			idx++;
+			if(!pag.isPaginating() && state.isStateful()){
+				jdbcCtx.realOffset++;
+			}
+			return plan.map(rs);
+		}
+
+		private void finish() {
+			done = true;
+			if(pag.isPaginating() && idx == 0){
+				jdbcCtx.noMoreDataAfter = true;
+			}
+			close();
 		}
 
 		@Override
@@ -128,27 +176,42 @@ public class JdbcSienaIterable<T> implements Iterable<T> {
 			// doesn't delete row because it REALLY deletes row from DB!!!
 			// need to think about it
 			/*try {
-				
+
 	            rs.deleteRow();
 	        } catch (SQLException e) {
 	        	throw new SienaException(e);
 	        }*/
 		}
 
-		@Override
-		protected void finalize() throws Throwable {
-			JdbcDBUtils.closeResultSet(rs);
-			JdbcDBUtils.closeStatementAndConnection(pm, st);
-			super.finalize();
-		}
-
 	}
 
 	@Override
 	protected void finalize() throws Throwable {
-		JdbcDBUtils.closeResultSet(rs);
-		JdbcDBUtils.closeStatementAndConnection(pm, st);
+		// last resort if the iterable was neither consumed nor closed:
+		// the connection of the finalizer thread isn't the one of the statement so doesn't release it
+		// but at least gives its autocommit back
+		if(!closed) {
+			closed = true;
+			try {
+				JdbcDBUtils.closeResultSet(rs);
+			} catch(SienaException e) {
+				// don't do anything with it
+			}
+			try {
+				if(restoreAutoCommit) {
+					pm.endStreaming(st);
+				}
+			} catch(SienaException e) {
+				// don't do anything with it
+			} finally {
+				try {
+					JdbcDBUtils.closeStatement(st);
+				} catch(SienaException e) {
+					// don't do anything with it
+				}
+			}
+		}
 		super.finalize();
 	}
 
-}
\ No newline at end of file
+}
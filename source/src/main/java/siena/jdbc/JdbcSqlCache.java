@@ -0,0 +1,183 @@
+package siena.jdbc;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import siena.Query;
+import siena.QueryFilter;
+import siena.QueryFilterSearch;
+import siena.QueryFilterSimple;
+import siena.QueryJoin;
+import siena.QueryOrder;
+
+/**
+ * A LRU cache of the SQL text of the queries keyed by query shape.
+ *
+ * The shape of a query is everything the SQL text depends on but not the parameter values:
+ * the queried class, the filter fields and operators, the NULL values (IS NULL), the size of
+ * the IN lists rounded to a bucket (see inBucket), the searches, the orders and the joins.
+ * Two queries with the same shape only differ by their parameters so the SQL built for the first
+ * one is reused and only the parameters of the second one are extracted.
+ *
+ * The cache is shared by all the threads using a persistence manager so it is synchronized.
+ */
+public class JdbcSqlCache {
+	public enum Kind {
+		SELECT,
+		COUNT,
+		DELETE
+	}
+
+	// IN lists up to this size are rounded to the next power of 2, bigger ones to a multiple of it
+	public static final int IN_BUCKET_MAX = 256;
+
+	private final int maxSize;
+	private final Stats stats = new Stats();
+	private final LinkedHashMap<String, String> sqls;
+
+	public JdbcSqlCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.sqls = new LinkedHashMap<String, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				if(size() > JdbcSqlCache.this.maxSize) {
+					stats.evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public boolean isEnabled() {
+		return maxSize > 0;
+	}
+
+	/**
+	 * @return the SQL of the query shape or null if not cached yet
+	 */
+	public synchronized String get(String shape) {
+		String sql = sqls.get(shape);
+		if(sql == null) {
+			stats.misses.incrementAndGet();
+		}else {
+			stats.hits.incrementAndGet();
+		}
+		return sql;
+	}
+
+	public synchronized void put(String shape, String sql) {
+		sqls.put(shape, sql);
+	}
+
+	public synchronized int size() {
+		return sqls.size();
+	}
+
+	public synchronized void clear() {
+		sqls.clear();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public Stats getStats() {
+		return stats;
+	}
+
+	/**
+	 * @return the number of parameters used for an IN list of the given size
+	 * (the list is padded by repeating its last element)
+	 */
+	public static int inBucket(int size) {
+		if(size <= 1) {
+			return size;
+		}
+		if(size <= IN_BUCKET_MAX) {
+			return Integer.highestOneBit(size - 1) << 1;
+		}
+		return ((size + IN_BUCKET_MAX - 1) / IN_BUCKET_MAX) * IN_BUCKET_MAX;
+	}
+
+	/**
+	 * @return the shape of the query or null if the query can't be cached (empty IN list for ex)
+	 */
+	public static <T> String shapeOf(Kind kind, Query<T> query, JdbcPersistenceManager pm) {
+		StringBuilder key = new StringBuilder(64);
+		key.append(kind.ordinal()).append(query.getQueriedClass().getName());
+
+		for (QueryFilter filter : query.getFilters()) {
+			if(QueryFilterSimple.class.isAssignableFrom(filter.getClass())){
+				QueryFilterSimple qf = (QueryFilterSimple)filter;
+				key.append('|').append(qf.field.getName()).append(qf.operator);
+				if("IN".equals(qf.operator)) {
+					if(!(qf.value instanceof Collection)){
+						return null;
+					}
+					int size = ((Collection<?>)qf.value).size();
+					if(size == 0){
+						return null;
+					}
+					key.append(inBucket(size));
+				}
+				else if(qf.value == null) {
+					key.append('#');
+				}
+			}
+			else if(QueryFilterSearch.class.isAssignableFrom(filter.getClass())){
+				QueryFilterSearch qf = (QueryFilterSearch)filter;
+				key.append("|?");
+				pm.appendSqlSearchShape(qf, key);
+			}
+			else {
+				return null;
+			}
+		}
+
+		if(kind == Kind.SELECT) {
+			for (QueryOrder order : query.getOrders()) {
+				key.append("|^");
+				if(order.parentField != null) {
+					key.append(order.parentField.getName()).append('.');
+				}
+				key.append(order.field.getName()).append(order.ascending?'+':'-');
+			}
+			if(query.getJoins() != null) {
+				for (QueryJoin join : query.getJoins()) {
+					key.append("|&").append(join.field.getName());
+				}
+			}
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Hit/miss counters of the cache.
+	 */
+	public static class Stats {
+		public final AtomicLong hits = new AtomicLong();
+		public final AtomicLong misses = new AtomicLong();
+		public final AtomicLong evictions = new AtomicLong();
+
+		public long getHits() {
+			return hits.get();
+		}
+
+		public long getMisses() {
+			return misses.get();
+		}
+
+		public long getEvictions() {
+			return evictions.get();
+		}
+
+		public String toString() {
+			return "hits="+hits.get()+", misses="+misses.get()+", evictions="+evictions.get();
+		}
+	}
+}
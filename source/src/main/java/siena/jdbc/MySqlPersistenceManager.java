@@ -0,0 +1,30 @@
+package siena.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * The JdbcPersistenceManager using the streaming result sets of MySQL Connector/J
+ * for the iterations with QueryOptionJdbcStreaming.
+ * It isn't chosen from the driver: it is configured like the other implementations with
+ * <code>implementation=siena.jdbc.MySqlPersistenceManager</code> in siena.properties.
+ */
+public class MySqlPersistenceManager extends JdbcPersistenceManager {
+
+	public MySqlPersistenceManager() {
+	}
+
+	public MySqlPersistenceManager(ConnectionManager connectionManager, Class<?> listener) {
+		super(connectionManager, listener);
+	}
+
+	/**
+	 * Connector/J streams the rows of a forward only, read only statement one by one
+	 * when its fetch size is Integer.MIN_VALUE (a positive fetch size is ignored unless useCursorFetch=true).
+	 */
+	@Override
+	protected boolean prepareStreaming(PreparedStatement statement, int fetchSize) throws SQLException {
+		statement.setFetchSize(Integer.MIN_VALUE);
+		return false;
+	}
+}
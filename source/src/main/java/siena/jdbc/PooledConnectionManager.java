@@ -0,0 +1,419 @@
+package siena.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import siena.SienaException;
+
+/**
+ * A ConnectionManager keeping a bounded pool of physical connections.
+ *
+ * As with ThreadedConnectionManager, a thread keeps the same connection from the first
+ * getConnection() until closeConnection() (so transactions work the same way) but
+ * closeConnection() gives the connection back to the pool instead of closing it.
+ *
+ * Configured in siena.properties with:
+ * <pre>
+ * transactions=siena.jdbc.PooledConnectionManager
+ * driver, url, user, password
+ * pool.maxSize=10                    max number of physical connections
+ * pool.borrowTimeout=30000           ms to wait for a free connection before failing
+ * pool.validationTimeout=5           s given to Connection.isValid() when borrowing an idle connection
+ * pool.validationQuery=              SQL used instead of isValid() for old drivers
+ * pool.idleTimeout=600000            ms after which an idle connection is closed (0 = never)
+ * pool.maxLifetime=1800000           ms after which a connection is retired (0 = never)
+ * pool.leakDetectionThreshold=0      ms after which a borrowed connection is reported as leaked (0 = off)
+ * pool.housekeepingPeriod=30000      ms between idle eviction/leak detection runs
+ * statementCacheSize=50              max number of cached PreparedStatements per connection (0 = off)
+ * </pre>
+ */
+public class PooledConnectionManager extends AbstractConnectionManager {
+
+	private static final AtomicInteger poolCounter = new AtomicInteger();
+
+	private String url;
+	private String user;
+	private String pass;
+	private String validationQuery;
+
+	private int maxSize = 10;
+	private long borrowTimeout = 30000;
+	private int validationTimeout = 5;
+	private long idleTimeout = 600000;
+	private long maxLifetime = 1800000;
+	private long leakDetectionThreshold = 0;
+	private long housekeepingPeriod = 30000;
+	private int statementCacheSize = 50;
+
+	// the permits bound the number of connections (idle + borrowed) and keep borrowing fair
+	private Semaphore permits;
+	// idle connections: LIFO so the most recently used (warm) connections are reused first
+	private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<PooledConnection>();
+	private final Map<PooledConnection, Boolean> borrowed = new ConcurrentHashMap<PooledConnection, Boolean>();
+	private final ThreadLocal<PooledConnection> currentConnection = new ThreadLocal<PooledConnection>();
+	private ScheduledExecutorService housekeeper;
+	private volatile boolean closed = false;
+
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong destroyed = new AtomicLong();
+	private final AtomicLong borrows = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong validationFailures = new AtomicLong();
+	private final AtomicLong leaks = new AtomicLong();
+	private final AtomicLong waitTime = new AtomicLong();
+	private final PreparedStatementCache.Stats statementCacheStats = new PreparedStatementCache.Stats();
+
+	public void init(Properties p) {
+		String driver = p.getProperty("driver");
+		this.url    = p.getProperty("url");
+		this.user   = p.getProperty("user");
+		this.pass   = p.getProperty("password");
+
+		this.maxSize = intProperty(p, "pool.maxSize", maxSize);
+		this.borrowTimeout = longProperty(p, "pool.borrowTimeout", borrowTimeout);
+		this.validationTimeout = intProperty(p, "pool.validationTimeout", validationTimeout);
+		this.validationQuery = p.getProperty("pool.validationQuery");
+		this.idleTimeout = longProperty(p, "pool.idleTimeout", idleTimeout);
+		this.maxLifetime = longProperty(p, "pool.maxLifetime", maxLifetime);
+		this.leakDetectionThreshold = longProperty(p, "pool.leakDetectionThreshold", leakDetectionThreshold);
+		this.housekeepingPeriod = longProperty(p, "pool.housekeepingPeriod", housekeepingPeriod);
+		this.statementCacheSize = intProperty(p, "statementCacheSize", statementCacheSize);
+
+		if(maxSize <= 0) {
+			throw new SienaException("pool.maxSize must be greater than 0");
+		}
+
+		if(driver != null) {
+			try {
+				Class.forName(driver);
+			} catch (ClassNotFoundException e) {
+				throw new SienaException("Error while loading JDBC driver", e);
+			}
+		}
+
+		permits = new Semaphore(maxSize, true);
+
+		if(housekeepingPeriod > 0 && (idleTimeout > 0 || maxLifetime > 0 || leakDetectionThreshold > 0)) {
+			final String name = "siena-pool-" + poolCounter.incrementAndGet();
+			housekeeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, name);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			housekeeper.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					housekeep();
+				}
+			}, housekeepingPeriod, housekeepingPeriod, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public Connection getConnection() {
+		PooledConnection pc = currentConnection.get();
+		if(pc == null) {
+			pc = borrow();
+			currentConnection.set(pc);
+		}
+		return pc.connection;
+	}
+
+	public void closeConnection() {
+		PooledConnection pc = currentConnection.get();
+		if(pc != null) {
+			currentConnection.remove();
+			giveBack(pc);
+		}
+	}
+
+	/**
+	 * @return the statements cached for the connection of the current thread
+	 * (null if the thread has no connection)
+	 */
+	@Override
+	public PreparedStatementCache getStatementCache() {
+		PooledConnection pc = currentConnection.get();
+		if(pc == null) {
+			return null;
+		}
+		return pc.statements;
+	}
+
+	/**
+	 * Closes all idle connections and stops the housekeeping thread.
+	 * Borrowed connections are closed when given back.
+	 */
+	public void close() {
+		closed = true;
+		if(housekeeper != null) {
+			housekeeper.shutdownNow();
+		}
+		PooledConnection pc;
+		while((pc = idle.pollFirst()) != null) {
+			destroy(pc);
+		}
+	}
+
+	protected PooledConnection borrow() {
+		if(closed) {
+			throw new SienaException("Connection pool is closed");
+		}
+		long start = System.nanoTime();
+		try {
+			if(!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+				timeouts.incrementAndGet();
+				throw new SienaException("Timeout while waiting for a connection after "+borrowTimeout+"ms " +
+						"(active: "+getActiveConnections()+", max: "+maxSize+")");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SienaException("Interrupted while waiting for a connection", e);
+		}
+		waitTime.addAndGet(System.nanoTime() - start);
+
+		try {
+			PooledConnection pc;
+			long now = System.currentTimeMillis();
+			while((pc = idle.pollFirst()) != null) {
+				if(isExpired(pc, now) || !isValid(pc)) {
+					destroy(pc);
+					continue;
+				}
+				break;
+			}
+			if(pc == null) {
+				pc = create();
+			}
+			pc.borrowedAt = System.currentTimeMillis();
+			pc.leakReported = false;
+			if(leakDetectionThreshold > 0) {
+				pc.borrowTrace = new Exception("Connection borrowed by thread " + Thread.currentThread().getName());
+			}
+			borrowed.put(pc, Boolean.TRUE);
+			borrows.incrementAndGet();
+			return pc;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	protected void giveBack(PooledConnection pc) {
+		borrowed.remove(pc);
+		pc.borrowTrace = null;
+		try {
+			if(closed || pc.connection.isClosed() || isExpired(pc, System.currentTimeMillis())) {
+				destroy(pc);
+				return;
+			}
+			// never gives back a connection with a pending transaction
+			if(!pc.connection.getAutoCommit()) {
+				pc.connection.rollback();
+				pc.connection.setAutoCommit(true);
+			}
+			pc.lastUsedAt = System.currentTimeMillis();
+			idle.offerFirst(pc);
+		} catch (SQLException e) {
+			logger.warning("Closing connection which can't be reset", e);
+			destroy(pc);
+		} finally {
+			permits.release();
+		}
+	}
+
+	protected PooledConnection create() {
+		try {
+			Connection c = DriverManager.getConnection(url, user, pass);
+			created.incrementAndGet();
+			PooledConnection pc = new PooledConnection(c);
+			if(statementCacheSize > 0) {
+				pc.statements = new PreparedStatementCache(c, statementCacheSize, statementCacheStats);
+			}
+			return pc;
+		} catch (SQLException e) {
+			throw new SienaException(e);
+		}
+	}
+
+	protected void destroy(PooledConnection pc) {
+		destroyed.incrementAndGet();
+		if(pc.statements != null) {
+			pc.statements.close();
+		}
+		try {
+			pc.connection.close();
+		} catch (SQLException e) {
+			// don't do anything with it
+		}
+	}
+
+	protected boolean isExpired(PooledConnection pc, long now) {
+		return maxLifetime > 0 && now - pc.createdAt > maxLifetime;
+	}
+
+	protected boolean isValid(PooledConnection pc) {
+		try {
+			boolean valid;
+			if(validationQuery != null) {
+				Statement st = pc.connection.createStatement();
+				try {
+					st.execute(validationQuery);
+					valid = true;
+				} finally {
+					st.close();
+				}
+			} else {
+				valid = pc.connection.isValid(validationTimeout);
+			}
+			if(!valid) validationFailures.incrementAndGet();
+			return valid;
+		} catch (SQLException e) {
+			validationFailures.incrementAndGet();
+			return false;
+		} catch (AbstractMethodError e) {
+			// pre JDBC4 driver without isValid(): can't validate, trusts the connection
+			return true;
+		}
+	}
+
+	/**
+	 * Closes idle connections which are idle for too long or have reached their max lifetime
+	 * and reports connections borrowed for longer than the leak detection threshold.
+	 */
+	protected void housekeep() {
+		long now = System.currentTimeMillis();
+		Iterator<PooledConnection> it = idle.descendingIterator();
+		while(it.hasNext()) {
+			PooledConnection pc = it.next();
+			if(isExpired(pc, now) || (idleTimeout > 0 && now - pc.lastUsedAt > idleTimeout)) {
+				// removes only if not borrowed in the meantime
+				if(idle.removeFirstOccurrence(pc)) {
+					destroy(pc);
+				}
+			}
+		}
+
+		if(leakDetectionThreshold > 0) {
+			for(PooledConnection pc : borrowed.keySet()) {
+				Exception trace = pc.borrowTrace;
+				if(!pc.leakReported && trace != null && now - pc.borrowedAt > leakDetectionThreshold) {
+					pc.leakReported = true;
+					leaks.incrementAndGet();
+					logger.warning("Connection leak detection: connection borrowed for more than "
+							+ leakDetectionThreshold + "ms without being given back (closeConnection)", trace);
+				}
+			}
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public int getIdleConnections() {
+		return idle.size();
+	}
+
+	public int getActiveConnections() {
+		return borrowed.size();
+	}
+
+	public int getTotalConnections() {
+		return (int)(created.get() - destroyed.get());
+	}
+
+	public int getWaitingThreads() {
+		return permits.getQueueLength();
+	}
+
+	public long getCreatedCount() {
+		return created.get();
+	}
+
+	public long getDestroyedCount() {
+		return destroyed.get();
+	}
+
+	public long getBorrowCount() {
+		return borrows.get();
+	}
+
+	public long getTimeoutCount() {
+		return timeouts.get();
+	}
+
+	public long getValidationFailureCount() {
+		return validationFailures.get();
+	}
+
+	public long getLeakCount() {
+		return leaks.get();
+	}
+
+	/**
+	 * @return the total time spent by threads waiting for a connection, in ms
+	 */
+	public long getWaitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+	}
+
+	public PreparedStatementCache.Stats getStatementCacheStats() {
+		return statementCacheStats;
+	}
+
+	public String toString() {
+		return "PooledConnectionManager[total="+getTotalConnections()+", active="+getActiveConnections()
+			+", idle="+getIdleConnections()+", waiting="+getWaitingThreads()+", max="+maxSize+"]";
+	}
+
+	private static int intProperty(Properties p, String key, int def) {
+		String v = p.getProperty(key);
+		if(v == null || v.trim().length() == 0) return def;
+		try {
+			return Integer.parseInt(v.trim());
+		} catch(NumberFormatException e) {
+			throw new SienaException("Bad value for property "+key+": "+v, e);
+		}
+	}
+
+	private static long longProperty(Properties p, String key, long def) {
+		String v = p.getProperty(key);
+		if(v == null || v.trim().length() == 0) return def;
+		try {
+			return Long.parseLong(v.trim());
+		} catch(NumberFormatException e) {
+			throw new SienaException("Bad value for property "+key+": "+v, e);
+		}
+	}
+
+	protected static class PooledConnection {
+		public final Connection connection;
+		public final long createdAt;
+		public volatile long lastUsedAt;
+		public volatile long borrowedAt;
+		public volatile boolean leakReported;
+		public volatile Exception borrowTrace;
+		public PreparedStatementCache statements;
+
+		public PooledConnection(Connection connection) {
+			this.connection = connection;
+			this.createdAt = System.currentTimeMillis();
+			this.lastUsedAt = createdAt;
+		}
+	}
+}
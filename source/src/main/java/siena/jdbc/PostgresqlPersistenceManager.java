@@ -1,6 +1,8 @@
 package siena.jdbc;
 
 import java.lang.reflect.Field;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -8,14 +10,9 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.UUID;
 
 import siena.ClassInfo;
-import siena.Generator;
-import siena.Id;
 import siena.QueryFilterSearch;
 import siena.SienaException;
 import siena.Util;
@@ -52,7 +49,7 @@ public class PostgresqlPersistenceManager extends JdbcPersistenceManager {
 		ResultSet gk = null;
 		PreparedStatement ps = null;
 		try {
-			ps = getConnection().prepareStatement(
+			ps = prepareStatement(
 					classInfo.insertSQL + " RETURNING " + Util.join(keyNames, ","));
 			addParameters(obj, classInfo.insertFields, ps, 1);
 			gk = ps.executeQuery();
@@ -73,63 +70,77 @@ public class PostgresqlPersistenceManager extends JdbcPersistenceManager {
 	}
 	
 	/**
-	 * required to be overriden for Postgres
-	 * 
-	 * @param classInfo
-	 * @param objMap
-	 * @throws SQLException
-	 * @throws IllegalAccessException
+	 * Postgres batches can't return generated keys so the rows are inserted one by one with INSERT ... RETURNING
+	 * or, if multi-row inserts are enabled, with INSERT ... VALUES (...),(...) RETURNING which returns the keys of all the rows.
+	 * http://postgresql.1045698.n5.nabble.com/PreparedStatement-batch-statement-impossible-td3406927.html
 	 */
 	@Override
-	protected int insertBatchWithAutoIncrementKey(JdbcClassInfo classInfo, Map<JdbcClassInfo, List<Object>> objMap) throws SQLException, IllegalAccessException {
+	protected int[] insertBatchWithAutoIncrementKey(JdbcClassInfo classInfo, List<Object> objects) throws SQLException, IllegalAccessException {
 		List<String> keyNames = new ArrayList<String>();
 		for (Field field : classInfo.generatedKeys) {
 			keyNames.add(field.getName());
 		}
+		String returning = " RETURNING " + Util.join(keyNames, ",");
 		
-		// can't use batch in Postgres with generated keys... known bug
-		// http://postgresql.1045698.n5.nabble.com/PreparedStatement-batch-statement-impossible-td3406927.html
+		int sz = objects.size();
+		int[] res = new int[sz];
+		int rowsPerStatement = 1;
+		if(multiRowInsert){
+			rowsPerStatement = Math.max(1, Math.min(sz, maxParameters() / Math.max(1, classInfo.insertColumnCount)));
+		}
 		PreparedStatement ps = null;
 		ResultSet gk = null;
-		int res = 0;
+		int start = 0;
 		try {
-			ps = getConnection().prepareStatement(
-					classInfo.insertSQL + " RETURNING " + Util.join(keyNames, ","));
-			
-			for(Object obj: objMap.get(classInfo)){
-				for (Field field : classInfo.keys) {
-					Id id = field.getAnnotation(Id.class);
-					if (id.value() == Generator.UUID) {
-						field.set(obj, UUID.randomUUID().toString());
-					}
+			while(start < sz){
+				int rows = Math.min(rowsPerStatement, sz - start);
+				if(ps == null || rows != rowsPerStatement){
+					JdbcDBUtils.closeStatement(ps);
+					ps = getConnection().prepareStatement(
+							(rows==1?classInfo.insertSQL:classInfo.getMultiRowInsertSQL(rows)) + returning);
+				}
+				int idx = 1;
+				for(int r=start; r<start+rows; r++){
+					idx = addParameters(objects.get(r), classInfo.insertFields, ps, idx);
 				}
-				// TODO: implement primary key generation: SEQUENCE
-				addParameters(obj, classInfo.insertFields, ps, 1);
 				gk = ps.executeQuery();
-				if (!gk.next())
-					throw new SienaException("No such generated keys");
-	
-				int i = 1;
-				for (Field field : classInfo.generatedKeys) {
-					//field.setAccessible(true);
-					Util.setFromObject(obj, field, gk.getObject(i));
-					// field.set(obj, gk.getObject(i));
-					i++;
+				for(int r=start; r<start+rows; r++){
+					if (!gk.next())
+						throw new SienaException("No such generated keys");
+					int i = 1;
+					for (Field field : classInfo.generatedKeys) {
+						Util.setFromObject(objects.get(r), field, gk.getObject(i++));
+					}
+					res[r] = 1;
 				}
-				
 				JdbcDBUtils.closeResultSet(gk);
-				res++;
+				gk = null;
+				start += rows;
 			}
-			
+			return res;
+		} catch(SQLException e) {
+			throw new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(), Arrays.copyOf(res, start), e);
 		} finally {
-			JdbcDBUtils.closeStatementAndConnection(this, ps);
+			JdbcDBUtils.closeResultSet(gk);
+			JdbcDBUtils.closeStatement(ps);
 		}
-		// doesn't work with Postgres because it doesn't manage generated keys
-		// int[] res = ps.executeBatch();
-		
-		return res;
 	}
 	
+	/**
+	 * PostgreSQL only uses a cursor (and fetches fetchSize rows at a time) for a forward only
+	 * statement run in a transaction: the autocommit is switched off until the rows are read.
+	 */
+	@Override
+	protected boolean prepareStreaming(PreparedStatement statement, int fetchSize) throws SQLException {
+		statement.setFetchSize(fetchSize);
+		Connection c = statement.getConnection();
+		if(c.getAutoCommit()) {
+			c.setAutoCommit(false);
+			return true;
+		}
+		return false;
+	}
+
 	@Override
 	public <T> void appendSqlSearch(QueryFilterSearch qf, Class<?> clazz, JdbcClassInfo info, StringBuilder sql, List<Object> parameters) {
 		List<String> cols = new ArrayList<String>();
@@ -201,12 +212,20 @@ public class PostgresqlPersistenceManager extends JdbcPersistenceManager {
 			}else {
 				sql.append("to_tsvector('english', "+Util.join(cols, " || ' ' || ")+") @@ to_tsquery(?)");
 			}
-			parameters.add(qf.match);
+			appendSqlSearchParameters(qf, parameters);
 		}catch(Exception e){
 			throw new SienaException(e);
 		}
 	}
 
+	@Override
+	public void appendSqlSearchShape(QueryFilterSearch qf, StringBuilder shape) {
+		super.appendSqlSearchShape(qf, shape);
+		if(qf.option != null && QueryOptionPostgresqlSearch.class.isAssignableFrom(qf.option.getClass())){
+			shape.append(((QueryOptionPostgresqlSearch)qf.option).language);
+		}
+	}
+
 	@Override
 	public void save(Object obj) {		
 		JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(obj.getClass());
@@ -227,7 +246,7 @@ public class PostgresqlPersistenceManager extends JdbcPersistenceManager {
 				// !!! insert or update pour postgres : the less worst solution I found!!!!
 				// INSERT INTO myTable (myKey) SELECT myKeyValue WHERE myKeyValue NOT IN (SELECT myKey FROM myTable);
 				// UPDATE myTable SET myUpdateCol = myUpdateColValue WHERE myKey = myKeyValue;
-				ps = getConnection().prepareStatement(
+				ps = prepareStatement(
 						"INSERT INTO "+ classInfo.tableName + " (" + Util.join(keyNames, ",") + ") " 
 						+ "SELECT ? WHERE ? NOT IN (SELECT "+ Util.join(keyNames, ",")  
 						+ " FROM "+ classInfo.tableName + ");"
@@ -250,84 +269,73 @@ public class PostgresqlPersistenceManager extends JdbcPersistenceManager {
 	
 
 
+	/**
+	 * Objects without generated id are inserted, the others are inserted or updated one by one
+	 */
 	@Override
-	public int save(Object... objects) {
-		return save(Arrays.asList(objects));
-	}
-
-	@Override
-	public int save(Iterable<?> objects) {
-		Map<JdbcClassInfo, List<Object>> generatedObjMap = new HashMap<JdbcClassInfo, List<Object>>();
-		Map<JdbcClassInfo, List<Object>> objMap = new HashMap<JdbcClassInfo, List<Object>>();
-		PreparedStatement ps = null;
-		
-		for(Object obj:objects){
-			JdbcClassInfo classInfo = JdbcClassInfo.getClassInfo(obj.getClass());
-			Field idField = classInfo.info.getIdField();
-			Object idVal = Util.readField(obj, idField);
-			
-			if(idVal == null && !classInfo.generatedKeys.isEmpty()){
-				if(!generatedObjMap.containsKey(classInfo)){
-					List<Object> l = new ArrayList<Object>();
-					l.add(obj);
-					generatedObjMap.put(classInfo, l);
-				}else{
-					generatedObjMap.get(classInfo).add(obj);
-				}
+	protected int[] saveChunk(JdbcClassInfo classInfo, List<Object> objects) throws SQLException, IllegalAccessException {
+		int sz = objects.size();
+		List<Object> generated = new ArrayList<Object>();
+		List<Integer> generatedIdx = new ArrayList<Integer>();
+		List<Integer> keyedIdx = new ArrayList<Integer>();
+		Field idField = classInfo.info.getIdField();
+		for(int idx=0; idx<sz; idx++){
+			Object obj = objects.get(idx);
+			if(Util.readField(obj, idField) == null && !classInfo.generatedKeys.isEmpty()){
+				generated.add(obj);
+				generatedIdx.add(idx);
 			} else {
-				if(!objMap.containsKey(classInfo)){
-					List<Object> l = new ArrayList<Object>();
-					l.add(obj);
-					objMap.put(classInfo, l);
-				}else{
-					objMap.get(classInfo).add(obj);
-				}
+				keyedIdx.add(idx);
 			}
 		}
 		
-		int total = 0;
-		try {
-			// these are the insertion with generated keys
-			for(JdbcClassInfo classInfo: generatedObjMap.keySet()){
-				total += insert(generatedObjMap.get(classInfo));
+		int[] res = newChunkCounts(sz);
+		if(!generated.isEmpty()){
+			try {
+				setChunkCounts(res, generatedIdx, insertBatchWithAutoIncrementKey(classInfo, generated));
+			} catch(SQLException e) {
+				throw chunkFailure(e, res, generatedIdx);
 			}
-			
-			// these are the insertion or update without generated keys
-			// can't use batch in Postgres with generated keys... known bug
-			// http://postgresql.1045698.n5.nabble.com/PreparedStatement-batch-statement-impossible-td3406927.html
-			for(JdbcClassInfo classInfo: objMap.keySet()){
-				List<String> keyNames = new ArrayList<String>();
-				for (Field field : classInfo.keys) {
-					keyNames.add(field.getName());
-				}
-				
-				// !!! insert or update pour postgres : the less worst solution I found!!!!
-				// INSERT INTO myTable (myKey) SELECT myKeyValue WHERE myKeyValue NOT IN (SELECT myKey FROM myTable);
-				// UPDATE myTable SET myUpdateCol = myUpdateColValue WHERE myKey = myKeyValue;
-				ps = getConnection().prepareStatement(
-						"INSERT INTO "+ classInfo.tableName + " (" + Util.join(keyNames, ",") + ") " 
-						+ "SELECT ? WHERE ? NOT IN (SELECT "+ Util.join(keyNames, ",")  
-						+ " FROM "+ classInfo.tableName + ");"
-						+ classInfo.updateSQL);
-			
-				for(Object obj: objMap.get(classInfo)){				
-					int i = 1;
-					i = addParameters(obj, classInfo.keys, ps, i);
-					i = addParameters(obj, classInfo.keys, ps, i);
-					i = addParameters(obj, classInfo.updateFields, ps, i);
-					addParameters(obj, classInfo.keys, ps, i);
-					ps.executeUpdate();
-					total++;
-				}
+			if(keyedIdx.isEmpty()){
+				return res;
 			}
-			
-			return total;			
-		} catch (SienaException e) {
-			throw e;
-		} catch (Exception e) {
-			throw new SienaException(e);
+		}
+		
+		List<String> keyNames = new ArrayList<String>();
+		for (Field field : classInfo.keys) {
+			keyNames.add(field.getName());
+		}
+		
+		// !!! insert or update pour postgres : the less worst solution I found!!!!
+		// INSERT INTO myTable (myKey) SELECT myKeyValue WHERE myKeyValue NOT IN (SELECT myKey FROM myTable);
+		// UPDATE myTable SET myUpdateCol = myUpdateColValue WHERE myKey = myKeyValue;
+		PreparedStatement ps = null;
+		int[] kres = new int[keyedIdx.size()];
+		int k = 0;
+		try {
+			ps = getConnection().prepareStatement(
+					"INSERT INTO "+ classInfo.tableName + " (" + Util.join(keyNames, ",") + ") " 
+					+ "SELECT ? WHERE ? NOT IN (SELECT "+ Util.join(keyNames, ",")  
+					+ " FROM "+ classInfo.tableName + ");"
+					+ classInfo.updateSQL);
+		
+			for(; k<kres.length; k++){
+				Object obj = objects.get(keyedIdx.get(k));
+				generateKeys(classInfo, obj, true);
+				int i = 1;
+				i = addParameters(obj, classInfo.keys, ps, i);
+				i = addParameters(obj, classInfo.keys, ps, i);
+				i = addParameters(obj, classInfo.updateFields, ps, i);
+				addParameters(obj, classInfo.keys, ps, i);
+				ps.executeUpdate();
+				kres[k] = 1;
+			}
+			setChunkCounts(res, keyedIdx, kres);
+			return res;
+		} catch(SQLException e) {
+			throw chunkFailure(e, res, keyedIdx, Arrays.copyOf(kres, k));
 		} finally {
-			JdbcDBUtils.closeStatementAndConnection(this, ps);
+			JdbcDBUtils.closeStatement(ps);
 		}
 	}
 	
@@ -0,0 +1,185 @@
+package siena.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A LRU cache of the PreparedStatements of one connection keyed by SQL and generated keys mode.
+ *
+ * A connection is used by one thread at a time so the cache is not synchronized.
+ * A statement is lent to one caller at a time: if the same SQL is requested while its statement
+ * is still in use (an open ResultSet for ex), a non-cached statement is prepared.
+ * Statements are given back with release() and all closed with close() when the connection is closed.
+ */
+public class PreparedStatementCache {
+	/**
+	 * generated keys mode used for statements prepared with Connection.prepareStatement(sql)
+	 */
+	public static final int DEFAULT_KEYS = -1;
+
+	private final Connection connection;
+	private final int maxSize;
+	private final Stats stats;
+	private final LinkedHashMap<String, Entry> statements;
+	private final Map<Statement, Entry> lent = new IdentityHashMap<Statement, Entry>();
+
+	public PreparedStatementCache(Connection connection, int maxSize, Stats stats) {
+		this.connection = connection;
+		this.maxSize = maxSize;
+		this.stats = stats!=null?stats:new Stats();
+		this.statements = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if(size() > PreparedStatementCache.this.maxSize) {
+					evict(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public PreparedStatement prepare(String sql) throws SQLException {
+		return prepare(sql, DEFAULT_KEYS);
+	}
+
+	public PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+		String key = autoGeneratedKeys + ":" + sql;
+		Entry entry = statements.get(key);
+		if(entry != null) {
+			if(!entry.lent) {
+				stats.hits.incrementAndGet();
+				entry.lent = true;
+				lent.put(entry.statement, entry);
+				return entry.statement;
+			}
+			// already in use: doesn't share it
+			stats.misses.incrementAndGet();
+			return doPrepare(sql, autoGeneratedKeys);
+		}
+
+		stats.misses.incrementAndGet();
+		entry = new Entry(key, doPrepare(sql, autoGeneratedKeys));
+		entry.lent = true;
+		lent.put(entry.statement, entry);
+		statements.put(key, entry);
+		return entry.statement;
+	}
+
+	/**
+	 * Gives a statement back to the cache.
+	 * @return false if the statement doesn't belong to the cache (and must be closed by the caller)
+	 */
+	public boolean release(Statement st) {
+		Entry entry = lent.remove(st);
+		if(entry == null) {
+			return false;
+		}
+		entry.lent = false;
+		if(entry.evicted) {
+			closeQuietly(entry.statement);
+			return true;
+		}
+		try {
+			entry.statement.clearParameters();
+		} catch (SQLException e) {
+			statements.remove(entry.key);
+			closeQuietly(entry.statement);
+		}
+		return true;
+	}
+
+	public boolean contains(Statement st) {
+		return lent.containsKey(st);
+	}
+
+	public int size() {
+		return statements.size();
+	}
+
+	public Stats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Closes all cached statements: to be called before closing the connection.
+	 */
+	public void close() {
+		Iterator<Entry> it = statements.values().iterator();
+		while(it.hasNext()) {
+			closeQuietly(it.next().statement);
+			it.remove();
+		}
+		lent.clear();
+	}
+
+	private PreparedStatement doPrepare(String sql, int autoGeneratedKeys) throws SQLException {
+		if(autoGeneratedKeys == DEFAULT_KEYS) {
+			return connection.prepareStatement(sql);
+		}
+		return connection.prepareStatement(sql, autoGeneratedKeys);
+	}
+
+	private void evict(Entry entry) {
+		stats.evictions.incrementAndGet();
+		entry.evicted = true;
+		// a lent statement is closed when given back
+		if(!entry.lent) {
+			closeQuietly(entry.statement);
+		}
+	}
+
+	private static void closeQuietly(Statement st) {
+		try {
+			st.close();
+		} catch (SQLException e) {
+			// don't do anything with it
+		}
+	}
+
+	private static class Entry {
+		final String key;
+		final PreparedStatement statement;
+		boolean lent = false;
+		boolean evicted = false;
+
+		Entry(String key, PreparedStatement statement) {
+			this.key = key;
+			this.statement = statement;
+		}
+	}
+
+	/**
+	 * Hit/miss counters, possibly shared by the caches of all the connections of a ConnectionManager.
+	 */
+	public static class Stats {
+		public final AtomicLong hits = new AtomicLong();
+		public final AtomicLong misses = new AtomicLong();
+		public final AtomicLong evictions = new AtomicLong();
+
+		public long getHits() {
+			return hits.get();
+		}
+
+		public long getMisses() {
+			return misses.get();
+		}
+
+		public long getEvictions() {
+			return evictions.get();
+		}
+
+		public String toString() {
+			return "hits="+hits.get()+", misses="+misses.get()+", evictions="+evictions.get();
+		}
+	}
+}
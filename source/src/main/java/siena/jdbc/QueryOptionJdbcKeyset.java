@@ -0,0 +1,72 @@
+package siena.jdbc;
+
+import java.util.Arrays;
+
+import siena.core.options.QueryOption;
+import siena.embed.EmbeddedMap;
+
+/**
+ * Keyset (seek) pagination: instead of LIMIT ? OFFSET ?, the pages are fetched with a
+ * WHERE (order columns, keys) > (?, ?) predicate built from the last row of the previous page
+ * (resp. < first row for previousPage) so the cost of a page doesn't depend on its position.
+ *
+ * Usage: query.customize(new QueryOptionJdbcKeyset()).paginate(pageSize)
+ *
+ * The query orders must be on non-null columns of the queried class (no joined order).
+ * The keys are added at the end of the orders to make the order total.
+ * nextPage/previousPage move relatively to the last fetched page.
+ */
+@EmbeddedMap
+public class QueryOptionJdbcKeyset extends QueryOption{
+	public static final int ID 	= 0x1004;
+
+	// values of the order columns and keys of the first and last rows of the current page
+	public Object[] first;
+	public Object[] last;
+	// bound of the page to fetch (null for the first page)
+	public Object[] from;
+	// fetches the rows before the bound (previous page)
+	public boolean reverse = false;
+	// includes the row equal to the bound
+	public boolean inclusive = false;
+
+	public QueryOptionJdbcKeyset() {
+		super(ID, State.ACTIVE, null);
+	}
+
+	public QueryOptionJdbcKeyset(QueryOptionJdbcKeyset option) {
+		super(option);
+		this.first = option.first;
+		this.last = option.last;
+		this.from = option.from;
+		this.reverse = option.reverse;
+		this.inclusive = option.inclusive;
+	}
+
+	/**
+	 * goes back to the first page
+	 */
+	public void reset() {
+		first = null;
+		last = null;
+		from = null;
+		reverse = false;
+		inclusive = false;
+	}
+
+	public boolean isFirstPage() {
+		return from == null;
+	}
+
+	@Override
+	public QueryOption clone() {
+		return new QueryOptionJdbcKeyset(this);
+	}
+
+	public String toString() {
+		return "type:JDBC_KEYSET - state:"+this.state
+				+ " - from:"+(from!=null?Arrays.toString(from):null)
+				+ " - reverse:"+reverse
+				+ " - inclusive:"+inclusive;
+	}
+}
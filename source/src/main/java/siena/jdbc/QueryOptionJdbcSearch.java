@@ -3,6 +3,13 @@ package siena.jdbc;
 import siena.core.options.QueryOption;
 import siena.embed.EmbeddedMap;
 
+/**
+ * Options of a search (query.search(match, new QueryOptionJdbcSearch(), fields...)).
+ *
+ * MySQL: MATCH ... AGAINST in boolean mode or natural language mode.
+ * H2: the search uses an in-memory ranked index (BM25) and the hits are fetched in one query.
+ * In boolean mode, all the words must be found in a row else any of them.
+ */
 @EmbeddedMap
 public class QueryOptionJdbcSearch extends QueryOption{
     public static final int ID 	= 0x1002;
@@ -0,0 +1,46 @@
+package siena.jdbc;
+
+import siena.core.options.QueryOption;
+import siena.embed.EmbeddedMap;
+
+/**
+ * Streams the rows of iter() from the database instead of letting the driver buffer the whole
+ * result on the client side (MySQL streaming result set with MySqlPersistenceManager, PostgreSQL cursor...).
+ *
+ * Usage: query.customize(new QueryOptionJdbcStreaming()).iter()
+ *
+ * The iterable returned by iter() is a JdbcSienaIterable: it releases its statement and connection
+ * when the iteration is over or when it is closed. While streaming, the connection can't be used by
+ * other requests (MySQL) so the iteration should be consumed or closed before using the connection again.
+ * Only stateless queries are streamed.
+ */
+@EmbeddedMap
+public class QueryOptionJdbcStreaming extends QueryOption{
+	public static final int ID 	= 0x1005;
+
+	// number of rows fetched by round trip (0 uses the fetch size of the persistence manager)
+	public int fetchSize = 0;
+
+	public QueryOptionJdbcStreaming() {
+		super(ID, State.ACTIVE, null);
+	}
+
+	public QueryOptionJdbcStreaming(int fetchSize) {
+		super(ID, State.ACTIVE, null);
+		this.fetchSize = fetchSize;
+	}
+
+	public QueryOptionJdbcStreaming(QueryOptionJdbcStreaming option) {
+		super(option);
+		this.fetchSize = option.fetchSize;
+	}
+
+	@Override
+	public QueryOption clone() {
+		return new QueryOptionJdbcStreaming(this);
+	}
+
+	public String toString() {
+		return "type:JDBC_STREAMING - state:"+this.state+ " - fetchSize:"+fetchSize;
+	}
+}
@@ -31,10 +31,13 @@ public class ThreadedConnectionManager extends AbstractConnectionManager {
 	private String user;
 	private String pass;
 	private String jndi;
+	private int statementCacheSize = 0;
 	
 	private DataSource dataSource;
 
 	private ThreadLocal<Connection> currentConnection = new ThreadLocal<Connection>();
+	private ThreadLocal<PreparedStatementCache> currentStatements = new ThreadLocal<PreparedStatementCache>();
+	private PreparedStatementCache.Stats statementCacheStats = new PreparedStatementCache.Stats();
 	
 	public void init(Properties p) {
 		String driver = p.getProperty("driver");
@@ -42,6 +45,10 @@ public class ThreadedConnectionManager extends AbstractConnectionManager {
 		this.user   = p.getProperty("user");
 		this.pass   = p.getProperty("password");
 		this.jndi   = p.getProperty("jndi");
+		String cacheSize = p.getProperty("statementCacheSize");
+		if(cacheSize != null) {
+			this.statementCacheSize = Integer.parseInt(cacheSize.trim());
+		}
 		
 		if(jndi == null) {
 			try {
@@ -82,6 +89,11 @@ public class ThreadedConnectionManager extends AbstractConnectionManager {
 
 	public void closeConnection() {
 		try {
+			PreparedStatementCache statements = currentStatements.get();
+			if(statements != null) {
+				currentStatements.remove();
+				statements.close();
+			}
 			Connection c = currentConnection.get();
 			if(c != null) {
 				currentConnection.remove();
@@ -92,6 +104,33 @@ public class ThreadedConnectionManager extends AbstractConnectionManager {
 		}
 	}
 
+	/**
+	 * Statements are cached only for the connections opened by this manager
+	 * when statementCacheSize is set in the properties.
+	 * @return the statements cached for the connection of the current thread
+	 * (null if the thread has no connection)
+	 */
+	@Override
+	public PreparedStatementCache getStatementCache() {
+		if(statementCacheSize <= 0 || dataSource != null) {
+			return null;
+		}
+		PreparedStatementCache statements = currentStatements.get();
+		if(statements == null) {
+			Connection c = currentConnection.get();
+			if(c == null) {
+				return null;
+			}
+			statements = new PreparedStatementCache(c, statementCacheSize, statementCacheStats);
+			currentStatements.set(statements);
+		}
+		return statements;
+	}
+
+	public PreparedStatementCache.Stats getStatementCacheStats() {
+		return statementCacheStats;
+	}
+
 	public void setDataSource (DataSource dataSource) {
 	
 		this.dataSource = dataSource;
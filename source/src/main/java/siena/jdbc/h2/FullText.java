@@ -22,6 +22,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 import org.h2.api.Trigger;
 import org.h2.command.Parser;
@@ -82,6 +84,11 @@ public class FullText {
      */
     private static final String FIELD_QUERY = "QUERY";
 
+    /**
+     * The number of changed rows read at once to update a ranked index.
+     */
+    private static final int SYNC_CHUNK_SIZE = 100;
+
     /**
      * Initializes full text search functionality for this database. This adds
      * the following Java functions to the database:
@@ -162,6 +169,28 @@ public class FullText {
         indexExistingRows(conn, schema, table);
     }
 
+    /**
+     * Check whether a table has a full text index.
+     *
+     * @param conn the connection
+     * @param schema the schema name of the table (case sensitive)
+     * @param table the table name (case sensitive)
+     * @return true if the table has a full text index
+     */
+    public static boolean hasIndex(Connection conn, String schema, String table) throws SQLException {
+        if (!FullTextSettings.getInstance(conn).isInitialized()) {
+            init(conn);
+        }
+        PreparedStatement prep = conn.prepareStatement("SELECT ID FROM " + SCHEMA
+                + ".FT_INDEXES WHERE SCHEMA=? AND TABLE=?");
+        prep.setString(1, schema);
+        prep.setString(2, table);
+        ResultSet rs = prep.executeQuery();
+        boolean found = rs.next();
+        prep.close();
+        return found;
+    }
+
     /**
      * Re-creates the full text index for this database. Calling this method is
      * usually not needed, as the index is kept up-to-date automatically.
@@ -173,6 +202,7 @@ public class FullText {
         removeAllTriggers(conn, TRIGGER_PREFIX);
         FullTextSettings setting = FullTextSettings.getInstance(conn);
         setting.getWordList().clear();
+        setting.removeAllRankedIndexes();
         Statement stat = conn.createStatement();
         stat.execute("TRUNCATE TABLE " + SCHEMA + ".WORDS");
         stat.execute("TRUNCATE TABLE " + SCHEMA + ".ROWS");
@@ -210,6 +240,7 @@ public class FullText {
         prep.setInt(1, indexId);
         prep.execute();
         createOrDropTrigger(conn, schema, table, false);
+        FullTextSettings.getInstance(conn).removeRankedIndex(schema, table);
         prep = conn.prepareStatement("DELETE FROM " + SCHEMA +
                 ".ROWS WHERE INDEXID=? AND ROWNUM<10000");
         while (true) {
@@ -241,6 +272,7 @@ public class FullText {
         removeAllTriggers(conn, TRIGGER_PREFIX);
         FullTextSettings setting = FullTextSettings.getInstance(conn);
         setting.removeAllIndexes();
+        setting.removeAllRankedIndexes();
         setting.getIgnoreList().clear();
         setting.getWordList().clear();
     }
@@ -299,6 +331,137 @@ public class FullText {
         }
     }
 
+    /**
+     * Get the in-memory ranked index of a table having a full text index.
+     * The first call indexes the rows of the table in memory, the next ones
+     * index the rows changed by the transactions which have ended since.
+     *
+     * @param conn the connection
+     * @param schema the schema name of the table (case sensitive)
+     * @param table the table name (case sensitive)
+     * @return the ranked index
+     */
+    public static RankedIndex getRankedIndex(Connection conn, String schema, String table) throws SQLException {
+        FullTextSettings setting = FullTextSettings.getInstance(conn);
+        if (!setting.isInitialized()) {
+            init(conn);
+        }
+        while (true) {
+            boolean[] created = new boolean[1];
+            RankedIndex ranked = setting.getOrCreateRankedIndex(schema, table, created);
+            if (!created[0]) {
+                if (ranked.awaitBuilt()) {
+                    syncRankedIndex(conn, ranked);
+                    return ranked;
+                }
+                // the indexing failed in another thread
+                if (Thread.currentThread().isInterrupted()) {
+                    throw throwException("Interrupted while indexing " + table);
+                }
+                continue;
+            }
+            boolean success = false;
+            try {
+                indexExistingRows(conn, schema, table, ranked);
+                success = true;
+                return ranked;
+            } finally {
+                if (!success) {
+                    setting.removeRankedIndex(schema, table);
+                }
+                ranked.built(success);
+            }
+        }
+    }
+
+    /**
+     * Start the write-behind indexing of the database: the triggers buffer the
+     * changed rows which are indexed in batches by a background thread.
+     *
+     * @param conn the connection
+     * @param source the source of the connections of the indexer thread
+     * @param batchSize the maximum number of rows indexed in a transaction
+     * @param capacity the maximum number of buffered rows
+     * @param maxLag the maximum age (ms) of the changes not indexed when searching
+     * @return the indexer
+     */
+    public static FullTextIndexer startIndexer(Connection conn, FullTextIndexer.ConnectionSource source,
+            int batchSize, int capacity, long maxLag) throws SQLException {
+        FullTextSettings setting = FullTextSettings.getInstance(conn);
+        synchronized (setting) {
+            FullTextIndexer indexer = setting.getIndexer();
+            if (indexer == null) {
+                indexer = new FullTextIndexer(setting, source, batchSize, capacity, maxLag);
+                indexer.start();
+                setting.setIndexer(indexer);
+            }
+            return indexer;
+        }
+    }
+
+    /**
+     * Index the buffered rows and go back to the synchronous indexing in the
+     * triggers.
+     *
+     * @param conn the connection
+     */
+    public static void stopIndexer(Connection conn) throws SQLException {
+        FullTextSettings setting = FullTextSettings.getInstance(conn);
+        FullTextIndexer indexer;
+        synchronized (setting) {
+            indexer = setting.getIndexer();
+            setting.setIndexer(null);
+        }
+        if (indexer != null) {
+            indexer.close();
+        }
+    }
+
+    /**
+     * Get the write-behind indexer of the database.
+     *
+     * @param conn the connection
+     * @return the indexer or null if the rows are indexed by the triggers
+     */
+    public static FullTextIndexer getIndexer(Connection conn) throws SQLException {
+        return FullTextSettings.getInstance(conn).getIndexer();
+    }
+
+    /**
+     * Rebuild the full text indexes of the database without dropping the
+     * triggers: the indexed tables are scanned in parallel. The tables should
+     * not be written meanwhile.
+     *
+     * @param conn the connection writing the index
+     * @param source the source of the connections scanning the tables
+     * @param threads the number of tables scanned at the same time
+     * @param batchSize the number of rows indexed by transaction
+     */
+    public static void rebuild(Connection conn, FullTextIndexer.ConnectionSource source, int threads, int batchSize) throws SQLException {
+        init(conn);
+        FullTextSettings setting = FullTextSettings.getInstance(conn);
+        FullTextIndexer indexer = setting.getIndexer();
+        if (indexer != null) {
+            indexer.flush();
+        }
+        setting.removeAllRankedIndexes();
+        Statement stat = conn.createStatement();
+        stat.execute("TRUNCATE TABLE " + SCHEMA + ".ROWS");
+        stat.execute("TRUNCATE TABLE " + SCHEMA + ".MAP");
+        ArrayList<String[]> tables = New.arrayList();
+        ResultSet rs = stat.executeQuery("SELECT SCHEMA, TABLE FROM " + SCHEMA + ".FT_INDEXES");
+        while (rs.next()) {
+            tables.add(new String[] { rs.getString(1), rs.getString(2) });
+        }
+        stat.close();
+        if (!tables.isEmpty()) {
+            FullTextIndexer.rebuild(conn, source, tables, threads, batchSize);
+        }
+        if (indexer != null) {
+            indexer.rebuilt();
+        }
+    }
+
     /**
      * Change the ignore list. The ignore list is a comma separated list of
      * common words that must not be indexed. The default ignore list is empty.
@@ -554,7 +717,11 @@ public class FullText {
         for (String word : words) {
             lastRowIds = rIds;
             rIds = New.hashSet();
-            Integer wId = allWords.get(word);
+            Integer wId;
+            // the words may be added by the indexer thread
+            synchronized (allWords) {
+                wId = allWords.get(word);
+            }
             if (wId == null) {
                 continue;
             }
@@ -689,6 +856,56 @@ public class FullText {
         }
     }
 
+    /**
+     * Add all words in the given text to the map counting their occurrences.
+     *
+     * @param setting the fulltext settings
+     * @param words the map of the words and their number of occurrences
+     * @param reader the reader
+     */
+    protected static void addWords(FullTextSettings setting, HashMap<String, Integer> words, Reader reader) {
+        StreamTokenizer tokenizer = new StreamTokenizer(reader);
+        tokenizer.resetSyntax();
+        tokenizer.wordChars(' ' + 1, 255);
+        for (char ch : " \t\n\r\f+\"*%&/()=?'!,.;:-_#@|^~`{}[]".toCharArray()) {
+            tokenizer.whitespaceChars(ch, ch);
+        }
+        try {
+            while (true) {
+                int token = tokenizer.nextToken();
+                if (token == StreamTokenizer.TT_EOF) {
+                    break;
+                } else if (token == StreamTokenizer.TT_WORD) {
+                    addWord(setting, words, tokenizer.sval);
+                }
+            }
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, "Tokenizer error");
+        }
+    }
+
+    /**
+     * Add all words in the given text to the map counting their occurrences.
+     *
+     * @param setting the fulltext settings
+     * @param words the map of the words and their number of occurrences
+     * @param text the text
+     */
+    protected static void addWords(FullTextSettings setting, HashMap<String, Integer> words, String text) {
+        StringTokenizer tokenizer = new StringTokenizer(text, " \t\n\r\f+\"*%&/()=?'!,.;:-_#@|^~`{}[]");
+        while (tokenizer.hasMoreTokens()) {
+            addWord(setting, words, tokenizer.nextToken());
+        }
+    }
+
+    private static void addWord(FullTextSettings setting, HashMap<String, Integer> words, String word) {
+        word = setting.convertWord(word);
+        if (word != null) {
+            Integer count = words.get(word);
+            words.put(word, count == null ? 1 : count + 1);
+        }
+    }
+
     /**
      * Create the trigger.
      *
@@ -741,6 +958,93 @@ public class FullText {
         }
     }
 
+    /**
+     * Add the existing data to the ranked index.
+     *
+     * @param conn the database connection
+     * @param schema the schema name
+     * @param table the table name
+     * @param ranked the ranked index
+     */
+    protected static void indexExistingRows(Connection conn, String schema, String table, RankedIndex ranked) throws SQLException {
+        FullText.FullTextTrigger existing = new FullText.FullTextTrigger();
+        existing.init(conn, schema, null, table, false, Trigger.INSERT);
+        if (existing.index.id == 0) {
+            throw throwException("No full text index for table " + table);
+        }
+        String sql = "SELECT * FROM " + StringUtils.quoteIdentifier(schema) + "." + StringUtils.quoteIdentifier(table);
+        ResultSet rs = conn.createStatement().executeQuery(sql);
+        int columnCount = rs.getMetaData().getColumnCount();
+        while (rs.next()) {
+            Object[] row = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                row[i] = rs.getObject(i + 1);
+            }
+            ranked.add(existing.getKeyValue(row), existing.getWords(row));
+        }
+        rs.close();
+        ranked.reader = existing;
+    }
+
+    /**
+     * Index the rows changed by the transactions which have ended since the
+     * last call: the rows are read again from the table so that the rolled
+     * back changes are ignored. If the rows can't be read, the ranked index
+     * is dropped and will be built again.
+     *
+     * @param conn the database connection
+     * @param ranked the ranked index
+     */
+    protected static void syncRankedIndex(Connection conn, RankedIndex ranked) throws SQLException {
+        synchronized (ranked.syncLock) {
+            Map<Object, String> changed = ranked.takeEnded();
+            if (changed.isEmpty()) {
+                return;
+            }
+            FullTextTrigger reader = ranked.reader;
+            String table = StringUtils.quoteIdentifier(ranked.schema) + "."
+                    + StringUtils.quoteIdentifier(ranked.table);
+            List<Object> keys = new ArrayList<Object>(changed.keySet());
+            boolean success = false;
+            Statement stat = conn.createStatement();
+            try {
+                for (int i = 0; i < keys.size(); i += SYNC_CHUNK_SIZE) {
+                    List<Object> chunk = keys.subList(i, Math.min(i + SYNC_CHUNK_SIZE, keys.size()));
+                    StatementBuilder buff = new StatementBuilder("SELECT * FROM ");
+                    buff.append(table).append(" WHERE ");
+                    for (Object key : chunk) {
+                        buff.appendExceptFirst(" OR ");
+                        buff.append('(').append(changed.get(key)).append(')');
+                    }
+                    ResultSet rs = stat.executeQuery(buff.toString());
+                    int columnCount = rs.getMetaData().getColumnCount();
+                    HashSet<Object> found = new HashSet<Object>();
+                    while (rs.next()) {
+                        Object[] row = new Object[columnCount];
+                        for (int j = 0; j < columnCount; j++) {
+                            row[j] = rs.getObject(j + 1);
+                        }
+                        Object key = reader.getKeyValue(row);
+                        ranked.add(key, reader.getWords(row));
+                        found.add(key);
+                    }
+                    rs.close();
+                    for (Object key : chunk) {
+                        if (!found.contains(key)) {
+                            ranked.remove(key);
+                        }
+                    }
+                }
+                success = true;
+            } finally {
+                stat.close();
+                if (!success) {
+                    FullTextSettings.getInstance(conn).removeRankedIndex(ranked.schema, ranked.table);
+                }
+            }
+        }
+    }
+
     private static String quoteString(String data) {
         if (data.indexOf('\'') < 0) {
             return "'" + data + "'";
@@ -891,6 +1195,26 @@ public class FullText {
          */
         public void fire(Connection conn, Object[] oldRow, Object[] newRow)
                 throws SQLException {
+            if (oldRow != null && newRow != null && !hasChanged(oldRow, newRow, index.indexColumns)) {
+                return;
+            }
+            RankedIndex ranked = setting.getRankedIndex(index.schema, index.table);
+            if (ranked != null) {
+                // indexed in memory once the transaction has ended
+                Session session = (Session) ((JdbcConnection) conn).getSession();
+                if (oldRow != null) {
+                    ranked.changed(session, getKeyValue(oldRow), getKey(oldRow));
+                }
+                if (newRow != null) {
+                    ranked.changed(session, getKeyValue(newRow), getKey(newRow));
+                }
+            }
+            FullTextIndexer indexer = setting.getIndexer();
+            if (indexer != null) {
+                // write-behind: the rows are indexed by the indexer thread
+                indexer.add(this, copyRow(oldRow), copyRow(newRow));
+                return;
+            }
             if (oldRow != null) {
                 if (newRow != null) {
                     // update
@@ -928,6 +1252,7 @@ public class FullText {
          * @param row the row
          */
         protected void insert(Object[] row) throws SQLException {
+            HashMap<String, Integer> words = getWords(row);
             String key = getKey(row);
             int hash = key.hashCode();
             prepInsertRow.setInt(1, hash);
@@ -938,7 +1263,7 @@ public class FullText {
             rs.next();
             int rowId = rs.getInt(1);
             prepInsertMap.setInt(1, rowId);
-            int[] wordIds = getWordIds(row);
+            int[] wordIds = getWordIds(words);
             for (int id : wordIds) {
                 prepInsertMap.setInt(2, id);
                 prepInsertMap.execute();
@@ -951,6 +1276,7 @@ public class FullText {
          * @param row the row
          */
         protected void delete(Object[] row) throws SQLException {
+            HashMap<String, Integer> words = getWords(row);
             String key = getKey(row);
             int hash = key.hashCode();
             prepSelectRow.setInt(1, hash);
@@ -960,7 +1286,7 @@ public class FullText {
             if (rs.next()) {
                 int rowId = rs.getInt(1);
                 prepDeleteMap.setInt(1, rowId);
-                int[] wordIds = getWordIds(row);
+                int[] wordIds = getWordIds(words);
                 for (int id : wordIds) {
                     prepDeleteMap.setInt(2, id);
                     prepDeleteMap.executeUpdate();
@@ -972,12 +1298,47 @@ public class FullText {
             }
         }
 
-        private int[] getWordIds(Object[] row) throws SQLException {
-            HashSet<String> words = New.hashSet();
+        /**
+         * Copy a row to index it later: the CLOB of the indexed columns are read
+         * as they may not be readable after the trigger call.
+         *
+         * @param row the row (can be null)
+         * @return the copy
+         */
+        protected Object[] copyRow(Object[] row) throws SQLException {
+            if (row == null) {
+                return null;
+            }
+            Object[] copy = row.clone();
+            for (int idx : index.indexColumns) {
+                Object data = copy[idx];
+                if (columnTypes[idx] == Types.CLOB && data != null) {
+                    try {
+                        if (data instanceof Reader) {
+                            copy[idx] = IOUtils.readStringAndClose((Reader) data, -1);
+                        } else if (data instanceof Clob) {
+                            copy[idx] = IOUtils.readStringAndClose(((Clob) data).getCharacterStream(), -1);
+                        }
+                    } catch (IOException e) {
+                        throw DbException.convertIOException(e, "Tokenizer error");
+                    }
+                }
+            }
+            return copy;
+        }
+
+        /**
+         * Get the words of the indexed columns of a row.
+         *
+         * @param row the row
+         * @return the words and their number of occurrences
+         */
+        protected HashMap<String, Integer> getWords(Object[] row) throws SQLException {
+            HashMap<String, Integer> words = New.hashMap();
             for (int idx : index.indexColumns) {
                 int type = columnTypes[idx];
                 Object data = row[idx];
-                if (type == Types.CLOB && data != null) {
+                if (type == Types.CLOB && data != null && !(data instanceof String)) {
                     Reader reader;
                     if (data instanceof Reader) {
                         reader = (Reader) data;
@@ -990,30 +1351,59 @@ public class FullText {
                     addWords(setting, words, string);
                 }
             }
+            return words;
+        }
+
+        private int[] getWordIds(HashMap<String, Integer> words) throws SQLException {
             HashMap<String, Integer> allWords = setting.getWordList();
             int[] wordIds = new int[words.size()];
-            Iterator<String> it = words.iterator();
-            for (int i = 0; it.hasNext(); i++) {
-                String word = it.next();
-                Integer wId = allWords.get(word);
-                int wordId;
-                if (wId == null) {
-                    prepInsertWord.setString(1, word);
-                    prepInsertWord.execute();
-                    ResultSet rs = prepInsertWord.getGeneratedKeys();
-                    rs.next();
-                    wordId = rs.getInt(1);
-                    allWords.put(word, wordId);
-                } else {
-                    wordId = wId.intValue();
+            Iterator<String> it = words.keySet().iterator();
+            synchronized (allWords) {
+                for (int i = 0; it.hasNext(); i++) {
+                    String word = it.next();
+                    Integer wId = allWords.get(word);
+                    int wordId;
+                    if (wId == null) {
+                        prepInsertWord.setString(1, word);
+                        prepInsertWord.execute();
+                        ResultSet rs = prepInsertWord.getGeneratedKeys();
+                        rs.next();
+                        wordId = rs.getInt(1);
+                        allWords.put(word, wordId);
+                    } else {
+                        wordId = wId.intValue();
+                    }
+                    wordIds[i] = wordId;
                 }
-                wordIds[i] = wordId;
             }
             Arrays.sort(wordIds);
             return wordIds;
         }
 
-        private String getKey(Object[] row) throws SQLException {
+        /**
+         * Get the value of the key of a row (a list if the key has several columns).
+         *
+         * @param row the row
+         * @return the key value
+         */
+        protected Object getKeyValue(Object[] row) {
+            if (index.keys.length == 1) {
+                return row[index.keys[0]];
+            }
+            Object[] values = new Object[index.keys.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = row[index.keys[i]];
+            }
+            return Arrays.asList(values);
+        }
+
+        /**
+         * Get the condition selecting a row by its key.
+         *
+         * @param row the row
+         * @return the key condition
+         */
+        protected String getKey(Object[] row) throws SQLException {
             StatementBuilder buff = new StatementBuilder();
             for (int columnIndex : index.keys) {
                 buff.appendExceptFirst(" AND ");
@@ -0,0 +1,661 @@
+package siena.jdbc.h2;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.h2.api.Trigger;
+import org.h2.util.StringUtils;
+
+import siena.logging.SienaLogger;
+import siena.logging.SienaLoggerFactory;
+
+/**
+ * Write-behind maintenance of the full text indexes of a database.
+ *
+ * Instead of updating FT.ROWS/FT.MAP row by row inside the write transaction, the FullText trigger
+ * only buffers the changed rows. A background thread tokenizes them and applies the word map
+ * deltas in JDBC batches (one transaction per batch) with its own connection.
+ *
+ * The changes are indexed when they are written, not when they are committed: a rolled back change
+ * stays indexed until the row is written again or the indexes are rebuilt.
+ * A batch which fails is retried and then indexed change by change: the changes which still can't
+ * be indexed make the searches fail (see awaitLag) until the indexes are rebuilt.
+ *
+ * Consistency:
+ * <ul>
+ * <li>SYNC: the trigger updates the index in the write transaction (no indexer)</li>
+ * <li>ASYNC: the index lags behind the writes, a search waits until the changes older than
+ * maxLag milliseconds have been indexed (0 to wait for all the changes)</li>
+ * </ul>
+ * The buffer is bounded: the writers wait when the indexer is too late.
+ */
+public class FullTextIndexer implements Runnable {
+	public enum Consistency {
+		SYNC, ASYNC
+	}
+
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	public static final int DEFAULT_CAPACITY = 10000;
+	public static final long DEFAULT_MAX_LAG = 1000;
+
+	// the attempts to index a batch and the delay before the first retry (doubled at each retry)
+	private static final int MAX_ATTEMPTS = 4;
+	private static final long RETRY_DELAY = 100;
+
+	protected static SienaLogger logger = SienaLoggerFactory.getLogger(FullTextIndexer.class);
+
+	private static final String SCHEMA = "FT";
+
+	/**
+	 * Provides the connections used to index in the background
+	 */
+	public interface ConnectionSource {
+		Connection getConnection() throws SQLException;
+
+		void release(Connection conn) throws SQLException;
+	}
+
+	protected final FullTextSettings setting;
+	protected final ConnectionSource source;
+	protected final int batchSize;
+	protected final long maxLag;
+
+	private final BlockingQueue<Change> queue;
+	private final Object lock = new Object();
+	private final Object addLock = new Object();
+	// sequence number of the last buffered change and of the last indexed one
+	private long added = 0;
+	private long applied = 0;
+	// time of the oldest change of the batch being indexed (0 if none)
+	private long applying = 0;
+	private volatile boolean closed = false;
+	private Thread thread;
+	// the connection of the indexer thread
+	private Connection conn;
+
+	private volatile long batches = 0;
+	private volatile long rows = 0;
+	private volatile long errors = 0;
+	// the number of changes which couldn't be indexed since the last rebuild
+	private long failed = 0;
+
+	public FullTextIndexer(FullTextSettings setting, ConnectionSource source, int batchSize, int capacity, long maxLag) {
+		this.setting = setting;
+		this.source = source;
+		this.batchSize = batchSize;
+		this.maxLag = maxLag;
+		this.queue = new LinkedBlockingQueue<Change>(capacity);
+	}
+
+	public synchronized void start() {
+		if(thread == null){
+			thread = new Thread(this, "siena-fulltext-indexer");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Indexes the buffered changes and stops the background thread
+	 */
+	public void close() {
+		flush();
+		closed = true;
+		Thread t;
+		synchronized (this) {
+			t = thread;
+			thread = null;
+		}
+		if(t != null){
+			t.interrupt();
+			try {
+				t.join(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Buffers a changed row (waits if the buffer is full)
+	 */
+	protected void add(FullText.FullTextTrigger trigger, Object[] oldRow, Object[] newRow) throws SQLException {
+		if(closed){
+			throw FullText.throwException("The full text indexer is closed");
+		}
+		// the changes are buffered in the order of their sequence numbers
+		synchronized (addLock) {
+			Change change;
+			synchronized (lock) {
+				change = new Change(trigger, oldRow, newRow, ++added, System.currentTimeMillis());
+			}
+			try {
+				queue.put(change);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw FullText.throwException("Interrupted while buffering a full text change");
+			}
+		}
+	}
+
+	/**
+	 * Waits until all the changes buffered before the call have been indexed
+	 */
+	public void flush() {
+		synchronized (lock) {
+			long target = added;
+			try {
+				while(applied < target && !closed){
+					lock.wait(100);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Waits until the changes older than maxLag have been indexed
+	 * 
+	 * @throws SQLException if some changes couldn't be indexed
+	 */
+	public void awaitLag() throws SQLException {
+		if(maxLag <= 0){
+			flush();
+		}
+		else {
+			synchronized (lock) {
+				try {
+					while(!closed){
+						long oldest = oldestPending();
+						if(oldest == 0 || (oldest > 0 && System.currentTimeMillis() - oldest <= maxLag)){
+							break;
+						}
+						lock.wait(Math.max(1, maxLag / 10));
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		long f = getFailed();
+		if(f > 0){
+			throw FullText.throwException(f+" changed rows couldn't be indexed: the full text indexes must be rebuilt");
+		}
+	}
+
+	// time of the oldest change not indexed yet, 0 if none and -1 if unknown
+	// (a change being buffered or taken by the indexer): must be called with the lock
+	private long oldestPending() {
+		if(applying != 0){
+			return applying;
+		}
+		if(added - applied > queue.size()){
+			return -1;
+		}
+		Change head = queue.peek();
+		return head == null ? 0 : head.time;
+	}
+
+	public int pending() {
+		return queue.size();
+	}
+
+	public long getBatches() {
+		return batches;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public long getErrors() {
+		return errors;
+	}
+
+	/**
+	 * @return the number of changes which couldn't be indexed since the last rebuild
+	 */
+	public long getFailed() {
+		synchronized (lock) {
+			return failed;
+		}
+	}
+
+	// the indexes have been rebuilt from the tables
+	protected void rebuilt() {
+		synchronized (lock) {
+			failed = 0;
+		}
+	}
+
+	public void run() {
+		try {
+			loop();
+		} finally {
+			if(conn != null){
+				try {
+					source.release(conn);
+				} catch (SQLException e) {
+					logger.warning("Error while releasing the connection of the full text indexer", e);
+				}
+				conn = null;
+			}
+		}
+	}
+
+	private void loop() {
+		List<Change> batch = new ArrayList<Change>(batchSize);
+		while(!closed){
+			try {
+				if(batch.isEmpty()){
+					Change first = queue.take();
+					synchronized (lock) {
+						applying = first.time;
+					}
+					batch.add(first);
+					queue.drainTo(batch, batchSize - 1);
+				}
+				applyOrFail(batch);
+				synchronized (lock) {
+					applied = batch.get(batch.size() - 1).seq;
+					applying = 0;
+					lock.notifyAll();
+				}
+				batch.clear();
+			} catch (InterruptedException e) {
+				// closed (the batch is applied again if the indexer wasn't closed)
+			}
+		}
+	}
+
+	/**
+	 * Indexes a batch: if it still fails after the retries, its changes are indexed one by one
+	 * and the ones which still fail are counted as failed
+	 */
+	private void applyOrFail(List<Change> batch) throws InterruptedException {
+		if(applyWithRetry(batch)){
+			return;
+		}
+		int lost = 0;
+		if(batch.size() > 1){
+			for(Change change: batch){
+				if(!applyWithRetry(Collections.singletonList(change))){
+					lost++;
+				}
+			}
+		}
+		else {
+			lost = 1;
+		}
+		if(lost > 0){
+			logger.severe(lost+" changed rows couldn't be indexed: the full text indexes must be rebuilt");
+			synchronized (lock) {
+				failed += lost;
+			}
+		}
+	}
+
+	private boolean applyWithRetry(List<Change> changes) throws InterruptedException {
+		long delay = RETRY_DELAY;
+		for(int attempt = 1; ; attempt++){
+			try {
+				apply(changes);
+				return true;
+			} catch (Exception e) {
+				errors++;
+				if(attempt == MAX_ATTEMPTS || closed){
+					logger.severe("Error while indexing "+changes.size()+" rows", e);
+					return false;
+				}
+				logger.warning("Error while indexing "+changes.size()+" rows, retrying in "+delay+"ms", e);
+				Thread.sleep(delay);
+				delay *= 2;
+			}
+		}
+	}
+
+	/**
+	 * Indexes a batch of changes in one transaction
+	 */
+	protected void apply(List<Change> batch) throws SQLException {
+		if(conn == null || conn.isClosed()){
+			conn = source.getConnection();
+		}
+		Writer writer = new Writer(conn, setting);
+		boolean autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		try {
+			for(Change change: batch){
+				if(change.oldRow != null){
+					writer.delete(change.trigger, change.oldRow);
+				}
+				if(change.newRow != null){
+					writer.insert(change.trigger, change.newRow);
+				}
+			}
+			writer.commit();
+		} catch (SQLException e) {
+			writer.rollback();
+			throw e;
+		} finally {
+			writer.close();
+			conn.setAutoCommit(autoCommit);
+		}
+		batches++;
+		rows += batch.size();
+	}
+
+	/**
+	 * Rebuilds the full text indexes of the tables: the tables are scanned and their rows tokenized
+	 * in parallel (one connection by scanning thread) while the rows are written in the FT tables
+	 * by the calling thread in batches (H2 locks the FT tables until the end of each transaction).
+	 * The FT rows and word mappings must have been deleted before.
+	 *
+	 * @param conn the connection writing in the FT tables
+	 * @param source the source of the scanning connections
+	 * @param tables the schemas and the names of the tables
+	 * @param threads the number of scanning threads
+	 * @param batchSize the number of rows written by transaction
+	 */
+	protected static void rebuild(Connection conn, final ConnectionSource source, List<String[]> tables, int threads, int batchSize) throws SQLException {
+		final BlockingQueue<Tokenized> rows = new LinkedBlockingQueue<Tokenized>(batchSize * 4);
+		final Tokenized end = new Tokenized(null, null, null);
+		final List<Exception> failures = new Vector<Exception>();
+		// the writer has stopped: the scanning threads don't wait for it anymore
+		final AtomicBoolean stopped = new AtomicBoolean(false);
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tables.size())), 
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "siena-fulltext-rebuild");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		try {
+			for(final String[] table: tables){
+				pool.execute(new Runnable() {
+					public void run() {
+						try {
+							scan(source, table[0], table[1], rows);
+						} catch (Exception e) {
+							failures.add(e);
+						} finally {
+							try {
+								while(!stopped.get() && !rows.offer(end, 100, TimeUnit.MILLISECONDS)){
+									// the queue is full: waits for the writer unless it has stopped
+								}
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							}
+						}
+					}
+				});
+			}
+
+			FullTextSettings setting = FullTextSettings.getInstance(conn);
+			Writer writer = new Writer(conn, setting);
+			boolean autoCommit = conn.getAutoCommit();
+			conn.setAutoCommit(false);
+			try {
+				int running = tables.size();
+				int inBatch = 0;
+				while(running > 0){
+					Tokenized row = rows.take();
+					if(row == end){
+						running--;
+						continue;
+					}
+					writer.insert(row.trigger, row.key, row.words);
+					if(++inBatch >= batchSize){
+						writer.commit();
+						inBatch = 0;
+					}
+				}
+				writer.commit();
+			} catch (InterruptedException e) {
+				writer.rollback();
+				Thread.currentThread().interrupt();
+				throw FullText.throwException("Interrupted while rebuilding the full text indexes");
+			} catch (SQLException e) {
+				writer.rollback();
+				throw e;
+			} finally {
+				writer.close();
+				conn.setAutoCommit(autoCommit);
+			}
+		} finally {
+			stopped.set(true);
+			pool.shutdownNow();
+		}
+		if(!failures.isEmpty()){
+			Exception e = failures.get(0);
+			if(e instanceof SQLException){
+				throw (SQLException)e;
+			}
+			throw new SQLException(e);
+		}
+	}
+
+	private static void scan(ConnectionSource source, String schema, String table, BlockingQueue<Tokenized> rows) throws SQLException, InterruptedException {
+		Connection conn = source.getConnection();
+		try {
+			FullText.FullTextTrigger trigger = new FullText.FullTextTrigger();
+			trigger.init(conn, schema, null, table, false, Trigger.INSERT);
+			Statement st = conn.createStatement();
+			try {
+				ResultSet rs = st.executeQuery("SELECT * FROM " + StringUtils.quoteIdentifier(schema) 
+						+ "." + StringUtils.quoteIdentifier(table));
+				int columnCount = rs.getMetaData().getColumnCount();
+				while (rs.next()) {
+					Object[] row = new Object[columnCount];
+					for (int i = 0; i < columnCount; i++) {
+						row[i] = rs.getObject(i + 1);
+					}
+					rows.put(new Tokenized(trigger, trigger.getKey(row), trigger.getWords(row)));
+				}
+			} finally {
+				st.close();
+			}
+		} finally {
+			source.release(conn);
+		}
+	}
+
+	private static class Tokenized {
+		final FullText.FullTextTrigger trigger;
+		final String key;
+		final Map<String, Integer> words;
+
+		Tokenized(FullText.FullTextTrigger trigger, String key, Map<String, Integer> words) {
+			this.trigger = trigger;
+			this.key = key;
+			this.words = words;
+		}
+	}
+
+	protected static class Change {
+		final FullText.FullTextTrigger trigger;
+		final Object[] oldRow;
+		final Object[] newRow;
+		final long seq;
+		final long time;
+
+		Change(FullText.FullTextTrigger trigger, Object[] oldRow, Object[] newRow, long seq, long time) {
+			this.trigger = trigger;
+			this.oldRow = oldRow;
+			this.newRow = newRow;
+			this.seq = seq;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * Writes the rows in the FT tables of a connection: the rows are inserted/deleted one by one
+	 * (their ids are needed) and the word map deltas are batched until flush.
+	 * The words inserted in FT.WORDS are added to the shared word list when the transaction is committed.
+	 */
+	protected static class Writer {
+		private final Connection conn;
+		private final FullTextSettings setting;
+		private final PreparedStatement insertWord, insertRow, insertMap, selectRow, deleteRow, deleteMap;
+		private int insertedMaps = 0;
+		private int deletedMaps = 0;
+		// the words inserted by the current transaction
+		private final HashMap<String, Integer> newWords = new HashMap<String, Integer>();
+
+		Writer(Connection conn, FullTextSettings setting) throws SQLException {
+			this.conn = conn;
+			this.setting = setting;
+			insertWord = conn.prepareStatement(
+					"INSERT INTO " + SCHEMA + ".WORDS(NAME) VALUES(?)");
+			insertRow = conn.prepareStatement(
+					"INSERT INTO " + SCHEMA + ".ROWS(HASH, INDEXID, KEY) VALUES(?, ?, ?)");
+			insertMap = conn.prepareStatement(
+					"INSERT INTO " + SCHEMA + ".MAP(ROWID, WORDID) VALUES(?, ?)");
+			selectRow = conn.prepareStatement(
+					"SELECT ID FROM " + SCHEMA + ".ROWS WHERE HASH=? AND INDEXID=? AND KEY=?");
+			deleteRow = conn.prepareStatement(
+					"DELETE FROM " + SCHEMA + ".ROWS WHERE ID=?");
+			deleteMap = conn.prepareStatement(
+					"DELETE FROM " + SCHEMA + ".MAP WHERE ROWID=?");
+		}
+
+		void insert(FullText.FullTextTrigger trigger, Object[] row) throws SQLException {
+			insert(trigger, trigger.getKey(row), trigger.getWords(row));
+		}
+
+		void insert(FullText.FullTextTrigger trigger, String key, Map<String, Integer> words) throws SQLException {
+			insertRow.setInt(1, key.hashCode());
+			insertRow.setInt(2, trigger.index.id);
+			insertRow.setString(3, key);
+			insertRow.execute();
+			ResultSet rs = insertRow.getGeneratedKeys();
+			rs.next();
+			int rowId = rs.getInt(1);
+			rs.close();
+			for(int wordId: getWordIds(words)){
+				insertMap.setInt(1, rowId);
+				insertMap.setInt(2, wordId);
+				insertMap.addBatch();
+				insertedMaps++;
+			}
+		}
+
+		void delete(FullText.FullTextTrigger trigger, Object[] row) throws SQLException {
+			String key = trigger.getKey(row);
+			selectRow.setInt(1, key.hashCode());
+			selectRow.setInt(2, trigger.index.id);
+			selectRow.setString(3, key);
+			ResultSet rs = selectRow.executeQuery();
+			if(rs.next()){
+				int rowId = rs.getInt(1);
+				// the words of the row aren't needed to delete its mappings
+				deleteMap.setInt(1, rowId);
+				deleteMap.addBatch();
+				deletedMaps++;
+				deleteRow.setInt(1, rowId);
+				deleteRow.executeUpdate();
+			}
+			rs.close();
+		}
+
+		private int[] getWordIds(Map<String, Integer> words) throws SQLException {
+			HashMap<String, Integer> allWords = setting.getWordList();
+			int[] wordIds = new int[words.size()];
+			int i = 0;
+			for(String word: words.keySet()){
+				Integer wId;
+				synchronized (allWords) {
+					wId = allWords.get(word);
+				}
+				if(wId == null){
+					wId = newWords.get(word);
+				}
+				if(wId == null){
+					insertWord.setString(1, word);
+					insertWord.execute();
+					ResultSet rs = insertWord.getGeneratedKeys();
+					rs.next();
+					wId = rs.getInt(1);
+					rs.close();
+					newWords.put(word, wId);
+				}
+				wordIds[i++] = wId;
+			}
+			return wordIds;
+		}
+
+		/**
+		 * Flushes the batched deltas, commits the transaction and publishes the new words
+		 */
+		void commit() throws SQLException {
+			flush();
+			conn.commit();
+			if(!newWords.isEmpty()){
+				HashMap<String, Integer> allWords = setting.getWordList();
+				synchronized (allWords) {
+					allWords.putAll(newWords);
+				}
+				newWords.clear();
+			}
+		}
+
+		/**
+		 * Rolls back the transaction: the words it has inserted don't exist anymore
+		 */
+		void rollback() throws SQLException {
+			newWords.clear();
+			insertMap.clearBatch();
+			deleteMap.clearBatch();
+			insertedMaps = 0;
+			deletedMaps = 0;
+			conn.rollback();
+		}
+
+		/**
+		 * Executes the batched word map deltas (the insertions first as a row
+		 * inserted in the batch may have been deleted afterwards)
+		 */
+		void flush() throws SQLException {
+			if(insertedMaps > 0){
+				insertMap.executeBatch();
+				insertedMaps = 0;
+			}
+			if(deletedMaps > 0){
+				deleteMap.executeBatch();
+				deletedMaps = 0;
+			}
+		}
+
+		void close() {
+			for(PreparedStatement ps: new PreparedStatement[]{ insertWord, insertRow, insertMap, selectRow, deleteRow, deleteMap }){
+				try {
+					ps.close();
+				} catch (SQLException e) {
+					// nothing to do
+				}
+			}
+		}
+	}
+}
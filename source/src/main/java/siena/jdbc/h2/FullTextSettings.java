@@ -46,6 +46,16 @@ public class FullTextSettings {
      */
     protected HashMap<Integer, IndexInfo> indexes = New.hashMap();
 
+    /**
+     * The in-memory ranked indexes by table (schema.table).
+     */
+    protected HashMap<String, RankedIndex> rankedIndexes = New.hashMap();
+
+    /**
+     * The write-behind indexer (null if the rows are indexed by the triggers).
+     */
+    protected volatile FullTextIndexer indexer;
+
     /**
      * The prepared statement cache.
      */
@@ -82,7 +92,7 @@ public class FullTextSettings {
      * @param indexId the index id
      * @return the index info
      */
-    protected IndexInfo getIndexInfo(int indexId) {
+    protected synchronized IndexInfo getIndexInfo(int indexId) {
         return indexes.get(indexId);
     }
 
@@ -91,10 +101,75 @@ public class FullTextSettings {
      *
      * @param index the index
      */
-    protected void addIndexInfo(IndexInfo index) {
+    protected synchronized void addIndexInfo(IndexInfo index) {
         indexes.put(index.id, index);
     }
 
+    /**
+     * Get the ranked index of a table.
+     *
+     * @param schema the schema name
+     * @param table the table name
+     * @return the ranked index or null if the table has no ranked index
+     */
+    protected synchronized RankedIndex getRankedIndex(String schema, String table) {
+        return rankedIndexes.get(schema + "." + table);
+    }
+
+    /**
+     * Get the ranked index of a table or create an empty one.
+     *
+     * @param schema the schema name
+     * @param table the table name
+     * @param created set to true if the index has been created
+     * @return the ranked index
+     */
+    protected synchronized RankedIndex getOrCreateRankedIndex(String schema, String table, boolean[] created) {
+        String name = schema + "." + table;
+        RankedIndex ranked = rankedIndexes.get(name);
+        if (ranked == null) {
+            ranked = new RankedIndex(this, schema, table);
+            rankedIndexes.put(name, ranked);
+            created[0] = true;
+        }
+        return ranked;
+    }
+
+    /**
+     * Remove the ranked index of a table.
+     *
+     * @param schema the schema name
+     * @param table the table name
+     */
+    protected synchronized void removeRankedIndex(String schema, String table) {
+        rankedIndexes.remove(schema + "." + table);
+    }
+
+    /**
+     * Remove all the ranked indexes.
+     */
+    protected synchronized void removeAllRankedIndexes() {
+        rankedIndexes.clear();
+    }
+
+    /**
+     * Get the write-behind indexer.
+     *
+     * @return the indexer or null if the rows are indexed by the triggers
+     */
+    protected FullTextIndexer getIndexer() {
+        return indexer;
+    }
+
+    /**
+     * Set the write-behind indexer.
+     *
+     * @param indexer the indexer or null to index the rows in the triggers
+     */
+    protected void setIndexer(FullTextIndexer indexer) {
+        this.indexer = indexer;
+    }
+
     /**
      * Convert a word to uppercase. This method returns null if the word is in
      * the ignore list.
@@ -181,7 +256,7 @@ public class FullTextSettings {
      *
      * @param index the index to remove
      */
-    protected void removeIndexInfo(IndexInfo index) {
+    protected synchronized void removeIndexInfo(IndexInfo index) {
         indexes.remove(index.id);
     }
 
@@ -207,6 +282,13 @@ public class FullTextSettings {
      * Close all fulltext settings, freeing up memory.
      */
     protected static void closeAll() {
+        for (FullTextSettings setting : SETTINGS.values()) {
+            FullTextIndexer indexer = setting.getIndexer();
+            if (indexer != null) {
+                setting.setIndexer(null);
+                indexer.close();
+            }
+        }
         SETTINGS.clear();
     }
 
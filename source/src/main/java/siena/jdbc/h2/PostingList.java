@@ -0,0 +1,154 @@
+package siena.jdbc.h2;
+
+import java.util.Arrays;
+
+/**
+ * The postings of a word in a RankedIndex: the increasing document ids and the number of occurrences
+ * of the word in each document, delta/varint encoded in a byte array.
+ *
+ * Every SKIP postings, a skip pointer (last document id, offset) is recorded so that a cursor
+ * can jump over whole blocks when intersecting with a rarer word.
+ *
+ * Documents are only appended (ids are increasing), removed documents are filtered by the index.
+ */
+public class PostingList {
+	public static final int SKIP = 64;
+	public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+	private byte[] data = new byte[8];
+	private int length = 0;
+	private int size = 0;
+	private int lastDoc = -1;
+
+	// skipDocs[i] is the id of the last document before the posting SKIP*(i+1) which starts at skipOffsets[i]
+	private int[] skipDocs = new int[0];
+	private int[] skipOffsets = new int[0];
+	private int skips = 0;
+
+	// number of live documents containing the word (used by the scoring)
+	private int docFreq = 0;
+
+	/**
+	 * Appends a document: its id must be greater than the ids already added.
+	 */
+	public void add(int doc, int freq) {
+		if(doc <= lastDoc){
+			throw new IllegalArgumentException("document "+doc+" added after "+lastDoc);
+		}
+		if(size > 0 && size % SKIP == 0){
+			if(skips == skipDocs.length){
+				int capacity = Math.max(4, skips*2);
+				skipDocs = Arrays.copyOf(skipDocs, capacity);
+				skipOffsets = Arrays.copyOf(skipOffsets, capacity);
+			}
+			skipDocs[skips] = lastDoc;
+			skipOffsets[skips] = length;
+			skips++;
+		}
+		writeVInt(doc - lastDoc);
+		writeVInt(freq);
+		lastDoc = doc;
+		size++;
+		docFreq++;
+	}
+
+	/**
+	 * A document containing the word has been removed from the index
+	 */
+	public void removed() {
+		docFreq--;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int docFreq() {
+		return docFreq;
+	}
+
+	/**
+	 * The number of bytes used by the encoded postings
+	 */
+	public int bytes() {
+		return length;
+	}
+
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	private void writeVInt(int i) {
+		if(length + 5 > data.length){
+			data = Arrays.copyOf(data, Math.max(data.length*2, length + 5));
+		}
+		while((i & ~0x7F) != 0){
+			data[length++] = (byte)((i & 0x7F) | 0x80);
+			i >>>= 7;
+		}
+		data[length++] = (byte)i;
+	}
+
+	/**
+	 * Reads the postings in increasing document order.
+	 * The list must not be modified while it is read.
+	 */
+	public class Cursor {
+		private int offset = 0;
+		private int idx = 0;
+		private int nextSkip = 0;
+		private int doc = -1;
+		private int freq = 0;
+
+		public int doc() {
+			return doc;
+		}
+
+		public int freq() {
+			return freq;
+		}
+
+		public int next() {
+			if(idx >= size){
+				doc = NO_MORE_DOCS;
+				return doc;
+			}
+			doc += readVInt();
+			freq = readVInt();
+			idx++;
+			return doc;
+		}
+
+		/**
+		 * Moves to the first document whose id is greater or equal to target
+		 */
+		public int advance(int target) {
+			if(doc >= target){
+				return doc;
+			}
+			// jumps over the blocks whose documents are all lower than target
+			int skip = -1;
+			while(nextSkip < skips && skipDocs[nextSkip] < target){
+				skip = nextSkip++;
+			}
+			if(skip >= 0 && skipOffsets[skip] > offset){
+				offset = skipOffsets[skip];
+				doc = skipDocs[skip];
+				idx = (skip + 1) * SKIP;
+			}
+			while(next() < target){
+			}
+			return doc;
+		}
+
+		private int readVInt() {
+			byte b = data[offset++];
+			int i = b & 0x7F;
+			for(int shift = 7; (b & 0x80) != 0; shift += 7){
+				b = data[offset++];
+				i |= (b & 0x7F) << shift;
+			}
+			return i;
+		}
+	}
+}
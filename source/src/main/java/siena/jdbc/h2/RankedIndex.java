@@ -0,0 +1,569 @@
+package siena.jdbc.h2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.h2.engine.Session;
+import org.h2.table.Table;
+
+/**
+ * An in-memory inverted index of the rows of a table indexed by FullText ranking the hits with BM25.
+ *
+ * It is built from the table the first time it is searched and then kept up to date with the
+ * FullText trigger of the table so, as the trigger, it lives in the JVM running the database
+ * (embedded or in-memory H2).
+ * A search doesn't run any SQL: the words are looked up in memory, their postings are intersected
+ * (using the skip pointers) or merged and the hits are scored and returned with the keys of the rows.
+ *
+ * The trigger only records the keys of the rows changed by each session: once the transaction of
+ * the session has ended, the rows are read again from the table and indexed (see FullText.syncRankedIndex)
+ * so the uncommitted and the rolled back changes are never searched.
+ */
+public class RankedIndex {
+	// BM25 parameters
+	public static final float K1 = 1.2f;
+	public static final float B = 0.75f;
+
+	// removed documents are purged from the postings when they are more numerous than the live ones
+	private static final int PURGE_MIN = 1024;
+
+	protected final FullTextSettings setting;
+	protected final String schema;
+	protected final String table;
+
+	private final HashMap<String, PostingList> postings = new HashMap<String, PostingList>();
+	private final HashMap<Object, Integer> docsByKey = new HashMap<Object, Integer>();
+	// the words of the indexed documents (to remove them without scanning the postings)
+	private final HashMap<Object, String[]> wordsByKey = new HashMap<Object, String[]>();
+	// the keys (and their key conditions) of the rows changed by the sessions, not indexed yet
+	private final HashMap<Session, LinkedHashMap<Object, String>> changed = new HashMap<Session, LinkedHashMap<Object, String>>();
+	private Object[] keys = new Object[16];
+	private int[] lengths = new int[16];
+	private final BitSet removed = new BitSet();
+	private int nextDoc = 0;
+	private int liveDocs = 0;
+	private long totalLength = 0;
+	// the rows of the table have been indexed
+	private boolean built = false;
+	private boolean failed = false;
+
+	// serializes the indexing of the changed rows
+	protected final Object syncLock = new Object();
+	// reads the indexed rows of the table (words and key values)
+	protected FullText.FullTextTrigger reader;
+
+	public RankedIndex(FullTextSettings setting, String schema, String table) {
+		this.setting = setting;
+		this.schema = schema;
+		this.table = table;
+	}
+
+	/**
+	 * The rows of the table have been indexed (or the indexing failed)
+	 */
+	protected synchronized void built(boolean success) {
+		built = true;
+		failed = !success;
+		notifyAll();
+	}
+
+	/**
+	 * Waits until the rows of the table have been indexed by another thread
+	 *
+	 * @return false if the indexing failed
+	 */
+	protected synchronized boolean awaitBuilt() {
+		try {
+			while(!built){
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return !failed;
+	}
+
+	/**
+	 * Indexes a row (replaces it if the key is already indexed)
+	 *
+	 * @param key the key of the row
+	 * @param words the words of the row and their number of occurrences
+	 */
+	public synchronized void add(Object key, Map<String, Integer> words) {
+		if(docsByKey.containsKey(key)){
+			remove(key);
+		}
+		int doc = nextDoc++;
+		if(doc == keys.length){
+			keys = Arrays.copyOf(keys, doc*2);
+			lengths = Arrays.copyOf(lengths, doc*2);
+		}
+		int length = 0;
+		for(Map.Entry<String, Integer> word: words.entrySet()){
+			PostingList list = postings.get(word.getKey());
+			if(list == null){
+				list = new PostingList();
+				postings.put(word.getKey(), list);
+			}
+			int freq = word.getValue();
+			list.add(doc, freq);
+			length += freq;
+		}
+		keys[doc] = key;
+		lengths[doc] = length;
+		docsByKey.put(key, doc);
+		wordsByKey.put(key, words.keySet().toArray(new String[words.size()]));
+		liveDocs++;
+		totalLength += length;
+	}
+
+	/**
+	 * Removes a row
+	 *
+	 * @param key the key of the row
+	 */
+	public synchronized void remove(Object key) {
+		Integer doc = docsByKey.remove(key);
+		if(doc == null){
+			return;
+		}
+		removed.set(doc);
+		keys[doc] = null;
+		liveDocs--;
+		totalLength -= lengths[doc];
+		for(String word: wordsByKey.remove(key)){
+			PostingList list = postings.get(word);
+			if(list != null){
+				list.removed();
+			}
+		}
+		if(removed.cardinality() > PURGE_MIN && removed.cardinality() > liveDocs){
+			purge();
+		}
+	}
+
+	/**
+	 * Rebuilds the postings without the removed documents
+	 */
+	protected void purge() {
+		Iterator<Map.Entry<String, PostingList>> it = postings.entrySet().iterator();
+		while(it.hasNext()){
+			Map.Entry<String, PostingList> entry = it.next();
+			PostingList list = new PostingList();
+			PostingList.Cursor cursor = entry.getValue().cursor();
+			for(int doc = cursor.next(); doc != PostingList.NO_MORE_DOCS; doc = cursor.next()){
+				if(!removed.get(doc)){
+					list.add(doc, cursor.freq());
+				}
+			}
+			if(list.size() == 0){
+				it.remove();
+			}else {
+				entry.setValue(list);
+			}
+		}
+		removed.clear();
+	}
+
+	public synchronized int size() {
+		return liveDocs;
+	}
+
+	/**
+	 * Records a row changed by a session: it is indexed once the transaction of the session has ended
+	 *
+	 * @param session the session writing the row
+	 * @param key the key of the row
+	 * @param condition the condition selecting the row by its key
+	 */
+	protected synchronized void changed(Session session, Object key, String condition) {
+		LinkedHashMap<Object, String> keys = changed.get(session);
+		if(keys == null){
+			keys = new LinkedHashMap<Object, String>();
+			changed.put(session, keys);
+		}
+		keys.put(key, condition);
+	}
+
+	/**
+	 * Takes the rows changed by the sessions whose transaction has ended (committed or rolled back):
+	 * a session keeps the lock of the table it has written until the end of its transaction.
+	 *
+	 * @return the keys of the rows and their key conditions
+	 */
+	protected synchronized Map<Object, String> takeEnded() {
+		LinkedHashMap<Object, String> keys = new LinkedHashMap<Object, String>();
+		Iterator<Map.Entry<Session, LinkedHashMap<Object, String>>> it = changed.entrySet().iterator();
+		while(it.hasNext()){
+			Map.Entry<Session, LinkedHashMap<Object, String>> entry = it.next();
+			Session session = entry.getKey();
+			if(session.isClosed() || !isLocking(session)){
+				keys.putAll(entry.getValue());
+				it.remove();
+			}
+		}
+		return keys;
+	}
+
+	private boolean isLocking(Session session) {
+		for(Table lock: session.getLocks()){
+			if(lock.getName().equals(table) && lock.getSchema().getName().equals(schema)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Builds a search clause from a search text: the words are converted as the indexed ones.
+	 *
+	 * @param text the searched text
+	 * @param all all the words must be found in a row (else any of them)
+	 */
+	public Clause clause(String text, boolean all) {
+		HashSet<String> words = new HashSet<String>();
+		FullText.addWords(setting, words, text);
+		return new Clause(words.toArray(new String[words.size()]), all);
+	}
+
+	/**
+	 * Counts the rows matching all the clauses
+	 */
+	public synchronized int count(List<Clause> clauses) {
+		Scorer scorer = scorer(clauses);
+		if(scorer == null){
+			return 0;
+		}
+		int count = 0;
+		for(int doc = scorer.next(); doc != PostingList.NO_MORE_DOCS; doc = scorer.next()){
+			if(!removed.get(doc)){
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Searches the rows matching all the clauses
+	 *
+	 * @param clauses the clauses
+	 * @param limit the maximum number of hits or 0 for no limit
+	 * @param offset the number of best hits to skip
+	 * @return the hits sorted by decreasing score
+	 */
+	public synchronized Hits search(List<Clause> clauses, int limit, int offset) {
+		Scorer scorer = scorer(clauses);
+		if(scorer == null){
+			return new Hits(new Object[0], new float[0], 0);
+		}
+		int max = limit > 0 ? limit + offset : Integer.MAX_VALUE;
+		// min-heap of the best hits (the worst one on top)
+		int[] docs = new int[Math.min(max, 64)];
+		float[] scores = new float[docs.length];
+		int sz = 0;
+		int total = 0;
+		for(int doc = scorer.next(); doc != PostingList.NO_MORE_DOCS; doc = scorer.next()){
+			if(removed.get(doc)){
+				continue;
+			}
+			total++;
+			float score = scorer.score();
+			if(sz < max){
+				if(sz == docs.length){
+					docs = Arrays.copyOf(docs, (int)Math.min((long)max, sz*2L));
+					scores = Arrays.copyOf(scores, docs.length);
+				}
+				docs[sz] = doc;
+				scores[sz] = score;
+				siftUp(docs, scores, sz++);
+			}
+			else if(worse(docs[0], scores[0], doc, score)){
+				docs[0] = doc;
+				scores[0] = score;
+				siftDown(docs, scores, 0, sz);
+			}
+		}
+		// pops the worst hits first and skips the offset best ones
+		int n = Math.max(0, sz - offset);
+		Object[] hitKeys = new Object[n];
+		float[] hitScores = new float[n];
+		while(sz > 0){
+			sz--;
+			if(sz >= offset){
+				hitKeys[sz - offset] = keys[docs[0]];
+				hitScores[sz - offset] = scores[0];
+			}
+			docs[0] = docs[sz];
+			scores[0] = scores[sz];
+			siftDown(docs, scores, 0, sz);
+		}
+		return new Hits(hitKeys, hitScores, total);
+	}
+
+	private Scorer scorer(List<Clause> clauses) {
+		if(clauses.isEmpty()){
+			return null;
+		}
+		float avgLength = liveDocs == 0 ? 0 : (float)totalLength / liveDocs;
+		List<Scorer> required = new ArrayList<Scorer>();
+		for(Clause clause: clauses){
+			List<Scorer> terms = new ArrayList<Scorer>();
+			for(String word: clause.words){
+				PostingList list = postings.get(word);
+				if(list == null || list.docFreq() <= 0){
+					if(clause.all){
+						return null;
+					}
+					continue;
+				}
+				terms.add(new TermScorer(list, avgLength));
+			}
+			if(terms.isEmpty()){
+				return null;
+			}
+			if(terms.size() == 1){
+				required.add(terms.get(0));
+			}
+			else if(clause.all){
+				required.add(new AndScorer(terms));
+			}
+			else {
+				required.add(new OrScorer(terms));
+			}
+		}
+		return required.size() == 1 ? required.get(0) : new AndScorer(required);
+	}
+
+	// a hit is worse than another one if its score is lower or if it has been indexed later
+	private static boolean worse(int doc1, float score1, int doc2, float score2) {
+		return score1 < score2 || (score1 == score2 && doc1 > doc2);
+	}
+
+	private static void siftUp(int[] docs, float[] scores, int i) {
+		while(i > 0){
+			int parent = (i - 1) >>> 1;
+			if(!worse(docs[i], scores[i], docs[parent], scores[parent])){
+				break;
+			}
+			swap(docs, scores, i, parent);
+			i = parent;
+		}
+	}
+
+	private static void siftDown(int[] docs, float[] scores, int i, int sz) {
+		while(true){
+			int child = 2*i + 1;
+			if(child >= sz){
+				break;
+			}
+			if(child + 1 < sz && worse(docs[child + 1], scores[child + 1], docs[child], scores[child])){
+				child++;
+			}
+			if(!worse(docs[child], scores[child], docs[i], scores[i])){
+				break;
+			}
+			swap(docs, scores, i, child);
+			i = child;
+		}
+	}
+
+	private static void swap(int[] docs, float[] scores, int i, int j) {
+		int doc = docs[i];
+		docs[i] = docs[j];
+		docs[j] = doc;
+		float score = scores[i];
+		scores[i] = scores[j];
+		scores[j] = score;
+	}
+
+	/**
+	 * Words searched in the rows: all of them (boolean mode) or any of them
+	 */
+	public static class Clause {
+		public final String[] words;
+		public final boolean all;
+
+		public Clause(String[] words, boolean all) {
+			this.words = words;
+			this.all = all;
+		}
+	}
+
+	/**
+	 * The keys and the scores of the hits sorted by decreasing score
+	 * and the total number of rows matching the search
+	 */
+	public static class Hits {
+		public final Object[] keys;
+		public final float[] scores;
+		public final int total;
+
+		public Hits(Object[] keys, float[] scores, int total) {
+			this.keys = keys;
+			this.scores = scores;
+			this.total = total;
+		}
+	}
+
+	/**
+	 * Iterates over the documents matching a part of the search and scores them
+	 */
+	private static abstract class Scorer {
+		protected int doc = -1;
+
+		abstract int next();
+
+		abstract int advance(int target);
+
+		abstract float score();
+
+		// the cost used to choose the order of an intersection
+		abstract int cost();
+	}
+
+	private class TermScorer extends Scorer {
+		private final PostingList.Cursor cursor;
+		private final int size;
+		private final float idf;
+		private final float avgLength;
+
+		TermScorer(PostingList list, float avgLength) {
+			this.cursor = list.cursor();
+			this.size = list.size();
+			int df = list.docFreq();
+			this.idf = (float)Math.log(1 + (liveDocs - df + 0.5) / (df + 0.5));
+			this.avgLength = avgLength;
+		}
+
+		int next() {
+			return doc = cursor.next();
+		}
+
+		int advance(int target) {
+			return doc = cursor.advance(target);
+		}
+
+		float score() {
+			float freq = cursor.freq();
+			float norm = K1 * (1 - B + (avgLength == 0 ? 0 : B * lengths[doc] / avgLength));
+			return idf * freq * (K1 + 1) / (freq + norm);
+		}
+
+		int cost() {
+			return size;
+		}
+	}
+
+	private static class AndScorer extends Scorer {
+		private final Scorer[] scorers;
+
+		AndScorer(List<Scorer> scorers) {
+			this.scorers = scorers.toArray(new Scorer[scorers.size()]);
+			// the rarest first
+			Arrays.sort(this.scorers, new Comparator<Scorer>() {
+				public int compare(Scorer s1, Scorer s2) {
+					return s1.cost() < s2.cost() ? -1 : (s1.cost() == s2.cost() ? 0 : 1);
+				}
+			});
+		}
+
+		int next() {
+			return align(scorers[0].next());
+		}
+
+		int advance(int target) {
+			return align(scorers[0].advance(target));
+		}
+
+		// leapfrogs until all the scorers are on the same document
+		private int align(int target) {
+			int i = 1;
+			while(target != PostingList.NO_MORE_DOCS && i < scorers.length){
+				int d = scorers[i].advance(target);
+				if(d > target){
+					target = scorers[0].advance(d);
+					i = 1;
+				}
+				else {
+					i++;
+				}
+			}
+			return doc = target;
+		}
+
+		float score() {
+			float score = 0;
+			for(Scorer scorer: scorers){
+				score += scorer.score();
+			}
+			return score;
+		}
+
+		int cost() {
+			return scorers[0].cost();
+		}
+	}
+
+	private static class OrScorer extends Scorer {
+		private final Scorer[] scorers;
+
+		OrScorer(List<Scorer> scorers) {
+			this.scorers = scorers.toArray(new Scorer[scorers.size()]);
+		}
+
+		int next() {
+			for(Scorer scorer: scorers){
+				if(scorer.doc == doc){
+					scorer.next();
+				}
+			}
+			return current();
+		}
+
+		int advance(int target) {
+			for(Scorer scorer: scorers){
+				if(scorer.doc < target){
+					scorer.advance(target);
+				}
+			}
+			return current();
+		}
+
+		private int current() {
+			int min = PostingList.NO_MORE_DOCS;
+			for(Scorer scorer: scorers){
+				if(scorer.doc < min){
+					min = scorer.doc;
+				}
+			}
+			return doc = min;
+		}
+
+		float score() {
+			float score = 0;
+			for(Scorer scorer: scorers){
+				if(scorer.doc == doc){
+					score += scorer.score();
+				}
+			}
+			return score;
+		}
+
+		int cost() {
+			int cost = 0;
+			for(Scorer scorer: scorers){
+				cost += scorer.cost();
+			}
+			return cost;
+		}
+	}
+}
@@ -0,0 +1,423 @@
+package siena.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.dom4j.Attribute;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+
+import siena.ClassInfo;
+import siena.Json;
+import siena.SienaException;
+import siena.Util;
+
+/**
+ * A compact binary wire format for the remote protocol.
+ *
+ * A message starts with a header byte telling if it carries a dom4j Document
+ * (so the XML protocol can be tunneled as is) or an operation written field by field.
+ * Strings and arrays are prefixed by their length (varint) and an entity is
+ * the values of its fields in the order of its ClassInfo without the field names:
+ * both ends must share the same classes (the number of fields is checked).
+ * The lengths read from the stream are checked against maxLength before allocating anything.
+ *
+ * RemoteStub and RemotePersistenceManager read and write the operations directly
+ * from the streams without building any DOM when this serializer is used.
+ */
+public class BinarySerializer implements Serializer {
+	public static final byte DOCUMENT = 'D';
+	public static final byte OPERATION = 'O';
+
+	/* response status */
+	public static final byte OK = 0;
+	public static final byte ENTITY = 1;
+	public static final byte LIST = 2;
+	public static final byte ERROR = 3;
+
+	/* markers of the rows of a LIST response */
+	public static final byte END = 0;
+	public static final byte ROW = 1;
+
+	/* kinds of filter values */
+	private static final byte VALUE_NULL = 0;
+	private static final byte VALUE_SINGLE = 1;
+	private static final byte VALUE_COLLECTION = 2;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	public static final int DEFAULT_MAX_LENGTH = 16 * 1024 * 1024;
+
+	/* max length of a string, a byte array or a collection read from a stream */
+	private int maxLength = DEFAULT_MAX_LENGTH;
+
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	public void setMaxLength(int maxLength) {
+		this.maxLength = maxLength;
+	}
+
+	public DataInputStream input(InputStream in) {
+		if(in instanceof DataInputStream) {
+			return (DataInputStream) in;
+		}
+		return new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+	}
+
+	public DataOutputStream output(OutputStream out) {
+		if(out instanceof DataOutputStream) {
+			return (DataOutputStream) out;
+		}
+		return new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+	}
+
+	/**
+	 * the time and hash of a request are written before the document so that they can be checked before reading it
+	 */
+	public void serialize(Document document, OutputStream out) throws IOException {
+		DataOutputStream output = output(out);
+		Element root = document.getRootElement();
+		output.writeByte(DOCUMENT);
+		writeString(output, root.attributeValue("time"));
+		writeString(output, root.attributeValue("hash"));
+		writeElement(output, root);
+		output.flush();
+	}
+
+	public Document deserialize(InputStream in) throws IOException {
+		DataInputStream input = input(in);
+		if(input.readByte() != DOCUMENT) {
+			throw new SienaException("The stream doesn't contain a document");
+		}
+		// time and hash are also attributes of the root element
+		readString(input);
+		readString(input);
+		return readDocument(input);
+	}
+
+	public Document readDocument(DataInputStream in) throws IOException {
+		Document document = DocumentHelper.createDocument();
+		readElement(in, document.addElement(readString(in)));
+		return document;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void writeElement(DataOutputStream out, Element element) throws IOException {
+		writeString(out, element.getName());
+		List<Attribute> attributes = element.attributes();
+		writeVarInt(out, attributes.size());
+		for (Attribute attribute : attributes) {
+			writeString(out, attribute.getName());
+			writeString(out, attribute.getValue());
+		}
+		List<Element> elements = element.elements();
+		writeVarInt(out, elements.size());
+		for (Element child : elements) {
+			writeElement(out, child);
+		}
+		writeString(out, elements.isEmpty() && element.hasContent() ? element.getText() : null);
+	}
+
+	private void readElement(DataInputStream in, Element element) throws IOException {
+		for(int i = readVarInt(in); i > 0; i--) {
+			element.addAttribute(readString(in), readString(in));
+		}
+		for(int i = readVarInt(in); i > 0; i--) {
+			readElement(in, element.addElement(readString(in)));
+		}
+		String text = readString(in);
+		if(text != null) {
+			element.setText(text);
+		}
+	}
+
+	/**
+	 * writes the header of an operation
+	 * @param hash the hash of time+key or null if the backend has no key
+	 */
+	public void writeOperation(DataOutputStream out, String action, long time, String hash) throws IOException {
+		out.writeByte(OPERATION);
+		writeString(out, action);
+		out.writeLong(time);
+		writeString(out, hash);
+	}
+
+	/**
+	 * reads the status of a response and throws the remote error if any
+	 */
+	public byte readStatus(DataInputStream in) throws IOException {
+		byte status = in.readByte();
+		if(status == ERROR) {
+			throw new SienaException(readString(in) + " " + readString(in));
+		}
+		return status;
+	}
+
+	public void writeError(DataOutputStream out, Throwable e) throws IOException {
+		out.writeByte(ERROR);
+		writeString(out, e.getClass().getName());
+		writeString(out, e.getMessage());
+	}
+
+	/**
+	 * reads the next row of a LIST response into a new instance or returns null after the last one
+	 */
+	public Object readRow(DataInputStream in, ClassLoader classLoader) throws IOException {
+		byte marker = in.readByte();
+		if(marker == END) {
+			return null;
+		}
+		if(marker == ERROR) {
+			throw new SienaException(readString(in) + " " + readString(in));
+		}
+		return readEntity(in, classLoader);
+	}
+
+	public void writeRow(DataOutputStream out, Object obj) throws IOException {
+		// the row is written in a buffer first so that an error can still be sent in place of the row
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		writeEntity(new DataOutputStream(buffer), obj, false);
+		out.writeByte(ROW);
+		buffer.writeTo(out);
+	}
+
+	/**
+	 * @param ids only the ids of the entity are written
+	 */
+	public void writeEntity(DataOutputStream out, Object obj, boolean ids) throws IOException {
+		ClassInfo info = ClassInfo.getClassInfo(obj.getClass());
+		List<Field> fields = ids ? info.keys : info.allFields;
+		writeString(out, obj.getClass().getName());
+		out.writeBoolean(ids);
+		writeVarInt(out, fields.size());
+		for (Field field : fields) {
+			writeValue(out, field.getType(), Util.readField(obj, field));
+		}
+	}
+
+	public Object readEntity(DataInputStream in, ClassLoader classLoader) throws IOException {
+		String clazzName = readString(in);
+		Object obj;
+		try {
+			obj = Util.createObjectInstance(Common.classForName(clazzName, classLoader));
+		} catch(Exception e) {
+			throw new SienaException("Error while trying to create an instance of "+clazzName+". "+e.getMessage());
+		}
+		readFields(in, obj, classLoader);
+		return obj;
+	}
+
+	/**
+	 * reads an entity into an existing object (the class name must be the one of the object)
+	 */
+	public void readEntity(DataInputStream in, Object obj) throws IOException {
+		String clazzName = readString(in);
+		if(!obj.getClass().getName().equals(clazzName)) {
+			throw new SienaException("Expected an entity of class "+obj.getClass().getName()+" but got "+clazzName);
+		}
+		readFields(in, obj, obj.getClass().getClassLoader());
+	}
+
+	private void readFields(DataInputStream in, Object obj, ClassLoader classLoader) throws IOException {
+		ClassInfo info = ClassInfo.getClassInfo(obj.getClass());
+		List<Field> fields = in.readBoolean() ? info.keys : info.allFields;
+		int size = readVarInt(in);
+		if(size != fields.size()) {
+			throw new SienaException("Schema mismatch for class "+obj.getClass().getName()
+					+": "+size+" fields received, "+fields.size()+" expected");
+		}
+		for (Field field : fields) {
+			Object value = readValue(in, field.getType(), classLoader);
+			if(value != null || !field.getType().isPrimitive()) {
+				Util.setField(obj, field, value);
+			}
+		}
+	}
+
+	/**
+	 * writes the value of a filter which may be a collection (IN operator).
+	 * The value is prefixed by its length so that a reader which can't type it skips it
+	 */
+	public void writeFilterValue(DataOutputStream out, Class<?> type, Object value) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(buffer);
+		if(value == null) {
+			data.writeByte(VALUE_NULL);
+		} else if(value instanceof Collection<?>) {
+			Collection<?> values = (Collection<?>) value;
+			data.writeByte(VALUE_COLLECTION);
+			writeVarInt(data, values.size());
+			for (Object v : values) {
+				writeValue(data, type, v);
+			}
+		} else {
+			data.writeByte(VALUE_SINGLE);
+			writeValue(data, type, value);
+		}
+		writeVarInt(out, buffer.size());
+		buffer.writeTo(out);
+	}
+
+	/**
+	 * a malformed value throws a SienaException and leaves the stream after the value
+	 */
+	public Object readFilterValue(DataInputStream in, Class<?> type, ClassLoader classLoader) throws IOException {
+		byte[] bytes = new byte[readLength(in)];
+		in.readFully(bytes);
+		DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+		try {
+			byte kind = data.readByte();
+			if(kind == VALUE_NULL) {
+				return null;
+			}
+			if(kind == VALUE_COLLECTION) {
+				int size = readLength(data);
+				List<Object> values = new ArrayList<Object>(size);
+				for(int i=0; i<size; i++) {
+					values.add(readValue(data, type, classLoader));
+				}
+				return values;
+			}
+			return readValue(data, type, classLoader);
+		} catch(EOFException e) {
+			throw new SienaException("Malformed filter value", e);
+		}
+	}
+
+	public void skipFilterValue(DataInputStream in) throws IOException {
+		in.readFully(new byte[readLength(in)]);
+	}
+
+	/**
+	 * primitives are written without null marker, the other types are preceded by a boolean
+	 */
+	public void writeValue(DataOutputStream out, Class<?> type, Object value) throws IOException {
+		if(!type.isPrimitive()) {
+			out.writeBoolean(value != null);
+			if(value == null) return;
+		}
+		if(type == Boolean.TYPE || type == Boolean.class)        out.writeBoolean((Boolean) value);
+		else if(type == Byte.TYPE || type == Byte.class)         out.writeByte(((Number) value).byteValue());
+		else if(type == Short.TYPE || type == Short.class)       out.writeShort(((Number) value).shortValue());
+		else if(type == Integer.TYPE || type == Integer.class)   out.writeInt(((Number) value).intValue());
+		else if(type == Long.TYPE || type == Long.class)         out.writeLong(((Number) value).longValue());
+		else if(type == Float.TYPE || type == Float.class)       out.writeFloat(((Number) value).floatValue());
+		else if(type == Double.TYPE || type == Double.class)     out.writeDouble(((Number) value).doubleValue());
+		else if(type == Character.TYPE || type == Character.class) out.writeChar((Character) value);
+		else if(type == String.class)                            writeString(out, (String) value);
+		else if(type == Date.class)                              out.writeLong(((Date) value).getTime());
+		else if(type.isEnum())                                   writeString(out, ((Enum<?>) value).name());
+		else if(type == byte[].class) {
+			byte[] bytes = (byte[]) value;
+			writeVarInt(out, bytes.length);
+			out.write(bytes);
+		}
+		else if(ClassInfo.isModel(type))                         writeEntity(out, value, true);
+		else                                                     writeString(out, value.toString());
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public Object readValue(DataInputStream in, Class<?> type, ClassLoader classLoader) throws IOException {
+		if(!type.isPrimitive() && !in.readBoolean()) {
+			return null;
+		}
+		if(type == Boolean.TYPE || type == Boolean.class)        return in.readBoolean();
+		if(type == Byte.TYPE || type == Byte.class)              return in.readByte();
+		if(type == Short.TYPE || type == Short.class)            return in.readShort();
+		if(type == Integer.TYPE || type == Integer.class)        return in.readInt();
+		if(type == Long.TYPE || type == Long.class)              return in.readLong();
+		if(type == Float.TYPE || type == Float.class)            return in.readFloat();
+		if(type == Double.TYPE || type == Double.class)          return in.readDouble();
+		if(type == Character.TYPE || type == Character.class)    return in.readChar();
+		if(type == String.class)                                 return readString(in);
+		if(type == Date.class)                                   return new Date(in.readLong());
+		if(type.isEnum())                                        return Enum.valueOf((Class<Enum>) type, readString(in));
+		if(type == byte[].class) {
+			byte[] bytes = new byte[readLength(in)];
+			in.readFully(bytes);
+			return bytes;
+		}
+		if(ClassInfo.isModel(type))                              return readEntity(in, classLoader);
+		if(type == Json.class)                                   return Json.loads(readString(in));
+		if(type == BigDecimal.class)                             return new BigDecimal(readString(in));
+		if(type == UUID.class)                                   return UUID.fromString(readString(in));
+		return Util.fromString(type, readString(in), true);
+	}
+
+	/**
+	 * null is written as a length of 0 and the other strings as their length + 1
+	 */
+	public void writeString(DataOutputStream out, String s) throws IOException {
+		if(s == null) {
+			writeVarInt(out, 0);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, bytes.length + 1);
+		out.write(bytes);
+	}
+
+	public String readString(DataInputStream in) throws IOException {
+		int length = readVarInt(in);
+		if(length == 0) {
+			return null;
+		}
+		byte[] bytes = new byte[checkLength(length - 1)];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * reads the length of a byte array or a collection
+	 * @throws SienaException if the length is negative or greater than maxLength
+	 */
+	public int readLength(DataInputStream in) throws IOException {
+		return checkLength(readVarInt(in));
+	}
+
+	private int checkLength(int length) {
+		if(length < 0 || length > maxLength) {
+			throw new SienaException("Invalid length "+length+" (max "+maxLength+")");
+		}
+		return length;
+	}
+
+	public int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for(int shift = 0; shift < 32; shift += 7) {
+			int b = in.readByte();
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new EOFException("Malformed varint");
+	}
+}
@@ -0,0 +1,146 @@
+package siena.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+
+import siena.SienaException;
+
+/**
+ * A Connector keeping the HTTP connections to the backend alive between the requests.
+ *
+ * The sockets are pooled by the keep-alive cache of HttpURLConnection: they are reused
+ * only if the response has been read entirely and its stream closed, which close() does
+ * even when the caller stopped reading. At most pool.size requests are sent at the same time
+ * so that no more sockets are opened than the cache keeps (http.maxConnections, 5 by default).
+ * The request body is streamed in chunks instead of being buffered.
+ *
+ * The connector can be shared by several threads: the current connection is held by thread.
+ * share() gives another connector holding its own connections within the same pool.
+ *
+ * Properties: backend, pool.size (5), connect.timeout and read.timeout (ms, 0 = none),
+ * content.type (application/octet-stream)
+ */
+public class HttpConnector implements Connector {
+	public static final int DEFAULT_POOL_SIZE = 5;
+	private static final int CHUNK_SIZE = 8192;
+
+	private URL backend;
+	private String contentType;
+	private int connectTimeout;
+	private int readTimeout;
+	private Semaphore permits;
+
+	private ThreadLocal<HttpURLConnection> connection = new ThreadLocal<HttpURLConnection>();
+
+	public void configure(Properties p) {
+		try {
+			backend = new URL(p.getProperty("backend"));
+		} catch (MalformedURLException e) {
+			throw new SienaException(e);
+		}
+		contentType = p.getProperty("content.type", "application/octet-stream");
+		connectTimeout = Integer.parseInt(p.getProperty("connect.timeout", "0"));
+		readTimeout = Integer.parseInt(p.getProperty("read.timeout", "0"));
+		permits = new Semaphore(Integer.parseInt(p.getProperty("pool.size", Integer.toString(DEFAULT_POOL_SIZE))), true);
+	}
+
+	public void connect() throws IOException {
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a connection");
+		}
+		try {
+			HttpURLConnection c = (HttpURLConnection) backend.openConnection();
+			c.setRequestMethod("POST");
+			c.setDoOutput(true);
+			c.setUseCaches(false);
+			c.setConnectTimeout(connectTimeout);
+			c.setReadTimeout(readTimeout);
+			c.setChunkedStreamingMode(CHUNK_SIZE);
+			c.setRequestProperty("Connection", "keep-alive");
+			c.setRequestProperty("Content-Type", contentType);
+			connection.set(c);
+		} catch(IOException e) {
+			permits.release();
+			throw e;
+		} catch(RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	public OutputStream getOutputStream() throws IOException {
+		return current().getOutputStream();
+	}
+
+	/**
+	 * ends the request and returns the stream of the response
+	 */
+	public InputStream getInputStream() throws IOException {
+		HttpURLConnection c = current();
+		c.getOutputStream().close();
+		int code = c.getResponseCode();
+		if(code >= 400) {
+			drain(c.getErrorStream());
+			throw new IOException("The backend answered "+code+" "+c.getResponseMessage());
+		}
+		return c.getInputStream();
+	}
+
+	/**
+	 * reads the rest of the response so that the socket goes back to the keep-alive cache
+	 */
+	public void close() throws IOException {
+		HttpURLConnection c = connection.get();
+		if(c == null) return;
+		connection.remove();
+		try {
+			drain(c.getInputStream());
+		} catch(IOException e) {
+			drain(c.getErrorStream());
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * @return a connector with the same configuration and pool whose connections are held apart from this one,
+	 * so that a thread can send requests while reading a response of the other connector
+	 */
+	public HttpConnector share() {
+		HttpConnector c = new HttpConnector();
+		c.backend = backend;
+		c.contentType = contentType;
+		c.connectTimeout = connectTimeout;
+		c.readTimeout = readTimeout;
+		c.permits = permits;
+		return c;
+	}
+
+	private HttpURLConnection current() {
+		HttpURLConnection c = connection.get();
+		if(c == null) {
+			throw new SienaException("connect() must be called first");
+		}
+		return c;
+	}
+
+	private static void drain(InputStream in) throws IOException {
+		if(in == null) return;
+		try {
+			byte[] buffer = new byte[CHUNK_SIZE];
+			while(in.read(buffer) != -1);
+		} finally {
+			in.close();
+		}
+	}
+}
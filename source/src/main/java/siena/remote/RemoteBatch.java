@@ -0,0 +1,177 @@
+package siena.remote;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import siena.Query;
+import siena.SienaException;
+
+/**
+ * Several operations sent to the backend in one request.
+ *
+ * The backend runs each operation with the bulk methods of its own PersistenceManager
+ * (insert(Iterable), getByKeys(Class, Iterable)...) and sends back the result of each one:
+ * the ids of the inserted/saved objects and the fields of the objects to get are set into them
+ * like a single operation does.
+ * An operation failing doesn't stop the next ones: execute() throws the first error
+ * once all the results have been read.
+ *
+ * <pre>
+ * List&lt;Object&gt; results = pm.batch()
+ *     .insert(persons)
+ *     .getByKeys(Discovery.class, keys)
+ *     .fetch(pm.createQuery(Person.class).filter("city", "Ulm"), 10)
+ *     .execute();
+ * </pre>
+ */
+public class RemoteBatch {
+	public static final String INSERT = "insert";
+	public static final String UPDATE = "update";
+	public static final String SAVE = "save";
+	public static final String DELETE = "delete";
+	public static final String GET = "get";
+	public static final String DELETE_BY_KEYS = "deleteByKeys";
+	public static final String GET_BY_KEYS = "getByKeys";
+	public static final String FETCH = "fetch";
+
+	private RemotePersistenceManager pm;
+	protected List<Operation> operations = new ArrayList<Operation>();
+
+	RemoteBatch(RemotePersistenceManager pm) {
+		this.pm = pm;
+	}
+
+	public RemoteBatch insert(Iterable<?> objects) {
+		return add(new Operation(INSERT, null, objects));
+	}
+
+	public RemoteBatch update(Iterable<?> objects) {
+		return add(new Operation(UPDATE, null, objects));
+	}
+
+	public RemoteBatch save(Iterable<?> objects) {
+		return add(new Operation(SAVE, null, objects));
+	}
+
+	public RemoteBatch delete(Iterable<?> objects) {
+		return add(new Operation(DELETE, null, objects));
+	}
+
+	/**
+	 * fills the objects from their ids
+	 */
+	public RemoteBatch get(Iterable<?> objects) {
+		return add(new Operation(GET, null, objects));
+	}
+
+	public RemoteBatch deleteByKeys(Class<?> clazz, Iterable<?> keys) {
+		return add(new Operation(DELETE_BY_KEYS, clazz, keys));
+	}
+
+	/**
+	 * the result is the list of the objects in the order of the keys (null if not found)
+	 */
+	public RemoteBatch getByKeys(Class<?> clazz, Iterable<?> keys) {
+		return add(new Operation(GET_BY_KEYS, clazz, keys));
+	}
+
+	public RemoteBatch fetch(Query<?> query) {
+		return fetch(query, -1, -1);
+	}
+
+	public RemoteBatch fetch(Query<?> query, int limit) {
+		return fetch(query, limit, -1);
+	}
+
+	public RemoteBatch fetch(Query<?> query, int limit, int offset) {
+		Operation op = new Operation(FETCH, query.getQueriedClass(), null);
+		op.query = query;
+		op.limit = limit;
+		op.offset = offset;
+		return add(op);
+	}
+
+	public int size() {
+		return operations.size();
+	}
+
+	/**
+	 * sends all the operations in one request
+	 *
+	 * @return the result of each operation in the order they were added:
+	 * the number of objects processed or the list of the objects fetched (getByKeys, fetch)
+	 * @throws SienaException the error of the first operation which failed
+	 */
+	public List<Object> execute() {
+		if(operations.isEmpty()) {
+			return new ArrayList<Object>();
+		}
+		pm.execute(this);
+		List<Object> results = new ArrayList<Object>(operations.size());
+		for (Operation op : operations) {
+			if(op.error != null) {
+				throw op.error;
+			}
+			results.add(op.result);
+		}
+		return results;
+	}
+
+	private RemoteBatch add(Operation op) {
+		operations.add(op);
+		return this;
+	}
+
+	/**
+	 * an operation of a batch and its result, on the client and on the backend
+	 */
+	public static class Operation {
+		public String action;
+		public Class<?> clazz;
+		// the entities or the keys
+		public List<Object> objects;
+		public Query<?> query;
+		public int limit = -1;
+		public int offset = -1;
+
+		// Integer or List
+		public Object result;
+		public SienaException error;
+
+		public Operation(String action, Class<?> clazz, Iterable<?> objects) {
+			this.action = action;
+			this.clazz = clazz;
+			this.objects = new ArrayList<Object>();
+			if(objects != null) {
+				for (Object obj : objects) {
+					this.objects.add(obj);
+				}
+			}
+			if(this.clazz == null && !this.objects.isEmpty()) {
+				this.clazz = this.objects.get(0).getClass();
+			}
+		}
+
+		/**
+		 * the operations of which objects are entities and not keys
+		 */
+		public boolean hasEntities() {
+			return !DELETE_BY_KEYS.equals(action) && !GET_BY_KEYS.equals(action) && !FETCH.equals(action);
+		}
+
+		/**
+		 * only the ids of the entities are sent to the backend
+		 */
+		public boolean sendsIds() {
+			return DELETE.equals(action) || GET.equals(action);
+		}
+
+		/**
+		 * the entities sent back by the backend after the operation: the ids (insert, save)
+		 * or all the fields (get)
+		 */
+		public boolean receivesEntities() {
+			return INSERT.equals(action) || SAVE.equals(action) || GET.equals(action);
+		}
+	}
+}
@@ -15,9 +15,13 @@
  */
 package siena.remote;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -40,21 +44,16 @@ import siena.core.async.PersistenceManagerAsync;
 
 public class RemotePersistenceManager extends AbstractPersistenceManager {
 	
+	private Properties properties;
 	private Connector connector;
 	private Serializer serializer;
 	private String key;
+	
+	private static final String[] supportedOperators = { "<", ">", ">=", "<=", "!=", "=", "LIKE", "IN" };
 
 	public void init(Properties p) {
-		String connectorImpl = p.getProperty("connector");
-		if(connectorImpl != null) {
-			try {
-				connector = (Connector) Class.forName(connectorImpl).newInstance();
-			} catch (Exception e) {
-				throw new SienaException("Error while instantiating connector: "+connectorImpl, e);
-			}
-		} else {
-			connector = new URLConnector();
-		}
+		properties = p;
+		connector = newConnector();
 		
 		String serializerImpl = p.getProperty("serializer");
 		if(serializerImpl != null) {
@@ -66,10 +65,42 @@ public class RemotePersistenceManager extends AbstractPersistenceManager {
 		} else {
 			serializer = new XmlSerializer();
 		}
+		String maxLength = p.getProperty("serializer.maxLength");
+		if(maxLength != null && serializer instanceof BinarySerializer) {
+			((BinarySerializer) serializer).setMaxLength(Integer.parseInt(maxLength.trim()));
+		}
 		
 		key = p.getProperty("key");
-		
-		connector.configure(p);
+	}
+	
+	/**
+	 * @return a connector for a response read while the manager is still used:
+	 * it shares the pool of the connector of the manager when it has one
+	 */
+	protected Connector streamConnector() {
+		if(connector instanceof HttpConnector) {
+			return ((HttpConnector) connector).share();
+		}
+		return newConnector();
+	}
+	
+	/**
+	 * @return a new connector configured with the properties of the persistence manager
+	 */
+	protected Connector newConnector() {
+		Connector c;
+		String connectorImpl = properties.getProperty("connector");
+		if(connectorImpl != null) {
+			try {
+				c = (Connector) Class.forName(connectorImpl).newInstance();
+			} catch (Exception e) {
+				throw new SienaException("Error while instantiating connector: "+connectorImpl, e);
+			}
+		} else {
+			c = new URLConnector();
+		}
+		c.configure(properties);
+		return c;
 	}
 
 	public void delete(Object obj) {
@@ -106,6 +137,10 @@ public class RemotePersistenceManager extends AbstractPersistenceManager {
 	}
 	
 	private void simpleRequest(String name, Object entity, boolean ids) {
+		if(serializer instanceof BinarySerializer) {
+			binaryRequest(name, entity, ids);
+			return;
+		}
 		Document request = createRequest(name, entity, ids);
 		Document response = send(request);
 		Element root = response.getRootElement();
@@ -121,14 +156,240 @@ public class RemotePersistenceManager extends AbstractPersistenceManager {
 	protected Document send(Document request) {
 		try {
 			connector.connect();
-			serializer.serialize(request, connector.getOutputStream());
-			Document response = serializer.deserialize(connector.getInputStream());
-			connector.close();
-			return response;
+			try {
+				serializer.serialize(request, connector.getOutputStream());
+				return serializer.deserialize(connector.getInputStream());
+			} finally {
+				connector.close();
+			}
 		} catch(IOException e) {
 			throw new SienaException(e);
 		}
 	}
+	
+	void writeOperation(BinarySerializer binary, DataOutputStream out, String name) throws IOException {
+		if(key != null) {
+			long time = System.currentTimeMillis();
+			binary.writeOperation(out, name, time, Util.sha1(time+key));
+		} else {
+			binary.writeOperation(out, name, 0, null);
+		}
+	}
+	
+	/**
+	 * writes the entity and reads the response directly on the streams of the connector 
+	 */
+	private void binaryRequest(String name, Object entity, boolean ids) {
+		BinarySerializer binary = (BinarySerializer) serializer;
+		try {
+			connector.connect();
+			try {
+				DataOutputStream out = binary.output(connector.getOutputStream());
+				writeOperation(binary, out, name);
+				binary.writeEntity(out, entity, ids);
+				out.flush();
+				
+				DataInputStream in = binary.input(connector.getInputStream());
+				if(binary.readStatus(in) == BinarySerializer.ENTITY) {
+					binary.readEntity(in, entity);
+				}
+			} finally {
+				connector.close();
+			}
+		} catch(IOException e) {
+			throw new SienaException(e);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <T> List<T> binaryQuery(Query<T> query, int limit, int offset) {
+		BinarySerializer binary = (BinarySerializer) serializer;
+		try {
+			connector.connect();
+			try {
+				DataOutputStream out = binary.output(connector.getOutputStream());
+				writeOperation(binary, out, "query");
+				writeQuery(binary, out, query);
+				binary.writeVarInt(out, limit + 1);
+				binary.writeVarInt(out, offset + 1);
+				out.flush();
+				
+				DataInputStream in = binary.input(connector.getInputStream());
+				binary.readStatus(in);
+				ClassLoader classLoader = query.getQueriedClass().getClassLoader();
+				List<T> list = new ArrayList<T>();
+				for(Object obj = binary.readRow(in, classLoader); obj != null; obj = binary.readRow(in, classLoader)) {
+					list.add((T) obj);
+				}
+				query.setNextOffset(Math.max(offset, 0) + list.size());
+				return list;
+			} finally {
+				connector.close();
+			}
+		} catch(IOException e) {
+			throw new SienaException(e);
+		}
+	}
+	
+	/**
+	 * @return a batch of operations sent in one request to the backend
+	 */
+	public RemoteBatch batch() {
+		return new RemoteBatch(this);
+	}
+	
+	/**
+	 * sends the operations of the batch and sets their results
+	 */
+	void execute(RemoteBatch batch) {
+		if(serializer instanceof BinarySerializer) {
+			binaryBatch(batch);
+			return;
+		}
+		Document request = createRequest("batch");
+		for (RemoteBatch.Operation op : batch.operations) {
+			Element operation = request.getRootElement().addElement("operation");
+			operation.addAttribute("action", op.action);
+			if(RemoteBatch.FETCH.equals(op.action)) {
+				fillQueryElement(op.query, operation);
+				if(op.limit >= 0) operation.addAttribute("limit", Integer.toString(op.limit));
+				if(op.offset >= 0) operation.addAttribute("offset", Integer.toString(op.offset));
+			} else if(op.hasEntities()) {
+				for (Object obj : op.objects) {
+					Common.fillRequestElement(obj, operation.addElement("object"), op.sendsIds());
+				}
+			} else {
+				operation.addAttribute("class", op.clazz.getName());
+				Field id = ClassInfo.getIdField(op.clazz);
+				for (Object key : op.objects) {
+					operation.addElement("key").setText(Util.toString(id, key));
+				}
+			}
+		}
+		
+		Element root = send(request).getRootElement();
+		if("error".equals(root.getName())) {
+			throw new SienaException(root.attributeValue("class") + " " +root.getText());
+		}
+		List<?> results = root.elements();
+		for (int i = 0; i < batch.operations.size(); i++) {
+			RemoteBatch.Operation op = batch.operations.get(i);
+			Element result = (Element) results.get(i);
+			if("error".equals(result.getName())) {
+				op.error = new SienaException(result.attributeValue("class") + " " +result.getText());
+				continue;
+			}
+			List<?> objects = result.elements("object");
+			if(op.receivesEntities()) {
+				for (int j = 0; j < op.objects.size(); j++) {
+					Object obj = op.objects.get(j);
+					Common.parseEntity(obj, (Element) objects.get(j), obj.getClass().getClassLoader());
+				}
+			}
+			String count = result.attributeValue("count");
+			if(count != null) {
+				op.result = Integer.parseInt(count);
+			} else {
+				List<Object> list = new ArrayList<Object>(objects.size());
+				for (Object object : objects) {
+					Element element = (Element) object;
+					list.add(element.attributeValue("class") != null ? Common.parseEntity(element, op.clazz.getClassLoader()) : null);
+				}
+				op.result = list;
+			}
+		}
+	}
+	
+	private void binaryBatch(RemoteBatch batch) {
+		BinarySerializer binary = (BinarySerializer) serializer;
+		try {
+			connector.connect();
+			try {
+				DataOutputStream out = binary.output(connector.getOutputStream());
+				writeOperation(binary, out, "batch");
+				binary.writeVarInt(out, batch.operations.size());
+				for (RemoteBatch.Operation op : batch.operations) {
+					binary.writeString(out, op.action);
+					if(RemoteBatch.FETCH.equals(op.action)) {
+						writeQuery(binary, out, op.query);
+						binary.writeVarInt(out, op.limit + 1);
+						binary.writeVarInt(out, op.offset + 1);
+					} else if(op.hasEntities()) {
+						binary.writeVarInt(out, op.objects.size());
+						for (Object obj : op.objects) {
+							binary.writeEntity(out, obj, op.sendsIds());
+						}
+					} else {
+						binary.writeString(out, op.clazz.getName());
+						Class<?> type = ClassInfo.getIdField(op.clazz).getType();
+						binary.writeVarInt(out, op.objects.size());
+						for (Object key : op.objects) {
+							binary.writeValue(out, type, key);
+						}
+					}
+				}
+				out.flush();
+				
+				DataInputStream in = binary.input(connector.getInputStream());
+				binary.readStatus(in);
+				for (RemoteBatch.Operation op : batch.operations) {
+					try {
+						binary.readStatus(in);
+					} catch(SienaException e) {
+						op.error = e;
+						continue;
+					}
+					if(RemoteBatch.GET_BY_KEYS.equals(op.action) || RemoteBatch.FETCH.equals(op.action)) {
+						int size = binary.readLength(in);
+						List<Object> list = new ArrayList<Object>(size);
+						for (int i = 0; i < size; i++) {
+							list.add(in.readBoolean() ? binary.readEntity(in, op.clazz.getClassLoader()) : null);
+						}
+						op.result = list;
+						continue;
+					}
+					op.result = binary.readVarInt(in);
+					if(op.receivesEntities()) {
+						for (Object obj : op.objects) {
+							binary.readEntity(in, obj);
+						}
+					}
+				}
+			} finally {
+				connector.close();
+			}
+		} catch(IOException e) {
+			throw new SienaException(e);
+		}
+	}
+	
+	private int count(RemoteBatch batch) {
+		return (Integer) batch.execute().get(0);
+	}
+	
+	<T> void writeQuery(BinarySerializer binary, DataOutputStream out, Query<T> query) throws IOException {
+		binary.writeString(out, query.getQueriedClass().getName());
+		
+		List<QueryFilterSimple> filters = new ArrayList<QueryFilterSimple>();
+		for (QueryFilter filter : query.getFilters()) {
+			if(QueryFilterSimple.class.isAssignableFrom(filter.getClass())){
+				filters.add((QueryFilterSimple) filter);
+			}
+		}
+		binary.writeVarInt(out, filters.size());
+		for (QueryFilterSimple filter : filters) {
+			binary.writeString(out, filter.field.getName());
+			binary.writeString(out, filter.operator);
+			binary.writeFilterValue(out, filter.field.getType(), filter.value);
+		}
+		
+		List<QueryOrder> orders = query.getOrders();
+		binary.writeVarInt(out, orders.size());
+		for (QueryOrder order : orders) {
+			binary.writeString(out, order.field.getName());
+			out.writeBoolean(order.ascending);
+		}
+	}
 
 	public void rollbackTransaction() {
 	}
@@ -146,9 +407,13 @@ public class RemotePersistenceManager extends AbstractPersistenceManager {
 	}
 
 	private <T> Document createRequest(Query<T> query) {
-		Class<?> clazz = query.getQueriedClass();
 		Document request = createRequest("query");
-		request.getRootElement().addAttribute("class", clazz.getName());
+		fillQueryElement(query, request.getRootElement());
+		return request;
+	}
+	
+	private <T> void fillQueryElement(Query<T> query, Element element) {
+		element.addAttribute("class", query.getQueriedClass().getName());
 		
 		List<QueryFilter> filters = query.getFilters();
 		for (QueryFilter filter : filters) {
@@ -158,14 +423,17 @@ public class RemotePersistenceManager extends AbstractPersistenceManager {
 				Field field = qf.field;
 				Object value = qf.value;
 				
-				Element filtr = request.getRootElement().addElement("filter");
+				Element filtr = element.addElement("filter");
 				filtr.addAttribute("field", field.getName());
 				filtr.addAttribute("operator", qf.operator);
 				
-				if(ClassInfo.isModel(value.getClass())) {
-					Common.fillRequestElement((Model) value, filtr, true);
-				} else {
-					filtr.setText(Util.toString(field, value));
+				if(value instanceof Collection<?>) {
+					filtr.addAttribute("collection", "true");
+					for (Object v : (Collection<?>) value) {
+						fillValueElement(field, v, filtr.addElement("value"));
+					}
+				} else if(value != null) {
+					fillValueElement(field, value, filtr);
 				}
 			}
 		}
@@ -173,20 +441,31 @@ public class RemotePersistenceManager extends AbstractPersistenceManager {
 		List<QueryOrder> orders = query.getOrders();
 		for (QueryOrder order : orders) {
 			Field field = order.field;
-			request.getRootElement().addElement("order")
+			element.addElement("order")
 				.addAttribute("field", field.getName())
 				.addAttribute("ascending", Boolean.toString(order.ascending));
 		}
-		return request;
+	}
+	
+	private void fillValueElement(Field field, Object value, Element element) {
+		if(ClassInfo.isModel(value.getClass())) {
+			Common.fillRequestElement((Model) value, element, true);
+		} else {
+			element.setText(Util.toString(field, value));
+		}
 	}
 
 	@SuppressWarnings("unchecked")
-	private <T> List<T> sendAndParse(Document request) {
+	private <T> List<T> sendAndParse(Query<T> query, Document request) {
 		Document response = send(request);
 		Element root = response.getRootElement();
 		if("error".equals(root.getName())) {
 			throw new SienaException(root.attributeValue("class") + " " +root.getText());
 		}
+		String nextOffset = root.attributeValue("nextOffset");
+		if(nextOffset != null) {
+			query.setNextOffset(Integer.parseInt(nextOffset));
+		}
 		List<Element> result = response.getRootElement().elements("object");
 		List<T> list = new ArrayList<T>(result.size());
 		for (Element element : result) {
@@ -197,23 +476,32 @@ public class RemotePersistenceManager extends AbstractPersistenceManager {
 
 	@Override
 	public <T> List<T> fetch(Query<T> query) {
+		if(serializer instanceof BinarySerializer) {
+			return binaryQuery(query, -1, -1);
+		}
 		Document request = createRequest(query);
-		return sendAndParse(request);
+		return sendAndParse(query, request);
 	}
 
 	@Override
 	public <T> List<T> fetch(Query<T> query, int limit) {
+		if(serializer instanceof BinarySerializer) {
+			return binaryQuery(query, limit, -1);
+		}
 		Document request = createRequest(query);
 		request.getRootElement().addAttribute("limit",  Integer.toString(limit));
-		return sendAndParse(request);
+		return sendAndParse(query, request);
 	}
 
 	@Override
 	public <T> List<T> fetch(Query<T> query, int limit, Object offset) {
+		if(serializer instanceof BinarySerializer) {
+			return binaryQuery(query, limit, Integer.parseInt(offset.toString()));
+		}
 		Document request = createRequest(query);
 		request.getRootElement().addAttribute("limit",  Integer.toString(limit));
 		request.getRootElement().addAttribute("offset", offset.toString());
-		return sendAndParse(request);
+		return sendAndParse(query, request);
 	}
 
 	@Override
@@ -243,27 +531,49 @@ public class RemotePersistenceManager extends AbstractPersistenceManager {
 
 	@Override
 	public <T> Iterable<T> iter(Query<T> query) {
-		// TODO!
-		throw new NotImplementedException();
-
+		return iter(query, -1, -1, 0);
 	}
 
 	@Override
 	public <T> Iterable<T> iter(Query<T> query, int limit) {
-		// TODO!
-		throw new NotImplementedException();
+		return iter(query, limit, -1, 0);
 	}
 
 	@Override
 	public <T> Iterable<T> iter(Query<T> query, int limit, Object offset) {
-		// TODO!
-		throw new NotImplementedException();
+		return iter(query, limit, Integer.parseInt(offset.toString()), 0);
+	}
+
+	/**
+	 * the backend iterates over the query page by page
+	 */
+	@Override
+	public <T> Iterable<T> iterPerPage(Query<T> query, int pageSize) {
+		return iter(query, -1, -1, pageSize);
+	}
+	
+	/**
+	 * with the binary format, the rows are read while iterating: the backend writes them 
+	 * while iterating over the query and is blocked by the client reading them.
+	 * The other formats can't be read incrementally so the rows are fetched at once.
+	 */
+	private <T> Iterable<T> iter(Query<T> query, int limit, int offset, int pageSize) {
+		if(serializer instanceof BinarySerializer) {
+			return new RemoteSienaIterable<T>(this, (BinarySerializer) serializer, query, limit, offset, pageSize);
+		}
+		if(limit >= 0 && offset >= 0) {
+			return fetch(query, limit, offset);
+		} else if(limit >= 0) {
+			return fetch(query, limit);
+		}
+		return fetch(query);
 	}
 
 
 	@Override
 	public String[] supportedOperators() {
-		return null; // TODO!
+		// the operators are checked by the persistence manager of the server
+		return supportedOperators;
 	}
 
 	@Override
@@ -274,62 +584,52 @@ public class RemotePersistenceManager extends AbstractPersistenceManager {
 
 	@Override
 	public int insert(Object... objects) {
-		// TODO Auto-generated method stub
-		return 0;
+		return insert(Arrays.asList(objects));
 	}
 
 	@Override
 	public int insert(Iterable<?> objects) {
-		// TODO Auto-generated method stub
-		return 0;
+		return count(batch().insert(objects));
 	}
 
 	@Override
 	public int delete(Object... models) {
-		// TODO Auto-generated method stub
-		return 0;
+		return delete(Arrays.asList(models));
 	}
 
 	@Override
 	public int delete(Iterable<?> models) {
-		// TODO Auto-generated method stub
-		return 0;
+		return count(batch().delete(models));
 	}
 
 	@Override
 	public <T> int deleteByKeys(Class<T> clazz, Object... keys) {
-		// TODO Auto-generated method stub
-		return 0;
+		return deleteByKeys(clazz, Arrays.asList(keys));
 	}
 
 	@Override
 	public int get(Object... models) {
-		// TODO Auto-generated method stub
-		return 0;
+		return get(Arrays.asList(models));
 	}
 
 	@Override
 	public <T> int get(Iterable<T> models) {
-		// TODO Auto-generated method stub
-		return 0;
+		return count(batch().get(models));
 	}
 
 	@Override
 	public <T> List<T> getByKeys(Class<T> clazz, Object... keys) {
-		// TODO Auto-generated method stub
-		return null;
+		return getByKeys(clazz, Arrays.asList(keys));
 	}
 
 	@Override
 	public <T> int update(Object... models) {
-		// TODO Auto-generated method stub
-		return 0;
+		return update(Arrays.asList(models));
 	}
 
 	@Override
 	public <T> int update(Iterable<T> models) {
-		// TODO Auto-generated method stub
-		return 0;
+		return count(batch().update(models));
 	}
 
 	@Override
@@ -360,39 +660,34 @@ public class RemotePersistenceManager extends AbstractPersistenceManager {
 
 	@Override
 	public <T> T getByKey(Class<T> clazz, Object key) {
-		// TODO Auto-generated method stub
-		return null;
+		return getByKeys(clazz, key).get(0);
 	}
 
 
 	@Override
 	public void save(Object obj) {
-		// TODO Auto-generated method stub
-		
+		save(Arrays.asList(obj));
 	}
 
 	@Override
 	public int save(Object... objects) {
-		// TODO Auto-generated method stub
-		return 0;
+		return save(Arrays.asList(objects));
 	}
 
 	@Override
 	public int save(Iterable<?> objects) {
-		// TODO Auto-generated method stub
-		return 0;
+		return count(batch().save(objects));
 	}
 
 	@Override
 	public <T> int deleteByKeys(Class<T> clazz, Iterable<?> keys) {
-		// TODO Auto-generated method stub
-		return 0;
+		return count(batch().deleteByKeys(clazz, keys));
 	}
 
+	@SuppressWarnings("unchecked")
 	@Override
 	public <T> List<T> getByKeys(Class<T> clazz, Iterable<?> keys) {
-		// TODO Auto-generated method stub
-		return null;
+		return (List<T>) batch().getByKeys(clazz, keys).execute().get(0);
 	}
 
 	@Override
@@ -0,0 +1,147 @@
+package siena.remote;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import siena.Query;
+import siena.SienaException;
+
+/**
+ * A Siena Iterable<Model> reading the rows streamed by the backend while iterating.
+ *
+ * Each iterator sends its own request on its first hasNext() through a connector sharing the pool
+ * of the manager so that the manager can still be used while iterating. Only one row is held at a time:
+ * the backend is blocked by the transport until the client reads the next rows.
+ * The connector is closed after the last row, on error, or by close() when the iteration is stopped before.
+ */
+public class RemoteSienaIterable<T> implements Iterable<T>, Closeable {
+	protected RemotePersistenceManager pm;
+	protected BinarySerializer binary;
+	protected Query<T> query;
+	protected int limit;
+	protected int offset;
+	protected int pageSize;
+	// the iterators whose connector is open
+	protected final Set<RemoteSienaIterator> open = new HashSet<RemoteSienaIterator>();
+
+	RemoteSienaIterable(RemotePersistenceManager pm, BinarySerializer binary, Query<T> query,
+			int limit, int offset, int pageSize) {
+		this.pm = pm;
+		this.binary = binary;
+		this.query = query;
+		this.limit = limit;
+		this.offset = offset;
+		this.pageSize = pageSize;
+	}
+
+	public Iterator<T> iterator() {
+		return new RemoteSienaIterator();
+	}
+
+	/**
+	 * closes the iterators not read until the end
+	 */
+	public void close() {
+		List<RemoteSienaIterator> iterators;
+		synchronized(open) {
+			iterators = new ArrayList<RemoteSienaIterator>(open);
+		}
+		for (RemoteSienaIterator it : iterators) {
+			it.close();
+		}
+	}
+
+	public class RemoteSienaIterator implements Iterator<T>, Closeable {
+		Connector connector;
+		DataInputStream in;
+		T next;
+		boolean done;
+
+		RemoteSienaIterator() {
+		}
+
+		/**
+		 * sends the request and reads the status of the response
+		 */
+		private void connect() throws IOException {
+			connector = pm.streamConnector();
+			connector.connect();
+			synchronized(open) {
+				open.add(this);
+			}
+			DataOutputStream out = binary.output(connector.getOutputStream());
+			pm.writeOperation(binary, out, "iter");
+			pm.writeQuery(binary, out, query);
+			binary.writeVarInt(out, limit + 1);
+			binary.writeVarInt(out, offset + 1);
+			binary.writeVarInt(out, pageSize);
+			out.flush();
+
+			in = binary.input(connector.getInputStream());
+			binary.readStatus(in);
+		}
+
+		@SuppressWarnings("unchecked")
+		public boolean hasNext() {
+			if(next == null && !done) {
+				try {
+					if(in == null) {
+						connect();
+					}
+					next = (T) binary.readRow(in, query.getQueriedClass().getClassLoader());
+				} catch(IOException e) {
+					close();
+					throw new SienaException(e);
+				} catch(RuntimeException e) {
+					close();
+					throw e;
+				}
+				if(next == null) {
+					close();
+				}
+			}
+			return next != null;
+		}
+
+		public T next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			T obj = next;
+			next = null;
+			return obj;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * releases the connector (the rows not read yet are skipped)
+		 */
+		public void close() {
+			done = true;
+			in = null;
+			if(connector != null) {
+				synchronized(open) {
+					open.remove(this);
+				}
+				try {
+					connector.close();
+				} catch(IOException e) {
+					throw new SienaException(e);
+				} finally {
+					connector = null;
+				}
+			}
+		}
+	}
+}
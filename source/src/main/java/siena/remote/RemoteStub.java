@@ -18,10 +18,13 @@ package siena.remote;
 import static siena.remote.Common.fillRequestElement;
 import static siena.remote.Common.parseEntity;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.dom4j.Document;
@@ -30,6 +33,8 @@ import org.dom4j.Element;
 
 import siena.ClassInfo;
 import siena.Model;
+import siena.PersistenceManager;
+import siena.PersistenceManagerFactory;
 import siena.Query;
 import siena.SienaException;
 import siena.Util;
@@ -45,21 +50,11 @@ public class RemoteStub {
 		this.serializer = serializer;
 	}
 
-	@SuppressWarnings("unchecked")
 	public Document process(Document doc) {
 		try {
 			Element root = doc.getRootElement();
 			if(key != null) {
-				// TODO: cutom exception message if time is null
-				long time = Long.parseLong(root.attributeValue("time"));
-				String hash = root.attributeValue("hash");
-				if(!Util.sha1(time+key).equals(hash)) {
-					throw new SienaException("Invalid hash");
-				}
-				long diff = Math.abs(time - System.currentTimeMillis());
-				if(diff > 10000) {
-					throw new SienaException("Invalid time");
-				}
+				checkHash(root.attributeValue("time"), root.attributeValue("hash"));
 			}
 			String action = root.getName();
 			if("insert".equals(action)) {
@@ -75,54 +70,22 @@ public class RemoteStub {
 				obj.get();
 				return simpleResponse(obj, false);
 			} else if("query".equals(action)) {
-				// TODO: convert document to QueryBase
-				
-				String clazzName = root.attributeValue("class");
-				Class<? extends Model> clazz = (Class<? extends Model>) Common.classForName(clazzName, classLoader);
-				Query<? extends Model> query = Model.all(clazz);
-
-				List<Element> list = root.elements();
-				for (Element element : list) {
-					String name = element.getName();
-					String fieldName = element.attributeValue("field");
-					if("filter".equals(name)) {
-						// TODO: operator attribute
-						Field field = clazz.getField(fieldName);
-						Object value = null;
-						if(element.hasContent()) {
-							if(ClassInfo.isModel(field.getType())) {
-								value = Common.parseEntity(element, classLoader);
-							} else {
-								value = Util.fromString(field.getType(), element.getText());
-							}
-						}
-						query.filter(fieldName, value);
-					} else if("order".equals(name)) {
-						// TODO: ascending attribute
-						query.order(fieldName);
-					}
-				}
-
+				Query<?> query = parseQuery(root);
 				String limit  = root.attributeValue("limit");
 				String offset = root.attributeValue("offset");
-				
-				List<? extends Model> result = null;
-				if(limit != null && offset != null) {
-					result = query.fetch(Integer.parseInt(limit), Integer.parseInt(offset));
-				} else if(limit != null) {
-					result = query.fetch(Integer.parseInt(limit));
-				} else {
-					result = query.fetch();
-				}
+				int offsetValue = offset != null ? Integer.parseInt(offset) : -1;
+				List<?> result = fetch(query, limit != null ? Integer.parseInt(limit) : -1, offsetValue);
 				
 				Document response = DocumentHelper.createDocument();
 				Element r = response.addElement("result");
-				for (Model obj : result) {
+				for (Object obj : result) {
 					Element object = r.addElement("object");
 					fillRequestElement(obj, object, false);
 				}
-				// TODO add nextOffset to response
+				r.addAttribute("nextOffset", Integer.toString(Math.max(offsetValue, 0) + result.size()));
 				return response;
+			} else if("batch".equals(action)) {
+				return processBatch(root);
 			}
 		} catch(Throwable e) {
 			return error(e);
@@ -130,6 +93,172 @@ public class RemoteStub {
 		return newDocument("ok");
 	}
 	
+	@SuppressWarnings("unchecked")
+	private Query<?> parseQuery(Element root) throws Exception {
+		Class<?> clazz = Common.classForName(root.attributeValue("class"), classLoader);
+		Query<?> query = PersistenceManagerFactory.getPersistenceManager(clazz).createQuery(clazz);
+
+		List<Element> list = root.elements();
+		for (Element element : list) {
+			String name = element.getName();
+			String fieldName = element.attributeValue("field");
+			if("filter".equals(name)) {
+				Field field = Util.getField(clazz, fieldName);
+				if(field == null) {
+					throw new SienaException("Filter field '"+fieldName+"' not found");
+				}
+				Object value = null;
+				if(element.attributeValue("collection") != null) {
+					List<Object> values = new ArrayList<Object>();
+					for (Element v : (List<Element>) element.elements("value")) {
+						values.add(parseValue(field, v));
+					}
+					value = values;
+				} else if(element.hasContent()) {
+					value = parseValue(field, element);
+				}
+				query.filter(filterName(fieldName, element.attributeValue("operator")), value);
+			} else if("order".equals(name)) {
+				query.order("false".equals(element.attributeValue("ascending")) ? "-"+fieldName : fieldName);
+			}
+		}
+		return query;
+	}
+	
+	private Object parseValue(Field field, Element element) {
+		if(ClassInfo.isModel(field.getType())) {
+			return Common.parseEntity(element, classLoader);
+		}
+		return Util.fromString(field.getType(), element.getText());
+	}
+	
+	private static String filterName(String fieldName, String operator) {
+		return operator == null || "=".equals(operator) ? fieldName : fieldName+" "+operator;
+	}
+	
+	private static List<?> fetch(Query<?> query, int limit, int offset) {
+		if(limit >= 0 && offset >= 0) {
+			return query.fetch(limit, offset);
+		} else if(limit >= 0) {
+			return query.fetch(limit);
+		}
+		return query.fetch();
+	}
+	
+	private static Iterable<?> iter(Query<?> query, int limit, int offset, int pageSize) {
+		if(pageSize > 0) {
+			return query.iterPerPage(pageSize);
+		} else if(limit >= 0 && offset >= 0) {
+			return query.iter(limit, offset);
+		} else if(limit >= 0) {
+			return query.iter(limit);
+		}
+		return query.iter();
+	}
+	
+	/**
+	 * runs an operation of a batch with the bulk methods of the persistence manager of its class
+	 */
+	private void execute(RemoteBatch.Operation op) {
+		if(op.clazz == null) {
+			// no object
+			op.result = 0;
+			return;
+		}
+		PersistenceManager pm = PersistenceManagerFactory.getPersistenceManager(op.clazz);
+		if(RemoteBatch.INSERT.equals(op.action)) {
+			op.result = pm.insert(op.objects);
+		} else if(RemoteBatch.UPDATE.equals(op.action)) {
+			op.result = pm.update(op.objects);
+		} else if(RemoteBatch.SAVE.equals(op.action)) {
+			op.result = pm.save(op.objects);
+		} else if(RemoteBatch.DELETE.equals(op.action)) {
+			op.result = pm.delete(op.objects);
+		} else if(RemoteBatch.GET.equals(op.action)) {
+			op.result = pm.get(op.objects);
+		} else if(RemoteBatch.DELETE_BY_KEYS.equals(op.action)) {
+			op.result = pm.deleteByKeys(op.clazz, op.objects);
+		} else if(RemoteBatch.GET_BY_KEYS.equals(op.action)) {
+			op.result = pm.getByKeys(op.clazz, op.objects);
+		} else if(RemoteBatch.FETCH.equals(op.action)) {
+			op.result = fetch(op.query, op.limit, op.offset);
+		} else {
+			throw new SienaException("Unknown operation: "+op.action);
+		}
+	}
+	
+	private static Class<?> keyType(Class<?> clazz) {
+		return ClassInfo.getClassInfo(clazz).keys.get(0).getType();
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Document processBatch(Element root) {
+		Document response = newDocument("batch");
+		Element results = response.getRootElement();
+		for (Element element : (List<Element>) root.elements("operation")) {
+			try {
+				RemoteBatch.Operation op = parseOperation(element);
+				execute(op);
+				fillResult(results.addElement("result"), op);
+			} catch(Throwable e) {
+				Element error = results.addElement("error");
+				error.addAttribute("class", e.getClass().getName());
+				if(e.getMessage() != null) {
+					error.setText(e.getMessage());
+				}
+			}
+		}
+		return response;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private RemoteBatch.Operation parseOperation(Element element) throws Exception {
+		RemoteBatch.Operation op = new RemoteBatch.Operation(element.attributeValue("action"), null, null);
+		if(RemoteBatch.FETCH.equals(op.action)) {
+			op.query = parseQuery(element);
+			op.clazz = op.query.getQueriedClass();
+			String limit  = element.attributeValue("limit");
+			String offset = element.attributeValue("offset");
+			op.limit = limit != null ? Integer.parseInt(limit) : -1;
+			op.offset = offset != null ? Integer.parseInt(offset) : -1;
+		} else if(op.hasEntities()) {
+			for (Element object : (List<Element>) element.elements("object")) {
+				Object obj = Util.createObjectInstance(Common.classForName(object.attributeValue("class"), classLoader));
+				Common.parseEntity(obj, object, classLoader);
+				op.objects.add(obj);
+			}
+			if(!op.objects.isEmpty()) {
+				op.clazz = op.objects.get(0).getClass();
+			}
+		} else {
+			op.clazz = Common.classForName(element.attributeValue("class"), classLoader);
+			Class<?> type = keyType(op.clazz);
+			for (Element key : (List<Element>) element.elements("key")) {
+				op.objects.add(Util.fromString(type, key.getText()));
+			}
+		}
+		return op;
+	}
+	
+	private void fillResult(Element result, RemoteBatch.Operation op) {
+		if(op.result instanceof Integer) {
+			result.addAttribute("count", op.result.toString());
+		}
+		if(op.receivesEntities()) {
+			boolean ids = !RemoteBatch.GET.equals(op.action);
+			for (Object obj : op.objects) {
+				fillRequestElement(obj, result.addElement("object"), ids);
+			}
+		} else if(op.result instanceof List<?>) {
+			for (Object obj : (List<?>) op.result) {
+				Element object = result.addElement("object");
+				if(obj != null) {
+					fillRequestElement(obj, object, false);
+				}
+			}
+		}
+	}
+	
 	private Document newDocument(String root) {
 		return DocumentHelper.createDocument().addElement(root).getDocument();
 	}
@@ -148,11 +277,268 @@ public class RemoteStub {
 		return response;
 	}
 	
+	private void checkHash(String time, String hash) {
+		if(time == null) {
+			throw new SienaException("Missing time");
+		}
+		try {
+			checkHash(Long.parseLong(time), hash);
+		} catch(NumberFormatException e) {
+			throw new SienaException("Invalid time");
+		}
+	}
+	
+	private void checkHash(long time, String hash) {
+		if(!Util.sha1(time+key).equals(hash)) {
+			throw new SienaException("Invalid hash");
+		}
+		long diff = Math.abs(time - System.currentTimeMillis());
+		if(diff > 10000) {
+			throw new SienaException("Invalid time");
+		}
+	}
+	
 	public void execute(InputStream in, OutputStream out) throws IOException {
+		if(serializer instanceof BinarySerializer) {
+			execute((BinarySerializer) serializer, in, out);
+			return;
+		}
 		Document request = serializer.deserialize(in);
 		Document response = process(request);
 		serializer.serialize(response, out);
 	}
+	
+	/**
+	 * reads the operation and writes its response directly from/to the streams
+	 * (only the documents tunneled in the binary format are processed as DOM)
+	 */
+	private void execute(BinarySerializer binary, InputStream in, OutputStream out) throws IOException {
+		DataInputStream input = binary.input(in);
+		DataOutputStream output = binary.output(out);
+		if(input.readByte() == BinarySerializer.DOCUMENT) {
+			Document response;
+			try {
+				// the hash is checked before reading the document
+				String time = binary.readString(input);
+				String hash = binary.readString(input);
+				if(key != null) {
+					checkHash(time, hash);
+				}
+				response = process(binary.readDocument(input));
+			} catch(IOException e) {
+				throw e;
+			} catch(Throwable e) {
+				response = error(e);
+			}
+			binary.serialize(response, output);
+			return;
+		}
+		try {
+			process(binary, input, output);
+		} catch(IOException e) {
+			throw e;
+		} catch(Throwable e) {
+			binary.writeError(output, e);
+		}
+		output.flush();
+	}
+	
+	private void process(BinarySerializer binary, DataInputStream in, DataOutputStream out) throws Exception {
+		String action = binary.readString(in);
+		long time = in.readLong();
+		String hash = binary.readString(in);
+		if(key != null) {
+			checkHash(time, hash);
+		}
+		if("insert".equals(action)) {
+			Model obj = (Model) binary.readEntity(in, classLoader);
+			obj.insert();
+			out.writeByte(BinarySerializer.ENTITY);
+			binary.writeEntity(out, obj, true);
+		} else if("update".equals(action)) {
+			((Model) binary.readEntity(in, classLoader)).update();
+			out.writeByte(BinarySerializer.OK);
+		} else if("delete".equals(action)) {
+			((Model) binary.readEntity(in, classLoader)).delete();
+			out.writeByte(BinarySerializer.OK);
+		} else if("get".equals(action)) {
+			Model obj = (Model) binary.readEntity(in, classLoader);
+			obj.get();
+			out.writeByte(BinarySerializer.ENTITY);
+			binary.writeEntity(out, obj, false);
+		} else if("query".equals(action)) {
+			RemoteBatch.Operation op = readQuery(binary, in);
+			if(op.error != null) {
+				throw op.error;
+			}
+			List<?> result = fetch(op.query, op.limit, op.offset);
+			// the rows are written one by one: an error while writing them is sent in place of the next row
+			out.writeByte(BinarySerializer.LIST);
+			try {
+				for (Object obj : result) {
+					binary.writeRow(out, obj);
+				}
+			} catch(IOException e) {
+				throw e;
+			} catch(Throwable e) {
+				binary.writeError(out, e);
+				return;
+			}
+			out.writeByte(BinarySerializer.END);
+		} else if("iter".equals(action)) {
+			RemoteBatch.Operation op = readQuery(binary, in);
+			int pageSize = binary.readVarInt(in);
+			if(op.error != null) {
+				throw op.error;
+			}
+			Iterable<?> rows = iter(op.query, op.limit, op.offset, pageSize);
+			// the rows are written while iterating and the buffer is sent each time it is full:
+			// the writes block while the client doesn't read
+			out.writeByte(BinarySerializer.LIST);
+			try {
+				for (Object obj : rows) {
+					binary.writeRow(out, obj);
+				}
+			} catch(IOException e) {
+				throw e;
+			} catch(Throwable e) {
+				binary.writeError(out, e);
+				return;
+			} finally {
+				op.query.release();
+			}
+			out.writeByte(BinarySerializer.END);
+		} else if("batch".equals(action)) {
+			// the whole request is read before running the operations
+			List<RemoteBatch.Operation> operations = readBatch(binary, in);
+			out.writeByte(BinarySerializer.OK);
+			for (RemoteBatch.Operation op : operations) {
+				try {
+					if(op.error != null) {
+						throw op.error;
+					}
+					execute(op);
+				} catch(Throwable e) {
+					binary.writeError(out, e);
+					continue;
+				}
+				writeResult(binary, out, op);
+			}
+		} else {
+			throw new SienaException("Unknown action: "+action);
+		}
+	}
+	
+	private List<RemoteBatch.Operation> readBatch(BinarySerializer binary, DataInputStream in) throws Exception {
+		int size = binary.readLength(in);
+		List<RemoteBatch.Operation> operations = new ArrayList<RemoteBatch.Operation>(size);
+		for(int i=0; i<size; i++) {
+			RemoteBatch.Operation op = new RemoteBatch.Operation(binary.readString(in), null, null);
+			if(RemoteBatch.FETCH.equals(op.action)) {
+				op = readQuery(binary, in);
+			} else if(op.hasEntities()) {
+				for(int j = binary.readVarInt(in); j > 0; j--) {
+					op.objects.add(binary.readEntity(in, classLoader));
+				}
+				if(!op.objects.isEmpty()) {
+					op.clazz = op.objects.get(0).getClass();
+				}
+			} else {
+				op.clazz = Common.classForName(binary.readString(in), classLoader);
+				Class<?> type = keyType(op.clazz);
+				for(int j = binary.readVarInt(in); j > 0; j--) {
+					op.objects.add(binary.readValue(in, type, classLoader));
+				}
+			}
+			operations.add(op);
+		}
+		return operations;
+	}
+	
+	private void writeResult(BinarySerializer binary, DataOutputStream out, RemoteBatch.Operation op) throws IOException {
+		out.writeByte(BinarySerializer.OK);
+		if(op.result instanceof List<?>) {
+			List<?> list = (List<?>) op.result;
+			binary.writeVarInt(out, list.size());
+			for (Object obj : list) {
+				out.writeBoolean(obj != null);
+				if(obj != null) {
+					binary.writeEntity(out, obj, false);
+				}
+			}
+			return;
+		}
+		binary.writeVarInt(out, (Integer) op.result);
+		if(op.receivesEntities()) {
+			boolean ids = !RemoteBatch.GET.equals(op.action);
+			for (Object obj : op.objects) {
+				binary.writeEntity(out, obj, ids);
+			}
+		}
+	}
+	
+	/**
+	 * reads a query with its limit and offset: an error while building the query
+	 * is kept in the operation so that the next operations of a batch can still be read
+	 */
+	private RemoteBatch.Operation readQuery(BinarySerializer binary, DataInputStream in) throws Exception {
+		SienaException error = null;
+		Class<?> clazz = null;
+		try {
+			clazz = Common.classForName(binary.readString(in), classLoader);
+		} catch(ClassNotFoundException e) {
+			error = new SienaException(e);
+		}
+		List<String> filters = new ArrayList<String>();
+		List<Object> values = new ArrayList<Object>();
+		for(int i = binary.readVarInt(in); i > 0; i--) {
+			String fieldName = binary.readString(in);
+			String operator = binary.readString(in);
+			Field field = clazz != null ? Util.getField(clazz, fieldName) : null;
+			if(field == null) {
+				binary.skipFilterValue(in);
+				if(error == null) {
+					error = new SienaException("Filter field '"+fieldName+"' not found");
+				}
+				continue;
+			}
+			try {
+				values.add(binary.readFilterValue(in, field.getType(), classLoader));
+				filters.add(filterName(fieldName, operator));
+			} catch(RuntimeException e) {
+				if(error == null) {
+					error = e instanceof SienaException ? (SienaException) e : new SienaException(e);
+				}
+			}
+		}
+		List<String> orders = new ArrayList<String>();
+		for(int i = binary.readVarInt(in); i > 0; i--) {
+			String fieldName = binary.readString(in);
+			orders.add(in.readBoolean() ? fieldName : "-"+fieldName);
+		}
+		
+		RemoteBatch.Operation op = new RemoteBatch.Operation(RemoteBatch.FETCH, clazz, null);
+		op.limit = binary.readVarInt(in) - 1;
+		op.offset = binary.readVarInt(in) - 1;
+		if(error != null) {
+			op.error = error;
+			return op;
+		}
+		try {
+			op.query = PersistenceManagerFactory.getPersistenceManager(clazz).createQuery(clazz);
+			for (int i = 0; i < filters.size(); i++) {
+				op.query.filter(filters.get(i), values.get(i));
+			}
+			for (String order : orders) {
+				op.query.order(order);
+			}
+		} catch(SienaException e) {
+			op.error = e;
+		} catch(RuntimeException e) {
+			op.error = new SienaException(e);
+		}
+		return op;
+	}
 
 	public void setKey(String key) {
 		this.key = key;
@@ -0,0 +1,31 @@
+package siena.sdb;
+
+import java.util.List;
+
+import siena.SienaException;
+
+/**
+ * Thrown when some items of a batch insert/update/delete couldn't be written to SimpleDB:
+ * the other items have been written.
+ */
+public class SdbBatchException extends SienaException {
+	private static final long serialVersionUID = 4870296153827140516L;
+
+	protected final List<SdbBatchWriter.Failure> failures;
+	protected final int succeeded;
+
+	public SdbBatchException(SdbBatchWriter.Result result) {
+		super(result.getFailures().size() + " item(s) not written (" + result.getSucceeded() + " written), first: "
+				+ result.getFailures().get(0), result.getFailures().get(0).exception);
+		this.failures = result.getFailures();
+		this.succeeded = result.getSucceeded();
+	}
+
+	public List<SdbBatchWriter.Failure> getFailures() {
+		return failures;
+	}
+
+	public int getSucceeded() {
+		return succeeded;
+	}
+}
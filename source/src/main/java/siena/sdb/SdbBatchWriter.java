@@ -0,0 +1,370 @@
+package siena.sdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import siena.SienaException;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.simpledb.AmazonSimpleDB;
+import com.amazonaws.services.simpledb.model.BatchDeleteAttributesRequest;
+import com.amazonaws.services.simpledb.model.BatchPutAttributesRequest;
+import com.amazonaws.services.simpledb.model.DeletableItem;
+import com.amazonaws.services.simpledb.model.ReplaceableItem;
+
+/**
+ * Sends the batchPutAttributes/batchDeleteAttributes calls of SdbPersistenceManager.
+ *
+ * The items of each domain are split into chunks of MAX_ITEMS_PER_CALL items and the chunks of all the domains
+ * are sent concurrently, at most maxInFlight calls at a time (the caller blocks when the limit is reached).
+ *
+ * A call throttled by SimpleDB (ServiceUnavailable or any 5xx status) is retried after an exponential backoff
+ * with jitter, up to maxRetries times.
+ * As a batch call fails as a whole, a chunk rejected for another reason is resent item by item
+ * so that the failures are reported per item in the Result.
+ * Any other error (interruption, unexpected exception) is reported as the failure of the items not written yet.
+ */
+public class SdbBatchWriter {
+	public static final int DEFAULT_MAX_IN_FLIGHT = 10;
+	public static final int DEFAULT_MAX_RETRIES = 6;
+	public static final long DEFAULT_BACKOFF = 100;
+	public static final long DEFAULT_MAX_BACKOFF = 10000;
+
+	public static final String SERVICE_UNAVAILABLE = "ServiceUnavailable";
+
+	private static final AtomicInteger executorCounter = new AtomicInteger();
+
+	protected final AmazonSimpleDB sdb;
+	protected final int maxInFlight;
+	protected final int maxRetries;
+	protected final long backoff;
+	protected final long maxBackoff;
+
+	protected final ExecutorService executor;
+	protected final Semaphore inFlight;
+	protected final Random random = new Random();
+
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+
+	public SdbBatchWriter(AmazonSimpleDB sdb) {
+		this(sdb, DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_RETRIES, DEFAULT_BACKOFF, DEFAULT_MAX_BACKOFF);
+	}
+
+	/**
+	 * @param maxInFlight the max number of concurrent calls (1 sends the chunks one by one in the caller thread)
+	 * @param maxRetries the max number of retries of a throttled call
+	 * @param backoff the delay in ms before the first retry, doubled at each retry
+	 * @param maxBackoff the max delay in ms between two retries
+	 */
+	public SdbBatchWriter(AmazonSimpleDB sdb, int maxInFlight, int maxRetries, long backoff, long maxBackoff) {
+		if(maxInFlight <= 0) {
+			throw new SienaException("maxInFlight must be greater than 0");
+		}
+		this.sdb = sdb;
+		this.maxInFlight = maxInFlight;
+		this.maxRetries = maxRetries;
+		this.backoff = backoff;
+		this.maxBackoff = maxBackoff;
+		this.inFlight = new Semaphore(maxInFlight);
+		if(maxInFlight > 1) {
+			ThreadPoolExecutor tpe = new ThreadPoolExecutor(maxInFlight, maxInFlight, 60L, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), newThreadFactory("siena-sdb-batch"));
+			tpe.allowCoreThreadTimeOut(true);
+			executor = tpe;
+		} else {
+			executor = null;
+		}
+	}
+
+	/**
+	 * @return a factory of daemon threads named name-[executor number]-[thread number]
+	 */
+	protected static ThreadFactory newThreadFactory(String name) {
+		final String prefix = name + "-" + executorCounter.incrementAndGet();
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * @return the number of batch calls sent (retries included)
+	 */
+	public long getCalls() {
+		return calls.get();
+	}
+
+	/**
+	 * @return the number of calls retried after a throttling
+	 */
+	public long getRetries() {
+		return retries.get();
+	}
+
+	/**
+	 * stops the threads of the writer
+	 */
+	public void shutdown() {
+		if(executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Puts the items (by domain) and waits for all the calls
+	 */
+	public Result put(Map<String, List<ReplaceableItem>> items) {
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		for(final Map.Entry<String, List<ReplaceableItem>> entry: items.entrySet()){
+			List<ReplaceableItem> doList = entry.getValue();
+			for(int i=0; i < doList.size(); i += SdbPersistenceManager.MAX_ITEMS_PER_CALL){
+				final List<ReplaceableItem> sub =
+					doList.subList(i, Math.min(i + SdbPersistenceManager.MAX_ITEMS_PER_CALL, doList.size()));
+				chunks.add(new Chunk(entry.getKey(), sub.size()) {
+					protected String itemName(int i) {
+						return sub.get(i).getName();
+					}
+
+					protected void send(int from, int to) {
+						sdb.batchPutAttributes(new BatchPutAttributesRequest(domain, sub.subList(from, to)));
+					}
+				});
+			}
+		}
+		return write(chunks);
+	}
+
+	/**
+	 * Deletes the items (by domain) and waits for all the calls
+	 */
+	public Result delete(Map<String, List<DeletableItem>> items) {
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		for(final Map.Entry<String, List<DeletableItem>> entry: items.entrySet()){
+			List<DeletableItem> doList = entry.getValue();
+			for(int i=0; i < doList.size(); i += SdbPersistenceManager.MAX_ITEMS_PER_CALL){
+				final List<DeletableItem> sub =
+					doList.subList(i, Math.min(i + SdbPersistenceManager.MAX_ITEMS_PER_CALL, doList.size()));
+				chunks.add(new Chunk(entry.getKey(), sub.size()) {
+					protected String itemName(int i) {
+						return sub.get(i).getName();
+					}
+
+					protected void send(int from, int to) {
+						sdb.batchDeleteAttributes(new BatchDeleteAttributesRequest(domain, sub.subList(from, to)));
+					}
+				});
+			}
+		}
+		return write(chunks);
+	}
+
+	protected Result write(List<Chunk> chunks) {
+		final Result result = new Result();
+		if(executor == null || chunks.size() == 1) {
+			for(Chunk chunk: chunks){
+				chunk.run(result);
+			}
+			return result;
+		}
+
+		final CountDownLatch done = new CountDownLatch(chunks.size());
+		try {
+			for(final Chunk chunk: chunks){
+				inFlight.acquire();
+				try {
+					executor.execute(new Runnable() {
+						public void run() {
+							try {
+								chunk.run(result);
+							} finally {
+								inFlight.release();
+								done.countDown();
+							}
+						}
+					});
+				} catch(RuntimeException ex) {
+					// rejected by the executor (shut down)
+					inFlight.release();
+					chunk.fail(result, 0, ex);
+					done.countDown();
+				}
+			}
+			done.await();
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new SienaException(ex);
+		}
+		return result;
+	}
+
+	/**
+	 * @return true if SimpleDB asks to retry the call later
+	 */
+	protected boolean isThrottling(Throwable ex) {
+		if(!(ex instanceof AmazonServiceException)) {
+			return false;
+		}
+		AmazonServiceException sex = (AmazonServiceException)ex;
+		return SERVICE_UNAVAILABLE.equals(sex.getErrorCode()) || sex.getStatusCode() >= 500;
+	}
+
+	/**
+	 * the delay before the retry (the first one is 1): backoff*2^(retry-1) capped to maxBackoff,
+	 * half of it being random so that the throttled threads don't retry all at once
+	 */
+	protected long delay(int retry) {
+		long d = backoff << Math.min(retry - 1, 30);
+		if(d <= 0 || d > maxBackoff) {
+			d = maxBackoff;
+		}
+		long half = d / 2;
+		synchronized(random) {
+			return half + (half > 0 ? (long)(random.nextDouble() * half) : 0);
+		}
+	}
+
+	/**
+	 * sends one batch call retrying it while it's throttled
+	 */
+	protected void call(Chunk chunk, int from, int to) throws InterruptedException {
+		for(int retry = 0;; retry++){
+			calls.incrementAndGet();
+			try {
+				chunk.send(from, to);
+				return;
+			} catch(AmazonClientException ex) {
+				if(retry >= maxRetries || !isThrottling(ex)) {
+					throw ex;
+				}
+			}
+			retries.incrementAndGet();
+			Thread.sleep(delay(retry + 1));
+		}
+	}
+
+	/**
+	 * The items of one batch call
+	 */
+	protected abstract class Chunk {
+		protected final String domain;
+		protected final int size;
+
+		protected Chunk(String domain, int size) {
+			this.domain = domain;
+			this.size = size;
+		}
+
+		protected abstract String itemName(int i);
+
+		protected abstract void send(int from, int to);
+
+		/**
+		 * sends the chunk, each item ending up either succeeded or failed in the result
+		 */
+		protected void run(Result result) {
+			// the items before it are already in the result
+			int i = 0;
+			try {
+				try {
+					call(this, 0, size);
+					result.succeeded.addAndGet(size);
+					i = size;
+				} catch(RuntimeException ex) {
+					if(size == 1 || isThrottling(ex)) {
+						fail(result, 0, ex);
+						return;
+					}
+					// finds the items rejected by SimpleDB
+					for(; i<size; i++){
+						try {
+							call(this, i, i+1);
+							result.succeeded.incrementAndGet();
+						} catch(RuntimeException iex) {
+							result.fail(domain, itemName(i), iex);
+						}
+					}
+				}
+			} catch(Throwable ex) {
+				if(ex instanceof InterruptedException) {
+					Thread.currentThread().interrupt();
+				}
+				fail(result, i, ex);
+			}
+		}
+
+		/**
+		 * records the items from the given index as failed
+		 */
+		protected void fail(Result result, int from, Throwable ex) {
+			for(int i=from; i<size; i++){
+				result.fail(domain, itemName(i), ex);
+			}
+		}
+	}
+
+	/**
+	 * The outcome of a batch write
+	 */
+	public static class Result {
+		protected final AtomicInteger succeeded = new AtomicInteger();
+		protected final List<Failure> failures = Collections.synchronizedList(new ArrayList<Failure>());
+
+		protected void fail(String domain, String itemName, Throwable ex) {
+			failures.add(new Failure(domain, itemName, ex));
+		}
+
+		public int getSucceeded() {
+			return succeeded.get();
+		}
+
+		public List<Failure> getFailures() {
+			return failures;
+		}
+
+		public boolean isSuccess() {
+			return failures.isEmpty();
+		}
+	}
+
+	/**
+	 * An item which couldn't be written
+	 */
+	public static class Failure {
+		public final String domain;
+		public final String itemName;
+		public final Throwable exception;
+
+		public Failure(String domain, String itemName, Throwable exception) {
+			this.domain = domain;
+			this.itemName = itemName;
+			this.exception = exception;
+		}
+
+		public String toString() {
+			return domain + "/" + itemName + ": " + exception.getMessage();
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package siena.sdb;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import siena.logging.SienaLogger;
+import siena.logging.SienaLoggerFactory;
+
+import com.amazonaws.services.simpledb.AmazonSimpleDB;
+import com.amazonaws.services.simpledb.model.CreateDomainRequest;
+import com.amazonaws.services.simpledb.model.DomainMetadataRequest;
+import com.amazonaws.services.simpledb.model.DomainMetadataResult;
+import com.amazonaws.services.simpledb.model.ListDomainsRequest;
+import com.amazonaws.services.simpledb.model.ListDomainsResult;
+
+/**
+ * The SimpleDB domains known by a SdbPersistenceManager.
+ *
+ * Once a domain is known to exist, ensure(domain) does no remote call: the list of the domains is loaded
+ * by warmUp() (or by the first ensure) and refreshed in background every ttl ms so that the domains
+ * deleted meanwhile are created again (a failed refresh is retried ttl ms later).
+ * A missing domain is created once, the threads needing it meanwhile wait for the creation.
+ *
+ * The metadata of the domains (number of items, attributes...) are also cached for ttl ms.
+ */
+public class SdbDomainRegistry {
+	public static final long DEFAULT_TTL = 600000;
+
+	protected static SienaLogger logger = SienaLoggerFactory.getLogger(SdbDomainRegistry.class);
+
+	protected final AmazonSimpleDB sdb;
+	protected final long ttl;
+	protected final Executor executor;
+
+	protected final ConcurrentHashMap<String, Domain> domains = new ConcurrentHashMap<String, Domain>();
+	protected final Object listLock = new Object();
+	protected volatile long listedAt = 0;
+	// the last background refresh which failed: the next one waits ttl ms too
+	protected volatile long refreshFailedAt = 0;
+	private final AtomicBoolean refreshing = new AtomicBoolean();
+
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong listed = new AtomicLong();
+
+	/**
+	 * @param ttl the max age in ms of the list of domains and of the metadata (0 never refreshes them)
+	 * @param executor runs the refreshes of the list (in the caller thread if null)
+	 */
+	public SdbDomainRegistry(AmazonSimpleDB sdb, long ttl, Executor executor) {
+		this.sdb = sdb;
+		this.ttl = ttl;
+		this.executor = executor;
+	}
+
+	/**
+	 * Loads the list of the existing domains
+	 */
+	public void warmUp() {
+		refresh();
+	}
+
+	/**
+	 * Creates the domain if it doesn't exist
+	 */
+	public void ensure(String name) {
+		Domain domain = domain(name);
+		if(!domain.exists){
+			create(domain);
+		}
+		if(ttl > 0 && System.currentTimeMillis() - Math.max(listedAt, refreshFailedAt) > ttl){
+			refreshLater();
+		}
+	}
+
+	/**
+	 * Forgets the domain (deleted for example): it will be created again by the next ensure
+	 */
+	public void invalidate(String name) {
+		Domain domain = domains.get(name);
+		if(domain != null){
+			domain.exists = false;
+			domain.metadata = null;
+		}
+	}
+
+	public boolean isKnown(String name) {
+		Domain domain = domains.get(name);
+		return domain != null && domain.exists;
+	}
+
+	/**
+	 * @return the metadata of the domain, at most ttl ms old
+	 */
+	public DomainMetadataResult getMetadata(String name) {
+		Domain domain = domain(name);
+		DomainMetadataResult metadata = domain.metadata;
+		if(metadata == null || (ttl > 0 && System.currentTimeMillis() - domain.metadataAt > ttl)){
+			synchronized(domain) {
+				metadata = domain.metadata;
+				if(metadata == null || (ttl > 0 && System.currentTimeMillis() - domain.metadataAt > ttl)){
+					metadata = sdb.domainMetadata(new DomainMetadataRequest(name));
+					domain.metadataAt = System.currentTimeMillis();
+					domain.metadata = metadata;
+				}
+			}
+		}
+		return metadata;
+	}
+
+	/**
+	 * @return the number of createDomain calls
+	 */
+	public long getCreated() {
+		return created.get();
+	}
+
+	/**
+	 * @return the number of times the list of domains has been loaded
+	 */
+	public long getListed() {
+		return listed.get();
+	}
+
+	protected Domain domain(String name) {
+		Domain domain = domains.get(name);
+		if(domain == null){
+			domain = new Domain(name);
+			Domain prev = domains.putIfAbsent(name, domain);
+			if(prev != null){
+				domain = prev;
+			}
+		}
+		return domain;
+	}
+
+	protected void create(Domain domain) {
+		// the existing domains are loaded first not to create them again
+		if(listedAt == 0){
+			synchronized(listLock) {
+				if(listedAt == 0){
+					refresh();
+				}
+			}
+		}
+		synchronized(domain) {
+			if(!domain.exists){
+				sdb.createDomain(new CreateDomainRequest(domain.name));
+				created.incrementAndGet();
+				domain.createdAt = System.currentTimeMillis();
+				domain.exists = true;
+			}
+		}
+	}
+
+	/**
+	 * Reloads the list of the domains
+	 */
+	public void refresh() {
+		synchronized(listLock) {
+			long start = System.currentTimeMillis();
+			Set<String> names = new HashSet<String>();
+			String token = null;
+			do {
+				ListDomainsResult res = sdb.listDomains(new ListDomainsRequest().withNextToken(token));
+				names.addAll(res.getDomainNames());
+				token = res.getNextToken();
+			} while(token != null);
+			listed.incrementAndGet();
+
+			for(String name: names){
+				domain(name).exists = true;
+			}
+			for(Domain domain: domains.values()){
+				// a domain created during the listing may not be listed
+				if(!names.contains(domain.name) && domain.createdAt < start){
+					domain.exists = false;
+				}
+			}
+			listedAt = System.currentTimeMillis();
+		}
+	}
+
+	protected void refreshLater() {
+		if(!refreshing.compareAndSet(false, true)){
+			return;
+		}
+		Runnable refresh = new Runnable() {
+			public void run() {
+				try {
+					refresh();
+				} catch(RuntimeException ex) {
+					refreshFailedAt = System.currentTimeMillis();
+					logger.warning("Error while refreshing the SimpleDB domains", ex);
+				} finally {
+					refreshing.set(false);
+				}
+			}
+		};
+		if(executor != null){
+			executor.execute(refresh);
+		} else {
+			refresh.run();
+		}
+	}
+
+	protected static class Domain {
+		final String name;
+		volatile boolean exists = false;
+		volatile long createdAt;
+		volatile DomainMetadataResult metadata;
+		volatile long metadataAt;
+
+		Domain(String name) {
+			this.name = name;
+		}
+	}
+}
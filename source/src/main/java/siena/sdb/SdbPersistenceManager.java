@@ -18,11 +18,15 @@ package siena.sdb;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 import siena.AbstractPersistenceManager;
 import siena.ClassInfo;
@@ -38,15 +42,15 @@ import siena.core.options.QueryOptionState;
 import siena.gae.GaeMappingUtils;
 import siena.gae.GaeQueryUtils;
 import siena.gae.QueryOptionGaeContext;
+import siena.logging.SienaLogger;
+import siena.logging.SienaLoggerFactory;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.simpledb.AmazonSimpleDB;
 import com.amazonaws.services.simpledb.AmazonSimpleDBClient;
-import com.amazonaws.services.simpledb.model.BatchDeleteAttributesRequest;
-import com.amazonaws.services.simpledb.model.BatchPutAttributesRequest;
-import com.amazonaws.services.simpledb.model.CreateDomainRequest;
+import com.amazonaws.services.simpledb.model.DomainMetadataResult;
 import com.amazonaws.services.simpledb.model.DeletableItem;
 import com.amazonaws.services.simpledb.model.GetAttributesRequest;
 import com.amazonaws.services.simpledb.model.GetAttributesResult;
@@ -57,6 +61,8 @@ import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
 
 public class SdbPersistenceManager extends AbstractPersistenceManager {
+	protected static SienaLogger logger = SienaLoggerFactory.getLogger(SdbPersistenceManager.class);
+	
 	public static final String DB = "SDB";
 	private static final String[] supportedOperators = { "<", ">", ">=", "<=", "!=", "=", "LIKE", "NOT LIKE", "IN" };
 
@@ -65,28 +71,116 @@ public class SdbPersistenceManager extends AbstractPersistenceManager {
 	
     public final static int MAX_ITEMS_PER_CALL = 25;
     public final static int MAX_ATTR_PER_SELECT = 20;
+    public final static int DEFAULT_READ_AHEAD = 2;
 
 	private AmazonSimpleDB sdb;
 	private String prefix;
-	private List<String> domains;
+	private SdbDomainRegistry domainRegistry;
+	private SdbBatchWriter batchWriter;
+	private int readAhead = DEFAULT_READ_AHEAD;
+	private ExecutorService executor;
+	private final AtomicLong prefetchedPages = new AtomicLong();
 
 	public void init(Properties p) {
 		String awsAccessKeyId = p.getProperty("awsAccessKeyId");
 		String awsSecretAccessKey = p.getProperty("awsSecretAccessKey");
 		if(awsAccessKeyId == null || awsSecretAccessKey == null)
 			throw new SienaException("Both awsAccessKeyId and awsSecretAccessKey properties must be set");
+		init(p, new AmazonSimpleDBClient(new BasicAWSCredentials(awsAccessKeyId, awsSecretAccessKey)));
+	}
+
+	/**
+	 * Initializes the manager with a given SimpleDB client.
+	 * 
+	 * The batch writes are configured with:
+	 * <pre>
+	 * batch.maxInFlight=10   max number of concurrent batch calls (1 sends them one by one)
+	 * batch.maxRetries=6     max number of retries of a throttled call
+	 * batch.backoff=100      delay in ms before the first retry, doubled at each retry
+	 * batch.maxBackoff=10000 max delay in ms between two retries
+	 * </pre>
+	 * 
+	 * The selects following the NextTokens are prefetched in background with:
+	 * <pre>
+	 * select.readAhead=2     max number of pages fetched in advance (0 disables prefetching)
+	 * </pre>
+	 * 
+	 * The existing domains are loaded at init and cached with:
+	 * <pre>
+	 * domains.warmUp=true    loads the list of domains at init (else at first use)
+	 * domains.ttl=600000     max age in ms of the list of domains and of their metadata
+	 * </pre>
+	 */
+	public void init(Properties p, AmazonSimpleDB sdb) {
 		prefix = p.getProperty("prefix");
 		if(prefix == null) prefix = "";
-		sdb = new AmazonSimpleDBClient(new BasicAWSCredentials(awsAccessKeyId, awsSecretAccessKey));
+		this.sdb = sdb;
+		
+		int maxInFlight = Integer.parseInt(p.getProperty("batch.maxInFlight", 
+				Integer.toString(SdbBatchWriter.DEFAULT_MAX_IN_FLIGHT)).trim());
+		int maxRetries = Integer.parseInt(p.getProperty("batch.maxRetries", 
+				Integer.toString(SdbBatchWriter.DEFAULT_MAX_RETRIES)).trim());
+		long backoff = Long.parseLong(p.getProperty("batch.backoff", 
+				Long.toString(SdbBatchWriter.DEFAULT_BACKOFF)).trim());
+		long maxBackoff = Long.parseLong(p.getProperty("batch.maxBackoff", 
+				Long.toString(SdbBatchWriter.DEFAULT_MAX_BACKOFF)).trim());
+		if(batchWriter != null){
+			batchWriter.shutdown();
+		}
+		batchWriter = new SdbBatchWriter(sdb, maxInFlight, maxRetries, backoff, maxBackoff);
+		
+		readAhead = Integer.parseInt(p.getProperty("select.readAhead", Integer.toString(DEFAULT_READ_AHEAD)).trim());
+		if(executor == null){
+			executor = Executors.newCachedThreadPool(SdbBatchWriter.newThreadFactory("siena-sdb"));
+		}
+		
+		long ttl = Long.parseLong(p.getProperty("domains.ttl", Long.toString(SdbDomainRegistry.DEFAULT_TTL)).trim());
+		domainRegistry = new SdbDomainRegistry(sdb, ttl, executor);
+		if(Boolean.parseBoolean(p.getProperty("domains.warmUp", "true").trim())){
+			try {
+				domainRegistry.warmUp();
+			}catch(AmazonClientException ex){
+				// the domains will be listed when needed
+				logger.warning("Can't list the SimpleDB domains", ex);
+			}
+		}
+	}
+	
+	public SdbBatchWriter getBatchWriter() {
+		return batchWriter;
+	}
+	
+	/**
+	 * throws a SdbBatchException if some items of the batch couldn't be written
+	 */
+	protected int checkBatch(SdbBatchWriter.Result res) {
+		if(!res.isSuccess()){
+			throw new SdbBatchException(res);
+		}
+		return res.getSucceeded();
 	}
 
+	/**
+	 * Creates the domain if it doesn't exist (no remote call once the domain is known)
+	 */
 	public void checkDomain(String domainName) {
-		if(domains == null) {
-			domains = sdb.listDomains().getDomainNames();
-		}
-		if(!domains.contains(domainName)) {
-			sdb.createDomain(new CreateDomainRequest(domainName));
-			domains.add(domainName);
+		domainRegistry.ensure(domainName);
+	}
+	
+	public SdbDomainRegistry getDomainRegistry() {
+		return domainRegistry;
+	}
+	
+	/**
+	 * @return the metadata of the domain of the class (cached for domains.ttl ms)
+	 */
+	public DomainMetadataResult getDomainMetadata(Class<?> clazz) {
+		String domain = SdbMappingUtils.getDomainName(clazz, prefix);
+		try {
+			checkDomain(domain);
+			return domainRegistry.getMetadata(domain);
+		}catch(AmazonClientException ex){
+			throw new SienaException(ex);
 		}
 	}
 	
@@ -136,23 +230,8 @@ public class SdbPersistenceManager extends AbstractPersistenceManager {
 		try {
 			for(String domain: doMap.keySet()){
 				checkDomain(domain);			
-				List<ReplaceableItem> doList = doMap.get(domain);
-				
-				int len = doList.size()> MAX_ITEMS_PER_CALL ? MAX_ITEMS_PER_CALL: doList.size();
-				for(int i=0; i < doList.size(); i += len){
-					int sz = i+len;
-					if(sz > doList.size()){
-						sz = doList.size();
-					}
-					
-					sdb.batchPutAttributes(
-							new BatchPutAttributesRequest(
-									domain, 
-									doList.subList(i, sz)));			
-
-				}
-				
 			}
+			checkBatch(batchWriter.put(doMap));
 		}catch(AmazonClientException ex){
 			throw new SienaException(ex);
 		}
@@ -272,20 +351,8 @@ public class SdbPersistenceManager extends AbstractPersistenceManager {
 		try {
 			for(String domain: doMap.keySet()){
 				checkDomain(domain);			
-				List<ReplaceableItem> doList = doMap.get(domain);
-				
-				int len = doList.size()> MAX_ITEMS_PER_CALL ? MAX_ITEMS_PER_CALL: doList.size();
-				for(int i=0; i < doList.size(); i += len){
-					int sz = i+len;
-					if(sz > doList.size()){
-						sz = doList.size();
-					}
-					sdb.batchPutAttributes(
-							new BatchPutAttributesRequest(
-									domain, 
-									doList.subList(i, sz)));			
-				}
 			}
+			checkBatch(batchWriter.put(doMap));
 		}catch(AmazonClientException ex){
 			throw new SienaException(ex);
 		}
@@ -329,20 +396,8 @@ public class SdbPersistenceManager extends AbstractPersistenceManager {
 		try {
 			for(String domain: doMap.keySet()){
 				checkDomain(domain);			
-				List<DeletableItem> doList = doMap.get(domain);
-				int len = doList.size() > MAX_ITEMS_PER_CALL ? MAX_ITEMS_PER_CALL: doList.size();
-				for(int i=0; i < doList.size(); i += len){
-					int sz = i+len;
-					if(sz > doList.size()){
-						sz = doList.size();
-					}
-					sdb.batchDeleteAttributes(
-							new BatchDeleteAttributesRequest(
-									domain, 
-									doList.subList(i, sz)));			
-
-				}
-			}		
+			}
+			checkBatch(batchWriter.delete(doMap));
 		}catch(AmazonClientException ex){
 			throw new SienaException(ex);
 		}
@@ -483,33 +538,33 @@ public class SdbPersistenceManager extends AbstractPersistenceManager {
 
 	public <T> List<T> fetch(Query<T> query) {
 		List<T> models = new ArrayList<T>(); 
-		doFetchList(query, Integer.MAX_VALUE, 0, models, 0);
+		doFetchList(query, Integer.MAX_VALUE, 0, models);
 		return models;
 	}
 	
 	public <T> List<T> fetch(Query<T> query, int limit) {
 		List<T> models = new ArrayList<T>(); 
-		doFetchList(query, limit, 0, models, 0);
+		doFetchList(query, limit, 0, models);
 		return models;
 	}
 
 	public <T> List<T> fetch(Query<T> query, int limit, Object offset) {
 		List<T> models = new ArrayList<T>(); 
-		doFetchList(query, limit, (Integer)offset, models, 0);
+		doFetchList(query, limit, (Integer)offset, models);
 		return models;
 	}
 
 	public <T> List<T> fetchKeys(Query<T> query) {
 		((QueryOptionFetchType)query.option(QueryOptionFetchType.ID)).fetchType=QueryOptionFetchType.Type.KEYS_ONLY;
 		List<T> models = new ArrayList<T>(); 
-		doFetchList(query, Integer.MAX_VALUE, 0, models, 0);		
+		doFetchList(query, Integer.MAX_VALUE, 0, models);		
 		return models;
 	}
 
 	public <T> List<T> fetchKeys(Query<T> query, int limit) {
 		((QueryOptionFetchType)query.option(QueryOptionFetchType.ID)).fetchType=QueryOptionFetchType.Type.KEYS_ONLY;
 		List<T> models = new ArrayList<T>(); 
-		doFetchList(query, limit, 0, models, 0);
+		doFetchList(query, limit, 0, models);
 		return models;
 	}
 
@@ -517,7 +572,7 @@ public class SdbPersistenceManager extends AbstractPersistenceManager {
 		((QueryOptionFetchType)query.option(QueryOptionFetchType.ID)).fetchType=QueryOptionFetchType.Type.KEYS_ONLY;
 
 		List<T> models = new ArrayList<T>(); 
-		doFetchList(query, limit, (Integer)offset, models, 0);
+		doFetchList(query, limit, (Integer)offset, models);
 		return models;
 	}
 	
@@ -561,7 +616,11 @@ public class SdbPersistenceManager extends AbstractPersistenceManager {
 		off.offset = 0;
 	}
 	
-	protected <T> void continueFetchNextToken(Query<T> query, List<T> results, int depth){
+	/**
+	 * Checks whether the next token must be followed to fetch more items after the current page
+	 * (no page size) and prepares the query for it.
+	 */
+	protected <T> boolean continueFetchNextToken(Query<T> query){
 		QueryOptionPage pag = (QueryOptionPage)query.option(QueryOptionPage.ID);
 		QueryOptionSdbContext sdbCtx = (QueryOptionSdbContext)query.option(QueryOptionSdbContext.ID);
 		QueryOptionState state = (QueryOptionState)query.option(QueryOptionState.ID);
@@ -572,23 +631,20 @@ public class SdbPersistenceManager extends AbstractPersistenceManager {
 			off.passivate();
 		}
 		
-		if(!pag.isActive()){
-			if(state.isStateless()){
-				// retrieves next token
-				if(sdbCtx.nextToken()!=null){
-					doFetchList(query, Integer.MAX_VALUE, 0, results, depth+1);
-				}
-			}else {
-				if(sdbCtx.currentToken()!=null){
-					// desactivates offset because we don't to go on using offset while going to next tokens
-					boolean b = off.isActive();
-					off.passivate();
-					doFetchList(query, Integer.MAX_VALUE, 0, results, depth+1);
-					// reactivate it if it was activated
-					if(b) off.activate();
-				}
-			}
+		if(pag.isActive()){
+			return false;
 		}
+		if(state.isStateless()){
+			// retrieves next token
+			return sdbCtx.nextToken()!=null;
+		}
+		if(sdbCtx.currentToken()!=null){
+			// desactivates offset because we don't to go on using offset while going to next tokens
+			// (postMapping passivates it at the end anyway)
+			off.passivate();
+			return true;
+		}
+		return false;
 	}
 	
 	protected <T> void postFetch(Query<T> query, SelectResult res) {
@@ -699,147 +755,165 @@ public class SdbPersistenceManager extends AbstractPersistenceManager {
 	}
 	
 	
-	protected final int MAX_DEPTH = 25;
+	/**
+	 * Builds the select of the current page of the query
+	 */
+	protected <T> SelectRequest prepareSelect(Query<T> query) {
+		QueryOptionSdbContext sdbCtx = (QueryOptionSdbContext)query.option(QueryOptionSdbContext.ID);
+
+		// we prepare the query each time
+		StringBuffer domainBuf = new StringBuffer();
+		SelectRequest req = SdbMappingUtils.buildQuery(query, prefix, domainBuf);
+		req.setConsistentRead(isReadConsistent());
+		checkDomain(domainBuf.toString());
+		// manages cursor limitations for IN and != operators with offsets
+		if(sdbCtx.isActive()){
+			String token = sdbCtx.currentToken();
+			if(token!=null){
+				req.setNextToken(token);
+			}
+		}
+		return req;
+	}
 	
-	protected <T> void doFetchList(Query<T> query, int limit, int offset, List<T> resList, int depth) {
-		if(depth >= MAX_DEPTH){
-			throw new SienaException("Reached maximum depth of recursion when retrieving more data ("+MAX_DEPTH+")");
+	/**
+	 * Sends the select unless its result has already been prefetched
+	 */
+	protected <T> SelectResult select(Query<T> query, SelectRequest req, SdbSelectPrefetcher prefetcher) {
+		SelectResult res = null;
+		if(prefetcher != null){
+			res = prefetcher.take(req);
+			if(res != null){
+				prefetchedPages.incrementAndGet();
+			}
+		}
+		if(res == null){
+			res = sdb.select(req);
 		}
-			
-		preFetch(query, limit, offset, !resList.isEmpty());
 		
+		// activates the SdbCtx now that it is really initialised
 		QueryOptionSdbContext sdbCtx = (QueryOptionSdbContext)query.option(QueryOptionSdbContext.ID);
+		if(!sdbCtx.isActive()){
+			sdbCtx.activate();
+		}
+		return res;
+	}
+	
+	/**
+	 * Starts prefetching the pages following res when they will be requested with the same select
+	 * i.e. when the query has no page size (must be called before postFetch)
+	 * 
+	 * @return the prefetcher or null
+	 */
+	protected <T> SdbSelectPrefetcher prefetch(Query<T> query, SelectRequest req, SelectResult res) {
+		QueryOptionPage pag = (QueryOptionPage)query.option(QueryOptionPage.ID);
+		QueryOptionSdbContext sdbCtx = (QueryOptionSdbContext)query.option(QueryOptionSdbContext.ID);
+		
+		if(readAhead <= 0 || res.getNextToken() == null 
+				|| pag.isActive() || pag.isPaginating() || sdbCtx.realPageSize != 0){
+			return null;
+		}
+		return new SdbSelectPrefetcher(sdb, req, res.getNextToken(), readAhead).start(executor);
+	}
+	
+	/**
+	 * @return the number of select pages which had been prefetched when they were needed
+	 */
+	public long getPrefetchedPages() {
+		return prefetchedPages.get();
+	}
+	
+	protected <T> void mapSelectResult(Query<T> query, SelectResult res, List<T> resList) {
 		QueryOptionFetchType fetchType = (QueryOptionFetchType)query.option(QueryOptionFetchType.ID);
 		QueryOptionOffset off = (QueryOptionOffset)query.option(QueryOptionOffset.ID);
 		
+		switch(fetchType.fetchType){
+		case KEYS_ONLY:
+			if(off.isActive()){
+				SdbMappingUtils.mapSelectResultToListKeysOnly(res, resList, query.getQueriedClass(), off.offset);
+			}else {
+				SdbMappingUtils.mapSelectResultToListKeysOnly(res, resList, query.getQueriedClass());
+			}				
+			break;
+		case NORMAL:
+		default:
+			int from = resList.size();
+			if(off.isActive()){
+				SdbMappingUtils.mapSelectResultToList(res, resList, query.getQueriedClass(), off.offset);
+			}else {
+				SdbMappingUtils.mapSelectResultToList(res, resList, query.getQueriedClass());
+			}
+			// join management (the items of the previous pages are already mapped)
+			if(!query.getJoins().isEmpty() 
+					|| !ClassInfo.getClassInfo(query.getQueriedClass()).joinFields.isEmpty())
+				mapJoins(query, resList.subList(from, resList.size()));
+		}
+	}
+	
+	protected <T> void doFetchList(Query<T> query, int limit, int offset, List<T> resList) {
+		preFetch(query, limit, offset, !resList.isEmpty());
+		
+		QueryOptionSdbContext sdbCtx = (QueryOptionSdbContext)query.option(QueryOptionSdbContext.ID);
+		
 		// if previousPage has detected there is no more data, simply returns an empty list
 		if(sdbCtx.noMoreDataBefore || sdbCtx.noMoreDataAfter){
 			return;
 		}
-						
-		// manages cursor limitations for IN and != operators with offsets
-		if(!sdbCtx.isActive()){
-			StringBuffer domainBuf = new StringBuffer();
-			SelectRequest req = SdbMappingUtils.buildQuery(query, prefix, domainBuf);
-			req.setConsistentRead(isReadConsistent());
-			checkDomain(domainBuf.toString());
-			SelectResult res = sdb.select(req);
-			
-			// activates the SdbCtx now that it is really initialised
-			sdbCtx.activate();
-									
-			postFetch(query, res);
-			
-			// cursor not yet created
-			switch(fetchType.fetchType){
-			case KEYS_ONLY:
-				if(off.isActive()){
-					SdbMappingUtils.mapSelectResultToListKeysOnly(res, resList, query.getQueriedClass(), off.offset);
-				}else {
-					SdbMappingUtils.mapSelectResultToListKeysOnly(res, resList, query.getQueriedClass());
-				}				
-				break;
-			case NORMAL:
-			default:
-				if(off.isActive()){
-					SdbMappingUtils.mapSelectResultToList(res, resList, query.getQueriedClass(), off.offset);
-				}else {
-					SdbMappingUtils.mapSelectResultToList(res, resList, query.getQueriedClass());
-				}
-				// join management
-				if(!query.getJoins().isEmpty() 
-						|| !ClassInfo.getClassInfo(query.getQueriedClass()).joinFields.isEmpty())
-					mapJoins(query, resList);
-			}
-			
-			continueFetchNextToken(query, resList, depth);
-			postMapping(query);
-		}
-		else {
-			// we prepare the query each time
-			StringBuffer domainBuf = new StringBuffer();
-			SelectRequest req = SdbMappingUtils.buildQuery(query, prefix, domainBuf);
-			req.setConsistentRead(isReadConsistent());
-			checkDomain(domainBuf.toString());
-			// we can't use real asynchronous function with cursors
-			// so the page is extracted at once and wrapped into a SienaFuture			
-			String token = sdbCtx.currentToken();
-			if(token!=null){
-				req.setNextToken(token);
-			}
-			SelectResult res = sdb.select(req);
+		
+		SelectRequest req = prepareSelect(query);
+		SelectResult res = select(query, req, null);
+		// the next pages are fetched while the current one is mapped
+		SdbSelectPrefetcher prefetcher = prefetch(query, req, res);
+		try {
+			while(true){
+				postFetch(query, res);
+				mapSelectResult(query, res, resList);
 				
-			postFetch(query, res);
-			
-			switch(fetchType.fetchType){
-			case KEYS_ONLY: 
-				if(off.isActive()){
-					SdbMappingUtils.mapSelectResultToListKeysOnly(res, resList, query.getQueriedClass(), off.offset);
-				}else {
-					SdbMappingUtils.mapSelectResultToListKeysOnly(res, resList, query.getQueriedClass());
+				if(!continueFetchNextToken(query)){
+					break;
 				}
-				break;
-			case NORMAL:
-			default:
-				if(off.isActive()){
-					SdbMappingUtils.mapSelectResultToList(res, resList, query.getQueriedClass(), off.offset);
-				} else {
-					SdbMappingUtils.mapSelectResultToList(res, resList, query.getQueriedClass());
+				preFetch(query, Integer.MAX_VALUE, 0, true);
+				if(sdbCtx.noMoreDataBefore || sdbCtx.noMoreDataAfter){
+					break;
 				}
-				// join management
-				if(!query.getJoins().isEmpty() 
-						|| !ClassInfo.getClassInfo(query.getQueriedClass()).joinFields.isEmpty())
-					mapJoins(query, resList);
+				req = prepareSelect(query);
+				res = select(query, req, prefetcher);
+			}
+		} finally {
+			if(prefetcher != null){
+				prefetcher.close();
 			}
-			
-			continueFetchNextToken(query, resList, depth);
-			postMapping(query);
 		}
+		postMapping(query);
 	}
 	
 	protected <T> Iterable<T> doFetchIterable(Query<T> query, int limit, int offset, boolean recursing) {
+		return doFetchIterable(query, limit, offset, recursing, null);
+	}
+	
+	protected <T> Iterable<T> doFetchIterable(Query<T> query, int limit, int offset, boolean recursing, 
+			SdbSelectPrefetcher prefetcher) {
 		preFetch(query, limit, offset, recursing);
 		
 		QueryOptionSdbContext sdbCtx = (QueryOptionSdbContext)query.option(QueryOptionSdbContext.ID);
 		
 		// if previousPage has detected there is no more data, simply returns an empty list
 		if(sdbCtx.noMoreDataBefore || sdbCtx.noMoreDataAfter){
+			if(prefetcher != null){
+				prefetcher.close();
+			}
 			return new ArrayList<T>();
 		}
-						
-		// manages cursor limitations for IN and != operators with offsets
-		if(!sdbCtx.isActive()){
-			StringBuffer domainBuf = new StringBuffer();
-			SelectRequest req = SdbMappingUtils.buildQuery(query, prefix, domainBuf);
-			req.setConsistentRead(isReadConsistent());
-			checkDomain(domainBuf.toString());
-			SelectResult res = sdb.select(req);
-			
-			// activates the SdbCtx now that it is initialised
-			sdbCtx.activate();
-			
-			postFetch(query, res);		
-			
-			return new SdbSienaIterable<T>(this, res.getItems(), query);
-		}
-		else {
-			// we prepare the query each time
-			StringBuffer domainBuf = new StringBuffer();
-			SelectRequest req = SdbMappingUtils.buildQuery(query, prefix, domainBuf);
-			req.setConsistentRead(isReadConsistent());
-			checkDomain(domainBuf.toString());
-			// we can't use real asynchronous function with cursors
-			// so the page is extracted at once and wrapped into a SienaFuture
-			String token = sdbCtx.currentToken();
-			if(token!=null){
-				req.setNextToken(token);
-			}
-			SelectResult res = sdb.select(req);
-									
-			postFetch(query, res);
-			
-			return new SdbSienaIterable<T>(this, res.getItems(), query);
+		
+		SelectRequest req = prepareSelect(query);
+		SelectResult res = select(query, req, prefetcher);
+		if(prefetcher == null || prefetcher.isClosed()){
+			prefetcher = prefetch(query, req, res);
 		}
+		
+		postFetch(query, res);
+		
+		return new SdbSienaIterable<T>(this, res.getItems(), query, prefetcher);
 	}
 	
 	/* transactions */
@@ -941,17 +1015,7 @@ public class SdbPersistenceManager extends AbstractPersistenceManager {
 		}
 		try {
 			checkDomain(domain);			
-			int len = doList.size() > MAX_ITEMS_PER_CALL ? MAX_ITEMS_PER_CALL: doList.size();
-			for(int i=0; i < doList.size(); i += len){
-				int sz = i+len;
-				if(sz > doList.size()){
-					sz = doList.size();
-				}
-				sdb.batchDeleteAttributes(
-					new BatchDeleteAttributesRequest(
-						domain, 
-						doList.subList(i, sz)));			
-			}
+			checkBatch(batchWriter.delete(Collections.singletonMap(domain, doList)));
 		}catch(AmazonClientException ex){
 			throw new SienaException(ex);
 		}
@@ -0,0 +1,152 @@
+package siena.sdb;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import siena.SienaException;
+
+import com.amazonaws.services.simpledb.AmazonSimpleDB;
+import com.amazonaws.services.simpledb.model.SelectRequest;
+import com.amazonaws.services.simpledb.model.SelectResult;
+
+/**
+ * Follows the NextTokens of a select on a background thread so that the next pages are already
+ * fetched when the current one has been mapped.
+ *
+ * At most readAhead pages are fetched in advance: the thread waits until a page is taken and stops
+ * if no page is taken for IDLE_TIMEOUT ms (the iteration has been abandoned).
+ * A page is only given for the same select expression and NextToken as the one which would be sent:
+ * otherwise the prefetcher is closed and the caller sends its own request.
+ * The caller also sends its own request when the thread stopped without queuing its last page
+ * (interrupted, idle or failed with an Error).
+ */
+public class SdbSelectPrefetcher implements Runnable {
+	public static final long IDLE_TIMEOUT = 60000;
+
+	protected final AmazonSimpleDB sdb;
+	protected final String selectExpression;
+	protected final Boolean consistentRead;
+	protected final String firstToken;
+	protected final BlockingQueue<Page> pages;
+	protected volatile boolean closed = false;
+	// set when run() returns: no page is queued after it
+	protected volatile boolean done = false;
+
+	private static final Page END = new Page(null, null, null);
+
+	public SdbSelectPrefetcher(AmazonSimpleDB sdb, SelectRequest req, String nextToken, int readAhead) {
+		this.sdb = sdb;
+		this.selectExpression = req.getSelectExpression();
+		this.consistentRead = req.getConsistentRead();
+		this.firstToken = nextToken;
+		this.pages = new ArrayBlockingQueue<Page>(readAhead);
+	}
+
+	public SdbSelectPrefetcher start(ExecutorService executor) {
+		try {
+			executor.execute(this);
+		} catch(RejectedExecutionException ex) {
+			closed = true;
+			done = true;
+		}
+		return this;
+	}
+
+	public void run() {
+		try {
+			String token = firstToken;
+			while(token != null && !closed){
+				Page page;
+				try {
+					SelectRequest req = new SelectRequest(selectExpression, consistentRead);
+					req.setNextToken(token);
+					page = new Page(token, sdb.select(req), null);
+				} catch(RuntimeException ex) {
+					page = new Page(token, null, ex);
+				}
+				if(!offer(page) || page.error != null){
+					return;
+				}
+				token = page.result.getNextToken();
+			}
+			offer(END);
+		} finally {
+			done = true;
+		}
+	}
+
+	private boolean offer(Page page) {
+		try {
+			for(long waited = 0; !pages.offer(page, 100, TimeUnit.MILLISECONDS); waited += 100){
+				if(closed || waited >= IDLE_TIMEOUT){
+					closed = true;
+					return false;
+				}
+			}
+			return true;
+		} catch(InterruptedException ex) {
+			closed = true;
+			return false;
+		}
+	}
+
+	/**
+	 * @return the result of the request if it has been prefetched, null if the caller must send it
+	 */
+	public SelectResult take(SelectRequest req) {
+		if(closed || !selectExpression.equals(req.getSelectExpression()) || req.getNextToken() == null){
+			close();
+			return null;
+		}
+		Page page;
+		try {
+			// polls so as not to wait for a page which won't be queued anymore
+			while((page = pages.poll(100, TimeUnit.MILLISECONDS)) == null){
+				if(closed || (done && pages.isEmpty())){
+					close();
+					return null;
+				}
+			}
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new SienaException(ex);
+		}
+		if(page == END || !req.getNextToken().equals(page.token)){
+			close();
+			return null;
+		}
+		if(page.error != null){
+			close();
+			throw page.error;
+		}
+		return page.result;
+	}
+
+	/**
+	 * stops prefetching (the select being sent, if any, is not interrupted)
+	 */
+	public void close() {
+		closed = true;
+		pages.clear();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	protected static class Page {
+		final String token;
+		final SelectResult result;
+		final RuntimeException error;
+
+		Page(String token, SelectResult result, RuntimeException error) {
+			this.token = token;
+			this.result = result;
+			this.error = error;
+		}
+	}
+}
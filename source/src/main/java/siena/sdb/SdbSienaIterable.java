@@ -22,16 +22,30 @@ public class SdbSienaIterable<Model> implements Iterable<Model> {
 	protected Iterable<Item> items;
 	protected Query<Model> query;
 	protected SdbPersistenceManager pm;
+	// fetches the next pages in background (null if they are fetched when needed)
+	protected SdbSelectPrefetcher prefetcher;
 
 	SdbSienaIterable(SdbPersistenceManager pm, Iterable<Item> items, Query<Model> query) {
+		this(pm, items, query, null);
+	}
+
+	SdbSienaIterable(SdbPersistenceManager pm, Iterable<Item> items, Query<Model> query, SdbSelectPrefetcher prefetcher) {
 		this.pm = pm;
 		this.items = items;
 		this.query = query;
+		this.prefetcher = prefetcher;
 	}
 
 	public Iterator<Model> iterator() {
 		return new SdbSienaIterator<Model>(query, items);
 	}
+	
+	protected void closePrefetcher() {
+		if(prefetcher != null){
+			prefetcher.close();
+			prefetcher = null;
+		}
+	}
 
 	public class SdbSienaIterator<T> implements Iterator<T> {
 		Field id;
@@ -111,8 +125,9 @@ public class SdbSienaIterable<Model> implements Iterable<Model> {
 					
 					if(token != null && pageSize > 0){
 						SdbSienaIterable<Model> iter = 
-							(SdbSienaIterable<Model>)pm.doFetchIterable(query, pageSize, 0, true);
+							(SdbSienaIterable<Model>)pm.doFetchIterable(query, pageSize, 0, true, prefetcher);
 						items = iter.items;
+						prefetcher = iter.prefetcher;
 						it = items.iterator();
 						idx = 0;
 						return it.hasNext();
@@ -137,6 +152,7 @@ public class SdbSienaIterable<Model> implements Iterable<Model> {
 					}
 				}
 				
+				closePrefetcher();
 				return false;
 			}
 			return true;
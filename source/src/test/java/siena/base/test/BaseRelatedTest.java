@@ -20,6 +20,7 @@ import siena.base.test.model.RelatedSimpleOwnedParent;
 import siena.base.test.model.RelatedSimpleOwnedChild;
 import siena.base.test.model.RelatedSimpleReferencedChild;
 import siena.base.test.model.RelatedSimpleReferencedParent;
+import siena.core.options.QueryOptionBatchLoad;
 
 public abstract class BaseRelatedTest extends TestCase {
 	
@@ -313,6 +314,57 @@ public abstract class BaseRelatedTest extends TestCase {
 		assertEquals(adam2, children.get(1));
 	}
 	
+	public void testRelatedManyBatchLoad() {
+		for(int i=0; i<3; i++){
+			RelatedManyParent god = new RelatedManyParent("god"+i);
+			// the last one has no child
+			for(int j=0; j<2-i/2*2; j++){
+				god.children.asList().add(new RelatedManyChild("adam"+i+"_"+j));
+			}
+			god.insert();
+		}
+
+		List<RelatedManyParent> gods = Model.all(RelatedManyParent.class)
+			.customize(new QueryOptionBatchLoad(2)).order("name").fetch();
+		assertEquals(3, gods.size());
+
+		List<RelatedManyChild> children = gods.get(0).children.asList();
+		assertEquals(2, children.size());
+		assertEquals("adam0_0", children.get(0).name);
+		assertEquals("adam0_1", children.get(1).name);
+
+		// the children of the other gods have been loaded with the first ones
+		Model.all(RelatedManyChild.class).delete();
+
+		children = gods.get(1).children.asList();
+		assertEquals(2, children.size());
+		assertEquals("adam1_0", children.get(0).name);
+		assertEquals("adam1_1", children.get(1).name);
+		assertEquals(gods.get(1).id, children.get(0).owner.id);
+		assertTrue(gods.get(2).children.asList().isEmpty());
+	}
+
+	public void testRelatedSimpleOwnedBatchLoad() {
+		for(int i=0; i<3; i++){
+			RelatedSimpleOwnedParent god = new RelatedSimpleOwnedParent("god"+i);
+			// the last one has no child
+			god.child.set(i == 2 ? null : new RelatedSimpleOwnedChild("adam"+i));
+			god.insert();
+		}
+
+		List<RelatedSimpleOwnedParent> gods = Model.all(RelatedSimpleOwnedParent.class)
+			.customize(new QueryOptionBatchLoad()).order("name").fetch();
+		assertEquals(3, gods.size());
+		assertEquals("adam0", gods.get(0).child.get().name);
+
+		// the children of the other gods have been loaded with the first one
+		Model.all(RelatedSimpleOwnedChild.class).delete();
+
+		assertEquals("adam1", gods.get(1).child.get().name);
+		assertEquals(gods.get(1).id, gods.get(1).child.get().owner.id);
+		assertNull(gods.get(2).child.get());
+	}
+	
 	public void testRelatedManyCascadeInsertMany() {
 		RelatedManyParent god = new RelatedManyParent("god");		
 		List<RelatedManyChild> adams = new ArrayList<RelatedManyChild>();
@@ -0,0 +1,259 @@
+package siena.base.test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import junit.framework.TestCase;
+
+import org.apache.ddlutils.Platform;
+import org.apache.ddlutils.PlatformFactory;
+
+import siena.SienaException;
+import siena.base.test.model.Discovery;
+import siena.base.test.model.PersonLongAutoID;
+import siena.core.async.QueryAsync;
+import siena.core.async.SienaFutureCompletable;
+import siena.jdbc.H2PersistenceManager;
+import siena.jdbc.JdbcPersistenceManager;
+import siena.jdbc.JdbcPersistenceManagerAsync;
+import siena.jdbc.ddl.DdlGenerator;
+
+public class H2AsyncTest extends TestCase {
+	private static JdbcPersistenceManagerAsync pm;
+
+	private PersonLongAutoID curie;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		if(pm==null){
+			Properties p = new Properties();
+
+			String driver   = "org.h2.Driver";
+			String url      = "jdbc:h2:mem:asynctest;DB_CLOSE_DELAY=-1";
+			String username = "sa";
+			String password = "";
+
+			p.setProperty("driver",   driver);
+			p.setProperty("url",      url);
+			p.setProperty("user",     username);
+			p.setProperty("password", password);
+			p.setProperty("async.threads", "4");
+
+			DdlGenerator generator = new DdlGenerator();
+			generator.addTable(PersonLongAutoID.class);
+			generator.addTable(Discovery.class);
+
+			Platform platform = PlatformFactory.createNewPlatformInstance("mysql");
+			Class.forName(driver);
+			Connection connection = DriverManager.getConnection(url, username, password);
+			platform.alterTables(connection, generator.getDatabase(), true);
+			connection.close();
+
+			H2PersistenceManager syncPm = new H2PersistenceManager();
+			syncPm.init(p);
+			pm = (JdbcPersistenceManagerAsync)syncPm.async();
+		}
+		pm.createQuery(Discovery.class).delete().get();
+		pm.createQuery(PersonLongAutoID.class).delete().get();
+
+		curie = new PersonLongAutoID("Marie", "Curie", "Warsaw", 2);
+		pm.insert(
+				new PersonLongAutoID("Nikola", "Tesla", "Smiljam", 1),
+				curie,
+				new PersonLongAutoID("Albert", "Einstein", "Ulm", 3)).get();
+	}
+
+	public void testCrud() {
+		PersonLongAutoID p = new PersonLongAutoID("John", "Doe", "Paris", 10);
+		pm.insert(p).get();
+		assertNotNull(p.id);
+
+		PersonLongAutoID p2 = new PersonLongAutoID();
+		p2.id = p.id;
+		pm.get(p2).get();
+		assertEquals("Paris", p2.city);
+
+		p2.city = "Madrid";
+		pm.update(p2).get();
+		assertEquals("Madrid", pm.getByKey(PersonLongAutoID.class, p.id).get().city);
+
+		pm.delete(p2).get();
+		assertNull(pm.getByKey(PersonLongAutoID.class, p.id).get());
+	}
+
+	public void testError() {
+		PersonLongAutoID p = new PersonLongAutoID();
+		p.id = -1L;
+		SienaFutureCompletable<Void> future = (SienaFutureCompletable<Void>)pm.get(p);
+		try {
+			future.get(10, TimeUnit.SECONDS);
+			fail();
+		} catch(SienaException e) {
+		}
+	}
+
+	public void testCompose() {
+		SienaFutureCompletable<Integer> count = (SienaFutureCompletable<Integer>)
+			pm.createQuery(PersonLongAutoID.class).count();
+		SienaFutureCompletable<List<PersonLongAutoID>> list = (SienaFutureCompletable<List<PersonLongAutoID>>)
+			pm.fetch(pm.createQuery(PersonLongAutoID.class).order("n"));
+
+		SienaFutureCompletable.all(count, list).get(10, TimeUnit.SECONDS);
+		assertTrue(count.isDone());
+		assertTrue(list.isDone());
+
+		int n = list.map(new Function<List<PersonLongAutoID>, Integer>() {
+			public Integer apply(List<PersonLongAutoID> l) {
+				return l.size();
+			}
+		}).get();
+		assertEquals(count.get().intValue(), n);
+		assertEquals(3, n);
+		assertEquals("Curie", list.get().get(1).lastName);
+	}
+
+	public void testPaginate() {
+		Discovery[] discs = new Discovery[10];
+		for(int i=0; i<10; i++){
+			discs[i] = new Discovery("Disc_"+i, curie);
+		}
+		pm.insert((Object[])discs).get();
+		Arrays.sort(discs);
+
+		// operations on a query are run in order
+		QueryAsync<Discovery> query = pm.createQuery(Discovery.class).paginate(5).order("name");
+		List<Discovery> res = query.fetch();
+		List<Discovery> res2 = query.nextPage().fetch();
+
+		assertEquals(5, res.size());
+		assertEquals(5, res2.size());
+		for(int i=0; i<5; i++){
+			assertEquals(discs[i], res.get(i));
+			assertEquals(discs[i+5], res2.get(i));
+		}
+	}
+
+	public void testIterPerPage() {
+		Discovery[] discs = new Discovery[12];
+		for(int i=0; i<12; i++){
+			discs[i] = new Discovery("Disc_"+(char)('a'+i), curie);
+		}
+		pm.insert((Object[])discs).get();
+		Arrays.sort(discs);
+
+		// the pages are read by the worker threads, not by the iterating thread
+		Iterable<Discovery> iter = pm.createQuery(Discovery.class).order("name").iterPerPage(5);
+		int i = 0;
+		for(Discovery disc: iter){
+			assertEquals(discs[i++], disc);
+		}
+		assertEquals(12, i);
+	}
+
+	public void testConcurrentInserts() {
+		SienaFutureCompletable<?>[] futures = new SienaFutureCompletable<?>[20];
+		for(int i=0; i<futures.length; i++) {
+			futures[i] = (SienaFutureCompletable<?>)pm.insert(new PersonLongAutoID("John", "Doe", "Paris", 100+i));
+		}
+		SienaFutureCompletable.all(futures).get(10, TimeUnit.SECONDS);
+		assertEquals(23, pm.createQuery(PersonLongAutoID.class).count().get().intValue());
+	}
+
+	public void testTransactionCommit() {
+		pm.beginTransaction().get();
+		pm.insert(new PersonLongAutoID("John", "Doe", "Paris", 100));
+		pm.insert(new PersonLongAutoID("Jane", "Doe", "Paris", 101));
+		pm.commitTransaction().get();
+		assertEquals(5, pm.createQuery(PersonLongAutoID.class).count().get().intValue());
+	}
+
+	public void testTransactionRollback() {
+		pm.beginTransaction().get();
+		pm.insert(new PersonLongAutoID("John", "Doe", "Paris", 100));
+		pm.insert(new PersonLongAutoID("Jane", "Doe", "Paris", 101));
+		pm.rollbackTransaction().get();
+		assertEquals(3, pm.createQuery(PersonLongAutoID.class).count().get().intValue());
+	}
+
+	public void testTransactionPerThread() throws Exception {
+		final CountDownLatch begun = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+		final Throwable[] error = new Throwable[1];
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					pm.beginTransaction().get();
+					pm.insert(new Discovery("Radium", null)).get();
+					begun.countDown();
+					done.await(10, TimeUnit.SECONDS);
+					pm.rollbackTransaction().get();
+				} catch(Throwable e) {
+					error[0] = e;
+					begun.countDown();
+				}
+			}
+		};
+		t.start();
+		assertTrue(begun.await(10, TimeUnit.SECONDS));
+		// this thread runs its own transaction, the operations aren't sent to the one of the other thread
+		pm.beginTransaction().get();
+		pm.insert(new PersonLongAutoID("John", "Doe", "Paris", 100)).get();
+		pm.commitTransaction().get();
+		done.countDown();
+		t.join(10000);
+		assertNull(error[0]);
+		assertEquals(4, pm.createQuery(PersonLongAutoID.class).count().get().intValue());
+		assertEquals(0, pm.createQuery(Discovery.class).count().get().intValue());
+	}
+
+	public void testRejected() throws Exception {
+		Properties p = new Properties();
+		p.setProperty("async.threads", "1");
+		p.setProperty("async.queueSize", "1");
+		p.setProperty("async.virtualThreads", "false");
+		BlockingAsync async = new BlockingAsync((JdbcPersistenceManager)pm.sync());
+		async.init(p);
+		CountDownLatch latch = new CountDownLatch(1);
+		try {
+			SienaFutureCompletable<Void> blocking = async.block(latch);
+			SienaFutureCompletable<Void> queued = (SienaFutureCompletable<Void>)async.insert(new PersonLongAutoID("John", "Doe", "Paris", 100));
+			// the queue is full: the operation fails instead of being run by this thread
+			SienaFutureCompletable<Void> rejected = (SienaFutureCompletable<Void>)async.insert(new PersonLongAutoID("Jane", "Doe", "Paris", 101));
+			assertTrue(rejected.isDone());
+			try {
+				rejected.get();
+				fail();
+			} catch(SienaException e) {
+			}
+			latch.countDown();
+			SienaFutureCompletable.all(blocking, queued).get(10, TimeUnit.SECONDS);
+		} finally {
+			latch.countDown();
+			async.shutdown();
+		}
+		assertEquals(4, pm.createQuery(PersonLongAutoID.class).count().get().intValue());
+	}
+
+	static class BlockingAsync extends JdbcPersistenceManagerAsync {
+		BlockingAsync(JdbcPersistenceManager syncPm) {
+			super(syncPm);
+		}
+
+		SienaFutureCompletable<Void> block(final CountDownLatch latch) {
+			return submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					latch.await(10, TimeUnit.SECONDS);
+					return null;
+				}
+			});
+		}
+	}
+}
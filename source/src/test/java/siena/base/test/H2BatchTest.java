@@ -0,0 +1,188 @@
+package siena.base.test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.ddlutils.Platform;
+import org.apache.ddlutils.PlatformFactory;
+
+import siena.SienaException;
+import siena.base.test.model.PersonLongAutoID;
+import siena.base.test.model.PersonStringID;
+import siena.base.test.model.PersonUUID;
+import siena.jdbc.H2PersistenceManager;
+import siena.jdbc.JdbcBatchResult;
+import siena.jdbc.ddl.DdlGenerator;
+
+public class H2BatchTest extends TestCase {
+	private static H2PersistenceManager pm;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		if(pm==null){
+			Properties p = new Properties();
+
+			String driver   = "org.h2.Driver";
+			String url      = "jdbc:h2:mem:batchtest;DB_CLOSE_DELAY=-1";
+			String username = "sa";
+			String password = "";
+
+			p.setProperty("driver",   driver);
+			p.setProperty("url",      url);
+			p.setProperty("user",     username);
+			p.setProperty("password", password);
+			p.setProperty("batch.size", "7");
+
+			DdlGenerator generator = new DdlGenerator();
+			generator.addTable(PersonLongAutoID.class);
+			generator.addTable(PersonStringID.class);
+			generator.addTable(PersonUUID.class);
+
+			Platform platform = PlatformFactory.createNewPlatformInstance("mysql");
+			Class.forName(driver);
+			Connection connection = DriverManager.getConnection(url, username, password);
+			platform.alterTables(connection, generator.getDatabase(), true);
+			connection.close();
+
+			pm = new H2PersistenceManager();
+			pm.init(p);
+		}
+		pm.setMultiRowInsert(false);
+		pm.createQuery(PersonLongAutoID.class).delete();
+		pm.createQuery(PersonStringID.class).delete();
+		pm.createQuery(PersonUUID.class).delete();
+	}
+
+	private List<PersonStringID> persons(int nb) {
+		List<PersonStringID> l = new ArrayList<PersonStringID>();
+		for(int i=0; i<nb; i++){
+			l.add(new PersonStringID("ID_"+i, "John", "Doe", "Paris", i));
+		}
+		return l;
+	}
+
+	public void testChunkedInsertUpdateDelete() {
+		assertEquals(7, pm.getBatchSize());
+		List<PersonStringID> l = persons(20);
+		assertEquals(20, pm.insert(l));
+		assertEquals(20, pm.createQuery(PersonStringID.class).count());
+
+		for(PersonStringID p: l){
+			p.city = "Madrid";
+		}
+		JdbcBatchResult res = pm.updateBatch(l);
+		assertFalse(res.hasErrors());
+		assertEquals(20, res.size());
+		assertEquals(20, res.getUpdateCount());
+		assertEquals(20, pm.createQuery(PersonStringID.class).filter("city", "Madrid").count());
+
+		assertEquals(20, pm.delete(l));
+		assertEquals(0, pm.createQuery(PersonStringID.class).count());
+	}
+
+	public void testMultiRowInsert() {
+		pm.setMultiRowInsert(true);
+		List<PersonStringID> l = persons(20);
+		JdbcBatchResult res = pm.insertBatch(l);
+		assertFalse(res.hasErrors());
+		assertEquals(20, res.getTotal());
+		for(int i=0; i<20; i++){
+			assertEquals(1, res.getCount(i));
+		}
+		assertEquals(20, pm.createQuery(PersonStringID.class).count());
+		assertEquals(13, pm.createQuery(PersonStringID.class).filter("n", 13).get().n);
+	}
+
+	public void testPerRowResult() {
+		pm.insert(new PersonStringID("ID_9", "John", "Doe", "Paris", 9));
+
+		// ID_9 already exists: its chunk (rows 7 to 13) fails and the following rows aren't executed
+		List<PersonStringID> l = persons(20);
+		JdbcBatchResult res = pm.insertBatch(l);
+		assertTrue(res.hasErrors());
+		assertEquals(20, res.size());
+		for(int i=0; i<7; i++){
+			assertTrue(res.isSuccess(i));
+		}
+		assertEquals(Statement.EXECUTE_FAILED, res.getCount(9));
+		assertTrue(res.getFailed().contains(l.get(9)));
+		for(int i=14; i<20; i++){
+			assertEquals(JdbcBatchResult.NOT_EXECUTED, res.getCount(i));
+		}
+
+		try {
+			pm.insert(new PersonStringID("ID_9", "John", "Doe", "Paris", 9));
+			fail();
+		} catch(SienaException e) {
+		}
+	}
+
+	public void testGeneratedKeysForEveryRow() {
+		List<PersonLongAutoID> l = new ArrayList<PersonLongAutoID>();
+		for(int i=0; i<20; i++){
+			l.add(new PersonLongAutoID("John", "Doe", "Paris", i));
+		}
+		assertEquals(20, pm.insert(l));
+		for(PersonLongAutoID p: l){
+			assertNotNull(p.id);
+			PersonLongAutoID p2 = pm.getByKey(PersonLongAutoID.class, p.id);
+			assertEquals(p.n, p2.n);
+		}
+	}
+
+	public void testSaveMixed() {
+		List<Object> l = new ArrayList<Object>();
+		for(int i=0; i<10; i++){
+			l.add(new PersonLongAutoID("John", "Doe", "Paris", i));
+			l.add(new PersonUUID("John", "Doe", "Paris", i));
+		}
+		assertEquals(20, pm.save(l));
+		for(Object o: l){
+			if(o instanceof PersonLongAutoID){
+				assertNotNull(((PersonLongAutoID)o).id);
+				((PersonLongAutoID)o).city = "Madrid";
+			}else {
+				assertNotNull(((PersonUUID)o).id);
+				((PersonUUID)o).city = "Madrid";
+			}
+		}
+		assertEquals(20, pm.save(l));
+		assertEquals(10, pm.createQuery(PersonLongAutoID.class).filter("city", "Madrid").count());
+		assertEquals(10, pm.createQuery(PersonUUID.class).filter("city", "Madrid").count());
+	}
+
+	public void testSaveMixedChunkFailure() {
+		List<PersonLongAutoID> existing = new ArrayList<PersonLongAutoID>();
+		for(int i=0; i<3; i++){
+			existing.add(new PersonLongAutoID("John", "Doe", "Paris", i));
+		}
+		pm.insert(existing);
+		// the city is longer than its column
+		existing.get(1).city = String.format("%150s", "Madrid");
+
+		// one chunk: the rows without id are inserted, the other ones merged in another batch
+		List<PersonLongAutoID> l = new ArrayList<PersonLongAutoID>();
+		for(int i=0; i<7; i++){
+			l.add(i%2 == 0 ? new PersonLongAutoID("Jane", "Doe", "Paris", 10+i) : existing.get(i/2));
+		}
+		JdbcBatchResult res = pm.saveBatch(l);
+		assertTrue(res.hasErrors());
+		for(int i=0; i<7; i++){
+			if(i == 3){
+				assertEquals(Statement.EXECUTE_FAILED, res.getCount(i));
+			}else {
+				assertTrue("row "+i, res.isSuccess(i));
+			}
+		}
+		assertEquals(1, res.getFailed().size());
+		assertSame(existing.get(1), res.getFailed().get(0));
+		assertEquals(7, pm.createQuery(PersonLongAutoID.class).count());
+	}
+}
@@ -0,0 +1,139 @@
+package siena.base.test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.ddlutils.Platform;
+import org.apache.ddlutils.PlatformFactory;
+
+import siena.Query;
+import siena.base.test.model.Discovery4Search;
+import siena.base.test.model.PersonLongAutoID;
+import siena.jdbc.H2PersistenceManager;
+import siena.jdbc.QueryOptionJdbcSearch;
+import siena.jdbc.ddl.DdlGenerator;
+import siena.jdbc.h2.FullTextIndexer;
+
+public class H2FullTextIndexerTest extends TestCase {
+	private static H2PersistenceManager pm;
+
+	private static final int NB = 2000;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		if(pm==null){
+			Properties p = new Properties();
+
+			String driver   = "org.h2.Driver";
+			String url      = "jdbc:h2:mem:fulltextindexertest;DB_CLOSE_DELAY=-1";
+			String username = "sa";
+			String password = "";
+
+			p.setProperty("driver",   driver);
+			p.setProperty("url",      url);
+			p.setProperty("user",     username);
+			p.setProperty("password", password);
+			p.setProperty("search.consistency", "async");
+			p.setProperty("search.maxLag", "0");
+			p.setProperty("search.batchSize", "100");
+
+			DdlGenerator generator = new DdlGenerator();
+			generator.addTable(PersonLongAutoID.class);
+			generator.addTable(Discovery4Search.class);
+
+			Platform platform = PlatformFactory.createNewPlatformInstance("mysql");
+			Class.forName(driver);
+			Connection connection = DriverManager.getConnection(url, username, password);
+			platform.alterTables(connection, generator.getDatabase(), true);
+			connection.close();
+
+			pm = new H2PersistenceManager();
+			pm.init(p);
+		}
+		// creates the full text indexes
+		pm.createQuery(Discovery4Search.class).search("init", "name").count();
+		pm.createQuery(PersonLongAutoID.class).search("init", "firstName").count();
+		pm.createQuery(Discovery4Search.class).delete();
+		pm.createQuery(PersonLongAutoID.class).delete();
+	}
+
+	private FullTextIndexer indexer() {
+		return pm.getSearchIndexer();
+	}
+
+	public void testWriteBehind() throws Exception {
+		FullTextIndexer indexer = indexer();
+		assertNotNull(indexer);
+		// the rows deleted by setUp are indexed before counting
+		indexer.flush();
+		long rows = indexer.getRows();
+		long batches = indexer.getBatches();
+
+		List<Discovery4Search> discs = new ArrayList<Discovery4Search>();
+		for(int i=0; i<NB; i++){
+			discs.add(new Discovery4Search("Disc_"+i+(i%2==0?" even":" odd"), null));
+		}
+		pm.insert(discs);
+
+		// the search waits for the indexer (maxLag=0)
+		Query<Discovery4Search> query = pm.createQuery(Discovery4Search.class).search("even", "name");
+		assertEquals(NB/2, query.count());
+		List<Discovery4Search> res = pm.fetch(pm.createQuery(Discovery4Search.class).search("Disc_42", "name"));
+		assertEquals(1, res.size());
+		assertEquals(discs.get(42).id, res.get(0).id);
+
+		assertEquals(0, indexer.pending());
+		assertEquals(0, indexer.getErrors());
+		assertEquals(NB, indexer.getRows() - rows);
+		// indexed by batches
+		assertTrue(indexer.getBatches() - batches < NB / 10);
+	}
+
+	public void testUpdateAndDelete() throws Exception {
+		Discovery4Search d1 = new Discovery4Search("red car", null);
+		Discovery4Search d2 = new Discovery4Search("blue car", null);
+		pm.insert(d1, d2);
+		assertEquals(2, pm.createQuery(Discovery4Search.class).search("car", "name").count());
+
+		d1.name = "green bike";
+		pm.update(d1);
+		pm.delete(d2);
+		assertEquals(0, pm.createQuery(Discovery4Search.class).search("car", "name").count());
+		assertEquals(1, pm.createQuery(Discovery4Search.class).search("green", "name").count());
+		// the ranked index is fed by the indexer too
+		assertEquals(1, pm.createQuery(Discovery4Search.class)
+				.search("green bike", new QueryOptionJdbcSearch(), "name").count());
+		assertEquals(0, indexer().getErrors());
+	}
+
+	public void testRebuild() throws Exception {
+		List<Discovery4Search> discs = new ArrayList<Discovery4Search>();
+		List<PersonLongAutoID> persons = new ArrayList<PersonLongAutoID>();
+		for(int i=0; i<500; i++){
+			discs.add(new Discovery4Search("rebuilt_"+i, null));
+			persons.add(new PersonLongAutoID("John_"+i, "Reindexed", "Paris", i));
+		}
+		pm.insert(discs);
+		pm.insert(persons);
+		assertEquals(1, pm.createQuery(Discovery4Search.class).search("rebuilt_7", "name").count());
+
+		pm.rebuildSearchIndexes(2);
+
+		assertEquals(500, pm.createQuery(Discovery4Search.class).search("rebuilt", "name").count());
+		assertEquals(1, pm.createQuery(Discovery4Search.class).search("rebuilt_7", "name").count());
+		assertEquals(500, pm.createQuery(PersonLongAutoID.class).search("reindexed", "lastName").count());
+		assertEquals(1, pm.createQuery(PersonLongAutoID.class).search("John_7", "firstName").count());
+		assertEquals(500, pm.createQuery(Discovery4Search.class)
+				.search("rebuilt", new QueryOptionJdbcSearch(), "name").count());
+
+		// still maintained after the rebuild
+		pm.delete(discs.get(7));
+		assertEquals(0, pm.createQuery(Discovery4Search.class).search("rebuilt_7", "name").count());
+	}
+}
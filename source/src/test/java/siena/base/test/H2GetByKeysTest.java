@@ -0,0 +1,174 @@
+package siena.base.test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.ddlutils.Platform;
+import org.apache.ddlutils.PlatformFactory;
+
+import siena.base.test.model.Discovery4Join;
+import siena.base.test.model.PersonLongAutoID;
+import siena.jdbc.H2PersistenceManager;
+import siena.jdbc.JdbcPersistenceManager.JdbcClassInfo;
+import siena.jdbc.ddl.DdlGenerator;
+
+public class H2GetByKeysTest extends TestCase {
+	private static H2PersistenceManager pm;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		if(pm==null){
+			Properties p = new Properties();
+
+			String driver   = "org.h2.Driver";
+			String url      = "jdbc:h2:mem:getbykeystest;DB_CLOSE_DELAY=-1";
+			String username = "sa";
+			String password = "";
+
+			p.setProperty("driver",   driver);
+			p.setProperty("url",      url);
+			p.setProperty("user",     username);
+			p.setProperty("password", password);
+			p.setProperty("get.chunkSize", "5");
+
+			DdlGenerator generator = new DdlGenerator();
+			generator.addTable(PersonLongAutoID.class);
+			generator.addTable(Discovery4Join.class);
+
+			Platform platform = PlatformFactory.createNewPlatformInstance("mysql");
+			Class.forName(driver);
+			Connection connection = DriverManager.getConnection(url, username, password);
+			platform.alterTables(connection, generator.getDatabase(), true);
+			connection.close();
+
+			pm = new H2PersistenceManager();
+			pm.init(p);
+		}
+		pm.setKeyChunkSize(5);
+		pm.createQuery(Discovery4Join.class).delete();
+		pm.createQuery(PersonLongAutoID.class).delete();
+	}
+
+	private List<PersonLongAutoID> persons(int nb) {
+		List<PersonLongAutoID> l = new ArrayList<PersonLongAutoID>();
+		for(int i=0; i<nb; i++){
+			l.add(new PersonLongAutoID("John"+i, "Doe", i%2==0?"Paris":"Ulm", i));
+		}
+		pm.insert(l);
+		return l;
+	}
+
+	public void testGetByKeysKeepsOrder() {
+		List<PersonLongAutoID> l = persons(23);
+		List<PersonLongAutoID> shuffled = new ArrayList<PersonLongAutoID>(l);
+		Collections.shuffle(shuffled);
+
+		List<Object> keys = new ArrayList<Object>();
+		for(PersonLongAutoID p: shuffled){
+			keys.add(p.id);
+		}
+		// unknown, null and duplicated keys
+		keys.add(3, -1L);
+		keys.add(7, null);
+		keys.add(shuffled.get(0).id);
+
+		List<PersonLongAutoID> res = pm.getByKeys(PersonLongAutoID.class, keys);
+		assertEquals(keys.size(), res.size());
+		for(int i=0; i<keys.size(); i++){
+			Object key = keys.get(i);
+			if(key == null || key.equals(-1L)){
+				assertNull(res.get(i));
+			}else {
+				assertEquals(key, res.get(i).id);
+				assertEquals(l.get(res.get(i).n), res.get(i));
+			}
+		}
+		// 23 keys by chunks of 5: IN lists of 5 and of 3 padded to 4
+		JdbcClassInfo info = JdbcClassInfo.getClassInfo(PersonLongAutoID.class);
+		assertTrue(info.selectByKeysSQL.containsKey(5));
+		assertTrue(info.selectByKeysSQL.containsKey(4));
+		assertFalse(info.selectByKeysSQL.containsKey(3));
+	}
+
+	public void testGetByKeysConvertsKeys() {
+		List<PersonLongAutoID> l = persons(3);
+		List<PersonLongAutoID> res = pm.getByKeys(PersonLongAutoID.class, 
+				l.get(2).id.intValue(), l.get(0).id.toString());
+		assertEquals(Arrays.asList(l.get(2), l.get(0)), res);
+	}
+
+	public void testGetByKey() {
+		List<PersonLongAutoID> l = persons(3);
+		assertEquals(l.get(1), pm.getByKey(PersonLongAutoID.class, l.get(1).id));
+		assertNull(pm.getByKey(PersonLongAutoID.class, -1L));
+		assertNull(pm.getByKey(PersonLongAutoID.class, null));
+	}
+
+	public void testGet() {
+		List<PersonLongAutoID> l = persons(12);
+		List<PersonLongAutoID> toGet = new ArrayList<PersonLongAutoID>();
+		for(int i=l.size()-1; i>=0; i--){
+			PersonLongAutoID p = new PersonLongAutoID();
+			p.id = l.get(i).id;
+			toGet.add(p);
+		}
+		PersonLongAutoID twice = new PersonLongAutoID();
+		twice.id = l.get(0).id;
+		toGet.add(twice);
+		PersonLongAutoID unknown = new PersonLongAutoID();
+		unknown.id = -1L;
+		toGet.add(unknown);
+
+		assertEquals(13, pm.get(toGet));
+		for(int i=0; i<l.size(); i++){
+			assertEquals(l.get(l.size()-1-i), toGet.get(i));
+		}
+		assertEquals(l.get(0), twice);
+		assertNull(unknown.firstName);
+	}
+
+	public void testJoinAnnotation() {
+		List<PersonLongAutoID> l = persons(2);
+		Discovery4Join d1 = new Discovery4Join("Radioactivity", l.get(0), l.get(1));
+		Discovery4Join d2 = new Discovery4Join("Relativity", l.get(1), l.get(0));
+		pm.insert(d1, d2);
+
+		List<Discovery4Join> res = pm.getByKeys(Discovery4Join.class, d2.id, d1.id);
+		assertEquals("Relativity", res.get(0).name);
+		assertEquals(l.get(1), res.get(0).discovererJoined);
+		assertEquals(l.get(0).id, res.get(0).discovererNotJoined.id);
+		assertNull(res.get(0).discovererNotJoined.firstName);
+		assertEquals("Radioactivity", res.get(1).name);
+		assertEquals(l.get(0), res.get(1).discovererJoined);
+
+		Discovery4Join d = pm.getByKey(Discovery4Join.class, d1.id);
+		assertEquals(l.get(0), d.discovererJoined);
+	}
+
+	public void testManyKeys() {
+		pm.setKeyChunkSize(1000);
+		pm.setMultiRowInsert(true);
+		try {
+			List<PersonLongAutoID> l = persons(10000);
+			List<Object> keys = new ArrayList<Object>();
+			for(int i=l.size()-1; i>=0; i--){
+				keys.add(l.get(i).id);
+			}
+			List<PersonLongAutoID> res = pm.getByKeys(PersonLongAutoID.class, keys);
+			assertEquals(10000, res.size());
+			for(int i=0; i<res.size(); i++){
+				assertEquals(keys.get(i), res.get(i).id);
+			}
+		} finally {
+			pm.setMultiRowInsert(false);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package siena.base.test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.ddlutils.Platform;
+import org.apache.ddlutils.PlatformFactory;
+
+import siena.Query;
+import siena.base.test.model.Discovery4Join;
+import siena.base.test.model.PersonLongAutoID;
+import siena.jdbc.H2PersistenceManager;
+import siena.jdbc.JdbcJoinPlan;
+import siena.jdbc.JdbcPersistenceManager.JdbcClassInfo;
+import siena.jdbc.ddl.DdlGenerator;
+
+public class H2JoinPlanTest extends TestCase {
+	private static H2PersistenceManager pm;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		if(pm==null){
+			Properties p = new Properties();
+
+			String driver   = "org.h2.Driver";
+			String url      = "jdbc:h2:mem:jointest;DB_CLOSE_DELAY=-1";
+			String username = "sa";
+			String password = "";
+
+			p.setProperty("driver",   driver);
+			p.setProperty("url",      url);
+			p.setProperty("user",     username);
+			p.setProperty("password", password);
+
+			DdlGenerator generator = new DdlGenerator();
+			generator.addTable(PersonLongAutoID.class);
+			generator.addTable(Discovery4Join.class);
+
+			Platform platform = PlatformFactory.createNewPlatformInstance("mysql");
+			Class.forName(driver);
+			Connection connection = DriverManager.getConnection(url, username, password);
+			platform.alterTables(connection, generator.getDatabase(), true);
+			connection.close();
+
+			pm = new H2PersistenceManager();
+			pm.init(p);
+		}
+		pm.createQuery(Discovery4Join.class).delete();
+		pm.createQuery(PersonLongAutoID.class).delete();
+	}
+
+	public void testPlanCached() throws Exception {
+		JdbcClassInfo info = JdbcClassInfo.getClassInfo(Discovery4Join.class);
+		List<java.lang.reflect.Field> joins = new ArrayList<java.lang.reflect.Field>();
+		joins.add(Discovery4Join.class.getField("discovererNotJoined"));
+		joins.add(Discovery4Join.class.getField("discovererJoined"));
+
+		JdbcJoinPlan plan = JdbcJoinPlan.getPlan(info, joins);
+		assertSame(plan, JdbcJoinPlan.getPlan(info, new ArrayList<java.lang.reflect.Field>(joins)));
+		assertEquals("people_long_auto0", plan.getAlias(joins.get(0)));
+		assertEquals("people_long_auto1", plan.getAlias(joins.get(1)));
+		assertTrue(plan.selectSQL.contains("LEFT JOIN people_long_auto AS people_long_auto1"));
+
+		// the default @Join plan uses its own aliases
+		JdbcJoinPlan defPlan = JdbcJoinPlan.getPlan(info, info.joinFields);
+		assertNotSame(plan, defPlan);
+		assertEquals("people_long_auto0", defPlan.getAlias(joins.get(1)));
+		assertNull(defPlan.getAlias(joins.get(0)));
+	}
+
+	public void testConcurrentJoins() throws Exception {
+		final PersonLongAutoID curie = new PersonLongAutoID("Marie", "Curie", "Warsaw", 2);
+		final PersonLongAutoID tesla = new PersonLongAutoID("Nikola", "Tesla", "Smiljam", 1);
+		pm.insert(curie, tesla);
+		for(int i=0; i<10; i++){
+			pm.insert(new Discovery4Join("Disc_"+i, curie, tesla));
+		}
+
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		Thread[] threads = new Thread[8];
+		for(int t=0; t<threads.length; t++){
+			final boolean bothJoined = t%2 == 0;
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						for(int i=0; i<50; i++){
+							Query<Discovery4Join> q = pm.createQuery(Discovery4Join.class);
+							if(bothJoined){
+								q.join("discovererNotJoined");
+							}
+							for(Discovery4Join d: pm.fetch(q)){
+								assertEquals("Curie", d.discovererJoined.lastName);
+								if(bothJoined){
+									assertEquals("Tesla", d.discovererNotJoined.lastName);
+								}else {
+									assertEquals(tesla.id, d.discovererNotJoined.id);
+									assertNull(d.discovererNotJoined.lastName);
+								}
+							}
+						}
+					} catch(Throwable e) {
+						synchronized(errors) {
+							errors.add(e);
+						}
+					} finally {
+						pm.closeConnection();
+					}
+				}
+			};
+		}
+		for(Thread t: threads) t.start();
+		for(Thread t: threads) t.join();
+		if(!errors.isEmpty()){
+			throw new Exception(errors.get(0));
+		}
+	}
+}
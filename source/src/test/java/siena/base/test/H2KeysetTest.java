@@ -0,0 +1,150 @@
+package siena.base.test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.ddlutils.Platform;
+import org.apache.ddlutils.PlatformFactory;
+
+import siena.Query;
+import siena.base.test.model.PersonLongAutoID;
+import siena.jdbc.H2PersistenceManager;
+import siena.jdbc.QueryOptionJdbcKeyset;
+import siena.jdbc.ddl.DdlGenerator;
+
+public class H2KeysetTest extends TestCase {
+	private static H2PersistenceManager pm;
+
+	private static final int NB = 23;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		if(pm==null){
+			Properties p = new Properties();
+
+			String driver   = "org.h2.Driver";
+			String url      = "jdbc:h2:mem:keysettest;DB_CLOSE_DELAY=-1";
+			String username = "sa";
+			String password = "";
+
+			p.setProperty("driver",   driver);
+			p.setProperty("url",      url);
+			p.setProperty("user",     username);
+			p.setProperty("password", password);
+
+			DdlGenerator generator = new DdlGenerator();
+			generator.addTable(PersonLongAutoID.class);
+
+			Platform platform = PlatformFactory.createNewPlatformInstance("mysql");
+			Class.forName(driver);
+			Connection connection = DriverManager.getConnection(url, username, password);
+			platform.alterTables(connection, generator.getDatabase(), true);
+			connection.close();
+
+			pm = new H2PersistenceManager();
+			pm.init(p);
+		}
+		pm.createQuery(PersonLongAutoID.class).delete();
+		List<PersonLongAutoID> l = new ArrayList<PersonLongAutoID>();
+		for(int i=0; i<NB; i++){
+			// duplicate n values: the id breaks the ties
+			l.add(new PersonLongAutoID("John"+i, "Doe", i%2==0?"Paris":"Madrid", i/3));
+		}
+		pm.insert(l);
+	}
+
+	private List<PersonLongAutoID> expected(String... orders) {
+		Query<PersonLongAutoID> q = pm.createQuery(PersonLongAutoID.class);
+		for(String o: orders){
+			q.order(o);
+		}
+		return q.order("id").fetch(NB);
+	}
+
+	private void assertPage(List<PersonLongAutoID> all, int page, List<PersonLongAutoID> res) {
+		int from = page*5;
+		int to = Math.min(from+5, all.size());
+		assertEquals(to-from, res.size());
+		for(int i=from; i<to; i++){
+			assertEquals(all.get(i).id, res.get(i-from).id);
+		}
+	}
+
+	public void testNextPrevious() {
+		List<PersonLongAutoID> all = expected("n");
+		Query<PersonLongAutoID> q = pm.createQuery(PersonLongAutoID.class)
+			.customize(new QueryOptionJdbcKeyset()).order("n").paginate(5);
+
+		for(int page=0; page<5; page++){
+			assertPage(all, page, pm.fetch(q));
+			// fetching again stays on the same page
+			assertPage(all, page, pm.fetch(q));
+			q.nextPage();
+		}
+		assertTrue(pm.fetch(q).isEmpty());
+
+		q.previousPage();
+		assertPage(all, 4, pm.fetch(q));
+		for(int page=3; page>=0; page--){
+			q.previousPage();
+			assertPage(all, page, pm.fetch(q));
+		}
+		q.previousPage();
+		assertTrue(pm.fetch(q).isEmpty());
+		q.nextPage();
+		assertPage(all, 0, pm.fetch(q));
+		q.nextPage();
+		assertPage(all, 1, pm.fetch(q));
+
+		// paginate goes back to the first page
+		q.paginate(5);
+		assertPage(all, 0, pm.fetch(q));
+	}
+
+	public void testMixedDirectionsAndFilter() {
+		List<PersonLongAutoID> all = pm.createQuery(PersonLongAutoID.class)
+			.filter("city", "Paris").order("-n").order("id").fetch(NB);
+		Query<PersonLongAutoID> q = pm.createQuery(PersonLongAutoID.class)
+			.customize(new QueryOptionJdbcKeyset()).filter("city", "Paris").order("-n").paginate(5);
+
+		assertPage(all, 0, pm.fetch(q));
+		q.nextPage();
+		assertPage(all, 1, pm.fetch(q));
+		q.nextPage();
+		assertPage(all, 2, pm.fetch(q));
+		q.previousPage();
+		assertPage(all, 1, pm.fetch(q));
+	}
+
+	public void testFetchKeys() {
+		List<PersonLongAutoID> all = expected("n");
+		Query<PersonLongAutoID> q = pm.createQuery(PersonLongAutoID.class)
+			.customize(new QueryOptionJdbcKeyset()).order("n").paginate(5);
+		List<PersonLongAutoID> res = pm.fetchKeys(q);
+		assertPage(all, 0, res);
+		assertNull(res.get(0).firstName);
+		q.nextPage();
+		assertPage(all, 1, pm.fetchKeys(q));
+	}
+
+	public void testIterPerPage() {
+		Query<PersonLongAutoID> q = pm.createQuery(PersonLongAutoID.class)
+			.customize(new QueryOptionJdbcKeyset()).order("-n").order("-id");
+		List<Long> ids = new ArrayList<Long>();
+		for(PersonLongAutoID p: q.iterPerPage(4)){
+			ids.add(p.id);
+		}
+		assertEquals(NB, ids.size());
+		// same n values ordered by -id
+		List<PersonLongAutoID> desc = pm.createQuery(PersonLongAutoID.class).order("-n").order("-id").fetch(NB);
+		for(int i=0; i<NB; i++){
+			assertEquals(desc.get(i).id, ids.get(i));
+		}
+	}
+}
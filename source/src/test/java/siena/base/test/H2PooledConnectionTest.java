@@ -0,0 +1,172 @@
+package siena.base.test;
+
+import java.sql.Connection;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.ddlutils.Platform;
+import org.apache.ddlutils.PlatformFactory;
+
+import siena.SienaException;
+import siena.base.test.model.PersonLongAutoID;
+import siena.jdbc.H2PersistenceManager;
+import siena.jdbc.PooledConnectionManager;
+import siena.jdbc.PreparedStatementCache;
+import siena.jdbc.ddl.DdlGenerator;
+
+public class H2PooledConnectionTest extends TestCase {
+	private PooledConnectionManager pool;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		pool = createPool(new Properties());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		pool.closeConnection();
+		pool.close();
+		super.tearDown();
+	}
+
+	private PooledConnectionManager createPool(Properties p) {
+		p.setProperty("driver", "org.h2.Driver");
+		p.setProperty("url", "jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1");
+		p.setProperty("user", "sa");
+		p.setProperty("password", "");
+		if(p.getProperty("pool.maxSize") == null) p.setProperty("pool.maxSize", "2");
+		p.setProperty("pool.borrowTimeout", "200");
+		PooledConnectionManager pool = new PooledConnectionManager();
+		pool.init(p);
+		return pool;
+	}
+
+	private Connection borrowInOtherThread(final PooledConnectionManager pool) throws Exception {
+		final Object[] res = new Object[1];
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					res[0] = pool.getConnection();
+				} catch(SienaException e) {
+					res[0] = e;
+				}
+			}
+		};
+		t.start();
+		t.join();
+		if(res[0] instanceof SienaException) throw (SienaException)res[0];
+		return (Connection)res[0];
+	}
+
+	public void testSameConnectionInThread() {
+		Connection c1 = pool.getConnection();
+		Connection c2 = pool.getConnection();
+		assertSame(c1, c2);
+		assertEquals(1, pool.getActiveConnections());
+		assertEquals(0, pool.getIdleConnections());
+
+		pool.closeConnection();
+		assertEquals(0, pool.getActiveConnections());
+		assertEquals(1, pool.getIdleConnections());
+
+		// reuses the idle connection
+		assertSame(c1, pool.getConnection());
+		assertEquals(1, pool.getCreatedCount());
+		assertEquals(2, pool.getBorrowCount());
+	}
+
+	public void testBounded() throws Exception {
+		pool.getConnection();
+		borrowInOtherThread(pool);
+		assertEquals(2, pool.getActiveConnections());
+		try {
+			borrowInOtherThread(pool);
+			fail();
+		} catch(SienaException e) {
+		}
+		assertEquals(1, pool.getTimeoutCount());
+		assertEquals(2, pool.getTotalConnections());
+	}
+
+	public void testValidationOnBorrow() throws Exception {
+		Connection c1 = pool.getConnection();
+		pool.closeConnection();
+		// kills the idle connection behind the pool's back
+		c1.close();
+
+		Connection c2 = pool.getConnection();
+		assertNotSame(c1, c2);
+		assertFalse(c2.isClosed());
+		assertEquals(1, pool.getValidationFailureCount());
+		assertEquals(1, pool.getDestroyedCount());
+	}
+
+	public void testTransactionRolledBackWhenGivenBack() throws Exception {
+		pool.beginTransaction();
+		Connection c = pool.getConnection();
+		assertFalse(c.getAutoCommit());
+		pool.closeConnection();
+		assertTrue(pool.getConnection().getAutoCommit());
+	}
+
+	public void testMaxLifetimeAndLeaks() throws Exception {
+		Properties p = new Properties();
+		p.setProperty("pool.maxLifetime", "50");
+		p.setProperty("pool.leakDetectionThreshold", "50");
+		p.setProperty("pool.housekeepingPeriod", "20");
+		PooledConnectionManager pool2 = createPool(p);
+		try {
+			Connection c1 = pool2.getConnection();
+			Thread.sleep(200);
+			assertEquals(1, pool2.getLeakCount());
+
+			// retired when given back
+			pool2.closeConnection();
+			assertEquals(0, pool2.getIdleConnections());
+			assertTrue(c1.isClosed());
+			assertNotSame(c1, pool2.getConnection());
+		} finally {
+			pool2.closeConnection();
+			pool2.close();
+		}
+	}
+
+	public void testStatementCache() throws Exception {
+		DdlGenerator generator = new DdlGenerator();
+		generator.addTable(PersonLongAutoID.class);
+		Platform platform = PlatformFactory.createNewPlatformInstance("mysql");
+		platform.alterTables(pool.getConnection(), generator.getDatabase(), true);
+		pool.closeConnection();
+
+		H2PersistenceManager pm = new H2PersistenceManager(pool, null);
+		PreparedStatementCache.Stats stats = pool.getStatementCacheStats();
+		long misses = stats.getMisses();
+
+		for(int i=0; i<10; i++) {
+			PersonLongAutoID p = new PersonLongAutoID("John", "Doe", "Paris", i);
+			pm.insert(p);
+			pool.closeConnection();
+			assertNotNull(p.id);
+
+			PersonLongAutoID p2 = new PersonLongAutoID();
+			p2.id = p.id;
+			pm.get(p2);
+			pool.closeConnection();
+			assertEquals(i, p2.n);
+			assertEquals("Paris", p2.city);
+
+			p2.city = "Madrid";
+			pm.update(p2);
+			pool.closeConnection();
+
+			pm.delete(p2);
+			pool.closeConnection();
+		}
+		// one prepare per SQL (insert, select, update, delete) then reused
+		assertEquals(4, stats.getMisses() - misses);
+		assertEquals(36, stats.getHits());
+		assertEquals(1, pool.getCreatedCount());
+	}
+}
@@ -0,0 +1,262 @@
+package siena.base.test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.ddlutils.Platform;
+import org.apache.ddlutils.PlatformFactory;
+
+import siena.Query;
+import siena.base.test.model.Discovery4Search;
+import siena.base.test.model.PersonLongAutoID;
+import siena.jdbc.H2PersistenceManager;
+import siena.jdbc.QueryOptionJdbcSearch;
+import siena.jdbc.ddl.DdlGenerator;
+import siena.jdbc.h2.PostingList;
+
+public class H2RankedSearchTest extends TestCase {
+	private static H2PersistenceManager pm;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		if(pm==null){
+			Properties p = new Properties();
+
+			String driver   = "org.h2.Driver";
+			String url      = "jdbc:h2:mem:rankedsearchtest;DB_CLOSE_DELAY=-1";
+			String username = "sa";
+			String password = "";
+
+			p.setProperty("driver",   driver);
+			p.setProperty("url",      url);
+			p.setProperty("user",     username);
+			p.setProperty("password", password);
+
+			DdlGenerator generator = new DdlGenerator();
+			generator.addTable(PersonLongAutoID.class);
+			generator.addTable(Discovery4Search.class);
+
+			Platform platform = PlatformFactory.createNewPlatformInstance("mysql");
+			Class.forName(driver);
+			Connection connection = DriverManager.getConnection(url, username, password);
+			platform.alterTables(connection, generator.getDatabase(), true);
+			connection.close();
+
+			pm = new H2PersistenceManager();
+			pm.init(p);
+		}
+		pm.createQuery(Discovery4Search.class).delete();
+	}
+
+	private Query<Discovery4Search> search(String match, boolean booleanMode) {
+		return pm.createQuery(Discovery4Search.class).search(match, new QueryOptionJdbcSearch(booleanMode), "name");
+	}
+
+	public void testPostingList() {
+		PostingList list = new PostingList();
+		for(int i=0; i<1000; i++){
+			list.add(i*3, i%5+1);
+		}
+		assertEquals(1000, list.size());
+		// small deltas are encoded on one byte
+		assertEquals(2000, list.bytes());
+
+		PostingList.Cursor cursor = list.cursor();
+		assertEquals(0, cursor.next());
+		assertEquals(300, cursor.advance(299));
+		assertEquals(1, cursor.freq());
+		assertEquals(300, cursor.advance(300));
+		assertEquals(2700, cursor.advance(2700));
+		assertEquals(2997, cursor.advance(2996));
+		assertEquals(PostingList.NO_MORE_DOCS, cursor.next());
+	}
+
+	public void testSearchRanked() {
+		List<Discovery4Search> discs = new ArrayList<Discovery4Search>();
+		for(int i=0; i<100; i++){
+			discs.add(new Discovery4Search("Disc_"+i, null));
+		}
+		pm.insert(discs);
+
+		List<Discovery4Search> res = pm.fetch(search("Disc_5", true));
+		assertEquals(1, res.size());
+		assertEquals(discs.get(5).id, res.get(0).id);
+		assertEquals("Disc_5", res.get(0).name);
+
+		assertEquals(1, search("Disc_5", true).count());
+		assertEquals(100, search("Disc", true).count());
+		assertEquals(0, search("Disc_1000", true).count());
+	}
+
+	public void testBooleanAndNaturalMode() {
+		Discovery4Search AB = new Discovery4Search("alpha beta", null);
+		Discovery4Search GB = new Discovery4Search("gamma beta", null);
+		Discovery4Search GD = new Discovery4Search("gamma delta", null);
+		Discovery4Search ET = new Discovery4Search("epsilon theta", null);
+		pm.insert(AB, GB, GD, ET);
+
+		List<Discovery4Search> res = pm.fetch(search("gamma delta", true));
+		assertEquals(1, res.size());
+		assertEquals(GD.id, res.get(0).id);
+
+		res = pm.fetch(search("alpha delta", false));
+		assertEquals(2, res.size());
+		assertEquals(2, search("alpha delta", false).count());
+
+		// the rows having both words come first
+		res = pm.fetch(search("gamma delta", false));
+		assertEquals(2, res.size());
+		assertEquals(GD.id, res.get(0).id);
+		assertEquals(GB.id, res.get(1).id);
+	}
+
+	public void testBM25Order() {
+		Discovery4Search d1 = new Discovery4Search("banana cherry plum", null);
+		Discovery4Search d2 = new Discovery4Search("apple banana cherry plum kiwi", null);
+		Discovery4Search d3 = new Discovery4Search("apple apple apple", null);
+		Discovery4Search d4 = new Discovery4Search("apple banana", null);
+		pm.insert(d1, d2, d3, d4);
+
+		List<Discovery4Search> res = pm.fetch(search("apple", false));
+		assertEquals(3, res.size());
+		// more occurrences then shorter rows first
+		assertEquals(d3.id, res.get(0).id);
+		assertEquals(d4.id, res.get(1).id);
+		assertEquals(d2.id, res.get(2).id);
+
+		res = pm.fetch(search("apple", false), 1, 1);
+		assertEquals(1, res.size());
+		assertEquals(d4.id, res.get(0).id);
+
+		res = pm.fetchKeys(search("apple", false));
+		assertEquals(3, res.size());
+		assertEquals(d3.id, res.get(0).id);
+		assertTrue(res.get(0).isOnlyIdFilled());
+	}
+
+	public void testIntersectionAndPagination() {
+		List<Discovery4Search> discs = new ArrayList<Discovery4Search>();
+		for(int i=0; i<1000; i++){
+			discs.add(new Discovery4Search("common "+(i%100==0?"rare ":"")+i, null));
+		}
+		pm.insert(discs);
+
+		assertEquals(10, search("rare common", true).count());
+		List<Discovery4Search> res = pm.fetch(search("rare common", true), 3, 3);
+		assertEquals(3, res.size());
+		// same score: indexing order
+		assertEquals(discs.get(300).id, res.get(0).id);
+		assertEquals(discs.get(400).id, res.get(1).id);
+		assertEquals(discs.get(500).id, res.get(2).id);
+
+		// filtered and ordered by the database
+		res = pm.fetch(search("rare common", true).filter("name>", "common rare 5").order("-name"), 2, 1);
+		assertEquals(2, res.size());
+		assertEquals(discs.get(800).id, res.get(0).id);
+		assertEquals(discs.get(700).id, res.get(1).id);
+		assertEquals(5, search("rare common", true).filter("name>", "common rare 5").count());
+	}
+
+	public void testIndexMaintenance() {
+		Discovery4Search d1 = new Discovery4Search("red car", null);
+		Discovery4Search d2 = new Discovery4Search("blue car", null);
+		pm.insert(d1, d2);
+		assertEquals(2, search("car", true).count());
+
+		Discovery4Search d3 = new Discovery4Search("red bike", null);
+		pm.insert(d3);
+		assertEquals(2, search("red", true).count());
+
+		d1.name = "green car";
+		pm.update(d1);
+		assertEquals(1, search("red", true).count());
+		assertEquals(d1.id, pm.fetch(search("green", true)).get(0).id);
+
+		pm.delete(d2);
+		List<Discovery4Search> res = pm.fetch(search("car", true));
+		assertEquals(1, res.size());
+		assertEquals(d1.id, res.get(0).id);
+	}
+
+	// the connections are bound to the threads and the H2 ones are never closed:
+	// the transactions run in their own thread so that the other tests stay in autocommit mode
+	private void inTransaction(final Runnable tx) throws Throwable {
+		final Throwable[] error = new Throwable[1];
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				try {
+					tx.run();
+				} catch (Throwable e) {
+					error[0] = e;
+				}
+			}
+		});
+		t.start();
+		t.join();
+		if(error[0] != null){
+			throw error[0];
+		}
+	}
+
+	public void testRollback() throws Throwable {
+		final Discovery4Search d1 = new Discovery4Search("red car", null);
+		pm.insert(d1);
+		assertEquals(1, search("car", true).count());
+
+		inTransaction(new Runnable() {
+			public void run() {
+				pm.beginTransaction();
+				pm.insert(new Discovery4Search("blue car", null));
+				d1.name = "green bike";
+				pm.update(d1);
+				// not committed yet
+				assertEquals(0, search("green", true).count());
+				pm.rollbackTransaction();
+			}
+		});
+
+		// the rolled back changes are not indexed
+		List<Discovery4Search> res = pm.fetch(search("car", true));
+		assertEquals(1, res.size());
+		assertEquals(d1.id, res.get(0).id);
+		assertEquals(0, search("green", true).count());
+
+		inTransaction(new Runnable() {
+			public void run() {
+				pm.beginTransaction();
+				pm.delete(d1);
+				pm.commitTransaction();
+			}
+		});
+		assertEquals(0, search("car", true).count());
+	}
+
+	public void testFilteredHitsByChunks() {
+		List<Discovery4Search> discs = new ArrayList<Discovery4Search>();
+		for(int i=0; i<1200; i++){
+			discs.add(new Discovery4Search(String.format("chunk %04d", i), null));
+		}
+		pm.insert(discs);
+
+		// the hits are fetched by several queries merged in the order of the query
+		List<Discovery4Search> res = pm.fetch(search("chunk", true).order("-name"), 3, 600);
+		assertEquals(3, res.size());
+		assertEquals(discs.get(599).id, res.get(0).id);
+		assertEquals(discs.get(598).id, res.get(1).id);
+		assertEquals(discs.get(597).id, res.get(2).id);
+
+		res = pm.fetchKeys(search("chunk", true).order("name"), 2, 1000);
+		assertEquals(2, res.size());
+		assertEquals(discs.get(1000).id, res.get(0).id);
+		assertTrue(res.get(0).isOnlyIdFilled());
+
+		assertEquals(1199, search("chunk", true).filter("name>", "chunk 0000").count());
+		assertEquals(1200, pm.fetch(search("chunk", true).filter("name>=", "chunk 0000")).size());
+	}
+}
@@ -0,0 +1,119 @@
+package siena.base.test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.ddlutils.Platform;
+import org.apache.ddlutils.PlatformFactory;
+
+import siena.base.test.model.PersonStringID;
+import siena.jdbc.H2PersistenceManager;
+import siena.jdbc.JdbcSqlCache;
+import siena.jdbc.ddl.DdlGenerator;
+
+public class H2SqlCacheTest extends TestCase {
+	private static H2PersistenceManager pm;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		if(pm==null){
+			Properties p = new Properties();
+
+			String driver   = "org.h2.Driver";
+			String url      = "jdbc:h2:mem:sqlcachetest;DB_CLOSE_DELAY=-1";
+			String username = "sa";
+			String password = "";
+
+			p.setProperty("driver",   driver);
+			p.setProperty("url",      url);
+			p.setProperty("user",     username);
+			p.setProperty("password", password);
+			p.setProperty("sql.cacheSize", "4");
+
+			DdlGenerator generator = new DdlGenerator();
+			generator.addTable(PersonStringID.class);
+
+			Platform platform = PlatformFactory.createNewPlatformInstance("mysql");
+			Class.forName(driver);
+			Connection connection = DriverManager.getConnection(url, username, password);
+			platform.alterTables(connection, generator.getDatabase(), true);
+			connection.close();
+
+			pm = new H2PersistenceManager();
+			pm.init(p);
+		}
+		pm.createQuery(PersonStringID.class).delete();
+		pm.insert(
+				new PersonStringID("TESLA", "Nikola", "Tesla", "Smiljam", 1),
+				new PersonStringID("CURIE", "Marie", "Curie", "Warsaw", 2),
+				new PersonStringID("EINSTEIN", "Albert", "Einstein", "Ulm", 3),
+				new PersonStringID("BOHR", "Niels", "Bohr", null, 4));
+		pm.getSqlCache().clear();
+	}
+
+	public void testInBucket() {
+		assertEquals(0, JdbcSqlCache.inBucket(0));
+		assertEquals(1, JdbcSqlCache.inBucket(1));
+		assertEquals(2, JdbcSqlCache.inBucket(2));
+		assertEquals(4, JdbcSqlCache.inBucket(3));
+		assertEquals(4, JdbcSqlCache.inBucket(4));
+		assertEquals(8, JdbcSqlCache.inBucket(5));
+		assertEquals(256, JdbcSqlCache.inBucket(256));
+		assertEquals(512, JdbcSqlCache.inBucket(257));
+	}
+
+	public void testSameShapeReused() {
+		JdbcSqlCache.Stats stats = pm.getSqlCache().getStats();
+		long hits = stats.getHits();
+
+		assertEquals("Tesla", pm.createQuery(PersonStringID.class).filter("n", 1).get().lastName);
+		assertEquals("Curie", pm.createQuery(PersonStringID.class).filter("n", 2).get().lastName);
+		assertEquals(1, pm.getSqlCache().size());
+		assertEquals(hits+1, stats.getHits());
+
+		assertEquals(2, pm.createQuery(PersonStringID.class).filter("n>", 2).count());
+		assertEquals(1, pm.createQuery(PersonStringID.class).filter("n>", 3).count());
+		assertEquals(2, pm.getSqlCache().size());
+		assertEquals(hits+2, stats.getHits());
+	}
+
+	public void testNullFilterShape() {
+		assertEquals(3, pm.createQuery(PersonStringID.class).filter("city!=", null).count());
+		assertEquals(1, pm.createQuery(PersonStringID.class).filter("city", null).count());
+		assertEquals(1, pm.createQuery(PersonStringID.class).filter("city", "Ulm").count());
+		assertEquals(1, pm.createQuery(PersonStringID.class).filter("city", null).count());
+		assertEquals(3, pm.getSqlCache().size());
+	}
+
+	public void testInPadding() {
+		List<PersonStringID> l = pm.createQuery(PersonStringID.class)
+			.filter("n IN", Arrays.asList(1, 2, 3)).order("n").fetch(10);
+		assertEquals(3, l.size());
+		assertEquals("Einstein", l.get(2).lastName);
+
+		l = pm.createQuery(PersonStringID.class)
+			.filter("n IN", Arrays.asList(4, 1, 2, 3)).order("n").fetch(10);
+		assertEquals(4, l.size());
+		assertEquals("Bohr", l.get(3).lastName);
+		assertEquals(1, pm.getSqlCache().size());
+
+		assertEquals(1, pm.createQuery(PersonStringID.class).filter("n IN", Arrays.asList(4)).count());
+		assertEquals(2, pm.getSqlCache().size());
+	}
+
+	public void testLru() {
+		long evictions = pm.getSqlCache().getStats().getEvictions();
+		String[] fields = { "id", "city", "firstName", "lastName", "city>", "city<" };
+		for(String f: fields){
+			pm.createQuery(PersonStringID.class).filter(f, "x").count();
+		}
+		assertEquals(4, pm.getSqlCache().size());
+		assertEquals(evictions+2, pm.getSqlCache().getStats().getEvictions());
+	}
+}
@@ -0,0 +1,143 @@
+package siena.base.test;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.ddlutils.Platform;
+import org.apache.ddlutils.PlatformFactory;
+
+import siena.base.test.model.PersonLongAutoID;
+import siena.jdbc.H2PersistenceManager;
+import siena.jdbc.JdbcSienaIterable;
+import siena.jdbc.QueryOptionJdbcStreaming;
+import siena.jdbc.ddl.DdlGenerator;
+
+public class H2StreamTest extends TestCase {
+	private static H2PersistenceManager pm;
+
+	private static final int NB = 2000;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		if(pm==null){
+			Properties p = new Properties();
+
+			String driver   = "org.h2.Driver";
+			String url      = "jdbc:h2:mem:streamtest;DB_CLOSE_DELAY=-1";
+			String username = "sa";
+			String password = "";
+
+			p.setProperty("driver",   driver);
+			p.setProperty("url",      url);
+			p.setProperty("user",     username);
+			p.setProperty("password", password);
+			p.setProperty("iter.fetchSize", "100");
+
+			DdlGenerator generator = new DdlGenerator();
+			generator.addTable(PersonLongAutoID.class);
+
+			Platform platform = PlatformFactory.createNewPlatformInstance("mysql");
+			Class.forName(driver);
+			Connection connection = DriverManager.getConnection(url, username, password);
+			platform.alterTables(connection, generator.getDatabase(), true);
+			connection.close();
+
+			pm = new H2PersistenceManager();
+			pm.init(p);
+
+			List<PersonLongAutoID> l = new ArrayList<PersonLongAutoID>();
+			for(int i=0; i<NB; i++){
+				l.add(new PersonLongAutoID("John", "Doe", "Paris", i));
+			}
+			pm.insert(l);
+		}
+	}
+
+	public void testStreaming() {
+		assertEquals(100, pm.getFetchSize());
+		Iterable<PersonLongAutoID> it = pm.createQuery(PersonLongAutoID.class)
+			.customize(new QueryOptionJdbcStreaming()).order("n").iter();
+		assertTrue(it instanceof JdbcSienaIterable);
+
+		int i = 0;
+		for(PersonLongAutoID p: it){
+			assertEquals(i++, p.n);
+		}
+		assertEquals(NB, i);
+		// released as soon as the iteration is over
+		assertTrue(((JdbcSienaIterable<PersonLongAutoID>)it).isClosed());
+	}
+
+	public void testHasNextDoesntSkipRows() {
+		Iterable<PersonLongAutoID> it = pm.createQuery(PersonLongAutoID.class).order("n").iter(3);
+		Iterator<PersonLongAutoID> iterator = it.iterator();
+		assertTrue(iterator.hasNext());
+		assertTrue(iterator.hasNext());
+		assertEquals(0, iterator.next().n);
+		assertEquals(1, iterator.next().n);
+		assertTrue(iterator.hasNext());
+		assertEquals(2, iterator.next().n);
+		assertFalse(iterator.hasNext());
+		assertTrue(((JdbcSienaIterable<PersonLongAutoID>)it).isClosed());
+	}
+
+	public void testClose() {
+		JdbcSienaIterable<PersonLongAutoID> it = (JdbcSienaIterable<PersonLongAutoID>)pm.createQuery(PersonLongAutoID.class)
+			.customize(new QueryOptionJdbcStreaming(10)).order("n").iter();
+		try {
+			Iterator<PersonLongAutoID> iterator = it.iterator();
+			for(int i=0; i<15; i++){
+				assertEquals(i, iterator.next().n);
+			}
+			it.close();
+			assertFalse(iterator.hasNext());
+		} finally {
+			it.close();
+		}
+		assertTrue(it.isClosed());
+		// the connection can be used again
+		assertEquals(NB, pm.createQuery(PersonLongAutoID.class).count());
+	}
+
+	public void testFinalizeRestoresAutoCommit() throws Exception {
+		final Connection[] streaming = new Connection[1];
+		H2PersistenceManager pm2 = new H2PersistenceManager() {
+			// streams in a transaction like PostgreSQL
+			@Override
+			protected boolean prepareStreaming(PreparedStatement statement, int fetchSize) throws SQLException {
+				super.prepareStreaming(statement, fetchSize);
+				streaming[0] = statement.getConnection();
+				streaming[0].setAutoCommit(false);
+				return true;
+			}
+		};
+		Properties p = new Properties();
+		p.setProperty("driver",   "org.h2.Driver");
+		p.setProperty("url",      "jdbc:h2:mem:streamtest;DB_CLOSE_DELAY=-1");
+		p.setProperty("user",     "sa");
+		p.setProperty("password", "");
+		pm2.init(p);
+
+		JdbcSienaIterable<PersonLongAutoID> it = (JdbcSienaIterable<PersonLongAutoID>)pm2.createQuery(PersonLongAutoID.class)
+			.customize(new QueryOptionJdbcStreaming(10)).order("n").iter();
+		assertEquals(0, it.iterator().next().n);
+		assertFalse(streaming[0].getAutoCommit());
+
+		// abandoned without close()
+		Method finalize = JdbcSienaIterable.class.getDeclaredMethod("finalize");
+		finalize.setAccessible(true);
+		finalize.invoke(it);
+		assertTrue(it.isClosed());
+		assertTrue(streaming[0].getAutoCommit());
+	}
+}
@@ -0,0 +1,486 @@
+package siena.base.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.simpledb.AmazonSimpleDB;
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.BatchDeleteAttributesRequest;
+import com.amazonaws.services.simpledb.model.BatchPutAttributesRequest;
+import com.amazonaws.services.simpledb.model.CreateDomainRequest;
+import com.amazonaws.services.simpledb.model.DeletableItem;
+import com.amazonaws.services.simpledb.model.DeleteAttributesRequest;
+import com.amazonaws.services.simpledb.model.DeleteDomainRequest;
+import com.amazonaws.services.simpledb.model.DomainMetadataRequest;
+import com.amazonaws.services.simpledb.model.DomainMetadataResult;
+import com.amazonaws.services.simpledb.model.GetAttributesRequest;
+import com.amazonaws.services.simpledb.model.GetAttributesResult;
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.ListDomainsRequest;
+import com.amazonaws.services.simpledb.model.ListDomainsResult;
+import com.amazonaws.services.simpledb.model.PutAttributesRequest;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.amazonaws.services.simpledb.model.ReplaceableItem;
+import com.amazonaws.services.simpledb.model.SelectRequest;
+import com.amazonaws.services.simpledb.model.SelectResult;
+
+/**
+ * An in-process SimpleDB keeping the domains in memory, to test the SimpleDB persistence manager
+ * without AWS.
+ *
+ * The batch calls can be slowed down (latency), throttled (ServiceUnavailable), rejected or broken
+ * when they contain a given item.
+ * The selects support the expressions built by SdbMappingUtils with simple conditions joined by "and"
+ * and return at most selectPageSize items by call, the NextToken being the index of the next item.
+ */
+public class LocalSimpleDB implements AmazonSimpleDB {
+	// domain -> itemName -> attribute -> values
+	protected final Map<String, Map<String, Map<String, List<String>>>> domains =
+		new ConcurrentHashMap<String, Map<String, Map<String, List<String>>>>();
+
+	public volatile long latency = 0;
+	public final AtomicInteger throttled = new AtomicInteger();
+	public final Set<String> rejected = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	// the items failing the batch calls with an unexpected exception
+	public final Set<String> broken = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	// max number of items returned by a select call
+	public volatile int selectPageSize = 100;
+	public volatile long selectLatency = 0;
+	// the listDomains calls fail
+	public volatile boolean listDomainsUnavailable = false;
+
+	public final AtomicInteger batchCalls = new AtomicInteger();
+	public final AtomicInteger selectCalls = new AtomicInteger();
+	public final AtomicInteger createDomainCalls = new AtomicInteger();
+	public final AtomicInteger listDomainsCalls = new AtomicInteger();
+	public final AtomicInteger domainMetadataCalls = new AtomicInteger();
+	private final AtomicInteger concurrent = new AtomicInteger();
+	private final AtomicInteger maxConcurrent = new AtomicInteger();
+	private final AtomicInteger concurrentSelects = new AtomicInteger();
+	private final AtomicInteger maxConcurrentSelects = new AtomicInteger();
+
+	/**
+	 * the next n batch calls will be throttled
+	 */
+	public void throttle(int n) {
+		throttled.set(n);
+	}
+
+	public int getMaxConcurrent() {
+		return maxConcurrent.get();
+	}
+
+	public int getMaxConcurrentSelects() {
+		return maxConcurrentSelects.get();
+	}
+
+	public Map<String, Map<String, List<String>>> domain(String name) {
+		Map<String, Map<String, List<String>>> domain = domains.get(name);
+		if(domain == null){
+			throw serviceException("NoSuchDomain", 400, "The specified domain does not exist: " + name);
+		}
+		return domain;
+	}
+
+	public int size(String name) {
+		Map<String, Map<String, List<String>>> domain = domain(name);
+		synchronized(domain) {
+			return domain.size();
+		}
+	}
+
+	public Map<String, List<String>> item(String domainName, String itemName) {
+		Map<String, Map<String, List<String>>> domain = domain(domainName);
+		synchronized(domain) {
+			return domain.get(itemName);
+		}
+	}
+
+	protected AmazonServiceException serviceException(String code, int status, String message) {
+		AmazonServiceException ex = new AmazonServiceException(message);
+		ex.setErrorCode(code);
+		ex.setStatusCode(status);
+		ex.setServiceName("LocalSimpleDB");
+		return ex;
+	}
+
+	protected void enterBatch(String domain, List<String> itemNames) {
+		batchCalls.incrementAndGet();
+		domain(domain);
+		if(itemNames.size() > 25){
+			throw serviceException("NumberSubmittedItemsExceeded", 400, "Too many items in a single call");
+		}
+		int c = concurrent.incrementAndGet();
+		for(int max = maxConcurrent.get(); c > max && !maxConcurrent.compareAndSet(max, c); max = maxConcurrent.get()){
+		}
+		try {
+			if(latency > 0){
+				Thread.sleep(latency);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AmazonClientException("interrupted", e);
+		} finally {
+			concurrent.decrementAndGet();
+		}
+		for(int t = throttled.get(); t > 0; t = throttled.get()){
+			if(throttled.compareAndSet(t, t - 1)){
+				throw serviceException("ServiceUnavailable", 503, "Service AmazonSimpleDB is currently unavailable");
+			}
+		}
+		for(String itemName: itemNames){
+			if(rejected.contains(itemName)){
+				throw serviceException("InvalidParameterValue", 400, "Value for parameter ItemName is invalid: " + itemName);
+			}
+			if(broken.contains(itemName)){
+				throw new IllegalStateException("broken item " + itemName);
+			}
+		}
+	}
+
+	protected void put(String domainName, String itemName, List<ReplaceableAttribute> attrs) {
+		Map<String, Map<String, List<String>>> domain = domain(domainName);
+		synchronized(domain) {
+			Map<String, List<String>> item = domain.get(itemName);
+			if(item == null){
+				item = new LinkedHashMap<String, List<String>>();
+				domain.put(itemName, item);
+			}
+			for(ReplaceableAttribute attr: attrs){
+				List<String> values = item.get(attr.getName());
+				if(values == null || (attr.getReplace() != null && attr.getReplace())){
+					values = new ArrayList<String>();
+					item.put(attr.getName(), values);
+				}
+				values.add(attr.getValue());
+			}
+		}
+	}
+
+	protected void delete(String domainName, String itemName, List<Attribute> attrs) {
+		Map<String, Map<String, List<String>>> domain = domain(domainName);
+		synchronized(domain) {
+			Map<String, List<String>> item = domain.get(itemName);
+			if(item == null){
+				return;
+			}
+			if(attrs == null || attrs.isEmpty()){
+				domain.remove(itemName);
+				return;
+			}
+			for(Attribute attr: attrs){
+				if(attr.getValue() == null){
+					item.remove(attr.getName());
+				} else {
+					List<String> values = item.get(attr.getName());
+					if(values != null){
+						values.remove(attr.getValue());
+						if(values.isEmpty()){
+							item.remove(attr.getName());
+						}
+					}
+				}
+			}
+			if(item.isEmpty()){
+				domain.remove(itemName);
+			}
+		}
+	}
+
+	public void setEndpoint(String endpoint) throws IllegalArgumentException {
+	}
+
+	public SelectResult select(SelectRequest req) throws AmazonServiceException, AmazonClientException {
+		selectCalls.incrementAndGet();
+		int c = concurrentSelects.incrementAndGet();
+		for(int max = maxConcurrentSelects.get(); c > max && !maxConcurrentSelects.compareAndSet(max, c); max = maxConcurrentSelects.get()){
+		}
+		try {
+			if(selectLatency > 0){
+				Thread.sleep(selectLatency);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AmazonClientException("interrupted", e);
+		} finally {
+			concurrentSelects.decrementAndGet();
+		}
+
+		Matcher m = SELECT.matcher(req.getSelectExpression().trim());
+		if(!m.matches()){
+			throw serviceException("InvalidQueryExpression", 400, "The specified query expression syntax is not valid: " 
+					+ req.getSelectExpression());
+		}
+		String output = m.group(1);
+		String domainName = m.group(2).replace("`", "");
+		List<String[]> conditions = m.group(3) == null ? new ArrayList<String[]>() : parseConditions(m.group(3));
+		String orderBy = m.group(4);
+		boolean desc = m.group(5) != null;
+		int limit = m.group(6) == null ? 100 : Integer.parseInt(m.group(6));
+
+		List<Item> matching = new ArrayList<Item>();
+		Map<String, Map<String, List<String>>> domain = domain(domainName);
+		synchronized(domain) {
+			for(Map.Entry<String, Map<String, List<String>>> e: domain.entrySet()){
+				if(matches(e.getKey(), e.getValue(), conditions)){
+					List<Attribute> attrs = new ArrayList<Attribute>();
+					if(!output.startsWith("itemName")){
+						for(Map.Entry<String, List<String>> attr: e.getValue().entrySet()){
+							for(String value: attr.getValue()){
+								attrs.add(new Attribute(attr.getKey(), value));
+							}
+						}
+					}
+					matching.add(new Item(e.getKey(), attrs));
+				}
+			}
+		}
+		if(output.startsWith("count")){
+			return new SelectResult().withItems(new Item("Domain", 
+					Arrays.asList(new Attribute("Count", Integer.toString(matching.size())))));
+		}
+		if(orderBy != null){
+			final String column = orderBy;
+			Collections.sort(matching, new Comparator<Item>() {
+				public int compare(Item i1, Item i2) {
+					return value(i1, column).compareTo(value(i2, column));
+				}
+			});
+			if(desc){
+				Collections.reverse(matching);
+			}
+		}
+
+		// the token is the index of the next item
+		int from = req.getNextToken() == null ? 0 : Integer.parseInt(req.getNextToken());
+		int to = Math.min(matching.size(), from + Math.min(limit, selectPageSize));
+		SelectResult res = new SelectResult().withItems(new ArrayList<Item>(matching.subList(Math.min(from, to), to)));
+		if(to < matching.size()){
+			res.setNextToken(Integer.toString(to));
+		}
+		return res;
+	}
+
+	private static final Pattern SELECT = Pattern.compile(
+			"select\\s+(\\*|itemName\\(\\)|count\\(\\*\\))\\s+from\\s+(\\S+)(?:\\s+where\\s+(.*?))?"
+			+ "(?:\\s+order by\\s+(\\S+)(\\s+desc)?)?(?:\\s+limit\\s+(\\d+))?",
+			Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern COMPARE = Pattern.compile("(\\S+)\\s*(=|!=|<=|>=|<|>)\\s*(.+)", Pattern.DOTALL);
+	private static final Pattern NULL = Pattern.compile("(\\S+)\\s+is\\s+(not\\s+)?null", Pattern.CASE_INSENSITIVE);
+	private static final Pattern IN = Pattern.compile("(\\S+)\\s+in\\s*\\((.*)\\)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+	/**
+	 * the conditions joined by "and" as {column, operator, value(s)...}
+	 * (the other operators of the SimpleDB select syntax aren't supported)
+	 */
+	protected List<String[]> parseConditions(String where) {
+		List<String[]> conditions = new ArrayList<String[]>();
+		for(String cond: split(where, " and ")){
+			cond = cond.trim();
+			Matcher m = NULL.matcher(cond);
+			if(m.matches()){
+				conditions.add(new String[]{ m.group(1), m.group(2) == null ? "is null" : "is not null" });
+				continue;
+			}
+			m = IN.matcher(cond);
+			if(m.matches()){
+				List<String> c = new ArrayList<String>();
+				c.add(m.group(1));
+				c.add("in");
+				for(String v: split(m.group(2), ",")){
+					c.add(unquote(v.trim()));
+				}
+				conditions.add(c.toArray(new String[c.size()]));
+				continue;
+			}
+			m = COMPARE.matcher(cond);
+			if(m.matches()){
+				conditions.add(new String[]{ m.group(1), m.group(2), unquote(m.group(3).trim()) });
+				continue;
+			}
+			throw serviceException("InvalidQueryExpression", 400, "Unsupported condition by LocalSimpleDB: " + cond);
+		}
+		return conditions;
+	}
+
+	/**
+	 * splits s around the separators which aren't quoted
+	 */
+	protected static List<String> split(String s, String sep) {
+		List<String> parts = new ArrayList<String>();
+		char quote = 0;
+		int start = 0;
+		for(int i=0; i<s.length(); i++){
+			char c = s.charAt(i);
+			if(quote != 0){
+				if(c == quote){
+					quote = 0;
+				}
+			} else if(c == '\'' || c == '"'){
+				quote = c;
+			} else if(s.regionMatches(true, i, sep, 0, sep.length())){
+				parts.add(s.substring(start, i));
+				start = i + sep.length();
+				i = start - 1;
+			}
+		}
+		parts.add(s.substring(start));
+		return parts;
+	}
+
+	protected static String unquote(String s) {
+		char quote = s.charAt(0);
+		if(s.length() < 2 || (quote != '\'' && quote != '"') || s.charAt(s.length()-1) != quote){
+			throw new AmazonClientException("invalid value " + s);
+		}
+		return s.substring(1, s.length()-1).replace("" + quote + quote, "" + quote);
+	}
+
+	protected static boolean matches(String itemName, Map<String, List<String>> attrs, List<String[]> conditions) {
+		for(String[] cond: conditions){
+			List<String> values = cond[0].startsWith("itemName") ? Arrays.asList(itemName) : attrs.get(cond[0].replace("`", ""));
+			String op = cond[1];
+			if("is null".equals(op)){
+				if(values != null) return false;
+				continue;
+			}
+			if(values == null){
+				return false;
+			}
+			if("is not null".equals(op)){
+				continue;
+			}
+			boolean found = false;
+			for(String value: values){
+				if("in".equals(op)){
+					for(int i=2; i<cond.length && !found; i++){
+						found = value.equals(cond[i]);
+					}
+				} else {
+					int cmp = value.compareTo(cond[2]);
+					found = ("=".equals(op) && cmp == 0) || ("!=".equals(op) && cmp != 0)
+						|| ("<".equals(op) && cmp < 0) || (">".equals(op) && cmp > 0)
+						|| ("<=".equals(op) && cmp <= 0) || (">=".equals(op) && cmp >= 0);
+				}
+				if(found) break;
+			}
+			if(!found){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	protected static String value(Item item, String column) {
+		if(column.startsWith("itemName")){
+			return item.getName();
+		}
+		for(Attribute attr: item.getAttributes()){
+			if(attr.getName().equals(column)){
+				return attr.getValue();
+			}
+		}
+		return "";
+	}
+
+	public void putAttributes(PutAttributesRequest req) throws AmazonServiceException, AmazonClientException {
+		put(req.getDomainName(), req.getItemName(), req.getAttributes());
+	}
+
+	public void batchPutAttributes(BatchPutAttributesRequest req) throws AmazonServiceException, AmazonClientException {
+		List<String> itemNames = new ArrayList<String>();
+		for(ReplaceableItem item: req.getItems()){
+			itemNames.add(item.getName());
+		}
+		enterBatch(req.getDomainName(), itemNames);
+		for(ReplaceableItem item: req.getItems()){
+			put(req.getDomainName(), item.getName(), item.getAttributes());
+		}
+	}
+
+	public void batchDeleteAttributes(BatchDeleteAttributesRequest req) throws AmazonServiceException, AmazonClientException {
+		List<String> itemNames = new ArrayList<String>();
+		for(DeletableItem item: req.getItems()){
+			itemNames.add(item.getName());
+		}
+		enterBatch(req.getDomainName(), itemNames);
+		for(DeletableItem item: req.getItems()){
+			delete(req.getDomainName(), item.getName(), item.getAttributes());
+		}
+	}
+
+	public void deleteDomain(DeleteDomainRequest req) throws AmazonServiceException, AmazonClientException {
+		domains.remove(req.getDomainName());
+	}
+
+	public void createDomain(CreateDomainRequest req) throws AmazonServiceException, AmazonClientException {
+		createDomainCalls.incrementAndGet();
+		try {
+			if(latency > 0){
+				Thread.sleep(latency);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AmazonClientException("interrupted", e);
+		}
+		if(!domains.containsKey(req.getDomainName())){
+			domains.put(req.getDomainName(), new TreeMap<String, Map<String, List<String>>>());
+		}
+	}
+
+	public void deleteAttributes(DeleteAttributesRequest req) throws AmazonServiceException, AmazonClientException {
+		delete(req.getDomainName(), req.getItemName(), req.getAttributes());
+	}
+
+	public ListDomainsResult listDomains(ListDomainsRequest req) throws AmazonServiceException, AmazonClientException {
+		listDomainsCalls.incrementAndGet();
+		if(listDomainsUnavailable){
+			throw serviceException("ServiceUnavailable", 503, "Service AmazonSimpleDB is currently unavailable");
+		}
+		return new ListDomainsResult().withDomainNames(new ArrayList<String>(domains.keySet()));
+	}
+
+	public ListDomainsResult listDomains() throws AmazonServiceException, AmazonClientException {
+		return listDomains(new ListDomainsRequest());
+	}
+
+	public GetAttributesResult getAttributes(GetAttributesRequest req) throws AmazonServiceException, AmazonClientException {
+		GetAttributesResult res = new GetAttributesResult();
+		Map<String, List<String>> item = item(req.getDomainName(), req.getItemName());
+		if(item == null){
+			return res;
+		}
+		List<Attribute> attrs = new ArrayList<Attribute>();
+		synchronized(domain(req.getDomainName())) {
+			for(Map.Entry<String, List<String>> e: item.entrySet()){
+				if(req.getAttributeNames() != null && !req.getAttributeNames().isEmpty()
+						&& !req.getAttributeNames().contains(e.getKey())){
+					continue;
+				}
+				for(String value: e.getValue()){
+					attrs.add(new Attribute(e.getKey(), value));
+				}
+			}
+		}
+		return res.withAttributes(attrs);
+	}
+
+	public DomainMetadataResult domainMetadata(DomainMetadataRequest req) throws AmazonServiceException, AmazonClientException {
+		domainMetadataCalls.incrementAndGet();
+		return new DomainMetadataResult().withItemCount(size(req.getDomainName()));
+	}
+}
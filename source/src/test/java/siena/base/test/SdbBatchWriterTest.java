@@ -0,0 +1,151 @@
+package siena.base.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+import siena.base.test.model.DiscoveryStringId;
+import siena.base.test.model.PersonStringID;
+import siena.sdb.SdbBatchException;
+import siena.sdb.SdbBatchWriter;
+import siena.sdb.SdbPersistenceManager;
+
+import com.amazonaws.AmazonServiceException;
+
+public class SdbBatchWriterTest extends TestCase {
+	private static final String PEOPLE = "people_string";
+	private static final String DISCOVERIES = "discoveries_stringid";
+
+	private LocalSimpleDB sdb;
+	private SdbPersistenceManager pm;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		Properties p = new Properties();
+		p.setProperty("batch.maxInFlight", "4");
+		p.setProperty("batch.maxRetries", "3");
+		p.setProperty("batch.backoff", "5");
+		p.setProperty("batch.maxBackoff", "20");
+
+		sdb = new LocalSimpleDB();
+		pm = new SdbPersistenceManager();
+		pm.init(p, sdb);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		pm.getBatchWriter().shutdown();
+		super.tearDown();
+	}
+
+	private List<Object> models(int nb) {
+		List<Object> models = new ArrayList<Object>();
+		for(int i=0; i<nb; i++){
+			PersonStringID person = new PersonStringID("person_"+i, "John", "Smith", "Paris", i);
+			models.add(person);
+			models.add(new DiscoveryStringId("discovery_"+i, person));
+		}
+		return models;
+	}
+
+	public void testConcurrentInsertUpdateDelete() {
+		sdb.latency = 20;
+		List<Object> models = models(200);
+		assertEquals(400, pm.insert(models));
+
+		assertEquals(200, sdb.size(PEOPLE));
+		assertEquals(200, sdb.size(DISCOVERIES));
+		// 8 chunks by domain
+		assertEquals(16, sdb.batchCalls.get());
+		// both domains are sent concurrently, within the in-flight limit
+		assertTrue(sdb.getMaxConcurrent() > 1);
+		assertTrue(sdb.getMaxConcurrent() <= 4);
+
+		for(Object model: models){
+			if(model instanceof PersonStringID){
+				((PersonStringID)model).city = "Lyon";
+			}
+		}
+		assertEquals(400, pm.update(models));
+		assertEquals("Lyon", sdb.item(PEOPLE, "person_42").get("city").get(0));
+		assertEquals("Lyon", pm.getByKey(PersonStringID.class, "person_42").city);
+
+		assertEquals(400, pm.delete(models));
+		assertEquals(0, sdb.size(PEOPLE));
+		assertEquals(0, sdb.size(DISCOVERIES));
+	}
+
+	public void testThrottlingIsRetried() {
+		sdb.throttle(5);
+		assertEquals(400, pm.insert(models(200)));
+
+		assertEquals(200, sdb.size(PEOPLE));
+		assertEquals(200, sdb.size(DISCOVERIES));
+		assertEquals(5, pm.getBatchWriter().getRetries());
+		assertEquals(21, sdb.batchCalls.get());
+	}
+
+	public void testThrottlingRetriesExhausted() {
+		// the chunks are throttled more than maxRetries times
+		sdb.throttle(100);
+		try {
+			pm.insert(models(5));
+			fail();
+		} catch(SdbBatchException ex) {
+			assertEquals(10, ex.getFailures().size());
+			assertEquals(0, ex.getSucceeded());
+			assertEquals("ServiceUnavailable", ((AmazonServiceException)ex.getCause()).getErrorCode());
+		}
+	}
+
+	public void testPerItemFailures() {
+		sdb.rejected.add("person_7");
+		sdb.rejected.add("discovery_60");
+		try {
+			pm.insert(models(100));
+			fail();
+		} catch(SdbBatchException ex) {
+			assertEquals(2, ex.getFailures().size());
+			assertEquals(198, ex.getSucceeded());
+			List<String> names = new ArrayList<String>();
+			for(SdbBatchWriter.Failure failure: ex.getFailures()){
+				names.add(failure.itemName);
+			}
+			assertTrue(names.contains("person_7"));
+			assertTrue(names.contains("discovery_60"));
+		}
+		// the other items of the rejected chunks are written
+		assertEquals(99, sdb.size(PEOPLE));
+		assertEquals(99, sdb.size(DISCOVERIES));
+		assertNull(sdb.item(PEOPLE, "person_7"));
+		assertNotNull(sdb.item(PEOPLE, "person_8"));
+	}
+
+	public void testUnexpectedException() {
+		sdb.broken.add("person_3");
+		try {
+			pm.insert(models(50));
+			fail();
+		} catch(SdbBatchException ex) {
+			assertEquals(1, ex.getFailures().size());
+			assertEquals(99, ex.getSucceeded());
+			assertEquals("person_3", ex.getFailures().get(0).itemName);
+			assertTrue(ex.getFailures().get(0).exception instanceof IllegalStateException);
+		}
+		assertEquals(49, sdb.size(PEOPLE));
+		assertEquals(50, sdb.size(DISCOVERIES));
+	}
+
+	public void testDeleteByKeys() {
+		pm.insert(models(60));
+		List<String> keys = new ArrayList<String>();
+		for(int i=0; i<50; i++){
+			keys.add("person_"+i);
+		}
+		assertEquals(50, pm.deleteByKeys(PersonStringID.class, keys));
+		assertEquals(10, sdb.size(PEOPLE));
+		assertEquals(60, sdb.size(DISCOVERIES));
+	}
+}
@@ -0,0 +1,159 @@
+package siena.base.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+import siena.base.test.model.DiscoveryStringId;
+import siena.base.test.model.PersonStringID;
+import siena.sdb.SdbDomainRegistry;
+import siena.sdb.SdbPersistenceManager;
+
+import com.amazonaws.services.simpledb.model.CreateDomainRequest;
+import com.amazonaws.services.simpledb.model.DeleteDomainRequest;
+
+public class SdbDomainRegistryTest extends TestCase {
+	private static final String PEOPLE = "people_string";
+
+	private LocalSimpleDB sdb;
+	private SdbPersistenceManager pm;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		sdb = new LocalSimpleDB();
+		// an existing domain
+		sdb.createDomain(new CreateDomainRequest(PEOPLE));
+		pm = createPersistenceManager("600000");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		pm.getBatchWriter().shutdown();
+		super.tearDown();
+	}
+
+	private SdbPersistenceManager createPersistenceManager(String ttl) {
+		Properties p = new Properties();
+		p.setProperty("domains.ttl", ttl);
+		SdbPersistenceManager pm = new SdbPersistenceManager();
+		pm.init(p, sdb);
+		return pm;
+	}
+
+	public void testWarmUp() {
+		// listed at init
+		assertEquals(1, sdb.listDomainsCalls.get());
+		assertTrue(pm.getDomainRegistry().isKnown(PEOPLE));
+
+		for(int i=0; i<10; i++){
+			pm.insert(new PersonStringID("person_"+i, "John", "Smith", "Paris", i));
+			pm.get(new PersonStringID("person_"+i, null, null, null, 0));
+		}
+		// no remote call to check the domain
+		assertEquals(1, sdb.listDomainsCalls.get());
+		assertEquals(1, sdb.createDomainCalls.get());
+		assertEquals(0, pm.getDomainRegistry().getCreated());
+	}
+
+	public void testConcurrentCreation() throws Exception {
+		sdb.latency = 20;
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int i=0; i<16; i++){
+			final int n = i;
+			Thread t = new Thread() {
+				public void run() {
+					try {
+						start.await();
+						pm.insert(new DiscoveryStringId("discovery_"+n, null));
+					} catch(Throwable e) {
+						synchronized(errors) {
+							errors.add(e);
+						}
+					}
+				}
+			};
+			t.start();
+			threads.add(t);
+		}
+		start.countDown();
+		for(Thread t: threads){
+			t.join();
+		}
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertEquals(16, sdb.size("discoveries_stringid"));
+		// the domain has been created once
+		assertEquals(2, sdb.createDomainCalls.get());
+		assertEquals(1, pm.getDomainRegistry().getCreated());
+		assertEquals(1, sdb.listDomainsCalls.get());
+	}
+
+	public void testNoWarmUp() {
+		Properties p = new Properties();
+		p.setProperty("domains.warmUp", "false");
+		pm = new SdbPersistenceManager();
+		pm.init(p, sdb);
+		assertEquals(1, sdb.listDomainsCalls.get());
+
+		pm.insert(new PersonStringID("person_1", "John", "Smith", "Paris", 1));
+		pm.insert(new PersonStringID("person_2", "John", "Smith", "Paris", 2));
+		// the domains are listed once before creating any domain
+		assertEquals(2, sdb.listDomainsCalls.get());
+		assertEquals(1, sdb.createDomainCalls.get());
+	}
+
+	public void testTtlRefresh() throws Exception {
+		pm = createPersistenceManager("50");
+		pm.insert(new PersonStringID("person_1", "John", "Smith", "Paris", 1));
+
+		// deleted by someone else
+		sdb.deleteDomain(new DeleteDomainRequest(PEOPLE));
+		Thread.sleep(100);
+		// triggers the refresh in background
+		pm.checkDomain(PEOPLE);
+		for(int i=0; i<100 && pm.getDomainRegistry().isKnown(PEOPLE); i++){
+			Thread.sleep(10);
+		}
+		assertFalse(pm.getDomainRegistry().isKnown(PEOPLE));
+
+		pm.insert(new PersonStringID("person_2", "John", "Smith", "Paris", 2));
+		assertEquals(1, sdb.size(PEOPLE));
+		assertEquals(1, pm.getDomainRegistry().getCreated());
+	}
+
+	public void testFailedRefreshWaitsTtl() throws Exception {
+		// the refreshes run in the caller thread
+		SdbDomainRegistry registry = new SdbDomainRegistry(sdb, 200, null);
+		registry.warmUp();
+		assertEquals(2, sdb.listDomainsCalls.get());
+
+		Thread.sleep(250);
+		sdb.listDomainsUnavailable = true;
+		for(int i=0; i<10; i++){
+			registry.ensure(PEOPLE);
+		}
+		// one failed refresh, not one by ensure
+		assertEquals(3, sdb.listDomainsCalls.get());
+		assertTrue(registry.isKnown(PEOPLE));
+
+		Thread.sleep(250);
+		sdb.listDomainsUnavailable = false;
+		registry.ensure(PEOPLE);
+		registry.ensure(PEOPLE);
+		assertEquals(4, sdb.listDomainsCalls.get());
+		assertEquals(0, registry.getCreated());
+	}
+
+	public void testMetadata() {
+		for(int i=0; i<10; i++){
+			pm.insert(new PersonStringID("person_"+i, "John", "Smith", "Paris", i));
+		}
+		assertEquals(10, pm.getDomainMetadata(PersonStringID.class).getItemCount().intValue());
+		assertEquals(10, pm.getDomainMetadata(PersonStringID.class).getItemCount().intValue());
+		assertEquals(1, sdb.domainMetadataCalls.get());
+	}
+}
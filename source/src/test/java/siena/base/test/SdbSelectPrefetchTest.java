@@ -0,0 +1,146 @@
+package siena.base.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+import siena.Query;
+import siena.base.test.model.PersonStringID;
+import siena.sdb.SdbPersistenceManager;
+import siena.sdb.SdbSelectPrefetcher;
+
+import com.amazonaws.services.simpledb.model.SelectRequest;
+
+public class SdbSelectPrefetchTest extends TestCase {
+	private static final int NB = 600;
+
+	private LocalSimpleDB sdb;
+	private SdbPersistenceManager pm;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		sdb = new LocalSimpleDB();
+		pm = createPersistenceManager("2");
+
+		List<PersonStringID> persons = new ArrayList<PersonStringID>();
+		for(int i=0; i<NB; i++){
+			persons.add(new PersonStringID(String.format("p%04d", i), "John", "Smith", i%2==0?"Paris":"Lyon", i));
+		}
+		pm.insert(persons);
+		// 30 pages, more than the 25 NextTokens which could be followed before
+		// (the batch gets select 20 items at once)
+		sdb.selectPageSize = 20;
+		sdb.selectLatency = 2;
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		pm.getBatchWriter().shutdown();
+		super.tearDown();
+	}
+
+	private SdbPersistenceManager createPersistenceManager(String readAhead) {
+		Properties p = new Properties();
+		p.setProperty("select.readAhead", readAhead);
+		SdbPersistenceManager pm = new SdbPersistenceManager();
+		pm.init(p, sdb);
+		return pm;
+	}
+
+	private void assertPersons(List<PersonStringID> res, int nb, int step) {
+		assertEquals(nb, res.size());
+		for(int i=0; i<nb; i++){
+			assertEquals(String.format("p%04d", i*step), res.get(i).id);
+			assertEquals(i*step, res.get(i).n);
+		}
+	}
+
+	public void testFetchFollowsAllTokens() {
+		int calls = sdb.selectCalls.get();
+		List<PersonStringID> res = pm.fetch(pm.createQuery(PersonStringID.class));
+		assertPersons(res, NB, 1);
+		assertEquals(30, sdb.selectCalls.get() - calls);
+		// all the pages but the first one have been fetched in background
+		assertEquals(29, pm.getPrefetchedPages());
+		
+		// fetch keys then gets the items
+		assertPersons(pm.createQuery(PersonStringID.class).fetch(), NB, 1);
+	}
+
+	public void testFetchKeysFiltered() {
+		List<PersonStringID> res = pm.createQuery(PersonStringID.class).filter("city", "Paris").fetchKeys();
+		assertEquals(NB/2, res.size());
+		for(int i=0; i<NB/2; i++){
+			assertEquals(String.format("p%04d", i*2), res.get(i).id);
+			assertTrue(res.get(i).isOnlyIdFilled());
+		}
+		assertEquals(14, pm.getPrefetchedPages());
+	}
+
+	public void testFetchWithLimitIsNotPrefetched() {
+		List<PersonStringID> res = pm.createQuery(PersonStringID.class).fetch(5);
+		assertPersons(res, 5, 1);
+		assertEquals(0, pm.getPrefetchedPages());
+	}
+
+	public void testIter() {
+		Query<PersonStringID> query = pm.createQuery(PersonStringID.class).filter("city", "Paris");
+		List<PersonStringID> res = new ArrayList<PersonStringID>();
+		for(PersonStringID person: query.iter()){
+			res.add(person);
+		}
+		assertPersons(res, NB/2, 2);
+		assertEquals(14, pm.getPrefetchedPages());
+	}
+
+	public void testAbandonedIter() {
+		int n = 0;
+		for(PersonStringID person: pm.createQuery(PersonStringID.class).iter()){
+			assertNotNull(person.id);
+			if(++n == 15) break;
+		}
+		// the read-ahead is bounded
+		try {
+			Thread.sleep(100);
+		} catch (InterruptedException e) {
+		}
+		assertTrue(sdb.selectCalls.get() <= 1 + 2 + 1);
+	}
+
+	public void testReadAheadDisabled() {
+		pm = createPersistenceManager("0");
+		assertPersons(pm.fetch(pm.createQuery(PersonStringID.class)), NB, 1);
+
+		List<PersonStringID> res = new ArrayList<PersonStringID>();
+		for(PersonStringID person: pm.createQuery(PersonStringID.class).iter()){
+			res.add(person);
+		}
+		assertPersons(res, NB, 1);
+		assertEquals(0, pm.getPrefetchedPages());
+	}
+
+	public void testInterruptedPrefetcher() throws Exception {
+		sdb.selectLatency = 10000;
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		SdbSelectPrefetcher prefetcher = new SdbSelectPrefetcher(sdb, new SelectRequest("select * from `foo`"), "20", 2).start(executor);
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+				}
+				// interrupts the select: the prefetcher stops without queuing a page
+				executor.shutdownNow();
+			}
+		}.start();
+		SelectRequest req = new SelectRequest("select * from `foo`");
+		req.setNextToken("20");
+		// the caller doesn't wait forever and sends its own request
+		assertNull(prefetcher.take(req));
+		assertTrue(prefetcher.isClosed());
+	}
+}
@@ -5,6 +5,10 @@ import java.util.List;
 
 import junit.framework.TestCase;
 import siena.ClassInfo;
+import siena.Model;
+import siena.SienaException;
+import siena.core.FieldAccessor;
+import siena.base.test.model.EmbeddedContainerNative;
 import siena.base.test.model.SampleModelMultipleKeys;
 
 public class ClassInfoTest extends TestCase {
@@ -60,4 +64,131 @@ public class ClassInfoTest extends TestCase {
 		assertEquals("SampleModelMultipleKeys", info.tableName);
 	}
 
+	public void testAccessors() throws Exception {
+		ClassInfo info = ClassInfo.getClassInfo(SampleModelMultipleKeys.class);
+		
+		SampleModelMultipleKeys obj = info.newInstance();
+		assertNotNull(obj);
+		
+		Field privateField = SampleModelMultipleKeys.class.getDeclaredField("privateField");
+		FieldAccessor accessor = info.getAccessor(privateField);
+		assertSame(accessor, FieldAccessor.of(privateField));
+		
+		accessor.set(obj, "foo");
+		assertEquals("foo", obj.getPrivateField());
+		assertEquals("foo", accessor.get(obj));
+		
+		Field id = SampleModelMultipleKeys.class.getField("id");
+		info.getAccessor(id).set(obj, 123L);
+		assertEquals(Long.valueOf(123L), obj.id);
+		info.getAccessor(id).set(obj, null);
+		assertNull(obj.id);
+	}
+	
+	public void testGetField() throws Exception {
+		assertEquals(SampleModelMultipleKeys.class.getDeclaredField("privateField"), 
+				ClassInfo.getField(SampleModelMultipleKeys.class, "privateField"));
+		// superclass field
+		assertEquals(Model.class.getDeclaredField("relation"), 
+				ClassInfo.getField(SampleModelMultipleKeys.class, "relation"));
+		assertNull(ClassInfo.getField(SampleModelMultipleKeys.class, "unknown"));
+	}
+	
+	public void testFilterPath() throws Exception {
+		String[] operators = { "<", ">", ">=", "<=", "!=", "=", "IN" };
+		ClassInfo info = ClassInfo.getClassInfo(EmbeddedContainerNative.class);
+		
+		ClassInfo.FilterPath path = info.getFilterPath("id >=", operators);
+		assertEquals(">=", path.operator);
+		assertFalse(path.embedded);
+		assertEquals(EmbeddedContainerNative.class.getField("id"), path.fields.get(0));
+		assertSame(path, info.getFilterPath("id >=", operators));
+		// cached by field and operator, not by filter string nor operators array
+		assertSame(path, info.getFilterPath("id>=", operators.clone()));
+		
+		path = info.getFilterPath("id", operators);
+		assertEquals("=", path.operator);
+		
+		path = info.getFilterPath("embed.nativeEmbed.str IN", operators);
+		assertEquals("IN", path.operator);
+		assertTrue(path.embedded);
+		assertEquals(3, path.fields.size());
+		assertEquals("embed", path.fields.get(0).getName());
+		assertEquals("nativeEmbed", path.fields.get(1).getName());
+		assertEquals("str", path.fields.get(2).getName());
+		
+		try {
+			info.getFilterPath("embed.foobar", operators);
+			fail();
+		} catch(SienaException e) {
+			assertEquals("Filter field 'foobar' not found", e.getMessage());
+		}
+	}
+	
+	public static class PrimitiveModel {
+		public long l;
+		public int i;
+		public boolean b;
+		public static String s;
+		private PrimitiveModel() {}
+	}
+	
+	public void testAccessorsPrimitives() throws Exception {
+		PrimitiveModel obj = ClassInfo.getClassInfo(PrimitiveModel.class).newInstance();
+		
+		FieldAccessor l = FieldAccessor.of(PrimitiveModel.class.getField("l"));
+		l.set(obj, 12L);
+		assertEquals(12L, obj.l);
+		// widening like Field.set does
+		l.set(obj, 13);
+		assertEquals(13L, obj.l);
+		assertEquals(Long.valueOf(13L), l.get(obj));
+		
+		FieldAccessor i = FieldAccessor.of(PrimitiveModel.class.getField("i"));
+		try {
+			i.set(obj, null);
+			fail();
+		} catch(SienaException e) {
+		}
+		try {
+			i.set(obj, "foo");
+			fail();
+		} catch(SienaException e) {
+		}
+		// no narrowing, unlike a cast
+		i.set(obj, 4);
+		try {
+			i.set(obj, (1L << 33) + 5);
+			fail();
+		} catch(SienaException e) {
+		}
+		try {
+			i.set(obj, 3.9);
+			fail();
+		} catch(SienaException e) {
+		}
+		assertEquals(4, obj.i);
+		
+		FieldAccessor b = FieldAccessor.of(PrimitiveModel.class.getField("b"));
+		try {
+			b.set(obj, 2);
+			fail();
+		} catch(SienaException e) {
+		}
+		assertFalse(obj.b);
+	}
+	
+	public void testAccessorsStatic() throws Exception {
+		FieldAccessor s = FieldAccessor.of(PrimitiveModel.class.getField("s"));
+		s.set(null, "foo");
+		assertEquals("foo", PrimitiveModel.s);
+		assertEquals("foo", s.get(new PrimitiveModel()));
+		try {
+			s.set(null, 1);
+			fail();
+		} catch(SienaException e) {
+		}
+		PrimitiveModel.s = null;
+	}
+
 }
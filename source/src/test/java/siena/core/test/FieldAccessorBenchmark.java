@@ -0,0 +1,81 @@
+package siena.core.test;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import siena.ClassInfo;
+import siena.core.FieldAccessor;
+import siena.core.Instantiator;
+import siena.base.test.model.SampleModelMultipleKeys;
+
+/**
+ * Compares the cached accessors/instantiator with plain reflection when mapping one row.
+ * Not run by surefire: launch it with the main method from the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldAccessorBenchmark {
+	private Field[] fields;
+	private FieldAccessor[] accessors;
+	private Instantiator<SampleModelMultipleKeys> instantiator;
+	private Object[] row;
+
+	@Setup
+	public void setup() throws Exception {
+		fields = new Field[] {
+			SampleModelMultipleKeys.class.getField("id"),
+			SampleModelMultipleKeys.class.getField("key"),
+			SampleModelMultipleKeys.class.getDeclaredField("privateField"),
+			SampleModelMultipleKeys.class.getField("publicField")
+		};
+		ClassInfo info = ClassInfo.getClassInfo(SampleModelMultipleKeys.class);
+		accessors = new FieldAccessor[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			fields[i].setAccessible(true);
+			accessors[i] = info.getAccessor(fields[i]);
+		}
+		instantiator = Instantiator.of(SampleModelMultipleKeys.class);
+		row = new Object[] { 1L, "key", "private", "public" };
+	}
+
+	@Benchmark
+	public Object reflection() throws Exception {
+		SampleModelMultipleKeys obj = SampleModelMultipleKeys.class.newInstance();
+		for (int i = 0; i < fields.length; i++) {
+			fields[i].set(obj, row[i]);
+		}
+		return fields[0].get(obj);
+	}
+
+	@Benchmark
+	public Object accessors() {
+		SampleModelMultipleKeys obj = instantiator.newInstance();
+		for (int i = 0; i < accessors.length; i++) {
+			accessors[i].set(obj, row[i]);
+		}
+		return accessors[0].get(obj);
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+			.include(FieldAccessorBenchmark.class.getSimpleName())
+			.build()).run();
+	}
+}
@@ -0,0 +1,81 @@
+package siena.core.test;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import siena.Json;
+import siena.JsonReader;
+import siena.base.test.model.PersonLongAutoIDExtended;
+import siena.base.test.model.PersonLongAutoIDExtended.Image;
+import siena.embed.JsonSerializer;
+
+/**
+ * Time and allocation of reading an @Embedded map of 50 images: parsing the Json tree
+ * then deserializing it against binding the fields while the JsonReader reads the text,
+ * and of writing the tree.
+ * Not run by surefire: launch it with the main method from the test classpath,
+ * the gc profiler gives the bytes allocated by operation (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark {
+	private Field field;
+	private Json json;
+	private String text;
+
+	@Setup
+	public void setup() throws Exception {
+		field = PersonLongAutoIDExtended.class.getField("stillImages");
+		Map<String, Image> images = new HashMap<String, Image>();
+		for (int i = 0; i < 50; i++) {
+			Image image = new Image();
+			image.filename = "image_" + i + ".png";
+			image.title = "the \"title\" of the image " + i;
+			images.put("img" + i, image);
+		}
+		json = JsonSerializer.serialize(images);
+		text = json.toString();
+	}
+
+	@Benchmark
+	public Object tree() {
+		return JsonSerializer.deserialize(field, Json.loads(text));
+	}
+
+	@Benchmark
+	public Object streaming() {
+		return JsonSerializer.deserialize(field, new JsonReader(text));
+	}
+
+	@Benchmark
+	public Object write() {
+		return json.toString();
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+			.include(JsonCodecBenchmark.class.getSimpleName())
+			.addProfiler(GCProfiler.class)
+			.build()).run();
+	}
+}
@@ -1,6 +1,13 @@
 package siena.core.test;
 
+import siena.ClassInfo;
+import siena.Query;
+import siena.base.test.model.AggregateParentModel;
+import siena.base.test.model.PersonLongAutoID;
+import siena.base.test.model.PersonLongAutoIDExtended;
 import siena.base.test.model.SampleModelMultipleKeys;
+import siena.core.Many;
+import siena.core.One;
 import junit.framework.TestCase;
 
 public class ModelTest extends TestCase {
@@ -27,4 +34,25 @@ public class ModelTest extends TestCase {
 		assertNotSame(a.hashCode(), b.hashCode());
 	}
 
+	public void testRelationProxies() {
+		ClassInfo.RelationField[] rfs = ClassInfo.getClassInfo(AggregateParentModel.class).relationFields;
+		assertEquals(2, rfs.length);
+		assertEquals(Many.class, rfs[0].kind);
+		assertEquals(One.class, rfs[1].kind);
+		assertEquals(0, ClassInfo.getClassInfo(PersonLongAutoID.class).relationFields.length);
+		
+		AggregateParentModel a = new AggregateParentModel();
+		AggregateParentModel b = new AggregateParentModel("b");
+		assertNotNull(a.child);
+		assertNotNull(a.children);
+		assertNotSame(a.child, b.child);
+		assertNotSame(a.children, b.children);
+		
+		PersonLongAutoIDExtended p = new PersonLongAutoIDExtended();
+		assertEquals(PersonLongAutoIDExtended.class, p.employees.getQueriedClass());
+		Query<PersonLongAutoIDExtended> copy = p.employees.copy();
+		assertNotSame(p.employees, copy);
+		assertEquals(PersonLongAutoIDExtended.class, copy.getQueriedClass());
+	}
+
 }
@@ -0,0 +1,84 @@
+package siena.core.test;
+
+import java.util.Map;
+
+import junit.framework.TestCase;
+import siena.BaseQueryData;
+import siena.core.options.QueryOption;
+import siena.core.options.QueryOptionBatchLoad;
+import siena.core.options.QueryOptionFetchType;
+import siena.core.options.QueryOptionMap;
+import siena.core.options.QueryOptionOffset;
+import siena.core.options.QueryOptionPage;
+import siena.core.options.QueryOptionState;
+import siena.jdbc.QueryOptionJdbcContext;
+
+public class QueryOptionMapTest extends TestCase {
+
+	public void testDefaults() {
+		Map<Integer, QueryOption> options = BaseQueryData.defaultOptions();
+		assertEquals(4, options.size());
+		assertTrue(options.containsKey(QueryOptionState.ID));
+		assertFalse(options.containsKey(QueryOptionBatchLoad.ID));
+		assertNull(options.get(QueryOptionJdbcContext.ID));
+
+		assertEquals(0, ((QueryOptionPage)options.get(QueryOptionPage.ID)).pageSize);
+		assertFalse(options.get(QueryOptionPage.ID).isActive());
+		assertEquals(0, ((QueryOptionOffset)options.get(QueryOptionOffset.ID)).offset);
+		assertTrue(((QueryOptionState)options.get(QueryOptionState.ID)).isStateless());
+		assertTrue(options.get(QueryOptionFetchType.ID).isActive());
+		assertEquals(QueryOptionFetchType.Type.NORMAL, ((QueryOptionFetchType)options.get(QueryOptionFetchType.ID)).fetchType);
+	}
+
+	public void testDefaultsNotShared() {
+		Map<Integer, QueryOption> options = BaseQueryData.defaultOptions();
+		QueryOptionPage page = (QueryOptionPage)options.get(QueryOptionPage.ID);
+		page.activate();
+		page.pageSize = 10;
+		assertSame(page, options.get(QueryOptionPage.ID));
+
+		QueryOptionPage other = (QueryOptionPage)BaseQueryData.defaultOptions().get(QueryOptionPage.ID);
+		assertFalse(other.isActive());
+		assertEquals(0, other.pageSize);
+	}
+
+	public void testPutRemove() {
+		Map<Integer, QueryOption> options = BaseQueryData.defaultOptions();
+		QueryOptionBatchLoad batch = new QueryOptionBatchLoad();
+		options.put(batch.type, batch);
+		QueryOptionJdbcContext ctx = new QueryOptionJdbcContext();
+		options.put(ctx.type, ctx);
+		assertEquals(6, options.size());
+		assertSame(batch, options.get(QueryOptionBatchLoad.ID));
+		assertSame(ctx, options.get(QueryOptionJdbcContext.ID));
+
+		options.remove(QueryOptionPage.ID);
+		assertNull(options.get(QueryOptionPage.ID));
+		assertEquals(5, options.size());
+
+		int n = 0;
+		for(Map.Entry<Integer, QueryOption> entry: options.entrySet()){
+			assertEquals(entry.getKey().intValue(), entry.getValue().type);
+			n++;
+		}
+		assertEquals(5, n);
+
+		options.clear();
+		assertTrue(options.isEmpty());
+		assertNull(options.get(QueryOptionState.ID));
+	}
+
+	public void testCopySharesOptions() {
+		QueryOptionMap options = new QueryOptionMap();
+		QueryOptionJdbcContext ctx = new QueryOptionJdbcContext();
+		options.put(ctx.type, ctx);
+
+		QueryOptionMap copy = new QueryOptionMap(options);
+		assertSame(options.get(QueryOptionState.ID), copy.get(QueryOptionState.ID));
+		assertSame(ctx, copy.get(QueryOptionJdbcContext.ID));
+		assertEquals(options, copy);
+
+		copy.remove(QueryOptionJdbcContext.ID);
+		assertSame(ctx, options.get(QueryOptionJdbcContext.ID));
+	}
+}
@@ -0,0 +1,88 @@
+package siena.core.test;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import siena.ClassInfo;
+import siena.base.test.model.AggregateParentModel;
+import siena.base.test.model.PersonLongAutoIDModel;
+import siena.core.FieldAccessor;
+import siena.core.Instantiator;
+
+/**
+ * Allocation and time of mapping one row into a model without relation fields
+ * and into a model with One/Many fields which proxies are set by Model.init().
+ * Not run by surefire: launch it with the main method from the test classpath,
+ * the gc profiler gives the bytes allocated by mapped row (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RelationInitBenchmark {
+	private Instantiator<PersonLongAutoIDModel> plain;
+	private FieldAccessor[] plainAccessors;
+	private Instantiator<AggregateParentModel> related;
+	private FieldAccessor[] relatedAccessors;
+	private Object[] row;
+
+	@Setup
+	public void setup() throws Exception {
+		plain = Instantiator.of(PersonLongAutoIDModel.class);
+		plainAccessors = accessors(PersonLongAutoIDModel.class, "id", "firstName");
+		related = Instantiator.of(AggregateParentModel.class);
+		relatedAccessors = accessors(AggregateParentModel.class, "id", "name");
+		row = new Object[] { 1L, "Albert" };
+	}
+
+	private static FieldAccessor[] accessors(Class<?> clazz, String... names) throws Exception {
+		ClassInfo info = ClassInfo.getClassInfo(clazz);
+		FieldAccessor[] accessors = new FieldAccessor[names.length];
+		for (int i = 0; i < names.length; i++) {
+			Field field = clazz.getField(names[i]);
+			accessors[i] = info.getAccessor(field);
+		}
+		return accessors;
+	}
+
+	@Benchmark
+	public Object noRelation() {
+		PersonLongAutoIDModel obj = plain.newInstance();
+		for (int i = 0; i < plainAccessors.length; i++) {
+			plainAccessors[i].set(obj, row[i]);
+		}
+		return obj;
+	}
+
+	@Benchmark
+	public Object relations() {
+		AggregateParentModel obj = related.newInstance();
+		for (int i = 0; i < relatedAccessors.length; i++) {
+			relatedAccessors[i].set(obj, row[i]);
+		}
+		return obj;
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+			.include(RelationInitBenchmark.class.getSimpleName())
+			.addProfiler(GCProfiler.class)
+			.build()).run();
+	}
+}
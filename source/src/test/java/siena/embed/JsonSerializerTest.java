@@ -3,11 +3,15 @@ package siena.embed;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import junit.framework.TestCase;
 import siena.Json;
+import siena.JsonReader;
 import siena.Util;
 
 public class JsonSerializerTest extends TestCase {
@@ -44,6 +48,71 @@ public class JsonSerializerTest extends TestCase {
 		assertEquals(date, contact.rebirthday);
 	}
 
+	public void testStreaming() throws Exception {
+		Date date = createDate();
+		Profile profile = new Profile();
+		profile.name = "Alberto";
+		profile.nick = "gimenete";
+		profile.age = 27;
+		profile.visits = 12345678901L;
+		profile.score = 1.5;
+		profile.ratio = 0.25f;
+		profile.active = true;
+		profile.level = 3;
+		profile.gender = Gender.MALE;
+		profile.tags = new ArrayList<String>(Arrays.asList("a", "b\"c"));
+		profile.main = new Contact("Alberto", "Gimeno", Gender.MALE, date, null);
+		profile.contacts = new HashMap<String, Contact>();
+		profile.contacts.put("id1", new Contact("Pascal", "Voitot", Gender.MALE, date, null));
+		String text = JsonSerializer.serialize(profile).toString();
+		
+		Profile streamed = (Profile) JsonSerializer.deserialize(Profile.class, new JsonReader(text));
+		Profile parsed = (Profile) JsonSerializer.deserialize(Profile.class, Json.loads(text));
+		for(Profile p : new Profile[] { streamed, parsed }) {
+			assertEquals("Alberto", p.name);
+			assertEquals("gimenete", p.nick);
+			assertEquals(27, p.age);
+			assertEquals(12345678901L, p.visits);
+			assertEquals(1.5, p.score);
+			assertEquals(0.25f, p.ratio);
+			assertTrue(p.active);
+			assertEquals(3, p.level);
+			assertEquals(Gender.MALE, p.gender);
+			assertEquals(Arrays.asList("a", "b\"c"), p.tags);
+			assertEquals("Gimeno", p.main.lastName);
+			assertEquals(date, p.main.birthday);
+			assertNull(p.main.rebirthday);
+			assertEquals("Voitot", p.contacts.get("id1").lastName);
+			assertEquals(date, p.contacts.get("id1").birthday);
+		}
+	}
+	
+	public void testStreamingMissingAndUnknown() throws Exception {
+		String text = "{\"name\": \"foo\", \"unknown\": [1, {\"a\": [2]}], \"age\": 3, \"visits\": 4, "
+			+ "\"score\": 5, \"ratio\": 6, \"active\": false, \"level\": 7, \"main\": [\"Alberto\"], \"tags\": null}";
+		Profile p = (Profile) JsonSerializer.deserialize(Profile.class, new JsonReader(text));
+		assertEquals("foo", p.name);
+		assertNull(p.nick);
+		assertEquals(3, p.age);
+		assertEquals(4L, p.visits);
+		assertEquals(5.0, p.score);
+		assertEquals(6.0f, p.ratio);
+		assertFalse(p.active);
+		assertEquals(7, p.level);
+		assertNull(p.gender);
+		assertNull(p.tags);
+		assertNull(p.contacts);
+		assertEquals("Alberto", p.main.firstName);
+		assertNull(p.main.lastName);
+	}
+	
+	public void testUntypedCollection() throws Exception {
+		String text = "[\"a\", 1, 2.5, true, null, {\"b\": 2}, [3]]";
+		List<Object> expected = Arrays.<Object>asList("a", 1L, 2.5, true);
+		assertEquals(expected, JsonSerializer.deserialize(List.class, new JsonReader(text)));
+		assertEquals(expected, JsonSerializer.deserialize(List.class, Json.loads(text)));
+	}
+	
 	private Date createDate() {
 		try {
 			return new SimpleDateFormat("yyyy/MM/dd").parse("1984/07/16");
@@ -76,6 +145,21 @@ public class JsonSerializerTest extends TestCase {
 	public Contact() {
 	}
 	
+} @EmbeddedMap class Profile {
+	
+	public String name;
+	@Key("n") public String nick;
+	public int age;
+	public long visits;
+	public double score;
+	public float ratio;
+	public boolean active;
+	public short level;
+	public Gender gender;
+	public List<String> tags;
+	public Contact main;
+	public Map<String, Contact> contacts;
+	
 } class User {
 	
 	public Map<String, Contact> contacts;
@@ -1,91 +1,299 @@
 package siena.hbase.test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Properties;
 
 import junit.framework.TestCase;
-import siena.hbase.HBaseDdlGenerator;
+import siena.Query;
+import siena.SienaRestrictedApiException;
+import siena.base.test.model.PersonStringID;
 import siena.hbase.HBasePersistenceManager;
 
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.PageFilter;
+
 public class HBasePersistenceManagerTest extends TestCase {
-	
+	private static final int NB = 100;
+
+	private LocalHBase hbase;
+	private HBasePersistenceManager pm;
+
 	public void testSimple() {
 		assertTrue(true);
 	}
-	
-//	public void testCreate() {
-//		HBasePersistenceManager pm = new HBasePersistenceManager();
-//		Person person = new Person("1", "Nikola", "Tesla", "Smiljam");
-//		pm.insert(person);
-//	}
-//	
-//	public void testQuery() {
-//		HBasePersistenceManager pm = new HBasePersistenceManager();
-//		
-//		Person person = new Person("1", "Nikola", "Tesla", "Smiljam");
-//		pm.insert(person);
-//		
-//		List<Person> people = pm.createQuery(Person.class).fetch();
-//		assertEquals(1, people.size());
-//		assertEquals(person, people.get(0));
-//	}
-//	
-//	public void testGet() {
-//		HBasePersistenceManager pm = new HBasePersistenceManager();
-//		
-//		Person person = new Person("1", "Nikola", "Tesla", "Smiljam");
-//		pm.insert(person);
-//		
-//		Person p = new Person();
-//		p.id = "1";
-//		pm.get(p);
-//		assertEquals(person, p);
-//	}
-//	
-//	public void testDelete() {
-//		HBasePersistenceManager pm = new HBasePersistenceManager();
-//		
-//		Person person = new Person("1", "Nikola", "Tesla", "Smiljam");
-//		pm.insert(person);
-//
-//		List<Person> people = pm.createQuery(Person.class).fetch();
-//		assertEquals(1, people.size());
-//		
-//		pm.delete(person);
-//
-//		people = pm.createQuery(Person.class).fetch();
-//		assertTrue(people.isEmpty());
-//	}
-//	
-//	public void testUpdate() {
-//		HBasePersistenceManager pm = new HBasePersistenceManager();
-//		
-//		Person person = new Person("1", "Nikola", "Tesla", "Smiljam");
-//		pm.insert(person);
-//
-//		List<Person> people = pm.createQuery(Person.class).fetch();
-//		assertEquals(1, people.size());
-//		
-//		person.lastName = "xxx";
-//		pm.update(person);
-//
-//		people = pm.createQuery(Person.class).fetch();
-//		assertEquals(1, people.size());
-//
-//		Person p = new Person();
-//		p.id = "1";
-//		pm.get(p);
-//		assertEquals(person, p);
-//	}
-//	
-//	@Override
-//	protected void setUp() throws Exception {
-//		super.setUp();
-//		
-//		HBaseDdlGenerator generator = new HBaseDdlGenerator();
-//		generator.addTable(Person.class);
-//		generator.dropTables();
-//		
-//		generator.updateSchema();
-//	}
 
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		hbase = new LocalHBase();
+		pm = createPersistenceManager(new Properties());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		pm.closePool();
+		super.tearDown();
+	}
+
+	private HBasePersistenceManager createPersistenceManager(Properties p) {
+		HBasePersistenceManager pm = new HBasePersistenceManager();
+		pm.init(p, hbase);
+		return pm;
+	}
+
+	private void insertPersons() {
+		List<PersonStringID> persons = new ArrayList<PersonStringID>();
+		for(int i=0; i<NB; i++){
+			persons.add(new PersonStringID(String.format("p%04d", i), "John", "Smith", i%2==0?"Paris":"Lyon", i));
+		}
+		pm.insert(persons);
+	}
+
+	private void assertIds(List<PersonStringID> res, int... ns) {
+		assertEquals(ns.length, res.size());
+		for(int i=0; i<ns.length; i++){
+			assertEquals(String.format("p%04d", ns[i]), res.get(i).id);
+		}
+	}
+
+	private int[] range(int from, int to, int step) {
+		int[] ns = new int[(to - from + step - 1) / step];
+		for(int i=0; i<ns.length; i++){
+			ns[i] = from + i*step;
+		}
+		return ns;
+	}
+
+	public void testCreate() {
+		Person person = new Person("1", "Nikola", "Tesla", "Smiljam");
+		pm.insert(person);
+		assertEquals(1, hbase.size("people"));
+	}
+
+	public void testQuery() {
+		Person person = new Person("1", "Nikola", "Tesla", "Smiljam");
+		pm.insert(person);
+
+		List<Person> people = pm.createQuery(Person.class).fetch();
+		assertEquals(1, people.size());
+		assertEquals(person, people.get(0));
+	}
+
+	public void testGet() {
+		Person person = new Person("1", "Nikola", "Tesla", "Smiljam");
+		pm.insert(person);
+
+		Person p = new Person();
+		p.id = "1";
+		pm.get(p);
+		assertEquals(person, p);
+	}
+
+	public void testDelete() {
+		Person person = new Person("1", "Nikola", "Tesla", "Smiljam");
+		pm.insert(person);
+
+		List<Person> people = pm.createQuery(Person.class).fetch();
+		assertEquals(1, people.size());
+
+		pm.delete(person);
+
+		people = pm.createQuery(Person.class).fetch();
+		assertTrue(people.isEmpty());
+	}
+
+	public void testUpdate() {
+		Person person = new Person("1", "Nikola", "Tesla", "Smiljam");
+		pm.insert(person);
+
+		person.lastName = "xxx";
+		person.city = null;
+		pm.update(person);
+
+		List<Person> people = pm.createQuery(Person.class).fetch();
+		assertEquals(1, people.size());
+
+		Person p = new Person();
+		p.id = "1";
+		pm.get(p);
+		assertEquals(person, p);
+		assertNull(p.city);
+	}
+
+	public void testFilterColumns() {
+		insertPersons();
+		assertIds(pm.createQuery(PersonStringID.class).filter("n>=", 10).filter("n<", 20).fetch(), range(10, 20, 1));
+		assertIds(pm.createQuery(PersonStringID.class).filter("city", "Paris").filter("n<", 10).fetch(), 0, 2, 4, 6, 8);
+		assertIds(pm.createQuery(PersonStringID.class).filter("n IN", Arrays.asList(3, 42, 7)).fetch(), 3, 7, 42);
+		assertIds(pm.createQuery(PersonStringID.class).filter("city LIKE", "Ly%").filter("n<=", 5).fetch(), 1, 3, 5);
+		assertIds(pm.createQuery(PersonStringID.class).filter("city LIKE", "%ar_s").filter("n<", 5).fetch(), 0, 2, 4);
+		assertIds(pm.createQuery(PersonStringID.class).filter("city !=", "Paris").filter("n>", 95).fetch(), 97, 99);
+
+		PersonStringID p = pm.getByKey(PersonStringID.class, "p0050");
+		p.city = null;
+		pm.update(p);
+		assertIds(pm.createQuery(PersonStringID.class).filter("city", null).fetch(), 50);
+		assertEquals(NB - 1, pm.createQuery(PersonStringID.class).filter("city!=", null).count());
+	}
+
+	public void testFilterRowKeys() {
+		insertPersons();
+		int scanned = hbase.rowsScanned.get();
+		assertIds(pm.createQuery(PersonStringID.class).filter("id>", "p0010").filter("id<=", "p0015").fetch(), range(11, 16, 1));
+		// only the rows in the range are read
+		assertEquals(5, hbase.rowsScanned.get() - scanned);
+
+		assertIds(pm.createQuery(PersonStringID.class).filter("id LIKE", "p002%").fetch(), range(20, 30, 1));
+		assertIds(pm.createQuery(PersonStringID.class).filter("id IN", Arrays.asList("p0042", "p0003", "x")).fetch(), 3, 42);
+		assertIds(pm.createQuery(PersonStringID.class).filter("id", "p0007").fetch(), 7);
+		assertIds(pm.createQuery(PersonStringID.class).filter("id !=", "p0001").filter("n<", 3).fetch(), 0, 2);
+
+		scanned = hbase.rowsScanned.get();
+		assertTrue(pm.createQuery(PersonStringID.class).filter("id>", "p0020").filter("id<", "p0010").fetch().isEmpty());
+		assertTrue(pm.createQuery(PersonStringID.class).filter("id IN", new ArrayList<String>()).fetch().isEmpty());
+		assertEquals(0, hbase.rowsScanned.get() - scanned);
+	}
+
+	public void testUnsupported() {
+		try {
+			pm.createQuery(PersonStringID.class).order("-id").fetch();
+			fail();
+		} catch(SienaRestrictedApiException ex) {
+		}
+		try {
+			pm.createQuery(PersonStringID.class).order("n").fetch();
+			fail();
+		} catch(SienaRestrictedApiException ex) {
+		}
+		pm.createQuery(PersonStringID.class).order("id").fetch();
+	}
+
+	public void testLimitOffset() {
+		insertPersons();
+		hbase.scans.clear();
+		int scanned = hbase.rowsScanned.get();
+		assertIds(pm.createQuery(PersonStringID.class).filter("city", "Paris").fetch(5, 10), 20, 22, 24, 26, 28);
+
+		// the region server stops after offset+limit accepted rows
+		assertTrue(hbase.rowsScanned.get() - scanned <= 30);
+		assertEquals(1, hbase.scans.size());
+		assertEquals(15, hbase.scans.get(0).getCaching());
+		FilterList filters = (FilterList)hbase.scans.get(0).getFilter();
+		PageFilter page = (PageFilter)filters.getFilters().get(filters.getFilters().size() - 1);
+		assertEquals(15, page.getPageSize());
+
+		assertIds(pm.createQuery(PersonStringID.class).fetchKeys(3), 0, 1, 2);
+		assertTrue(pm.createQuery(PersonStringID.class).fetchKeys(3).get(0).isOnlyIdFilled());
+		assertIds(pm.createQuery(PersonStringID.class).fetch(3, NB - 1), NB - 1);
+	}
+
+	public void testPaginate() {
+		insertPersons();
+		Query<PersonStringID> query = pm.createQuery(PersonStringID.class).filter("n<", 25).paginate(10);
+		assertIds(query.fetch(), range(0, 10, 1));
+		assertIds(query.nextPage().fetch(), range(10, 20, 1));
+		assertIds(query.nextPage().fetch(), range(20, 25, 1));
+		assertIds(query.nextPage().fetch());
+		assertIds(query.previousPage().fetch(), range(20, 25, 1));
+		assertIds(query.previousPage().fetch(), range(10, 20, 1));
+	}
+
+	public void testStateful() {
+		insertPersons();
+		Query<PersonStringID> query = pm.createQuery(PersonStringID.class).filter("city", "Lyon").stateful();
+		assertIds(query.fetch(3), 1, 3, 5);
+		assertIds(query.fetch(3), 7, 9, 11);
+		assertIds(query.fetch(2, 1), 15, 17);
+	}
+
+	public void testIter() {
+		Properties p = new Properties();
+		// one column per result
+		p.setProperty("scan.batch", "1");
+		p.setProperty("scan.caching", "7");
+		pm = createPersistenceManager(p);
+		insertPersons();
+
+		List<PersonStringID> res = new ArrayList<PersonStringID>();
+		for(PersonStringID person: pm.createQuery(PersonStringID.class).iter(5, 10)){
+			res.add(person);
+		}
+		assertIds(res, range(10, 15, 1));
+		for(PersonStringID person: res){
+			assertEquals("Smith", person.lastName);
+			assertEquals(person.n % 2 == 0 ? "Paris" : "Lyon", person.city);
+		}
+
+		res.clear();
+		int calls = hbase.scannerNextCalls.get();
+		for(PersonStringID person: pm.createQuery(PersonStringID.class).iter()){
+			res.add(person);
+		}
+		assertIds(res, range(0, NB, 1));
+		// 7 rows by call to the region server
+		assertEquals(NB / 7 + 1, hbase.scannerNextCalls.get() - calls);
+
+		assertIds(pm.createQuery(PersonStringID.class).filter("n>=", 98).fetch(), 98, 99);
+		assertEquals("Smith", pm.createQuery(PersonStringID.class).fetch().get(42).lastName);
+	}
+
+	public void testBatchedWrites() {
+		Properties p = new Properties();
+		p.setProperty("write.batch", "30");
+		pm = createPersistenceManager(p);
+
+		insertPersons();
+		assertEquals(4, hbase.putCalls.get());
+		assertEquals(NB, hbase.size("people_string"));
+
+		List<PersonStringID> persons = new ArrayList<PersonStringID>();
+		for(int i=0; i<NB; i++){
+			PersonStringID person = new PersonStringID();
+			person.id = String.format("p%04d", i);
+			persons.add(person);
+		}
+		assertEquals(NB, pm.get(persons));
+		assertEquals(1, hbase.getCalls.get());
+		assertEquals("Lyon", persons.get(11).city);
+
+		List<PersonStringID> byKeys = pm.getByKeys(PersonStringID.class, "p0042", "zzz", "p0001");
+		assertEquals(42, byKeys.get(0).n);
+		assertNull(byKeys.get(1));
+		assertEquals(1, byKeys.get(2).n);
+
+		assertEquals(NB, pm.delete(persons));
+		assertEquals(4, hbase.deleteCalls.get());
+		assertEquals(0, hbase.size("people_string"));
+	}
+
+	public void testQueryCountDeleteUpdate() {
+		insertPersons();
+		assertEquals(NB, pm.createQuery(PersonStringID.class).count());
+		assertEquals(NB / 2, pm.createQuery(PersonStringID.class).filter("city", "Paris").count());
+
+		assertEquals(10, pm.createQuery(PersonStringID.class).filter("n<", 10).update(
+				new java.util.HashMap<String, Object>() {{ put("lastName", "Doe"); }}));
+		assertEquals(10, pm.createQuery(PersonStringID.class).filter("lastName", "Doe").count());
+
+		assertEquals(NB / 2, pm.createQuery(PersonStringID.class).filter("city", "Lyon").delete());
+		assertEquals(NB / 2, hbase.size("people_string"));
+		assertEquals(1, pm.deleteByKeys(PersonStringID.class, "p0000"));
+		assertEquals(NB / 2 - 1, pm.createQuery(PersonStringID.class).count());
+	}
+
+	public void testTablePool() {
+		insertPersons();
+		for(int i=0; i<10; i++){
+			pm.createQuery(PersonStringID.class).fetch(5);
+			pm.getByKey(PersonStringID.class, "p0001");
+			for(PersonStringID person: pm.createQuery(PersonStringID.class).iter()){
+				assertNotNull(person.id);
+			}
+		}
+		// the tables are reused
+		assertEquals(1, hbase.tablesCreated.get());
+		assertEquals(1, pm.getPool().getCreated());
+	}
 }
@@ -0,0 +1,400 @@
+package siena.hbase.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.RowLock;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * An in-memory HBase for the tests: the rows of each table are kept sorted by row key and the scans
+ * apply their filters like a region server (only one version of each cell is kept).
+ */
+public class LocalHBase implements HTableInterfaceFactory {
+	private final Map<String, NavigableMap<byte[], NavigableMap<byte[], byte[]>>> tables =
+		new ConcurrentHashMap<String, NavigableMap<byte[], NavigableMap<byte[], byte[]>>>();
+
+	public final AtomicInteger tablesCreated = new AtomicInteger();
+	public final AtomicInteger putCalls = new AtomicInteger();
+	public final AtomicInteger deleteCalls = new AtomicInteger();
+	public final AtomicInteger getCalls = new AtomicInteger();
+	public final AtomicInteger scannerNextCalls = new AtomicInteger();
+	// rows read by the scans, filtered or not
+	public final AtomicInteger rowsScanned = new AtomicInteger();
+	public final List<Scan> scans = Collections.synchronizedList(new ArrayList<Scan>());
+
+	public HTableInterface createHTableInterface(Configuration config, byte[] tableName) {
+		tablesCreated.incrementAndGet();
+		return new LocalHTable(config, tableName);
+	}
+
+	public void releaseHTableInterface(HTableInterface table) {
+	}
+
+	public int size(String tableName) {
+		return rows(Bytes.toBytes(tableName)).size();
+	}
+
+	public Map<byte[], byte[]> row(String tableName, String row) {
+		return rows(Bytes.toBytes(tableName)).get(Bytes.toBytes(row));
+	}
+
+	protected NavigableMap<byte[], NavigableMap<byte[], byte[]>> rows(byte[] tableName) {
+		String name = Bytes.toString(tableName);
+		NavigableMap<byte[], NavigableMap<byte[], byte[]>> rows = tables.get(name);
+		if(rows == null){
+			synchronized(tables) {
+				rows = tables.get(name);
+				if(rows == null){
+					rows = new ConcurrentSkipListMap<byte[], NavigableMap<byte[], byte[]>>(Bytes.BYTES_COMPARATOR);
+					tables.put(name, rows);
+				}
+			}
+		}
+		return rows;
+	}
+
+	// the column names are family:qualifier
+	private static byte[] column(byte[] family, byte[] qualifier) {
+		return Bytes.add(family, new byte[]{ ':' }, qualifier);
+	}
+
+	private static List<KeyValue> keyValues(byte[] row, NavigableMap<byte[], byte[]> columns) {
+		List<KeyValue> kvs = new ArrayList<KeyValue>();
+		for(Map.Entry<byte[], byte[]> col: columns.entrySet()){
+			byte[] name = col.getKey();
+			int sep = 0;
+			while(name[sep] != ':') sep++;
+			kvs.add(new KeyValue(row, Bytes.head(name, sep), Bytes.tail(name, name.length - sep - 1), col.getValue()));
+		}
+		return kvs;
+	}
+
+	public class LocalHTable implements HTableInterface {
+		private final Configuration config;
+		private final byte[] tableName;
+		private final NavigableMap<byte[], NavigableMap<byte[], byte[]>> rows;
+
+		LocalHTable(Configuration config, byte[] tableName) {
+			this.config = config;
+			this.tableName = tableName;
+			this.rows = rows(tableName);
+		}
+
+		public byte[] getTableName() {
+			return tableName;
+		}
+
+		public Configuration getConfiguration() {
+			return config;
+		}
+
+		public HTableDescriptor getTableDescriptor() throws IOException {
+			return new HTableDescriptor(tableName);
+		}
+
+		public boolean exists(Get get) throws IOException {
+			return rows.containsKey(get.getRow());
+		}
+
+		public Result get(Get get) throws IOException {
+			getCalls.incrementAndGet();
+			return doGet(get);
+		}
+
+		private Result doGet(Get get) {
+			NavigableMap<byte[], byte[]> columns = rows.get(get.getRow());
+			if(columns == null){
+				return new Result();
+			}
+			return new Result(keyValues(get.getRow(), columns));
+		}
+
+		public Result[] get(List<Get> gets) throws IOException {
+			getCalls.incrementAndGet();
+			Result[] results = new Result[gets.size()];
+			for(int i=0; i<results.length; i++){
+				results[i] = doGet(gets.get(i));
+			}
+			return results;
+		}
+
+		public void put(Put put) throws IOException {
+			put(Collections.singletonList(put));
+		}
+
+		public void put(List<Put> puts) throws IOException {
+			putCalls.incrementAndGet();
+			for(Put put: puts){
+				NavigableMap<byte[], byte[]> columns = rows.get(put.getRow());
+				if(columns == null){
+					columns = new ConcurrentSkipListMap<byte[], byte[]>(Bytes.BYTES_COMPARATOR);
+					rows.put(put.getRow(), columns);
+				}
+				for(List<KeyValue> kvs: put.getFamilyMap().values()){
+					for(KeyValue kv: kvs){
+						columns.put(column(kv.getFamily(), kv.getQualifier()), kv.getValue());
+					}
+				}
+			}
+		}
+
+		public void delete(Delete delete) throws IOException {
+			List<Delete> deletes = new ArrayList<Delete>();
+			deletes.add(delete);
+			delete(deletes);
+		}
+
+		public void delete(List<Delete> deletes) throws IOException {
+			deleteCalls.incrementAndGet();
+			for(Iterator<Delete> it = deletes.iterator(); it.hasNext();){
+				Delete delete = it.next();
+				if(delete.getFamilyMap().isEmpty()){
+					rows.remove(delete.getRow());
+				}else {
+					NavigableMap<byte[], byte[]> columns = rows.get(delete.getRow());
+					if(columns != null){
+						for(List<KeyValue> kvs: delete.getFamilyMap().values()){
+							for(KeyValue kv: kvs){
+								columns.remove(column(kv.getFamily(), kv.getQualifier()));
+							}
+						}
+					}
+				}
+				it.remove();
+			}
+		}
+
+		public ResultScanner getScanner(Scan scan) throws IOException {
+			scans.add(scan);
+			return new LocalScanner(scan);
+		}
+
+		public ResultScanner getScanner(byte[] family) throws IOException {
+			return getScanner(new Scan().addFamily(family));
+		}
+
+		public ResultScanner getScanner(byte[] family, byte[] qualifier) throws IOException {
+			return getScanner(new Scan().addColumn(family, qualifier));
+		}
+
+		public void flushCommits() throws IOException {
+		}
+
+		public boolean isAutoFlush() {
+			return true;
+		}
+
+		public void close() throws IOException {
+		}
+
+		public void batch(List<Row> actions, Object[] results) throws IOException, InterruptedException {
+			throw new UnsupportedOperationException();
+		}
+
+		public Object[] batch(List<Row> actions) throws IOException, InterruptedException {
+			throw new UnsupportedOperationException();
+		}
+
+		public Result getRowOrBefore(byte[] row, byte[] family) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		public boolean checkAndPut(byte[] row, byte[] family, byte[] qualifier, byte[] value, Put put)
+				throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		public boolean checkAndDelete(byte[] row, byte[] family, byte[] qualifier, byte[] value, Delete delete)
+				throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		public Result increment(Increment increment) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		public long incrementColumnValue(byte[] row, byte[] family, byte[] qualifier, long amount)
+				throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		public long incrementColumnValue(byte[] row, byte[] family, byte[] qualifier, long amount,
+				boolean writeToWAL) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		public RowLock lockRow(byte[] row) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		public void unlockRow(RowLock rl) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Reads caching rows at each next() on an empty buffer, like a call to a region server
+		 */
+		class LocalScanner implements ResultScanner {
+			private final Scan scan;
+			private final Filter filter;
+			private final Iterator<Map.Entry<byte[], NavigableMap<byte[], byte[]>>> it;
+			private final List<Result> buffer = new ArrayList<Result>();
+			private boolean done = false;
+
+			LocalScanner(Scan scan) {
+				this.scan = scan;
+				this.filter = scan.getFilter();
+				NavigableMap<byte[], NavigableMap<byte[], byte[]>> range = rows;
+				if(scan.getStartRow().length > 0){
+					range = range.tailMap(scan.getStartRow(), true);
+				}
+				if(scan.getStopRow().length > 0){
+					range = range.headMap(scan.getStopRow(), false);
+				}
+				// copies the rows as a region server reads a consistent snapshot
+				this.it = new TreeMap<byte[], NavigableMap<byte[], byte[]>>(range).entrySet().iterator();
+			}
+
+			public Result next() throws IOException {
+				if(buffer.isEmpty() && !done){
+					scannerNextCalls.incrementAndGet();
+					int caching = scan.getCaching() > 0 ? scan.getCaching() : 1;
+					int rowsRead = 0;
+					while(rowsRead < caching && it.hasNext()){
+						List<KeyValue> kvs = filterRow(it.next());
+						if(kvs == null){
+							if(filter != null && filter.filterAllRemaining()){
+								break;
+							}
+							continue;
+						}
+						rowsRead++;
+						int batch = scan.getBatch() > 0 ? scan.getBatch() : kvs.size();
+						for(int i=0; i<kvs.size(); i+=batch){
+							buffer.add(new Result(new ArrayList<KeyValue>(kvs.subList(i, Math.min(i+batch, kvs.size())))));
+						}
+					}
+					if(rowsRead < caching){
+						done = true;
+					}
+				}
+				if(buffer.isEmpty()){
+					return null;
+				}
+				return buffer.remove(0);
+			}
+
+			/**
+			 * @return the cells of the row kept by the filter, null if the row is filtered
+			 */
+			private List<KeyValue> filterRow(Map.Entry<byte[], NavigableMap<byte[], byte[]>> row) {
+				if(filter != null && filter.filterAllRemaining()){
+					while(it.hasNext()) it.next();
+					return null;
+				}
+				rowsScanned.incrementAndGet();
+				byte[] key = row.getKey();
+				List<KeyValue> kvs = new ArrayList<KeyValue>();
+				for(KeyValue kv: keyValues(key, row.getValue())){
+					if(scan.getFamilyMap().isEmpty() || scan.getFamilyMap().containsKey(kv.getFamily())){
+						kvs.add(kv);
+					}
+				}
+				if(filter == null){
+					return kvs.isEmpty() ? null : kvs;
+				}
+				filter.reset();
+				if(filter.filterRowKey(key, 0, key.length)){
+					return null;
+				}
+				List<KeyValue> kept = new ArrayList<KeyValue>();
+				for(KeyValue kv: kvs){
+					Filter.ReturnCode rc = filter.filterKeyValue(kv);
+					if(rc == Filter.ReturnCode.INCLUDE){
+						// the filter may change the cell itself (KeyOnlyFilter)
+						kept.add(kv);
+					}
+					else if(rc == Filter.ReturnCode.NEXT_ROW){
+						break;
+					}
+				}
+				if(filter.hasFilterRow()){
+					filter.filterRow(kept);
+				}
+				if(kept.isEmpty() || filter.filterRow()){
+					return null;
+				}
+				return kept;
+			}
+
+			public Result[] next(int nbRows) throws IOException {
+				List<Result> results = new ArrayList<Result>();
+				while(results.size() < nbRows){
+					Result res = next();
+					if(res == null){
+						break;
+					}
+					results.add(res);
+				}
+				return results.toArray(new Result[results.size()]);
+			}
+
+			public void close() {
+				done = true;
+				buffer.clear();
+			}
+
+			public Iterator<Result> iterator() {
+				return new Iterator<Result>() {
+					Result next;
+
+					public boolean hasNext() {
+						if(next == null){
+							try {
+								next = LocalScanner.this.next();
+							} catch(IOException e) {
+								throw new RuntimeException(e);
+							}
+						}
+						return next != null;
+					}
+
+					public Result next() {
+						hasNext();
+						Result res = next;
+						next = null;
+						return res;
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		}
+	}
+}
@@ -4,6 +4,8 @@ import static siena.Json.list;
 import static siena.Json.map;
 import static siena.Json.sortedMap;
 
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -13,6 +15,9 @@ import java.util.Map;
 
 import junit.framework.TestCase;
 import siena.Json;
+import siena.JsonReader;
+import siena.JsonWriter;
+import siena.SienaException;
 
 public class JsonTest extends TestCase {
 	
@@ -467,6 +472,97 @@ public class JsonTest extends TestCase {
 		assertEquals(Gender.MALE.name(), data.at(0).str());
 	}
 	
+	public void testReader() {
+		JsonReader reader = new JsonReader("{\"foo\": [1, -2.5, \"bar\"], \"baz\": {}, \"t\": true, \"n\": null}");
+		reader.beginObject();
+		assertEquals("foo", reader.nextName());
+		reader.beginArray();
+		assertTrue(reader.isIntegral());
+		assertEquals(1L, reader.nextLong());
+		assertEquals(JsonReader.Token.NUMBER, reader.peek());
+		assertFalse(reader.isIntegral());
+		assertEquals(-2.5, reader.nextDouble());
+		assertEquals("bar", reader.nextString());
+		assertFalse(reader.hasNext());
+		reader.endArray();
+		assertEquals("baz", reader.nextName());
+		reader.skipValue();
+		assertEquals("t", reader.nextName());
+		assertTrue(reader.nextBoolean());
+		assertEquals("n", reader.nextName());
+		reader.nextNull();
+		reader.endObject();
+		assertEquals(JsonReader.Token.END_DOCUMENT, reader.peek());
+	}
+	
+	public void testReaderNumbers() {
+		Json json = Json.loads("[0, -0, 9223372036854775807, -9223372036854775808, -12, 1e3, 2.5E-3]");
+		assertEquals(0L, json.at(0).asLong());
+		assertEquals(0L, json.at(1).asLong());
+		assertEquals(Long.MAX_VALUE, json.at(2).asLong());
+		assertEquals(Long.MIN_VALUE, json.at(3).asLong());
+		assertEquals(-12L, json.at(4).asLong());
+		assertEquals(1000.0, json.at(5).asDouble());
+		assertEquals(0.0025, json.at(6).asDouble());
+		assertTrue(json.at(2).isNumber());
+		
+		try {
+			Json.loads("[9223372036854775808]");
+			fail();
+		} catch(NumberFormatException e) {
+		}
+	}
+	
+	public void testReaderErrors() {
+		String[] texts = { "[1, 2", "{\"foo\" 1}", "{1: 2}", "[tru]", "\"foo", "[1 2]" };
+		for (String text : texts) {
+			try {
+				Json.loads(text);
+				fail(text);
+			} catch(SienaException e) {
+			}
+		}
+	}
+	
+	public void testReaderBuffer() {
+		// strings, escapes and numbers across the bounds of the buffer of the reader
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<300; i++) {
+			sb.append("a\u00e9\n/\"");
+		}
+		String str = sb.toString();
+		Json list = Json.list();
+		for(int i=0; i<200; i++) {
+			list.add(str);
+			list.add(1234567890123L + i);
+		}
+		String text = list.toString();
+		Json json = new JsonReader(new StringReader(text)).readJson();
+		assertEquals(400, json.size());
+		for(int i=0; i<200; i++) {
+			assertEquals(str, json.at(2*i).str());
+			assertEquals(1234567890123L + i, json.at(2*i+1).asLong());
+		}
+		assertEquals(text, json.toString());
+	}
+	
+	public void testWriter() throws Exception {
+		StringWriter out = new StringWriter();
+		JsonWriter writer = new JsonWriter(out);
+		writer.beginObject();
+		writer.name("foo").beginArray().value(1).value(-2.5).value("b\"a/r\n").nullValue().endArray();
+		writer.name("bar").beginObject().endObject();
+		writer.name("baz").beginArray().endArray();
+		writer.name("min").value(Long.MIN_VALUE);
+		writer.name("t").value(true);
+		writer.endObject();
+		writer.flush();
+		
+		String text = "{\"foo\": [1, -2.5, \"b\\\"a\\/r\\n\", null], \"bar\": {}, \"baz\": [], \"min\": -9223372036854775808, \"t\": true}";
+		assertEquals(text, out.toString());
+		assertEquals(Long.MIN_VALUE, Json.loads(text).get("min").asLong());
+	}
+	
 	public enum Gender { MALE, FEMALE };
 
 }
@@ -0,0 +1,176 @@
+package siena.remote.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+
+import siena.SienaException;
+import siena.remote.BinarySerializer;
+import siena.remote.Common;
+import siena.remote.XmlSerializer;
+
+public class BinarySerializerTest extends TestCase {
+	
+	private BinarySerializer serializer = new BinarySerializer();
+	private ClassLoader cl = this.getClass().getClassLoader();
+	
+	private byte[] writeEntity(Object obj, boolean ids) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = serializer.output(baos);
+		serializer.writeEntity(out, obj, ids);
+		out.flush();
+		return baos.toByteArray();
+	}
+	
+	private DataInputStream input(byte[] bytes) {
+		return serializer.input(new ByteArrayInputStream(bytes));
+	}
+	
+	public void testDataTypes() throws Exception {
+		DataTypes original = new DataTypes();
+		original.id = 12L;
+		original.typeByte = 1;
+		original.typeShort = 2;
+		original.typeInt = 3;
+		original.typeLong = 4;
+		original.typeFloat = 5;
+		original.typeDouble = 6;
+		original.typeString = "héllo";
+		original.typeDate = new Date();
+		
+		assertEquals(original, serializer.readEntity(input(writeEntity(original, false)), cl));
+		
+		DataTypes empty = new DataTypes();
+		assertEquals(empty, serializer.readEntity(input(writeEntity(empty, false)), cl));
+		
+		original.typeString = "";
+		assertEquals(original, serializer.readEntity(input(writeEntity(original, false)), cl));
+	}
+	
+	public void testIdsAndRelationship() throws Exception {
+		Person tesla = new Person(1, "Nikola", "Tesla", "Smiljam");
+		Person person = (Person) serializer.readEntity(input(writeEntity(tesla, true)), cl);
+		assertEquals(1, person.id);
+		assertNull(person.firstName);
+		
+		Discovery coil = new Discovery(3, "Tesla Coil");
+		coil.discoverer = tesla;
+		Discovery parsed = (Discovery) serializer.readEntity(input(writeEntity(coil, false)), cl);
+		assertEquals("Tesla Coil", parsed.name);
+		assertEquals(1, parsed.discoverer.id);
+		assertNull(parsed.discoverer.lastName);
+		
+		// only the ids of the response are set into the existing object
+		Person existing = new Person(0, "Nikola", "Tesla", "Smiljam");
+		serializer.readEntity(input(writeEntity(new Person(42, null, null, null), true)), existing);
+		assertEquals(new Person(42, "Nikola", "Tesla", "Smiljam"), existing);
+		
+		try {
+			serializer.readEntity(input(writeEntity(coil, true)), new Person());
+			fail();
+		} catch(SienaException e) {
+		}
+	}
+	
+	public void testFilterValues() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = serializer.output(baos);
+		serializer.writeFilterValue(out, long.class, Arrays.asList(1, 2L, 3));
+		serializer.writeFilterValue(out, String.class, null);
+		serializer.writeFilterValue(out, int.class, 7);
+		out.flush();
+		
+		DataInputStream in = input(baos.toByteArray());
+		assertEquals(Arrays.asList(1L, 2L, 3L), serializer.readFilterValue(in, long.class, cl));
+		assertNull(serializer.readFilterValue(in, String.class, cl));
+		assertEquals(7, serializer.readFilterValue(in, int.class, cl));
+	}
+	
+	public void testDocument() throws Exception {
+		Document document = DocumentHelper.createDocument();
+		Common.fillRequestElement(new Person(1, "Nikola", "Tesla", null), document.addElement("insert"), false);
+		
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		serializer.serialize(document, baos);
+		Document result = serializer.deserialize(new ByteArrayInputStream(baos.toByteArray()));
+		assertEquals(document.asXML(), result.asXML());
+		
+		ByteArrayOutputStream xml = new ByteArrayOutputStream();
+		new XmlSerializer().serialize(document, xml);
+		assertTrue(baos.size() < xml.size());
+		// the entity alone is far smaller than its document
+		assertTrue(writeEntity(new Person(1, "Nikola", "Tesla", null), false).length * 3 < xml.size());
+	}
+	
+	public void testRows() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = serializer.output(baos);
+		serializer.writeRow(out, new Person(1, "Nikola", "Tesla", "Smiljam"));
+		serializer.writeRow(out, new Person(2, "Marie", "Curie", "Warsaw"));
+		serializer.writeError(out, new IllegalStateException("broken"));
+		out.flush();
+		
+		DataInputStream in = input(baos.toByteArray());
+		assertEquals(new Person(1, "Nikola", "Tesla", "Smiljam"), serializer.readRow(in, cl));
+		assertEquals(new Person(2, "Marie", "Curie", "Warsaw"), serializer.readRow(in, cl));
+		try {
+			serializer.readRow(in, cl);
+			fail();
+		} catch(SienaException e) {
+			assertEquals(IllegalStateException.class.getName()+" broken", e.getMessage());
+		}
+	}
+	
+	public void testInvalidLengths() throws Exception {
+		for (int length : new int[] { -1, Integer.MAX_VALUE }) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			DataOutputStream out = serializer.output(baos);
+			serializer.writeVarInt(out, length);
+			out.flush();
+			try {
+				serializer.readString(input(baos.toByteArray()));
+				fail();
+			} catch(SienaException e) {
+			}
+		}
+		
+		BinarySerializer small = new BinarySerializer();
+		small.setMaxLength(4);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = small.output(baos);
+		small.writeString(out, "abcd");
+		small.writeValue(out, byte[].class, new byte[5]);
+		out.flush();
+		DataInputStream in = input(baos.toByteArray());
+		assertEquals("abcd", small.readString(in));
+		try {
+			small.readValue(in, byte[].class, cl);
+			fail();
+		} catch(SienaException e) {
+		}
+	}
+	
+	public void testVarInt() throws Exception {
+		List<Integer> values = Arrays.asList(0, 1, 127, 128, 300, 1 << 21, Integer.MAX_VALUE, -1);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = serializer.output(baos);
+		for (int v : values) {
+			serializer.writeVarInt(out, v);
+		}
+		out.flush();
+		DataInputStream in = input(baos.toByteArray());
+		for (int v : values) {
+			assertEquals(v, serializer.readVarInt(in));
+		}
+	}
+
+}
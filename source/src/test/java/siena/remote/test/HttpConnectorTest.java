@@ -0,0 +1,179 @@
+package siena.remote.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import siena.PersistenceManagerFactory;
+import siena.SienaException;
+import siena.remote.BinarySerializer;
+import siena.remote.HttpConnector;
+import siena.remote.RemotePersistenceManager;
+import siena.remote.RemoteStub;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpConnectorTest extends TestCase {
+	
+	private HttpServer server;
+	private MockPersistenceManager mock;
+	// the ports of the clients seen by the server: one by connection
+	private Set<Integer> clients = ConcurrentHashMap.newKeySet();
+	private int requests;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mock = new MockPersistenceManager();
+		PersistenceManagerFactory.install(mock, Person.class);
+		
+		final RemoteStub stub = new RemoteStub(new BinarySerializer(), getClass().getClassLoader());
+		stub.setKey("siena");
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				clients.add(exchange.getRemoteAddress().getPort());
+				requests++;
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream out = exchange.getResponseBody();
+				stub.execute(exchange.getRequestBody(), out);
+				out.close();
+				exchange.close();
+			}
+		});
+		server.start();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		server.stop(0);
+		super.tearDown();
+	}
+	
+	private RemotePersistenceManager createRemote(String key) {
+		RemotePersistenceManager remote = new RemotePersistenceManager();
+		Properties properties = new Properties();
+		properties.setProperty("connector", HttpConnector.class.getName());
+		properties.setProperty("serializer", BinarySerializer.class.getName());
+		properties.setProperty("backend", "http://127.0.0.1:"+server.getAddress().getPort()+"/");
+		properties.setProperty("key", key);
+		remote.init(properties);
+		return remote;
+	}
+	
+	public void testKeepAlive() {
+		RemotePersistenceManager remote = createRemote("siena");
+		Person tesla = new Person(1, "Nikola", "Tesla", "Smiljam");
+		for(int i=0; i<20; i++) {
+			remote.insert(tesla);
+			assertEquals("insert", mock.action);
+			assertEquals(tesla, mock.object);
+			
+			remote.update(tesla);
+			assertEquals("update", mock.action);
+			
+			Person p = new Person();
+			p.id = 1;
+			remote.get(p);
+			assertEquals("get", mock.action);
+			assertEquals(new Person(1, null, null, null), mock.object);
+		}
+		assertEquals(60, requests);
+		assertEquals(1, clients.size());
+	}
+	
+	public void testQuery() {
+		RemotePersistenceManager remote = createRemote("siena");
+		mock.results = Arrays.asList(new Person(1, "Nikola", "Tesla", "Smiljam"), new Person(2, "Marie", "Curie", "Warsaw"));
+		
+		List<Person> people = remote.fetch(remote.createQuery(Person.class)
+				.filter("city", "Ulm")
+				.filter("id IN", Arrays.asList(1, 2))
+				.filter("lastName", null)
+				.order("-firstName"), 10, 5);
+		assertEquals(mock.results, people);
+		assertEquals(Arrays.asList("city", "Ulm"), Arrays.asList(mock.lastQuery.filters.get(0)));
+		assertEquals(Arrays.asList("id IN", Arrays.asList(1L, 2L)), Arrays.asList(mock.lastQuery.filters.get(1)));
+		assertEquals(Arrays.asList("lastName", null), Arrays.asList(mock.lastQuery.filters.get(2)));
+		assertEquals(Arrays.asList("-firstName"), mock.lastQuery.orders);
+		assertEquals(10, mock.lastQuery.limit);
+		assertEquals(5, mock.lastQuery.offset);
+		
+		assertEquals(2, remote.fetch(remote.createQuery(Person.class)).size());
+		assertEquals(1, clients.size());
+	}
+	
+	public void testStreaming() {
+		final int total = 200000;
+		final AtomicInteger produced = new AtomicInteger();
+		mock.iterable = new Iterable<Person>() {
+			public Iterator<Person> iterator() {
+				return new Iterator<Person>() {
+					public boolean hasNext() {
+						return produced.get() < total;
+					}
+					public Person next() {
+						int i = produced.incrementAndGet();
+						return new Person(i, "Nikola"+i, "Tesla", "Smiljam");
+					}
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+		
+		RemotePersistenceManager remote = createRemote("siena");
+		Iterator<Person> it = remote.createQuery(Person.class).iter().iterator();
+		for(int i=1; i<=10; i++) {
+			assertEquals(i, it.next().id);
+		}
+		// the backend is held back until the client reads the next rows
+		assertTrue(produced.get() < total);
+		
+		int count = 10;
+		while(it.hasNext()) {
+			assertEquals(++count, it.next().id);
+		}
+		assertEquals(total, count);
+		
+		remote.insert(new Person(1, "Nikola", "Tesla", "Smiljam"));
+		assertEquals(2, requests);
+		assertEquals(1, clients.size());
+	}
+	
+	public void testErrors() {
+		RemotePersistenceManager remote = createRemote("1234");
+		try {
+			remote.insert(new Person(1, "Nikola", "Tesla", "Smiljam"));
+			fail("It should have failed due to invalid hash");
+		} catch(SienaException e) {
+			assertTrue(e.getMessage().contains("Invalid hash"));
+		}
+		
+		remote = createRemote("siena");
+		mock.results = Arrays.asList(new Person(1, "Nikola", "Tesla", "Smiljam"), null);
+		try {
+			// the error is sent after the first row
+			remote.fetch(remote.createQuery(Person.class));
+			fail();
+		} catch(SienaException e) {
+			assertTrue(e.getMessage().startsWith(NullPointerException.class.getName()));
+		}
+		remote.insert(new Person(1, "Nikola", "Tesla", "Smiljam"));
+		// the connection is still reused after the errors
+		assertEquals(3, requests);
+		assertEquals(1, clients.size());
+	}
+
+}
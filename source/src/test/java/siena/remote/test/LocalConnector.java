@@ -0,0 +1,45 @@
+package siena.remote.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import siena.remote.Connector;
+import siena.remote.RemoteStub;
+
+/**
+ * Sends the requests to a RemoteStub of the same JVM through byte arrays
+ */
+public class LocalConnector implements Connector {
+	
+	public static RemoteStub stub;
+	public static int requests;
+	
+	private ByteArrayOutputStream request;
+	
+	public void configure(Properties properties) {
+	}
+
+	public void connect() throws IOException {
+		request = new ByteArrayOutputStream();
+	}
+
+	public OutputStream getOutputStream() throws IOException {
+		return request;
+	}
+
+	public InputStream getInputStream() throws IOException {
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		stub.execute(new ByteArrayInputStream(request.toByteArray()), response);
+		requests++;
+		return new ByteArrayInputStream(response.toByteArray());
+	}
+
+	public void close() throws IOException {
+		request = null;
+	}
+
+}
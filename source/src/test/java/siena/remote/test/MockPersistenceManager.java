@@ -46,6 +46,10 @@ public class MockPersistenceManager implements PersistenceManager {
 	public String action;
 	public Object object;
 	public MockQuery<?> lastQuery;
+	// the rows returned by the fetches of the queries
+	public List<?> results = Collections.emptyList();
+	// the rows returned by the iterations (the results if null)
+	public Iterable<?> iterable;
 	
 	public void initModel(Object obj) {
 	}
@@ -94,6 +98,7 @@ public class MockPersistenceManager implements PersistenceManager {
 		object = obj;
 	}
 
+	@SuppressWarnings("unchecked")
 	class MockQuery<T> implements Query<T> {
 
 		public int limit;
@@ -117,18 +122,18 @@ public class MockPersistenceManager implements PersistenceManager {
 		}
 
 		public List<T> fetch() {
-			return Collections.emptyList();
+			return (List<T>) results;
 		}
 
 		public List<T> fetch(int limit) {
 			this.limit = limit;
-			return Collections.emptyList();
+			return (List<T>) results;
 		}
 
 		public List<T> fetch(int limit, Object offset) {
 			this.limit = limit;
 			this.offset = offset;
-			return Collections.emptyList();
+			return (List<T>) results;
 		}
 
 		public Query<T> filter(String fieldName, Object value) {
@@ -189,20 +194,20 @@ public class MockPersistenceManager implements PersistenceManager {
 
 		@Override
 		public Iterable<T> iter() {
-			// TODO Auto-generated method stub
-			return null;
+			return (Iterable<T>) (iterable != null ? iterable : results);
 		}
 
 		@Override
 		public Iterable<T> iter(int limit) {
-			// TODO Auto-generated method stub
-			return null;
+			this.limit = limit;
+			return (Iterable<T>) (iterable != null ? iterable : results);
 		}
 
 		@Override
 		public Iterable<T> iter(int limit, Object offset) {
-			// TODO Auto-generated method stub
-			return null;
+			this.limit = limit;
+			this.offset = offset;
+			return (Iterable<T>) (iterable != null ? iterable : results);
 		}
 
 		@Override
@@ -384,8 +389,8 @@ public class MockPersistenceManager implements PersistenceManager {
 
 		@Override
 		public Iterable<T> iterPerPage(int limit) {
-			// TODO Auto-generated method stub
-			return null;
+			this.limit = limit;
+			return (Iterable<T>) (iterable != null ? iterable : results);
 		}
 
 		@Override
@@ -0,0 +1,233 @@
+package siena.remote.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.ddlutils.Platform;
+import org.apache.ddlutils.PlatformFactory;
+
+import siena.PersistenceManagerFactory;
+import siena.SienaException;
+import siena.jdbc.H2PersistenceManager;
+import siena.jdbc.ddl.DdlGenerator;
+import siena.remote.BinarySerializer;
+import siena.remote.RemoteBatch;
+import siena.remote.RemotePersistenceManager;
+import siena.remote.RemoteStub;
+import siena.remote.Serializer;
+import siena.remote.XmlSerializer;
+
+public class RemoteBatchTest extends TestCase {
+	
+	private static H2PersistenceManager h2;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		if(h2 == null) {
+			Properties p = new Properties();
+			String driver   = "org.h2.Driver";
+			String url      = "jdbc:h2:mem:remotebatchtest;DB_CLOSE_DELAY=-1";
+			p.setProperty("driver",   driver);
+			p.setProperty("url",      url);
+			p.setProperty("user",     "sa");
+			p.setProperty("password", "");
+
+			DdlGenerator generator = new DdlGenerator();
+			generator.addTable(Person.class);
+			generator.addTable(Discovery.class);
+
+			Platform platform = PlatformFactory.createNewPlatformInstance("mysql");
+			Class.forName(driver);
+			Connection connection = DriverManager.getConnection(url, "sa", "");
+			platform.alterTables(connection, generator.getDatabase(), true);
+			connection.close();
+
+			h2 = new H2PersistenceManager();
+			h2.init(p);
+		}
+		// the backend persists the classes of this package into H2
+		PersistenceManagerFactory.install(h2, Person.class);
+		h2.createQuery(Discovery.class).delete();
+		h2.createQuery(Person.class).delete();
+	}
+	
+	private RemotePersistenceManager createRemote(Serializer serializer) {
+		LocalConnector.stub = new RemoteStub(serializer, getClass().getClassLoader());
+		LocalConnector.requests = 0;
+		
+		RemotePersistenceManager remote = new RemotePersistenceManager();
+		Properties properties = new Properties();
+		properties.setProperty("connector", LocalConnector.class.getName());
+		properties.setProperty("serializer", serializer.getClass().getName());
+		remote.init(properties);
+		return remote;
+	}
+	
+	private List<Person> persons(int nb) {
+		List<Person> persons = new ArrayList<Person>();
+		for(int i=0; i<nb; i++) {
+			persons.add(new Person(0, "John"+i, "Doe", i%2==0 ? "Paris" : "Ulm"));
+		}
+		return persons;
+	}
+	
+	public void testBulkBinary() {
+		bulk(createRemote(new BinarySerializer()));
+	}
+	
+	public void testBulkXml() {
+		bulk(createRemote(new XmlSerializer()));
+	}
+	
+	private void bulk(RemotePersistenceManager remote) {
+		List<Person> persons = persons(50);
+		assertEquals(50, remote.insert(persons));
+		assertEquals(1, LocalConnector.requests);
+		// the generated ids are sent back
+		for (Person person : persons) {
+			assertTrue(person.id > 0);
+		}
+		assertEquals(50, h2.createQuery(Person.class).count());
+		
+		for (Person person : persons) {
+			person.lastName = "Smith";
+		}
+		assertEquals(50, remote.update(persons));
+		
+		List<Person> toGet = new ArrayList<Person>();
+		for (Person person : persons.subList(20, 30)) {
+			toGet.add(new Person(person.id, null, null, null));
+		}
+		assertEquals(10, remote.get(toGet));
+		assertEquals(persons.subList(20, 30), toGet);
+		assertEquals(Arrays.asList(persons.get(5), null, persons.get(3)), 
+				remote.getByKeys(Person.class, persons.get(5).id, -1L, persons.get(3).id));
+		assertEquals(persons.get(7), remote.getByKey(Person.class, persons.get(7).id));
+		
+		assertEquals(10, remote.delete(persons.subList(0, 10)));
+		assertEquals(5, remote.deleteByKeys(Person.class, persons.get(10).id, persons.get(11).id, 
+				persons.get(12).id, persons.get(13).id, persons.get(14).id));
+		assertEquals(35, h2.createQuery(Person.class).count());
+		assertEquals(7, LocalConnector.requests);
+	}
+	
+	public void testBatchBinary() {
+		batch(createRemote(new BinarySerializer()));
+	}
+	
+	public void testBatchXml() {
+		batch(createRemote(new XmlSerializer()));
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void batch(RemotePersistenceManager remote) {
+		List<Person> persons = persons(20);
+		h2.insert(persons);
+		
+		Discovery coil = new Discovery(0, "Tesla Coil");
+		coil.discoverer = persons.get(0);
+		List<Person> added = persons(3);
+		
+		List<Object> results = remote.batch()
+			.insert(added)
+			.insert(Arrays.asList(coil))
+			.deleteByKeys(Person.class, Arrays.asList(persons.get(19).id))
+			.fetch(remote.createQuery(Person.class).filter("city", "Ulm").filter("id<=", persons.get(9).id).order("-id"), 10)
+			.fetch(remote.createQuery(Person.class).filter("id IN", Arrays.asList(persons.get(4).id, persons.get(6).id)).order("id"), 1, 1)
+			.getByKeys(Person.class, Arrays.asList(persons.get(8).id, persons.get(19).id, persons.get(2).id))
+			.fetch(remote.createQuery(Person.class).filter("id IN", Arrays.asList(persons.get(4).id, persons.get(6).id)).order("-id"))
+			.execute();
+		assertEquals(1, LocalConnector.requests);
+		
+		assertEquals(Arrays.asList(3, 1, 1), results.subList(0, 3));
+		assertTrue(added.get(2).id > 0);
+		assertTrue(coil.id > 0);
+		assertNull(h2.getByKey(Person.class, persons.get(19).id));
+		assertEquals(Arrays.asList(persons.get(9), persons.get(7), persons.get(5), persons.get(3), persons.get(1)), results.get(3));
+		assertEquals(Arrays.asList(persons.get(6)), results.get(4));
+		// the keys deleted before in the batch are not found
+		assertEquals(Arrays.asList(persons.get(8), null, persons.get(2)), results.get(5));
+		assertEquals(Arrays.asList(persons.get(6), persons.get(4)), results.get(6));
+		
+		Discovery d = h2.getByKey(Discovery.class, coil.id);
+		assertEquals(persons.get(0).id, d.discoverer.id);
+	}
+	
+	public void testErrorsBinary() {
+		errors(createRemote(new BinarySerializer()));
+	}
+	
+	public void testErrorsXml() {
+		errors(createRemote(new XmlSerializer()));
+	}
+	
+	private void errors(RemotePersistenceManager remote) {
+		List<Person> persons = persons(2);
+		try {
+			remote.batch()
+				.insert(persons.subList(0, 1))
+				.fetch(remote.createQuery(Person.class).filter("city LIKE", "P%"), 10)
+				.insert(persons.subList(1, 2))
+				.execute();
+			fail();
+		} catch(SienaException e) {
+			// JDBC doesn't support LIKE
+		}
+		// the other operations were run
+		assertEquals(2, h2.createQuery(Person.class).count());
+		assertTrue(persons.get(1).id > 0);
+		assertTrue(remote.batch().execute().isEmpty());
+		assertEquals(1, LocalConnector.requests);
+	}
+	
+	public void testUnknownFilterBinary() throws Exception {
+		BinarySerializer binary = new BinarySerializer();
+		RemoteStub stub = new RemoteStub(binary, getClass().getClassLoader());
+		
+		// a client with another version of the model can send a filter on a field unknown to the backend
+		ByteArrayOutputStream request = new ByteArrayOutputStream();
+		DataOutputStream out = binary.output(request);
+		binary.writeOperation(out, "batch", 0, null);
+		binary.writeVarInt(out, 2);
+		binary.writeString(out, RemoteBatch.FETCH);
+		binary.writeString(out, Person.class.getName());
+		binary.writeVarInt(out, 1);
+		binary.writeString(out, "unknown");
+		binary.writeString(out, "=");
+		binary.writeFilterValue(out, String.class, "foo");
+		binary.writeVarInt(out, 0);
+		binary.writeVarInt(out, 0);
+		binary.writeVarInt(out, 0);
+		binary.writeString(out, RemoteBatch.INSERT);
+		binary.writeVarInt(out, 1);
+		binary.writeEntity(out, persons(1).get(0), false);
+		out.flush();
+		
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		stub.execute(new ByteArrayInputStream(request.toByteArray()), response);
+		DataInputStream in = binary.input(new ByteArrayInputStream(response.toByteArray()));
+		assertEquals(BinarySerializer.OK, binary.readStatus(in));
+		try {
+			binary.readStatus(in);
+			fail();
+		} catch(SienaException e) {
+			assertTrue(e.getMessage().endsWith("Filter field 'unknown' not found"));
+		}
+		// the next operation was still read and run
+		assertEquals(BinarySerializer.OK, binary.readStatus(in));
+		assertEquals(1, binary.readVarInt(in));
+		assertEquals(1, h2.createQuery(Person.class).count());
+	}
+
+}
@@ -0,0 +1,159 @@
+package siena.remote.test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.ddlutils.Platform;
+import org.apache.ddlutils.PlatformFactory;
+
+import siena.PersistenceManagerFactory;
+import siena.Query;
+import siena.jdbc.H2PersistenceManager;
+import siena.jdbc.ddl.DdlGenerator;
+import siena.remote.BinarySerializer;
+import siena.remote.RemotePersistenceManager;
+import siena.remote.RemoteSienaIterable;
+import siena.remote.RemoteStub;
+import siena.remote.Serializer;
+import siena.remote.XmlSerializer;
+
+public class RemoteStreamTest extends TestCase {
+	
+	private static final int NB = 100;
+	
+	private static H2PersistenceManager h2;
+	private static List<Person> persons;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		if(h2 == null) {
+			Properties p = new Properties();
+			String driver   = "org.h2.Driver";
+			String url      = "jdbc:h2:mem:remotestreamtest;DB_CLOSE_DELAY=-1";
+			p.setProperty("driver",   driver);
+			p.setProperty("url",      url);
+			p.setProperty("user",     "sa");
+			p.setProperty("password", "");
+
+			DdlGenerator generator = new DdlGenerator();
+			generator.addTable(Person.class);
+
+			Platform platform = PlatformFactory.createNewPlatformInstance("mysql");
+			Class.forName(driver);
+			Connection connection = DriverManager.getConnection(url, "sa", "");
+			platform.alterTables(connection, generator.getDatabase(), true);
+			connection.close();
+
+			h2 = new H2PersistenceManager();
+			h2.init(p);
+			
+			persons = new ArrayList<Person>();
+			for(int i=0; i<NB; i++) {
+				persons.add(new Person(0, "John"+i, "Doe", i%2==0 ? "Paris" : "Ulm"));
+			}
+			h2.insert(persons);
+		}
+		PersistenceManagerFactory.install(h2, Person.class);
+	}
+	
+	private RemotePersistenceManager createRemote(Serializer serializer) {
+		LocalConnector.stub = new RemoteStub(serializer, getClass().getClassLoader());
+		LocalConnector.requests = 0;
+		
+		RemotePersistenceManager remote = new RemotePersistenceManager();
+		Properties properties = new Properties();
+		properties.setProperty("connector", LocalConnector.class.getName());
+		properties.setProperty("serializer", serializer.getClass().getName());
+		remote.init(properties);
+		return remote;
+	}
+	
+	private List<Person> list(Iterable<Person> iterable) {
+		List<Person> list = new ArrayList<Person>();
+		for (Person person : iterable) {
+			list.add(person);
+		}
+		return list;
+	}
+	
+	private List<Person> expected(int from, int to, int step) {
+		List<Person> list = new ArrayList<Person>();
+		for(int i=from; i<to; i+=step) {
+			list.add(persons.get(i));
+		}
+		return list;
+	}
+	
+	public void testIter() {
+		RemotePersistenceManager remote = createRemote(new BinarySerializer());
+		Iterable<Person> iterable = remote.createQuery(Person.class).order("id").iter();
+		assertTrue(iterable instanceof RemoteSienaIterable<?>);
+		assertEquals(expected(0, NB, 1), list(iterable));
+		// each iterator sends its request
+		assertEquals(expected(0, NB, 1), list(iterable));
+		assertEquals(2, LocalConnector.requests);
+		
+		assertEquals(expected(10, 15, 1), list(remote.createQuery(Person.class).order("id").iter(5, 10)));
+		assertEquals(expected(1, 11, 2), list(remote.createQuery(Person.class).filter("city", "Ulm").order("id").iter(5)));
+	}
+	
+	public void testIterPerPage() {
+		RemotePersistenceManager remote = createRemote(new BinarySerializer());
+		Query<Person> query = remote.createQuery(Person.class).filter("city", "Paris").order("id");
+		assertEquals(expected(0, NB, 2), list(remote.iterPerPage(query, 7)));
+		assertEquals(1, LocalConnector.requests);
+	}
+	
+	public void testStopIterating() {
+		RemotePersistenceManager remote = createRemote(new BinarySerializer());
+		Iterator<Person> it = remote.createQuery(Person.class).order("id").iter().iterator();
+		assertEquals(persons.get(0), it.next());
+		assertEquals(persons.get(1), it.next());
+		// the manager can be used while iterating
+		assertEquals(expected(0, 3, 1), remote.createQuery(Person.class).order("id").fetch(3));
+		((RemoteSienaIterable<Person>.RemoteSienaIterator) it).close();
+		assertFalse(it.hasNext());
+	}
+	
+	public void testCloseIterable() {
+		RemotePersistenceManager remote = createRemote(new BinarySerializer());
+		RemoteSienaIterable<Person> iterable = (RemoteSienaIterable<Person>) remote.createQuery(Person.class).order("id").iter();
+		Iterator<Person> it = iterable.iterator();
+		// the request is sent on the first read
+		assertEquals(0, LocalConnector.requests);
+		assertEquals(persons.get(0), it.next());
+		assertEquals(1, LocalConnector.requests);
+		iterable.close();
+		assertFalse(it.hasNext());
+	}
+	
+	public void testIterXml() {
+		RemotePersistenceManager remote = createRemote(new XmlSerializer());
+		// the rows are fetched at once
+		assertEquals(expected(10, 15, 1), list(remote.createQuery(Person.class).order("id").iter(5, 10)));
+		assertEquals(expected(0, NB, 2), list(remote.createQuery(Person.class).filter("city", "Paris").order("id").iter(NB)));
+	}
+	
+	public void testNextOffset() {
+		nextOffset(createRemote(new BinarySerializer()));
+		nextOffset(createRemote(new XmlSerializer()));
+	}
+	
+	@SuppressWarnings("deprecation")
+	private void nextOffset(RemotePersistenceManager remote) {
+		Query<Person> query = remote.createQuery(Person.class).order("id");
+		assertEquals(expected(10, 15, 1), query.fetch(5, 10));
+		assertEquals(15, query.nextOffset());
+		assertEquals(expected(15, 20, 1), query.fetch(5, query.nextOffset()));
+		assertEquals(expected(0, 5, 1), query.fetch(5));
+		assertEquals(5, query.nextOffset());
+	}
+
+}